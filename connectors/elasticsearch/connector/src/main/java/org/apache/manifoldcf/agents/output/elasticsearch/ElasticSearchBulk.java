@@ -0,0 +1,288 @@
+/* $Id: ElasticSearchDelete.java 1299512 2012-03-12 00:58:38Z piergiorgio $ */
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.manifoldcf.agents.output.elasticsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.Header;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
+import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
+import org.apache.manifoldcf.agents.output.elasticsearch.ElasticSearchConnection.Result;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.system.Logging;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Send a group of index and delete operations to ElasticSearch in one
+* request, using the _bulk api.
+*/
+public class ElasticSearchBulk extends ElasticSearchConnection
+{
+
+  /** One operation in the bulk request */
+  protected static class BulkItem
+  {
+    protected final String action;
+    protected final String documentURI;
+    protected final RepositoryDocument document;
+    protected final InputStream inputStream;
+    protected final String[] acls;
+    protected final String[] denyAcls;
+    protected final String[] shareAcls;
+    protected final String[] shareDenyAcls;
+    protected final String[] parentAcls;
+    protected final String[] parentDenyAcls;
+
+    protected Result result = Result.UNKNOWN;
+    protected String resultDescription = "";
+
+    public BulkItem(String action, String documentURI, RepositoryDocument document, InputStream inputStream,
+      String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls)
+    {
+      this.action = action;
+      this.documentURI = documentURI;
+      this.document = document;
+      this.inputStream = inputStream;
+      this.acls = acls;
+      this.denyAcls = denyAcls;
+      this.shareAcls = shareAcls;
+      this.shareDenyAcls = shareDenyAcls;
+      this.parentAcls = parentAcls;
+      this.parentDenyAcls = parentDenyAcls;
+    }
+  }
+
+  private class BulkRequestEntity implements HttpEntity
+  {
+
+    @Override
+    public boolean isChunked() {
+      return false;
+    }
+    
+    @Override
+    @Deprecated
+    public void consumeContent()
+      throws IOException {
+      EntityUtils.consume(this);
+    }
+    
+    @Override
+    public boolean isRepeatable() {
+      return false;
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+    
+    @Override
+    public InputStream getContent()
+      throws IOException, IllegalStateException {
+      return null;
+    }
+    
+    @Override
+    public void writeTo(OutputStream out)
+      throws IOException {
+      PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, "utf-8"));
+      try
+      {
+        // Each action, and each document, must be on a line of its own
+        for (BulkItem item : items)
+        {
+          pw.print("{"+ElasticSearchIndex.jsonStringEscape(item.action)+" : {\"_type\" : "+
+            ElasticSearchIndex.jsonStringEscape(config.getIndexType())+", \"_id\" : "+
+            ElasticSearchIndex.jsonStringEscape(item.documentURI)+"}}\n");
+          if (item.document != null)
+          {
+            ElasticSearchIndex.writeDocument(pw, item.document, item.inputStream,
+              item.acls, item.denyAcls, item.shareAcls, item.shareDenyAcls, item.parentAcls, item.parentDenyAcls);
+            pw.print("\n");
+          }
+        }
+      } catch (ManifoldCFException e)
+      {
+        throw new IOException(e.getMessage());
+      } finally
+      {
+        pw.flush();
+        IOUtils.closeQuietly(pw);
+      }
+    }
+
+    @Override
+    public long getContentLength() {
+      // Unknown (chunked) length
+      return -1L;
+    }
+
+    @Override
+    public Header getContentType() {
+      return new BasicHeader("Content-type","application/x-www-form-urlencoded");
+    }
+
+    @Override
+    public Header getContentEncoding() {
+      return null;
+    }
+
+  }
+
+  protected final List<BulkItem> items = new ArrayList<BulkItem>();
+
+  public ElasticSearchBulk(HttpClient client, ElasticSearchConfig config)
+  {
+    super(config, client);
+  }
+
+  /** Add a document to be indexed.
+  *@return the index of the operation within this request.
+  */
+  public int addIndex(String documentURI, RepositoryDocument document, InputStream inputStream,
+    String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls)
+  {
+    items.add(new BulkItem("index", documentURI, document, inputStream,
+      acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls));
+    return items.size() - 1;
+  }
+
+  /** Add a document to be deleted.
+  *@return the index of the operation within this request.
+  */
+  public int addDelete(String documentURI)
+  {
+    items.add(new BulkItem("delete", documentURI, null, null,
+      null, null, null, null, null, null));
+    return items.size() - 1;
+  }
+
+  /** Send all the operations.
+  *@return false to indicate that the whole request was rejected.
+  */
+  public boolean execute()
+    throws ManifoldCFException, ServiceInterruption
+  {
+    if (items.size() == 0)
+      return true;
+    StringBuffer url = getApiUrl("_bulk", false);
+    HttpPost post = new HttpPost(url.toString());
+    post.setEntity(new BulkRequestEntity());
+    if (call(post) == false)
+    {
+      for (BulkItem item : items)
+      {
+        item.result = Result.ERROR;
+        item.resultDescription = getResultDescription();
+      }
+      return false;
+    }
+    parseItems();
+    return true;
+  }
+
+  /** Get the result of one operation, after execute(). */
+  public Result getItemResult(int index)
+  {
+    return items.get(index).result;
+  }
+
+  /** Get the description of the result of one operation, after execute(). */
+  public String getItemResultDescription(int index)
+  {
+    return items.get(index).resultDescription;
+  }
+
+  /** Work out from the response which of the operations succeeded.
+  */
+  protected void parseItems()
+  {
+    JSONArray responseItems = null;
+    try
+    {
+      responseItems = new JSONObject(getResponse()).optJSONArray("items");
+    }
+    catch (JSONException e)
+    {
+      // Fall through
+    }
+    if (responseItems == null || responseItems.length() != items.size())
+    {
+      // Can't tell the operations apart, so the whole response decides
+      String error = null;
+      try
+      {
+        error = checkJson(jsonException);
+      }
+      catch (ManifoldCFException e)
+      {
+        error = e.getMessage();
+      }
+      for (BulkItem item : items)
+      {
+        if (error == null)
+          item.result = Result.OK;
+        else
+        {
+          item.result = Result.ERROR;
+          item.resultDescription = error;
+        }
+      }
+      if (error != null)
+        Logging.connectors.warn("ES: Bulk request failed: "+getResponse());
+      return;
+    }
+
+    for (int i = 0; i < items.size(); i++)
+    {
+      BulkItem item = items.get(i);
+      JSONObject itemResponse = responseItems.optJSONObject(i);
+      JSONObject actionResponse = (itemResponse == null)?null:itemResponse.optJSONObject(item.action);
+      if (actionResponse == null)
+      {
+        item.result = Result.UNKNOWN;
+        item.resultDescription = "No response for item";
+      }
+      else if (actionResponse.has("error"))
+      {
+        item.result = Result.ERROR;
+        item.resultDescription = actionResponse.opt("error").toString();
+        Logging.connectors.warn("ES: Bulk "+item.action+" failed for '"+item.documentURI+"': "+item.resultDescription);
+      }
+      else
+        item.result = Result.OK;
+    }
+  }
+
+}
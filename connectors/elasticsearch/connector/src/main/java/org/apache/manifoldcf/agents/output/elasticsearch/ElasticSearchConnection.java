@@ -53,6 +53,7 @@ import org.apache.http.HttpException;
 import org.apache.http.ParseException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.core.common.InterruptibleIOTask;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
 
@@ -118,7 +119,7 @@ public class ElasticSearchConnection
     return url;
   }
 
-  protected static class CallThread extends Thread
+  protected static class CallThread extends InterruptibleIOTask
   {
     protected final HttpClient client;
     protected final HttpRequestBase method;
@@ -126,11 +127,11 @@ public class ElasticSearchConnection
     protected String response = null;
     protected Throwable exception = null;
     
-    public CallThread(HttpClient client, HttpRequestBase method)
+    public CallThread(HttpClient client, HttpRequestBase method, String serverLocation)
     {
+      super("elasticsearch:"+serverLocation);
       this.client = client;
       this.method = method;
-      setDaemon(true);
     }
     
     @Override
@@ -185,7 +186,7 @@ public class ElasticSearchConnection
   protected boolean call(HttpRequestBase method)
     throws ManifoldCFException, ServiceInterruption
   {
-    CallThread ct = new CallThread(client, method);
+    CallThread ct = new CallThread(client, method, serverLocation);
     try
     {
       ct.start();
@@ -507,6 +507,127 @@ public class ElasticSearchConnector extends BaseOutputConnector
     }
   }
 
+  /** The largest number of documents sent in one _bulk request */
+  private static final int MAX_BULK_DOCUMENTS = 100;
+
+  @Override
+  public int getMaxDocumentBatchSize(String outputDescription)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    return MAX_BULK_DOCUMENTS;
+  }
+
+  @Override
+  public int[] addOrReplaceDocuments(String[] documentURIs, String outputDescription,
+      RepositoryDocument[] documents, String authorityNameString,
+      IOutputAddActivity activities) throws ManifoldCFException,
+      ServiceInterruption
+  {
+    int[] rval = new int[documents.length];
+    int[] bulkIndexes = new int[documents.length];
+    HttpClient client = getSession();
+    ElasticSearchBulk ob = new ElasticSearchBulk(client, getConfigParameters(null));
+    for (int i = 0; i < documents.length; i++)
+    {
+      RepositoryDocument document = documents[i];
+      String[] acls = null;
+      String[] denyAcls = null;
+      String[] shareAcls = null;
+      String[] shareDenyAcls = null;
+      String[] parentAcls = null;
+      String[] parentDenyAcls = null;
+      boolean rejected = false;
+      Iterator<String> a = document.securityTypesIterator();
+      while (a.hasNext())
+      {
+        String securityType = a.next();
+        String[] convertedAcls = convertACL(document.getSecurityACL(securityType),authorityNameString,activities);
+        String[] convertedDenyAcls = convertACL(document.getSecurityDenyACL(securityType),authorityNameString,activities);
+        if (securityType.equals(RepositoryDocument.SECURITY_TYPE_DOCUMENT))
+        {
+          acls = convertedAcls;
+          denyAcls = convertedDenyAcls;
+        }
+        else if (securityType.equals(RepositoryDocument.SECURITY_TYPE_SHARE))
+        {
+          shareAcls = convertedAcls;
+          shareDenyAcls = convertedDenyAcls;
+        }
+        else if (securityType.equals(RepositoryDocument.SECURITY_TYPE_PARENT))
+        {
+          parentAcls = convertedAcls;
+          parentDenyAcls = convertedDenyAcls;
+        }
+        else
+        {
+          // Don't know how to deal with it
+          rejected = true;
+          break;
+        }
+      }
+      if (rejected)
+      {
+        rval[i] = DOCUMENTSTATUS_REJECTED;
+        bulkIndexes[i] = -1;
+      }
+      else
+        bulkIndexes[i] = ob.addIndex(documentURIs[i], document, document.getBinaryStream(),
+          acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls);
+    }
+
+    long startTime = System.currentTimeMillis();
+    boolean executed = false;
+    try
+    {
+      ob.execute();
+      executed = true;
+    }
+    finally
+    {
+      for (int i = 0; i < documents.length; i++)
+      {
+        if (bulkIndexes[i] == -1)
+          continue;
+        Result result = executed?ob.getItemResult(bulkIndexes[i]):ob.getResult();
+        String resultDescription = executed?ob.getItemResultDescription(bulkIndexes[i]):ob.getResultDescription();
+        rval[i] = (result == Result.OK)?DOCUMENTSTATUS_ACCEPTED:DOCUMENTSTATUS_REJECTED;
+        activities.recordActivity(startTime, ELASTICSEARCH_INDEXATION_ACTIVITY,
+          documents[i].getBinaryLength(), documentURIs[i], result.name(), resultDescription);
+      }
+    }
+    return rval;
+  }
+
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions,
+      IOutputRemoveActivity activities) throws ManifoldCFException,
+      ServiceInterruption
+  {
+    HttpClient client = getSession();
+    ElasticSearchBulk ob = new ElasticSearchBulk(client, getConfigParameters(null));
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      ob.addDelete(documentURIs[i]);
+    }
+    long startTime = System.currentTimeMillis();
+    boolean executed = false;
+    try
+    {
+      ob.execute();
+      executed = true;
+    }
+    finally
+    {
+      for (int i = 0; i < documentURIs.length; i++)
+      {
+        Result result = executed?ob.getItemResult(i):ob.getResult();
+        String resultDescription = executed?ob.getItemResultDescription(i):ob.getResultDescription();
+        activities.recordActivity(startTime, ELASTICSEARCH_DELETION_ACTIVITY, null,
+          documentURIs[i], result.name(), resultDescription);
+      }
+    }
+  }
+
   @Override
   public String check() throws ManifoldCFException
   {
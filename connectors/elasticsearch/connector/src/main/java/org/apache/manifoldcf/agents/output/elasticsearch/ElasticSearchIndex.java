@@ -115,39 +115,7 @@ public class ElasticSearchIndex extends ElasticSearchConnection
       PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, "utf-8"));
       try
       {
-        pw.print("{");
-        Iterator<String> i = document.getFields();
-        boolean needComma = false;
-        while (i.hasNext()){
-          String fieldName = i.next();
-          String[] fieldValues = document.getFieldAsStrings(fieldName);
-          needComma = writeField(pw, needComma, fieldName, fieldValues);
-        }
-
-        needComma = writeACLs(pw, needComma, "document", acls, denyAcls);
-        needComma = writeACLs(pw, needComma, "share", shareAcls, shareDenyAcls);
-        needComma = writeACLs(pw, needComma, "parent", parentAcls, parentDenyAcls);
-
-        if(inputStream!=null){
-          if(needComma){
-            pw.print(",");
-          }
-          // I'm told this is not necessary: see CONNECTORS-690
-          //pw.print("\"type\" : \"attachment\",");
-          pw.print("\"file\" : {");
-          String contentType = document.getMimeType();
-          if (contentType != null)
-            pw.print("\"_content_type\" : "+jsonStringEscape(contentType)+",");
-          String fileName = document.getFileName();
-          if (fileName != null)
-            pw.print("\"_name\" : "+jsonStringEscape(fileName)+",");
-          pw.print(" \"content\" : \"");
-          Base64 base64 = new Base64();
-          base64.encodeStream(inputStream, pw);
-          pw.print("\"}");
-        }
-        
-        pw.print("}");
+        writeDocument(pw, document, inputStream, acls, denyAcls, shareAcls, shareDenyAcls, parentAcls, parentDenyAcls);
       } catch (ManifoldCFException e)
       {
         throw new IOException(e.getMessage());
@@ -176,6 +144,48 @@ public class ElasticSearchIndex extends ElasticSearchConnection
 
   }
 
+  /** Write a document as a single line of JSON, including its security tokens and
+  * base64-encoded content.
+  */
+  protected static void writeDocument(PrintWriter pw, RepositoryDocument document, InputStream inputStream,
+    String[] acls, String[] denyAcls, String[] shareAcls, String[] shareDenyAcls, String[] parentAcls, String[] parentDenyAcls)
+    throws IOException, ManifoldCFException
+  {
+    pw.print("{");
+    Iterator<String> i = document.getFields();
+    boolean needComma = false;
+    while (i.hasNext()){
+      String fieldName = i.next();
+      String[] fieldValues = document.getFieldAsStrings(fieldName);
+      needComma = writeField(pw, needComma, fieldName, fieldValues);
+    }
+
+    needComma = writeACLs(pw, needComma, "document", acls, denyAcls);
+    needComma = writeACLs(pw, needComma, "share", shareAcls, shareDenyAcls);
+    needComma = writeACLs(pw, needComma, "parent", parentAcls, parentDenyAcls);
+
+    if(inputStream!=null){
+      if(needComma){
+        pw.print(",");
+      }
+      // I'm told this is not necessary: see CONNECTORS-690
+      //pw.print("\"type\" : \"attachment\",");
+      pw.print("\"file\" : {");
+      String contentType = document.getMimeType();
+      if (contentType != null)
+        pw.print("\"_content_type\" : "+jsonStringEscape(contentType)+",");
+      String fileName = document.getFileName();
+      if (fileName != null)
+        pw.print("\"_name\" : "+jsonStringEscape(fileName)+",");
+      pw.print(" \"content\" : \"");
+      Base64 base64 = new Base64();
+      base64.encodeStream(inputStream, pw);
+      pw.print("\"}");
+    }
+    
+    pw.print("}");
+  }
+
   protected static boolean writeField(PrintWriter pw, boolean needComma,
     String fieldName, String[] fieldValues)
     throws IOException
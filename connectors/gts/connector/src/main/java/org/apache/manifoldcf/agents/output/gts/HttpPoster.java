@@ -20,6 +20,7 @@ package org.apache.manifoldcf.agents.output.gts;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.common.Base64;
+import org.apache.manifoldcf.core.common.InterruptibleIOTask;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.agents.system.*;
 
@@ -673,7 +674,7 @@ public class HttpPoster
   *
   * This thread does a single document ingestion.
   */
-  protected class IngestThread extends java.lang.Thread
+  protected class IngestThread extends InterruptibleIOTask
   {
     protected String documentURI;
     protected String aclXmlString;
@@ -691,8 +692,7 @@ public class HttpPoster
 
     public IngestThread(String documentURI, String aclXmlString, String[] collections, String documentTemplate, RepositoryDocument document)
     {
-      super();
-      setDaemon(true);
+      super("gts:"+postURI);
       this.documentURI = documentURI;
       this.aclXmlString = aclXmlString;
       this.collections = collections;
@@ -1116,7 +1116,7 @@ public class HttpPoster
   *
   * This thread does a single document deletion.
   */
-  protected class DeleteThread extends java.lang.Thread
+  protected class DeleteThread extends InterruptibleIOTask
   {
     protected String documentURI;
 
@@ -1127,8 +1127,7 @@ public class HttpPoster
 
     public DeleteThread(String documentURI)
     {
-      super();
-      setDaemon(true);
+      super("gts:"+postURI);
       this.documentURI = documentURI;
     }
 
@@ -1299,14 +1298,13 @@ public class HttpPoster
   *
   * This thread does a status check.
   */
-  protected class StatusThread extends java.lang.Thread
+  protected class StatusThread extends InterruptibleIOTask
   {
     protected Throwable exception = null;
 
     public StatusThread()
     {
-      super();
-      setDaemon(true);
+      super("gts:"+postURI);
     }
 
     public void run()
@@ -446,6 +446,47 @@ public class OpenSearchServerConnector extends BaseOutputConnector {
     }
   }
 
+  /** The largest number of documents sent in one update request */
+  private static final int MAX_UPDATE_DOCUMENTS = 50;
+
+  @Override
+  public int getMaxDocumentBatchSize(String outputDescription)
+      throws ManifoldCFException, ServiceInterruption {
+    return MAX_UPDATE_DOCUMENTS;
+  }
+
+  @Override
+  public int[] addOrReplaceDocuments(String[] documentURIs, String outputDescription,
+      RepositoryDocument[] documents, String authorityNameString,
+      IOutputAddActivity activities) throws ManifoldCFException,
+      ServiceInterruption {
+    HttpClient client = getSession();
+    OpenSearchServerConfig config = getConfigParameters(null);
+    int[] rval = new int[documents.length];
+    Integer count = addInstance(config);
+    synchronized (count) {
+      InputStream[] inputStreams = new InputStream[documents.length];
+      for (int i = 0; i < documents.length; i++)
+        inputStreams[i] = documents[i].getBinaryStream();
+      try {
+        long startTime = System.currentTimeMillis();
+        OpenSearchServerIndex oi = new OpenSearchServerIndex(
+            client,
+            documentURIs,
+            inputStreams, config);
+        for (int i = 0; i < documents.length; i++) {
+          activities.recordActivity(startTime,
+              OPENSEARCHSERVER_INDEXATION_ACTIVITY, documents[i].getBinaryLength(),
+              documentURIs[i], oi.getResult().name(), oi.getResultDescription());
+          rval[i] = (oi.getResult() != Result.OK)?DOCUMENTSTATUS_REJECTED:DOCUMENTSTATUS_ACCEPTED;
+        }
+      } finally {
+        removeInstance(config);
+      }
+      return rval;
+    }
+  }
+
   @Override
   public void removeDocument(String documentURI, String outputDescription,
       IOutputRemoveActivity activities) throws ManifoldCFException,
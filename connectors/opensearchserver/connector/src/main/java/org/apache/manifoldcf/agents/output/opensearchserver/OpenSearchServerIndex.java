@@ -38,16 +38,13 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
 
   private static class IndexRequestEntity implements HttpEntity {
 
-    private String documentURI;
+    private String[] documentURIs;
 
-    private InputStream inputStream;
+    private InputStream[] inputStreams;
 
-    private String fileName;
-
-    public IndexRequestEntity(String documentURI, InputStream inputStream) {
-      this.documentURI = documentURI;
-      this.inputStream = inputStream;
-      this.fileName = FilenameUtils.getName(documentURI);
+    public IndexRequestEntity(String[] documentURIs, InputStream[] inputStreams) {
+      this.documentURIs = documentURIs;
+      this.inputStreams = inputStreams;
     }
 
     @Override
@@ -75,7 +72,7 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
     @Override
     public InputStream getContent()
       throws IOException, IllegalStateException {
-      return inputStream;
+      return (inputStreams.length == 1)?inputStreams[0]:null;
     }
     
     @Override
@@ -85,15 +82,17 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
       try {
         pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
         pw.println("<index>);");
-        pw.print("<document><field name=\"uri\"><value>");
-        pw.print(documentURI);
-        pw.println("</value></field>");
-        pw.print("<binary fileName=\"");
-        pw.print(fileName);
-        pw.println("\">");
         Base64 base64 = new Base64();
-        base64.encodeStream(inputStream, pw);
-        pw.println("</binary></document>");
+        for (int i = 0; i < documentURIs.length; i++) {
+          pw.print("<document><field name=\"uri\"><value>");
+          pw.print(documentURIs[i]);
+          pw.println("</value></field>");
+          pw.print("<binary fileName=\"");
+          pw.print(FilenameUtils.getName(documentURIs[i]));
+          pw.println("\">");
+          base64.encodeStream(inputStreams[i], pw);
+          pw.println("</binary></document>");
+        }
         pw.println("</index>");
       } catch (ManifoldCFException e) {
         throw new IOException(e.getMessage());
@@ -122,10 +121,18 @@ public class OpenSearchServerIndex extends OpenSearchServerConnection {
 
   public OpenSearchServerIndex(HttpClient client, String documentURI, InputStream inputStream,
       OpenSearchServerConfig config) throws ManifoldCFException {
+    this(client, new String[]{documentURI}, new InputStream[]{inputStream}, config);
+  }
+
+  /** Index a group of documents with a single update request.  The status
+   * in the response applies to all of them.
+   */
+  public OpenSearchServerIndex(HttpClient client, String[] documentURIs, InputStream[] inputStreams,
+      OpenSearchServerConfig config) throws ManifoldCFException {
     super(client, config);
     StringBuffer url = getApiUrl("update");
     HttpPut put = new HttpPut(url.toString());
-    put.setEntity(new IndexRequestEntity(documentURI, inputStream));
+    put.setEntity(new IndexRequestEntity(documentURIs, inputStreams));
     call(put);
     if ("OK".equals(checkXPath(xPathStatus)))
       return;
@@ -20,6 +20,7 @@ package org.apache.manifoldcf.crawler.connectors.rss;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.common.XThreadInputStream;
+import org.apache.manifoldcf.core.common.InterruptibleIOTask;
 import org.apache.manifoldcf.core.common.InterruptibleSocketFactory;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
@@ -920,7 +921,7 @@ public class ThrottledFetcher
   * thread, and tries to get a response code.  If instead an exception is seen,
   * the exception is thrown up the stack.
   */
-  protected static class ExecuteMethodThread extends Thread
+  protected static class ExecuteMethodThread extends InterruptibleIOTask
   {
     /** The connection */
     protected final ThrottledConnection theConnection;
@@ -946,8 +947,7 @@ public class ThrottledFetcher
     public ExecuteMethodThread(ThrottledConnection theConnection, IFetchThrottler fetchThrottler,
       HttpClient httpClient, HttpRequestBase executeMethod)
     {
-      super();
-      setDaemon(true);
+      super("rss:"+theConnection.serverName);
       this.theConnection = theConnection;
       this.fetchThrottler = fetchThrottler;
       this.httpClient = httpClient;
@@ -20,6 +20,7 @@ package org.apache.manifoldcf.agents.output.solr;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.common.DateParser;
+import org.apache.manifoldcf.core.common.InterruptibleIOTask;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.agents.system.*;
 
@@ -85,6 +86,9 @@ public class HttpPoster
   protected ClientConnectionManager connectionManager = null;
   protected SolrServer solrServer = null;
   
+  /** The key under which our calls are counted against the per-connection I/O limit */
+  private String ioTaskKey;
+
   // Action URI pieces
   private String postUpdateAction;
   private String postRemoveAction;
@@ -145,6 +149,8 @@ public class HttpPoster
     
     this.maxDocumentLength = maxDocumentLength;
     
+    this.ioTaskKey = "solr:"+zookeeperHosts+"/"+collection;
+
     try
     {
       CloudSolrServer cloudSolrServer = new CloudSolrServer(zookeeperHosts, new ModifiedLBHttpSolrServer(HttpClientUtil.createClient(null)));
@@ -201,6 +207,8 @@ public class HttpPoster
       location += "/" + core;
     }
 
+    this.ioTaskKey = "solr:"+protocol+"://"+server+":"+port+location;
+
     // Initialize standard solr-j.
     // First, we need an HttpClient where basic auth is properly set up.
     PoolingClientConnectionManager localConnectionManager = new PoolingClientConnectionManager();
@@ -656,20 +664,33 @@ public class HttpPoster
   */
   public void deletePost(String documentURI, IOutputRemoveActivity activities)
     throws ManifoldCFException, ServiceInterruption
+  {
+    deletePost(new String[]{documentURI},activities);
+  }
+
+  /** Post a single delete request for a group of documents.
+  *@param documentURIs are the documents' URIs.
+  */
+  public void deletePost(String[] documentURIs, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
   {
     if (Logging.ingest.isDebugEnabled())
-      Logging.ingest.debug("deletePost(): '" + documentURI + "'");
+    {
+      for (String documentURI : documentURIs)
+      {
+        Logging.ingest.debug("deletePost(): '" + documentURI + "'");
+      }
+    }
 
     try
     {
-      DeleteThread t = new DeleteThread(documentURI);
+      DeleteThread t = new DeleteThread(documentURIs);
       try
       {
         t.start();
         t.finishUp();
         
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivity(t,documentURIs,activities);
 
         return;
       }
@@ -680,26 +701,22 @@ public class HttpPoster
       }
       catch (SolrServerException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivity(t,documentURIs,activities);
         throw e;
       }
       catch (SolrException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivity(t,documentURIs,activities);
         throw e;
       }
       catch (RuntimeException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivity(t,documentURIs,activities);
         throw e;
       }
       catch (IOException e)
       {
-        if (t.getActivityCode() != null)
-          activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+        recordDeleteActivity(t,documentURIs,activities);
         throw e;
       }
     }
@@ -726,6 +743,19 @@ public class HttpPoster
 
   }
 
+  /** Record the outcome of a delete request against each of its documents */
+  protected static void recordDeleteActivity(DeleteThread t, String[] documentURIs, IOutputRemoveActivity activities)
+    throws ManifoldCFException
+  {
+    if (t.getActivityCode() != null)
+    {
+      for (String documentURI : documentURIs)
+      {
+        activities.recordActivity(t.getActivityStart(),SolrConnector.REMOVE_ACTIVITY,null,documentURI,t.getActivityCode(),t.getActivityDetails());
+      }
+    }
+  }
+
   /** Convert an unqualified ACL to qualified form.
   * @param acl is the initial, unqualified ACL.
   * @param authorityNameString is the name of the governing authority for this document's acls, or null if none.
@@ -812,7 +842,7 @@ public class HttpPoster
   *
   * This thread does a single document ingestion.
   */
-  protected class IngestThread extends java.lang.Thread
+  protected class IngestThread extends InterruptibleIOTask
   {
     protected final String documentURI;
     protected final RepositoryDocument document;
@@ -836,8 +866,7 @@ public class HttpPoster
       Map<String,String[]> aclsMap, Map<String,String[]> denyAclsMap,
       String commitWithin)
     {
-      super();
-      setDaemon(true);
+      super(ioTaskKey);
       this.documentURI = documentURI;
       this.document = document;
       this.arguments = arguments;
@@ -1113,22 +1142,21 @@ public class HttpPoster
   * Java 1.5 stopped permitting thread interruptions to abort socket waits.  As a result, it is impossible to get threads to shutdown cleanly that are doing
   * such waits.  So, the places where this happens are segregated in their own threads so that they can be just abandoned.
   *
-  * This thread does a single document deletion.
+  * This thread deletes one or more documents in a single request.
   */
-  protected class DeleteThread extends java.lang.Thread
+  protected class DeleteThread extends InterruptibleIOTask
   {
-    protected String documentURI;
+    protected String[] documentURIs;
 
     protected Long activityStart = null;
     protected String activityCode = null;
     protected String activityDetails = null;
     protected Throwable exception = null;
 
-    public DeleteThread(String documentURI)
+    public DeleteThread(String[] documentURIs)
     {
-      super();
-      setDaemon(true);
-      this.documentURI = documentURI;
+      super(ioTaskKey);
+      this.documentURIs = documentURIs;
     }
 
     public void run()
@@ -1140,7 +1168,7 @@ public class HttpPoster
         // Open a socket to ingest, and to the response stream to get the post result
         try
         {
-          UpdateResponse response = new UpdateRequest(postRemoveAction).deleteById(documentURI).process(solrServer);
+          UpdateResponse response = new UpdateRequest(postRemoveAction).deleteById(Arrays.asList(documentURIs)).process(solrServer);
             
           // Success
           activityStart = new Long(fullStartTime);
@@ -1230,14 +1258,13 @@ public class HttpPoster
   *
   * This thread does a commit.
   */
-  protected class CommitThread extends java.lang.Thread
+  protected class CommitThread extends InterruptibleIOTask
   {
     protected Throwable exception = null;
 
     public CommitThread()
     {
-      super();
-      setDaemon(true);
+      super(ioTaskKey);
     }
 
     public void run()
@@ -1298,14 +1325,13 @@ public class HttpPoster
   *
   * This thread does a status check.
   */
-  protected class StatusThread extends java.lang.Thread
+  protected class StatusThread extends InterruptibleIOTask
   {
     protected Throwable exception = null;
 
     public StatusThread()
     {
-      super();
-      setDaemon(true);
+      super(ioTaskKey);
     }
 
     public void run()
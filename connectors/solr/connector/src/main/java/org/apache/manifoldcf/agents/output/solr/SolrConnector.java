@@ -726,6 +726,20 @@ public class SolrConnector extends org.apache.manifoldcf.agents.output.BaseOutpu
     poster.deletePost(documentURI,activities);
   }
 
+  /** Remove a group of documents from the output data store, with a single delete request.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last outputDescription strings that were constructed by the getOutputDescription() method.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // Establish a session
+    getSession();
+    poster.deletePost(documentURIs,activities);
+  }
+
   /** Notify the connector of a completed job.
   * This is meant to allow the connector to flush any internal data structures it has been keeping around, or to tell the output repository that this
   * is a good time to synchronize things.  It is called whenever a job is either completed or aborted.
@@ -20,6 +20,7 @@ package org.apache.manifoldcf.crawler.connectors.webcrawler;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.common.DeflateInputStream;
+import org.apache.manifoldcf.core.common.InterruptibleIOTask;
 import org.apache.manifoldcf.core.common.XThreadInputStream;
 import org.apache.manifoldcf.core.common.InterruptibleSocketFactory;
 import org.apache.manifoldcf.agents.interfaces.*;
@@ -1311,7 +1312,7 @@ public class ThrottledFetcher
   * thread, and tries to get a response code.  If instead an exception is seen,
   * the exception is thrown up the stack.
   */
-  protected static class ExecuteMethodThread extends Thread
+  protected static class ExecuteMethodThread extends InterruptibleIOTask
   {
     /** The connection */
     protected final ThrottledConnection theConnection;
@@ -1339,8 +1340,7 @@ public class ThrottledFetcher
     public ExecuteMethodThread(ThrottledConnection theConnection, IFetchThrottler fetchThrottler,
       AbstractHttpClient httpClient, HttpRequestBase executeMethod, CookieStore cookieStore)
     {
-      super();
-      setDaemon(true);
+      super("web:"+theConnection.protocol+"://"+theConnection.server+":"+theConnection.port);
       this.theConnection = theConnection;
       this.fetchThrottler = fetchThrottler;
       this.httpClient = httpClient;
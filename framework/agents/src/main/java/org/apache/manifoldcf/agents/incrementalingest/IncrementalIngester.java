@@ -454,52 +454,10 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     if (documentURI != null)
       documentURIHash = ManifoldCF.hash(documentURI);
 
-    String oldURI = null;
-    String oldURIHash = null;
-    String oldOutputVersion = null;
-
-    
-    while (true)
-    {
-      long sleepAmt = 0L;
-      try
-      {
-        // See what uri was used before for this doc, if any
-        ArrayList list = new ArrayList();
-        String query = buildConjunctionClause(list,new ClauseDescription[]{
-          new UnitaryClause(docKeyField,docKey),
-          new UnitaryClause(outputConnNameField,connection.getName())});
-          
-        IResultSet set = performQuery("SELECT "+docURIField+","+uriHashField+","+lastOutputVersionField+" FROM "+getTableName()+
-          " WHERE "+query,list,null,null);
-
-        if (set.getRowCount() > 0)
-        {
-          IResultRow row = set.getRow(0);
-          oldURI = (String)row.getValue(docURIField);
-          oldURIHash = (String)row.getValue(uriHashField);
-          oldOutputVersion = (String)row.getValue(lastOutputVersionField);
-        }
-        
-        break;
-      }
-      catch (ManifoldCFException e)
-      {
-        // Look for deadlock and retry if so
-        if (e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
-        {
-          if (Logging.perf.isDebugEnabled())
-            Logging.perf.debug("Aborted select looking for status: "+e.getMessage());
-          sleepAmt = getSleepAmt();
-          continue;
-        }
-        throw e;
-      }
-      finally
-      {
-        sleepFor(sleepAmt);
-      }
-    }
+    PriorIngestInfo prior = getPriorIngestInfo(connection.getName(),docKey);
+    String oldURI = prior.getURI();
+    String oldURIHash = prior.getURIHash();
+    String oldOutputVersion = prior.getOutputVersion();
 
     // If uri hashes collide, then we must be sure to eliminate only the *correct* records from the table, or we will leave
     // dangling documents around.  So, all uri searches and comparisons MUST compare the actual uri as well.
@@ -584,6 +542,179 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
   }
 
+  /** Look up the URI and output version a document was last ingested with, if any.
+  *@param outputConnectionName is the name of the output connection.
+  *@param docKey is the document key.
+  *@return the prior ingestion information; the fields are null if there was no prior ingestion.
+  */
+  protected PriorIngestInfo getPriorIngestInfo(String outputConnectionName, String docKey)
+    throws ManifoldCFException
+  {
+    while (true)
+    {
+      long sleepAmt = 0L;
+      try
+      {
+        // See what uri was used before for this doc, if any
+        ArrayList list = new ArrayList();
+        String query = buildConjunctionClause(list,new ClauseDescription[]{
+          new UnitaryClause(docKeyField,docKey),
+          new UnitaryClause(outputConnNameField,outputConnectionName)});
+
+        IResultSet set = performQuery("SELECT "+docURIField+","+uriHashField+","+lastOutputVersionField+" FROM "+getTableName()+
+          " WHERE "+query,list,null,null);
+
+        if (set.getRowCount() > 0)
+        {
+          IResultRow row = set.getRow(0);
+          return new PriorIngestInfo((String)row.getValue(docURIField),
+            (String)row.getValue(uriHashField),
+            (String)row.getValue(lastOutputVersionField));
+        }
+        return new PriorIngestInfo(null,null,null);
+      }
+      catch (ManifoldCFException e)
+      {
+        // Look for deadlock and retry if so
+        if (e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
+        {
+          if (Logging.perf.isDebugEnabled())
+            Logging.perf.debug("Aborted select looking for status: "+e.getMessage());
+          sleepAmt = getSleepAmt();
+          continue;
+        }
+        throw e;
+      }
+      finally
+      {
+        sleepFor(sleepAmt);
+      }
+    }
+  }
+
+  /** Find out how many documents the output connection would like to be handed at once by documentIngestMultiple().
+  *@param outputConnectionName is the name of the output connection associated with this action.
+  *@param outputDescription is the output description string.
+  *@return the maximum number of documents per call; 1 means documents should be ingested one at a time.
+  */
+  @Override
+  public int getMaxDocumentBatchSize(String outputConnectionName, String outputDescription)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnection connection = connectionManager.load(outputConnectionName);
+    IOutputConnector connector = outputConnectorPool.grab(connection);
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      return connector.getMaxDocumentBatchSize(outputDescription);
+    }
+    finally
+    {
+      outputConnectorPool.release(connection,connector);
+    }
+  }
+
+  /** Ingest a group of documents.
+  * This is the multi-document form of documentIngest().  The documents are handed to the output connector
+  * together, and the ingestion status of each is then noted individually.  Every document must have
+  * a document URI and data.
+  * ServiceInterruption is thrown if the ingestion of all the documents must be rescheduled.
+  *@param outputConnectionName is the name of the output connection associated with this action.
+  *@param identifierClasses are the names of the spaces in which the identifier hashes should be interpreted.
+  *@param identifierHashes are the hashed document identifiers.
+  *@param documentVersions are the document versions.
+  *@param outputVersion is the output version string constructed from the output specification by the output connector.
+  *@param parameterVersion is the forced parameter version.
+  *@param authorityName is the name of the authority associated with the documents, if any.
+  *@param data is the document data for each document.  The data is closed after ingestion is complete.
+  *@param ingestTime is the time at which the ingestion took place, in milliseconds since epoch.
+  *@param documentURIs are the URIs of the documents, which will be used as the keys of the documents in the index.
+  *@param activities is an object providing a set of methods that the implementer can use to perform the operation.
+  *@return true for each document whose ingest was ok, false if the ingest is illegal (and should not be repeated).
+  */
+  @Override
+  public boolean[] documentIngestMultiple(String outputConnectionName,
+    String[] identifierClasses, String[] identifierHashes,
+    String[] documentVersions,
+    String outputVersion,
+    String parameterVersion,
+    String authorityName,
+    RepositoryDocument[] data,
+    long ingestTime, String[] documentURIs,
+    IOutputActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnection connection = connectionManager.load(outputConnectionName);
+
+    // No transactions; not safe because post may take too much time
+
+    String[] docKeys = new String[identifierHashes.length];
+    String[] documentURIHashes = new String[identifierHashes.length];
+    PriorIngestInfo[] priors = new PriorIngestInfo[identifierHashes.length];
+    Set<String> lockSet = new HashSet<String>();
+    for (int i = 0; i < docKeys.length; i++)
+    {
+      docKeys[i] = makeKey(identifierClasses[i],identifierHashes[i]);
+      if (Logging.ingest.isDebugEnabled())
+        Logging.ingest.debug("Ingesting document '"+docKeys[i]+"' into output connection '"+outputConnectionName+"' as part of a group");
+      documentURIHashes[i] = ManifoldCF.hash(documentURIs[i]);
+      priors[i] = getPriorIngestInfo(outputConnectionName,docKeys[i]);
+      lockSet.add(outputConnectionName+":"+documentURIs[i]);
+      if (priors[i].getURI() != null)
+        lockSet.add(outputConnectionName+":"+priors[i].getURI());
+    }
+
+    // As for a single document, make sure no other thread works on any of these URIs at the same time
+    String[] lockArray = lockSet.toArray(new String[0]);
+    lockManager.enterCriticalSections(null,null,lockArray);
+    try
+    {
+      ArrayList list = new ArrayList();
+      for (int i = 0; i < docKeys.length; i++)
+      {
+        String oldURI = priors[i].getURI();
+        if (oldURI != null && !oldURI.equals(documentURIs[i]))
+        {
+          // Delete all records from the database that match the old URI, except for THIS record.
+          list.clear();
+          String query = buildConjunctionClause(list,new ClauseDescription[]{
+            new UnitaryClause(uriHashField,"=",priors[i].getURIHash()),
+            new UnitaryClause(outputConnNameField,"=",outputConnectionName)});
+          list.add(docKeys[i]);
+          performDelete("WHERE "+query+" AND "+docKeyField+"!=?",list,null);
+          removeDocument(connection,oldURI,priors[i].getOutputVersion(),activities);
+        }
+
+        // Get rid of all records that match the NEW uri, except for this record.
+        list.clear();
+        String query = buildConjunctionClause(list,new ClauseDescription[]{
+          new UnitaryClause(uriHashField,"=",documentURIHashes[i]),
+          new UnitaryClause(outputConnNameField,"=",outputConnectionName)});
+        list.add(docKeys[i]);
+        performDelete("WHERE "+query+" AND "+ docKeyField+"!=?",list,null);
+
+        // Note an ingestion before we actually try it, just as for a single document.
+        noteDocumentIngest(outputConnectionName,docKeys[i],null,null,null,null,ingestTime,documentURIs[i],documentURIHashes[i]);
+      }
+
+      int[] results = addOrReplaceDocuments(connection,documentURIs,outputVersion,data,authorityName,activities);
+
+      boolean[] rval = new boolean[docKeys.length];
+      for (int i = 0; i < docKeys.length; i++)
+      {
+        noteDocumentIngest(outputConnectionName,docKeys[i],documentVersions[i],outputVersion,parameterVersion,authorityName,ingestTime,documentURIs[i],documentURIHashes[i]);
+        rval[i] = (results[i] == IOutputConnector.DOCUMENTSTATUS_ACCEPTED);
+      }
+      return rval;
+    }
+    finally
+    {
+      lockManager.leaveCriticalSections(null,null,lockArray);
+    }
+  }
+
   /** Note the fact that we checked a document (and found that it did not need to be ingested, because the
   * versions agreed).
   *@param outputConnectionName is the name of the output connection associated with this action.
@@ -795,6 +926,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
     String[] lockArray = new String[validURIcount];
     String[] validURIArray = new String[validURIcount];
+    String[] validOutputVersionArray = new String[validURIcount];
     validURIcount = 0;
     i = 0;
     while (i < uris.length)
@@ -802,6 +934,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
       if (uris[i] != null && uris[i].getURI() != null)
       {
         validURIArray[validURIcount] = uris[i].getURI();
+        validOutputVersionArray[validURIcount] = uris[i].getOutputVersion();
         lockArray[validURIcount] = outputConnectionName+":"+validURIArray[validURIcount];
         validURIcount++;
       }
@@ -811,14 +944,9 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     lockManager.enterCriticalSections(null,null,lockArray);
     try
     {
-      // Fetch the document URIs for the listed documents
-      int j = 0;
-      while (j < uris.length)
-      {
-        if (uris[j] != null && uris[j].getURI() != null)
-          removeDocument(connection,uris[j].getURI(),uris[j].getOutputVersion(),activities);
-        j++;
-      }
+      // Remove the documents from the index, all at once
+      if (validURIArray.length > 0)
+        removeDocuments(connection,validURIArray,validOutputVersionArray,activities);
 
       // Now, get rid of all rows that match the given uris.
       // Do the queries together, then the deletes
@@ -840,7 +968,7 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
         // Find all the documents that match this set of URIs
         HashMap docURIHashValues = new HashMap();
         HashMap docURIValues = new HashMap();
-        j = 0;
+        int j = 0;
         while (j < validURIArray.length)
         {
           String docDBString = validURIArray[j++];
@@ -1705,6 +1833,52 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
     }
   }
 
+  /** Add or replace a group of documents, using the specified output connection, via the standard pool.
+  */
+  protected int[] addOrReplaceDocuments(IOutputConnection connection, String[] documentURIs, String outputDescription,
+    RepositoryDocument[] documents, String authorityNameString,
+    IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // Set indexing date
+    Date indexingDate = new Date();
+    for (RepositoryDocument document : documents)
+    {
+      document.setIndexingDate(indexingDate);
+    }
+    IOutputConnector connector = outputConnectorPool.grab(connection);
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      return connector.addOrReplaceDocuments(documentURIs,outputDescription,documents,authorityNameString,activities);
+    }
+    finally
+    {
+      outputConnectorPool.release(connection,connector);
+    }
+  }
+
+  /** Remove a group of documents, using the specified output connection, via the standard pool.
+  */
+  protected void removeDocuments(IOutputConnection connection, String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    IOutputConnector connector = outputConnectorPool.grab(connection);
+    if (connector == null)
+      // The connector is not installed; treat this as a service interruption.
+      throw new ServiceInterruption("Output connector not installed",0L);
+    try
+    {
+      connector.removeDocuments(documentURIs,outputDescriptions,activities);
+    }
+    finally
+    {
+      outputConnectorPool.release(connection,connector);
+    }
+  }
+
   /** Make a key from a document class and a hash */
   protected static String makeKey(String documentClass, String documentHash)
   {
@@ -1712,6 +1886,36 @@ public class IncrementalIngester extends org.apache.manifoldcf.core.database.Bas
   }
 
   /** This class contains the information necessary to delete a document */
+  /** The uri and output version a document was last ingested with */
+  protected static class PriorIngestInfo
+  {
+    protected final String uri;
+    protected final String uriHash;
+    protected final String outputVersion;
+
+    public PriorIngestInfo(String uri, String uriHash, String outputVersion)
+    {
+      this.uri = uri;
+      this.uriHash = uriHash;
+      this.outputVersion = outputVersion;
+    }
+
+    public String getURI()
+    {
+      return uri;
+    }
+
+    public String getURIHash()
+    {
+      return uriHash;
+    }
+
+    public String getOutputVersion()
+    {
+      return outputVersion;
+    }
+  }
+
   protected static class DeleteInfo
   {
     protected String uriValue;
@@ -178,6 +178,43 @@ public interface IIncrementalIngester
     IOutputActivity activities)
     throws ManifoldCFException, ServiceInterruption;
 
+  /** Find out how many documents the output connection would like to be handed at once by documentIngestMultiple().
+  *@param outputConnectionName is the name of the output connection associated with this action.
+  *@param outputDescription is the output description string.
+  *@return the maximum number of documents per call; 1 means documents should be ingested one at a time.
+  */
+  public int getMaxDocumentBatchSize(String outputConnectionName, String outputDescription)
+    throws ManifoldCFException, ServiceInterruption;
+
+  /** Ingest a group of documents.
+  * This is the multi-document form of documentIngest().  The documents are handed to the output connector
+  * together, and the ingestion status of each is then noted individually.  Every document must have
+  * a document URI and data.
+  * ServiceInterruption is thrown if the ingestion of all the documents must be rescheduled.
+  *@param outputConnectionName is the name of the output connection associated with this action.
+  *@param identifierClasses are the names of the spaces in which the identifier hashes should be interpreted.
+  *@param identifierHashes are the hashed document identifiers.
+  *@param documentVersions are the document versions.
+  *@param outputVersion is the output version string constructed from the output specification by the output connector.
+  *@param parameterVersion is the forced parameter version.
+  *@param authorityName is the name of the authority associated with the documents, if any.
+  *@param data is the document data for each document.  The data is closed after ingestion is complete.
+  *@param ingestTime is the time at which the ingestion took place, in milliseconds since epoch.
+  *@param documentURIs are the URIs of the documents, which will be used as the keys of the documents in the index.
+  *@param activities is an object providing a set of methods that the implementer can use to perform the operation.
+  *@return true for each document whose ingest was ok, false if the ingest is illegal (and should not be repeated).
+  */
+  public boolean[] documentIngestMultiple(String outputConnectionName,
+    String[] identifierClasses, String[] identifierHashes,
+    String[] documentVersions,
+    String outputVersion,
+    String parameterVersion,
+    String authorityName,
+    RepositoryDocument[] data,
+    long ingestTime, String[] documentURIs,
+    IOutputActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
   /** Note the fact that we checked a document (and found that it did not need to be ingested, because the
   * versions agreed).
   *@param outputConnectionName is the name of the output connection associated with this action.
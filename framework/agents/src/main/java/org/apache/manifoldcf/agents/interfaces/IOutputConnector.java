@@ -152,6 +152,38 @@ public interface IOutputConnector extends IConnector
   public void removeDocument(String documentURI, String outputDescription, IOutputRemoveActivity activities)
     throws ManifoldCFException, ServiceInterruption;
 
+  /** Get the largest number of documents this connector would like to be handed in a single call to
+  * addOrReplaceDocuments().  Connectors that can send many documents to the output data store in a single
+  * request should return a value greater than 1; the framework will then buffer documents and pass them
+  * on in groups.  A value of 1 means that documents should be sent one at a time, as they arrive.
+  *@param outputDescription is the description string that was constructed by the getOutputDescription() method.
+  *@return the maximum number of documents per call.
+  */
+  public int getMaxDocumentBatchSize(String outputDescription)
+    throws ManifoldCFException, ServiceInterruption;
+
+  /** Add (or replace) a group of documents in the output data store using the connector.
+  * This is the multi-document form of addOrReplaceDocument(); all the documents share the same output description
+  * and authority name string.  A ServiceInterruption applies to all of the documents.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescription is the description string that was constructed for these documents by the getOutputDescription() method.
+  *@param documents are the document data to be processed (handed to the output data store).
+  *@param authorityNameString is the name of the authority responsible for authorizing any access tokens passed in with the repository documents.  May be null.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  *@return the document status (accepted or permanently rejected) for each document.
+  */
+  public int[] addOrReplaceDocuments(String[] documentURIs, String outputDescription, RepositoryDocument[] documents, String authorityNameString, IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
+  /** Remove a group of documents using the connector.
+  * This is the multi-document form of removeDocument().
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for each document by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption;
+
   /** Notify the connector of a completed job.
   * This is meant to allow the connector to flush any internal data structures it has been keeping around, or to tell the output repository that this
   * is a good time to synchronize things.  It is called whenever a job is either completed or aborted.
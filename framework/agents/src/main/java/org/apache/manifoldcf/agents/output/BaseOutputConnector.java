@@ -210,6 +210,55 @@ public abstract class BaseOutputConnector extends org.apache.manifoldcf.core.con
   {
     // Does nothing in the base class
   }
+
+  /** Get the largest number of documents this connector would like to be handed in a single call to
+  * addOrReplaceDocuments().
+  *@param outputDescription is the description string that was constructed by the getOutputDescription() method.
+  *@return the maximum number of documents per call.
+  */
+  @Override
+  public int getMaxDocumentBatchSize(String outputDescription)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    return 1;
+  }
+
+  /** Add (or replace) a group of documents in the output data store using the connector.
+  * The base class implementation hands the documents to addOrReplaceDocument() one at a time.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescription is the description string that was constructed for these documents by the getOutputDescription() method.
+  *@param documents are the document data to be processed (handed to the output data store).
+  *@param authorityNameString is the name of the authority responsible for authorizing any access tokens passed in with the repository documents.  May be null.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  *@return the document status (accepted or permanently rejected) for each document.
+  */
+  @Override
+  public int[] addOrReplaceDocuments(String[] documentURIs, String outputDescription, RepositoryDocument[] documents, String authorityNameString, IOutputAddActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    int[] rval = new int[documentURIs.length];
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      rval[i] = addOrReplaceDocument(documentURIs[i],outputDescription,documents[i],authorityNameString,activities);
+    }
+    return rval;
+  }
+
+  /** Remove a group of documents using the connector.
+  * The base class implementation hands the documents to removeDocument() one at a time.
+  *@param documentURIs are the URIs of the documents.
+  *@param outputDescriptions are the last description strings that were constructed for each document by the getOutputDescription() method above.
+  *@param activities is the handle to an object that the implementer of an output connector may use to perform operations, such as logging processing activity.
+  */
+  @Override
+  public void removeDocuments(String[] documentURIs, String[] outputDescriptions, IOutputRemoveActivity activities)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    for (int i = 0; i < documentURIs.length; i++)
+    {
+      removeDocument(documentURIs[i],outputDescriptions[i],activities);
+    }
+  }
   
   // UI support methods.
   //
@@ -23,11 +23,13 @@ import org.apache.manifoldcf.authorities.interfaces.*;
 import org.apache.manifoldcf.authorities.system.ManifoldCF;
 import org.apache.manifoldcf.authorities.system.Logging;
 import org.apache.manifoldcf.authorities.system.RequestQueue;
+import org.apache.manifoldcf.authorities.system.AuthorityDispatcher;
 import org.apache.manifoldcf.authorities.system.AuthRequest;
 import org.apache.manifoldcf.authorities.system.MappingRequest;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.net.*;
 
 import javax.servlet.*;
@@ -181,8 +183,8 @@ public class UserACLServlet extends HttpServlet
         throw new ManifoldCFException("System improperly initialized");
       }
 
-      RequestQueue<AuthRequest> queue = ManifoldCF.getRequestQueue();
-      if (queue == null)
+      AuthorityDispatcher dispatcher = ManifoldCF.getAuthorityDispatcher();
+      if (dispatcher == null)
       {
         // System wasn't started; return unauthorized
         throw new ManifoldCFException("System improperly initialized");
@@ -190,6 +192,7 @@ public class UserACLServlet extends HttpServlet
 
       
       IThreadContext itc = ThreadContextFactory.make();
+      long timeout = 1000L * (long)LockManagerFactory.getIntProperty(itc,ManifoldCF.authCheckTimeoutProperty,60);
       
       IMappingConnectionManager mappingConnManager = MappingConnectionManagerFactory.make(itc);
       IAuthorityConnectionManager authConnManager = AuthorityConnectionManagerFactory.make(itc);
@@ -197,10 +200,10 @@ public class UserACLServlet extends HttpServlet
       // Get all mapping connections; we may not need them all but we do need to be able to look them all up
       IMappingConnection[] mappingConnections = mappingConnManager.getAllConnections();
       
-      // One thread per connection, which is responsible for starting the mapping process when it is ready.
-      List<MappingOrderThread> mappingThreads = new ArrayList<MappingOrderThread>();
-      // One thread per authority, which is responsible for starting the auth request when it is ready.
-      List<AuthOrderThread> authThreads = new ArrayList<AuthOrderThread>();
+      // Mapping requests that must wait for another mapping request to finish, and what they wait for
+      Map<MappingRequest,MapperDescription> pendingMappings = new HashMap<MappingRequest,MapperDescription>();
+      // Auth requests that must wait for a mapping request to finish, and what they wait for
+      Map<AuthRequest,MapperDescription> pendingAuths = new HashMap<AuthRequest,MapperDescription>();
 
       Map<MapperDescription,MappingRequest> mappingRequests = new HashMap<MapperDescription,MappingRequest>();
       Map<String,AuthRequest> authRequests = new HashMap<String,AuthRequest>();
@@ -240,15 +243,12 @@ public class UserACLServlet extends HttpServlet
           if (thisConnection.getPrerequisiteMapping() == null)
           {
             ar.setUserID(domainUserID);
-            queue.addRequest(ar);
+            dispatcher.dispatch(ar);
           }
           else
           {
             MapperDescription md = new MapperDescription(thisConnection.getPrerequisiteMapping(),authDomain);
-            AuthOrderThread thread = new AuthOrderThread(identifyingString,
-              ar, md,
-              queue, mappingRequests);
-            authThreads.add(thread);
+            pendingAuths.put(ar,md);
             // The same mapper can be used for multiple domains, although this is likely to be uncommon.  Nevertheless,
             // mapper invocations need to be segregated to prevent trouble
             activeConnections.add(md);
@@ -282,53 +282,33 @@ public class UserACLServlet extends HttpServlet
         {
           //System.out.println("Mapper: prerequisite found: '"+thisConnection.getPrerequisiteMapping()+"'");
           MapperDescription p = new MapperDescription(thisConnection.getPrerequisiteMapping(),authDomain);
-          MappingOrderThread thread = new MappingOrderThread(identifyingString,
-            mr, p, mappingQueue, mappingRequests);
-          mappingThreads.add(thread);
+          pendingMappings.put(mr,p);
           if (mappingRequests.get(p) == null)
             activeConnections.add(p);
         }
         activeConnections.remove(mapperDesc);
       }
       
-      // Start threads.  We have to wait until all the requests have been
+      // Chain the remaining requests onto their prerequisites.  We have to wait until all the requests have been
       // at least created before we do this.
-      for (MappingOrderThread thread : mappingThreads)
+      for (MappingRequest mr : pendingMappings.keySet())
       {
-        thread.start();
+        MappingRequest prerequisite = mappingRequests.get(pendingMappings.get(mr));
+        prerequisite.runOnCompletion(new MappingStarter(mr,prerequisite,mappingQueue));
       }
-      for (AuthOrderThread thread : authThreads)
+      for (AuthRequest ar : pendingAuths.keySet())
       {
-        thread.start();
+        MappingRequest prerequisite = mappingRequests.get(pendingAuths.get(ar));
+        prerequisite.runOnCompletion(new AuthStarter(ar,prerequisite,dispatcher));
       }
-      
-      // Wait for the threads to finish up.  This will guarantee that all entities have run to completion.
-      for (MappingOrderThread thread : mappingThreads)
-      {
-        thread.finishUp();
-      }
-      for (AuthOrderThread thread : authThreads)
-      {
-        thread.finishUp();
-      }
-      
-      // This is probably unnecessary, but we do it anyway just to adhere to the contract
-      for (MappingRequest mr : mappingRequests.values())
-      {
-        mr.waitForComplete();
-      }
-      
-      // Handle all exceptions thrown during mapping.  In general this just means logging them, because
-      // the downstream authorities will presumably not find what they are looking for and error out that way.
-      for (MappingRequest mr : mappingRequests.values())
+
+      // Collect the answers in the order they arrive
+      BlockingQueue<AuthRequest> answered = new LinkedBlockingQueue<AuthRequest>();
+      for (AuthRequest ar : authRequests.values())
       {
-        Throwable exception = mr.getAnswerException();
-        if (exception != null)
-        {
-          Logging.authorityService.warn("Mapping exception logged from "+mr.getIdentifyingString()+": "+exception.getMessage()+"; mapper aborted", exception);
-        }
+        ar.runOnCompletion(new AnswerCollector(ar,answered));
       }
-      
+
       // Now, work through the returning answers.
 
       // Ask all the interrogated authorities for their ACLs, and merge the final list together.
@@ -338,14 +318,32 @@ public class UserACLServlet extends HttpServlet
       ServletOutputStream out = response.getOutputStream();
       try
       {
-        for (String connectionName : authRequests.keySet())
+        long deadline = (timeout > 0L)?System.currentTimeMillis() + timeout:0L;
+        int remaining = authRequests.size();
+        while (remaining > 0)
         {
-          AuthRequest ar = authRequests.get(connectionName);
-
-          if (Logging.authorityService.isDebugEnabled())
-            Logging.authorityService.debug("Waiting for answer from authority connection "+ar.getIdentifyingString()+" for user '"+ar.getUserID()+"'");
-
-          ar.waitForComplete();
+          AuthRequest ar;
+          if (deadline == 0L)
+            ar = answered.take();
+          else
+          {
+            ar = answered.poll(Math.max(deadline - System.currentTimeMillis(),0L),TimeUnit.MILLISECONDS);
+            if (ar == null)
+            {
+              // Whoever hasn't answered by now is unreachable, as far as this request is concerned
+              for (AuthRequest late : authRequests.values())
+              {
+                if (!late.isComplete())
+                {
+                  Logging.authorityService.warn("Authority '"+late.getIdentifyingString()+"' did not answer within "+Long.toString(timeout)+" ms");
+                  AuthorityDispatcher.completeWithDefault(itc,late,new ManifoldCFException("Authority did not answer in time"));
+                }
+              }
+              deadline = 0L;
+              continue;
+            }
+          }
+          remaining--;
 
           if (Logging.authorityService.isDebugEnabled())
             Logging.authorityService.debug("Received answer from authority connection "+ar.getIdentifyingString()+" for user '"+ar.getUserID()+"'");
@@ -408,6 +406,17 @@ public class UserACLServlet extends HttpServlet
           }
         }
 
+        // Handle all exceptions thrown during mapping.  In general this just means logging them, because
+        // the downstream authorities will presumably not find what they are looking for and error out that way.
+        for (MappingRequest mr : mappingRequests.values())
+        {
+          Throwable exception = mr.isComplete()?mr.getAnswerException():null;
+          if (exception != null)
+          {
+            Logging.authorityService.warn("Mapping exception logged from "+mr.getIdentifyingString()+": "+exception.getMessage()+"; mapper aborted", exception);
+          }
+        }
+
         // Maintained for backwards compatibility only; no practical use that I can determine here
         if (idneeded && userID != null)
           sb.append(ID_PREFIX).append(java.net.URLEncoder.encode(userID,"UTF-8")).append("\n");
@@ -483,130 +492,70 @@ public class UserACLServlet extends HttpServlet
     }
   }
   
-  /** This thread is responsible for making sure that the constraints for a given mapping connection
-  * are met, and then when they are, firing off a MappingRequest.  One of these threads is spun up
-  * for every IMappingConnection being handled.
-  * NOTE WELL: The number of threads this might require is worrisome.  It is essentially
-  * <number_of_app_server_threads> * <number_of_mappers>.  I will try later to see if I can find
-  * a way of limiting this to sane numbers.
+  /** This starts a mapping request once the mapping request it depends on has completed.
   */
-  protected static class MappingOrderThread extends Thread
+  protected static class MappingStarter implements Runnable
   {
     protected final MappingRequest request;
-    protected final MapperDescription prerequisite;
-    protected final Map<MapperDescription,MappingRequest> requests;
+    protected final MappingRequest prerequisite;
     protected final RequestQueue<MappingRequest> mappingRequestQueue;
 
-    protected Throwable exception = null;
-    
-    public MappingOrderThread(
-      String identifyingString,
-      MappingRequest request,
-      MapperDescription prerequisite,
-      RequestQueue<MappingRequest> mappingRequestQueue,
-      Map<MapperDescription, MappingRequest> requests)
+    public MappingStarter(MappingRequest request, MappingRequest prerequisite,
+      RequestQueue<MappingRequest> mappingRequestQueue)
     {
-      super();
       this.request = request;
       this.prerequisite = prerequisite;
       this.mappingRequestQueue = mappingRequestQueue;
-      this.requests = requests;
-      setName("Constraint matcher for mapper '"+identifyingString+"'");
-      setDaemon(true);
-    }
-    
-    public void run()
-    {
-      try
-      {
-        MappingRequest mappingRequest = requests.get(prerequisite);
-        mappingRequest.waitForComplete();
-        // Constraints are met.  Fire off the request.
-        request.setUserID(mappingRequest.getAnswerResponse());
-        mappingRequestQueue.addRequest(request);
-      }
-      catch (Throwable e)
-      {
-        exception = e;
-      }
     }
 
-    public void finishUp()
-      throws InterruptedException
+    public void run()
     {
-      join();
-      if (exception != null)
-      {
-        if (exception instanceof Error)
-          throw (Error)exception;
-        else if (exception instanceof RuntimeException)
-          throw (RuntimeException)exception;
-      }
+      // Constraints are met.  Fire off the request.
+      request.setUserID(prerequisite.getAnswerResponse());
+      mappingRequestQueue.addRequest(request);
     }
-    
   }
 
-  /** This thread is responsible for making sure that the constraints for a given authority connection
-  * are met, and then when they are, firing off an AuthRequest.  One of these threads is spun up
-  * for every IAuthorityConnection being handled.
-  * NOTE WELL: The number of threads this might require is worrisome.  It is essentially
-  * <number_of_app_server_threads> * <number_of_authorities>.  I will try later to see if I can find
-  * a way of limiting this to sane numbers.
+  /** This starts an auth request once the mapping request it depends on has completed.
   */
-  protected static class AuthOrderThread extends Thread
+  protected static class AuthStarter implements Runnable
   {
     protected final AuthRequest request;
-    protected final MapperDescription prerequisite;
-    protected final Map<MapperDescription,MappingRequest> mappingRequests;
-    protected final RequestQueue<AuthRequest> authRequestQueue;
-    
-    protected Throwable exception = null;
-    
-    public AuthOrderThread(
-      String identifyingString,
-      AuthRequest request,
-      MapperDescription prerequisite,
-      RequestQueue<AuthRequest> authRequestQueue,
-      Map<MapperDescription, MappingRequest> mappingRequests)
+    protected final MappingRequest prerequisite;
+    protected final AuthorityDispatcher dispatcher;
+
+    public AuthStarter(AuthRequest request, MappingRequest prerequisite, AuthorityDispatcher dispatcher)
     {
-      super();
       this.request = request;
       this.prerequisite = prerequisite;
-      this.authRequestQueue = authRequestQueue;
-      this.mappingRequests = mappingRequests;
-      setName("Constraint matcher for authority '"+identifyingString+"'");
-      setDaemon(true);
+      this.dispatcher = dispatcher;
     }
-    
+
     public void run()
     {
-      try
-      {
-        MappingRequest mappingRequest = mappingRequests.get(prerequisite);
-        mappingRequest.waitForComplete();
-        // Constraints are met.  Fire off the request.  User may be null if mapper failed!!
-        request.setUserID(mappingRequest.getAnswerResponse());
-        authRequestQueue.addRequest(request);
-      }
-      catch (Throwable e)
-      {
-        exception = e;
-      }
+      // Constraints are met.  Fire off the request.  User may be null if mapper failed!!
+      request.setUserID(prerequisite.getAnswerResponse());
+      dispatcher.dispatch(request);
     }
+  }
 
-    public void finishUp()
-      throws InterruptedException
+  /** This puts an auth request on the list of answered requests once it completes.
+  */
+  protected static class AnswerCollector implements Runnable
+  {
+    protected final AuthRequest request;
+    protected final BlockingQueue<AuthRequest> answered;
+
+    public AnswerCollector(AuthRequest request, BlockingQueue<AuthRequest> answered)
     {
-      join();
-      if (exception != null)
-      {
-        if (exception instanceof Error)
-          throw (Error)exception;
-        else if (exception instanceof RuntimeException)
-          throw (RuntimeException)exception;
-      }
+      this.request = request;
+      this.answered = answered;
+    }
+
+    public void run()
+    {
+      answered.add(request);
     }
-    
   }
-  
+
 }
@@ -0,0 +1,118 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import java.io.*;
+
+/** This class sets up a minimal ManifoldCF environment for benchmarks that need one (anything
+* that uses the lock manager).  It writes a properties.xml and logging.ini into a scratch directory,
+* much as the core test base class does, and points the configuration system property at it.
+* The default (in-memory) lock manager is used, so no database or synchronization directory is needed.
+*/
+public class BenchmarkEnvironment
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected static File scratchDirectory = null;
+  protected static int useCount = 0;
+
+  private BenchmarkEnvironment()
+  {
+  }
+
+  /** Initialize the environment, if not already done.
+  *@return a thread context to use.
+  */
+  public static synchronized IThreadContext initialize()
+    throws Exception
+  {
+    if (useCount == 0)
+    {
+      scratchDirectory = File.createTempFile("mcfbench","");
+      scratchDirectory.delete();
+      scratchDirectory.mkdirs();
+      File configFile = new File(scratchDirectory,"properties.xml");
+      File loggingFile = new File(scratchDirectory,"logging.ini");
+      File logOutputFile = new File(scratchDirectory,"manifoldcf.log");
+
+      writeFile(loggingFile,
+        "log4j.appender.MAIN.File="+logOutputFile.getAbsolutePath().replaceAll("\\\\","/")+"\n" +
+        "log4j.rootLogger=WARN, MAIN\n" +
+        "log4j.appender.MAIN=org.apache.log4j.RollingFileAppender\n" +
+        "log4j.appender.MAIN.layout=org.apache.log4j.PatternLayout\n" +
+        "log4j.appender.MAIN.layout.ConversionPattern=%5p %d{ISO8601} (%t) - %m%n\n");
+      writeFile(configFile,
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+        "<configuration>\n" +
+        "  <property name=\"org.apache.manifoldcf.logconfigfile\" value=\""+loggingFile.getAbsolutePath().replaceAll("\\\\","/")+"\"/>\n" +
+        "</configuration>\n");
+
+      System.setProperty("org.apache.manifoldcf.configfile",configFile.getAbsolutePath());
+      ManifoldCF.initializeEnvironment(ThreadContextFactory.make());
+    }
+    useCount++;
+    return ThreadContextFactory.make();
+  }
+
+  /** Release the environment.  The last release cleans up.
+  */
+  public static synchronized void cleanUp()
+    throws Exception
+  {
+    useCount--;
+    if (useCount == 0)
+    {
+      ManifoldCF.cleanUpEnvironment(ThreadContextFactory.make());
+      File[] files = scratchDirectory.listFiles();
+      if (files != null)
+      {
+        for (File f : files)
+        {
+          f.delete();
+        }
+      }
+      scratchDirectory.delete();
+      scratchDirectory = null;
+    }
+  }
+
+  protected static void writeFile(File f, String fileContents)
+    throws IOException
+  {
+    OutputStream os = new FileOutputStream(f);
+    try
+    {
+      Writer w = new OutputStreamWriter(os,"UTF-8");
+      try
+      {
+        w.write(fileContents);
+      }
+      finally
+      {
+        w.close();
+      }
+    }
+    finally
+    {
+      os.close();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.common.Base64;
+import org.apache.manifoldcf.core.common.DateParser;
+import org.openjdk.jmh.annotations.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for the date parsing and Base64 encoding utilities, which connectors call
+* for nearly every document.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final static String[] isoDates = new String[]{
+    "2014-03-21T10:15:30Z",
+    "2014-03-21T10:15:30.123Z",
+    "2014-03-21T10:15:30+09:00",
+    "2014-03-21T10:15:30.5-0500"};
+  protected final static String[] rfc822Dates = new String[]{
+    "Fri, 21 Mar 2014 10:15:30 GMT",
+    "Fri, 21 Mar 2014 10:15:30 +0900",
+    "21 Mar 2014 10:15:30 -0500",
+    "Friday, 21-Mar-14 10:15:30 GMT"};
+
+  /** The size of the byte array to encode */
+  @Param({"64","65536"})
+  public int dataSize;
+
+  protected Date date;
+  protected byte[] data;
+  protected String encodedData;
+  protected int index = 0;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    date = new Date(1395396930123L);
+    data = new byte[dataSize];
+    new Random(0L).nextBytes(data);
+    encodedData = new Base64().encodeByteArray(data);
+  }
+
+  @Benchmark
+  public Date parseISO8601Date()
+  {
+    index = (index + 1) % isoDates.length;
+    return DateParser.parseISO8601Date(isoDates[index]);
+  }
+
+  @Benchmark
+  public String formatISO8601Date()
+  {
+    return DateParser.formatISO8601Date(date);
+  }
+
+  @Benchmark
+  public Date parseRFC822Date()
+  {
+    index = (index + 1) % rfc822Dates.length;
+    return DateParser.parseRFC822Date(rfc822Dates[index]);
+  }
+
+  @Benchmark
+  public String base64Encode()
+    throws ManifoldCFException
+  {
+    return new Base64().encodeByteArray(data);
+  }
+
+  @Benchmark
+  public byte[] base64Decode()
+    throws ManifoldCFException
+  {
+    return new Base64().decodeString(encodedData);
+  }
+}
@@ -0,0 +1,144 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.fuzzyml.*;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for HTML tokenization with the fuzzyml parser, both with and without character
+* set detection, over a synthetic document of the requested size.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FuzzyMLBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The approximate size of the document, in bytes */
+  @Param({"16384","1048576"})
+  public int documentSize;
+
+  protected byte[] document;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    // The parse states log through the framework, so it must be initialized
+    BenchmarkEnvironment.initialize();
+    document = buildDocument(documentSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  @Benchmark
+  public int parseWithCharsetDetection()
+    throws IOException, ManifoldCFException
+  {
+    CountingParseState state = new CountingParseState();
+    new Parser().parseWithCharsetDetection(null,new ByteArrayInputStream(document),state);
+    return state.getCount();
+  }
+
+  @Benchmark
+  public int parseWithoutCharsetDetection()
+    throws IOException, ManifoldCFException
+  {
+    CountingParseState state = new CountingParseState();
+    new Parser().parseWithoutCharsetDetection("utf-8",new ByteArrayInputStream(document),state);
+    return state.getCount();
+  }
+
+  /** Build a document with a typical mix of markup, attributes, entities, comments and text. */
+  protected static byte[] buildDocument(int size)
+    throws UnsupportedEncodingException
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<!DOCTYPE html>\n<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">\n")
+      .append("<title>Benchmark document</title>\n<script type=\"text/javascript\">var x = 1 < 2;</script></head>\n<body>\n");
+    int i = 0;
+    while (sb.length() < size)
+    {
+      sb.append("<div class=\"section\" id=\"s").append(i).append("\">\n")
+        .append("<!-- section ").append(i).append(" -->\n")
+        .append("<h2>Section &amp; heading ").append(i).append("</h2>\n")
+        .append("<p>Lorem ipsum dolor sit amet, <b>consectetur</b> adipiscing elit, sed do eiusmod tempor ")
+        .append("incididunt ut labore et dolore magna aliqua &copy; &#169; &#xa9; caf\u00e9.</p>\n")
+        .append("<a href=\"http://www.example.com/page").append(i).append(".html?a=1&amp;b=2\" target=_blank>link ")
+        .append(i).append("</a><br/><img src='/img").append(i).append(".png' alt=\"image\">\n")
+        .append("</div>\n");
+      i++;
+    }
+    sb.append("</body></html>\n");
+    return sb.toString().getBytes("UTF-8");
+  }
+
+  /** A parse state that counts what it sees, so that nothing gets optimized away. */
+  protected static class CountingParseState extends HTMLParseState
+  {
+    protected int count = 0;
+
+    public CountingParseState()
+    {
+      super();
+    }
+
+    public int getCount()
+    {
+      return count;
+    }
+
+    @Override
+    protected boolean noteTag(String tagName, Map<String,String> attributes)
+      throws ManifoldCFException
+    {
+      count += attributes.size() + 1;
+      return false;
+    }
+
+    @Override
+    protected boolean noteTagEnd(String tagName)
+      throws ManifoldCFException
+    {
+      count++;
+      return false;
+    }
+
+    @Override
+    protected boolean noteNormalCharacter(char thisChar)
+      throws ManifoldCFException
+    {
+      count++;
+      return false;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.cachemanager.GeneralCache;
+import org.openjdk.jmh.annotations.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for the in-memory cache: lookups, saves, and key invalidation, with all benchmark
+* threads sharing one cache.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneralCacheBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The number of distinct objects */
+  @Param({"1000","100000"})
+  public int numObjects;
+
+  /** The number of distinct invalidation keys */
+  protected final static int numKeys = 100;
+
+  protected GeneralCache cache;
+  protected String[] descriptions;
+  protected StringSet[] keySets;
+
+  @Setup(Level.Trial)
+  public void setUp()
+  {
+    cache = new GeneralCache();
+    descriptions = new String[numObjects];
+    keySets = new StringSet[numKeys];
+    for (int i = 0; i < numKeys; i++)
+    {
+      keySets[i] = new StringSet(new String[]{"KEY_"+i,"ALL"});
+    }
+    for (int i = 0; i < numObjects; i++)
+    {
+      descriptions[i] = "object"+i;
+      save(i);
+    }
+  }
+
+  protected void save(int index)
+  {
+    cache.setObject(descriptions[index],new Integer(index),keySets[index % numKeys],0L);
+    cache.setObjectClass(descriptions[index],"class",numObjects);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object lookup()
+  {
+    int index = ThreadLocalRandom.current().nextInt(numObjects);
+    return cache.lookup(descriptions[index]);
+  }
+
+  /** Mostly lookups, with a miss being replaced, and an occasional invalidation; roughly the
+  * mix seen by the cache manager in a busy crawler. */
+  @Benchmark
+  @Threads(4)
+  public Object lookupSaveInvalidate()
+  {
+    ThreadLocalRandom r = ThreadLocalRandom.current();
+    int index = r.nextInt(numObjects);
+    Object rval = cache.lookup(descriptions[index]);
+    if (rval == null)
+      save(index);
+    else if (r.nextInt(1000) == 0)
+      cache.invalidateKeys(new StringSet(new String[]{"KEY_"+r.nextInt(numKeys)}));
+    return rval;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object saveAndInvalidate()
+  {
+    int index = ThreadLocalRandom.current().nextInt(numObjects);
+    save(index);
+    cache.invalidateKeys(new StringSet(new String[]{"KEY_"+(index % numKeys)}));
+    return cache.lookup(descriptions[index]);
+  }
+}
@@ -0,0 +1,194 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.fuzzyml.*;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for pulling the links out of HTML, comparing the full fuzzyml parser with the
+* HTMLTagScanner.  By default a synthetic document of the requested size is used; to run over a
+* real corpus instead, pass a directory of HTML files with "-p corpusDirectory=&lt;path&gt;".
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkExtractionBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The approximate size of the synthetic document, in bytes */
+  @Param({"16384","1048576"})
+  public int documentSize;
+
+  /** A directory of HTML files to use instead of the synthetic document */
+  @Param({""})
+  public String corpusDirectory;
+
+  protected List<byte[]> documents;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    // The parse states log through the framework, so it must be initialized
+    BenchmarkEnvironment.initialize();
+    documents = new ArrayList<byte[]>();
+    if (corpusDirectory.length() > 0)
+      loadCorpus(new File(corpusDirectory),documents);
+    else
+      documents.add(FuzzyMLBenchmark.buildDocument(documentSize));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  @Benchmark
+  public int extractLinksWithParser()
+    throws IOException, ManifoldCFException
+  {
+    int count = 0;
+    for (byte[] document : documents)
+    {
+      LinkParseState state = new LinkParseState();
+      new Parser().parseWithoutCharsetDetection("utf-8",new ByteArrayInputStream(document),state);
+      count += state.getCount();
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int extractLinksWithScanner()
+    throws IOException, ManifoldCFException
+  {
+    int count = 0;
+    for (byte[] document : documents)
+    {
+      LinkScanner scanner = new LinkScanner();
+      new Parser().parseWithoutCharsetDetection("utf-8",new ByteArrayInputStream(document),scanner);
+      count += scanner.getCount();
+    }
+    return count;
+  }
+
+  /** Read every file under a directory. */
+  protected static void loadCorpus(File directory, List<byte[]> documents)
+    throws IOException
+  {
+    File[] files = directory.listFiles();
+    if (files == null)
+      throw new IOException("Not a directory: "+directory);
+    Arrays.sort(files);
+    for (File file : files)
+    {
+      if (file.isDirectory())
+        loadCorpus(file,documents);
+      else
+      {
+        InputStream is = new FileInputStream(file);
+        try
+        {
+          ByteArrayOutputStream os = new ByteArrayOutputStream();
+          byte[] buffer = new byte[65536];
+          int amt;
+          while ((amt = is.read(buffer)) != -1)
+          {
+            os.write(buffer,0,amt);
+          }
+          documents.add(os.toByteArray());
+        }
+        finally
+        {
+          is.close();
+        }
+      }
+    }
+  }
+
+  /** Pull links out with the full parser, as the web connector does today. */
+  protected static class LinkParseState extends HTMLParseState
+  {
+    protected int count = 0;
+
+    public LinkParseState()
+    {
+      super();
+    }
+
+    public int getCount()
+    {
+      return count;
+    }
+
+    @Override
+    protected boolean noteTag(String tagName, Map<String,String> attributes)
+      throws ManifoldCFException
+    {
+      String link = null;
+      if (tagName.equals("a") || tagName.equals("link") || tagName.equals("area"))
+        link = attributes.get("href");
+      else if (tagName.equals("img") || tagName.equals("frame") || tagName.equals("iframe") || tagName.equals("script"))
+        link = attributes.get("src");
+      if (link != null)
+        count += link.length();
+      return false;
+    }
+  }
+
+  /** Pull the same links out with the tag scanner. */
+  protected static class LinkScanner extends HTMLTagScanner
+  {
+    protected int count = 0;
+
+    public LinkScanner()
+    {
+      super();
+      addInterest("a","href");
+      addInterest("link","href");
+      addInterest("area","href");
+      addInterest("img","src");
+      addInterest("frame","src");
+      addInterest("iframe","src");
+      addInterest("script","src");
+    }
+
+    public int getCount()
+    {
+      return count;
+    }
+
+    @Override
+    protected boolean noteAttribute(String tagName, String attributeName, char[] buffer, int start, int length)
+      throws ManifoldCFException
+    {
+      count += decodeAttribute(buffer,start,length).length();
+      return false;
+    }
+  }
+}
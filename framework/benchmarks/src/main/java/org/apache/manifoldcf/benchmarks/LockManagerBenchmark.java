@@ -0,0 +1,149 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.lockmanager.LocalLock;
+import org.apache.manifoldcf.core.lockmanager.LocalLockPool;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for entering and leaving locks.  The local lock pool is the per-thread bookkeeping
+* every lock manager call goes through; the lock manager benchmarks measure the whole path, using
+* the lock manager configured in the benchmark environment.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockManagerBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The number of distinct lock names */
+  protected final static int numLocks = 1000;
+  protected final static String[] lockNames = new String[numLocks];
+
+  static
+  {
+    for (int i = 0; i < numLocks; i++)
+    {
+      lockNames[i] = "benchmarklock"+i;
+    }
+  }
+
+  /** Local lock pools are per-thread, so each benchmark thread gets its own. */
+  @State(Scope.Thread)
+  public static class LocalState
+  {
+    public LocalLockPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+      pool = new LocalLockPool();
+    }
+  }
+
+  /** The environment is shared; the lock manager instance is per-thread, as it is in the framework. */
+  @State(Scope.Benchmark)
+  public static class EnvironmentState
+  {
+    @Setup(Level.Trial)
+    public void setUp()
+      throws Exception
+    {
+      BenchmarkEnvironment.initialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+      throws Exception
+    {
+      BenchmarkEnvironment.cleanUp();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class LockManagerState
+  {
+    public ILockManager lockManager;
+
+    @Setup(Level.Trial)
+    public void setUp(EnvironmentState environment)
+      throws Exception
+    {
+      lockManager = LockManagerFactory.make(ThreadContextFactory.make());
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean localLockEnterLeave(LocalState state)
+  {
+    String lockName = lockNames[ThreadLocalRandom.current().nextInt(numLocks)];
+    LocalLock ll = state.pool.getLocalLock(lockName);
+    ll.incrementReadLocks();
+    boolean rval = ll.hasReadLock();
+    ll.decrementReadLocks();
+    if (!ll.hasReadLock() && !ll.hasWriteLock() && !ll.hasNonExWriteLock())
+      state.pool.releaseLocalLock(lockName);
+    return rval;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void readLockEnterLeave(LockManagerState state)
+    throws ManifoldCFException
+  {
+    String lockName = lockNames[ThreadLocalRandom.current().nextInt(numLocks)];
+    state.lockManager.enterReadLock(lockName);
+    state.lockManager.leaveReadLock(lockName);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void writeLockEnterLeave(LockManagerState state)
+    throws ManifoldCFException
+  {
+    String lockName = lockNames[ThreadLocalRandom.current().nextInt(numLocks)];
+    state.lockManager.enterWriteLock(lockName);
+    state.lockManager.leaveWriteLock(lockName);
+  }
+
+  /** Nested read locks on the same name, which are satisfied from the local lock pool. */
+  @Benchmark
+  @Threads(4)
+  public void nestedReadLockEnterLeave(LockManagerState state)
+    throws ManifoldCFException
+  {
+    String lockName = lockNames[ThreadLocalRandom.current().nextInt(numLocks)];
+    state.lockManager.enterReadLock(lockName);
+    try
+    {
+      state.lockManager.enterReadLock(lockName);
+      state.lockManager.leaveReadLock(lockName);
+    }
+    finally
+    {
+      state.lockManager.leaveReadLock(lockName);
+    }
+  }
+}
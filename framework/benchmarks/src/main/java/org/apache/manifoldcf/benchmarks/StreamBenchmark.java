@@ -0,0 +1,159 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.common.XThreadInputStream;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for moving document content around: handing a stream across threads with
+* XThreadInputStream, and spooling a stream to a temporary file and reading it back with
+* TempFileInput.  Both are measured end to end, so throughput is in documents per second.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The size of each document, in bytes */
+  @Param({"4096","65536","4194304"})
+  public int documentSize;
+
+  protected byte[] document;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    // Temporary files are registered with the framework for cleanup
+    BenchmarkEnvironment.initialize();
+    document = new byte[documentSize];
+    new Random(0L).nextBytes(document);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** A helper thread stuffs the queue from a source stream while this thread reads it. */
+  @Benchmark
+  public long xThreadInputStream()
+    throws Exception
+  {
+    final XThreadInputStream is = new XThreadInputStream(new ByteArrayInputStream(document));
+    StufferThread t = new StufferThread(is);
+    t.start();
+    try
+    {
+      return drain(is);
+    }
+    finally
+    {
+      is.abort();
+      t.finishUp();
+    }
+  }
+
+  /** Spool to a temporary file, then read it back once. */
+  @Benchmark
+  public long tempFileInput()
+    throws Exception
+  {
+    TempFileInput tfi = new TempFileInput(new ByteArrayInputStream(document));
+    try
+    {
+      InputStream is = tfi.getStream();
+      try
+      {
+        return drain(is);
+      }
+      finally
+      {
+        is.close();
+      }
+    }
+    finally
+    {
+      tfi.discard();
+    }
+  }
+
+  protected static long drain(InputStream is)
+    throws IOException
+  {
+    byte[] buffer = new byte[65536];
+    long total = 0L;
+    while (true)
+    {
+      int amt = is.read(buffer,0,buffer.length);
+      if (amt == -1)
+        break;
+      total += amt;
+    }
+    return total;
+  }
+
+  protected static class StufferThread extends Thread
+  {
+    protected final XThreadInputStream is;
+    protected Throwable exception = null;
+
+    public StufferThread(XThreadInputStream is)
+    {
+      super();
+      this.is = is;
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        is.stuffQueue();
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public void finishUp()
+      throws Exception
+    {
+      join();
+      if (exception != null)
+      {
+        if (exception instanceof Exception)
+          throw (Exception)exception;
+        throw new RuntimeException(exception);
+      }
+    }
+  }
+}
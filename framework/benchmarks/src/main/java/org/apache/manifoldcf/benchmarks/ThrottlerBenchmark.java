@@ -0,0 +1,118 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.benchmarks;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.*;
+
+/** Benchmarks for connection and fetch throttling.  A throttle group is set up with enough connections
+* that no benchmark thread ever has to wait for one, so what is measured is the cost of the bookkeeping
+* in the throttler and its connection and fetch bins.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThrottlerBenchmark
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final static String throttleGroupType = "_BENCHMARK_";
+  protected final static String throttleGroup = "benchmark";
+
+  /** The number of bins each connection belongs to */
+  @Param({"1","4"})
+  public int numBins;
+
+  protected IThreadContext threadContext;
+  protected IThrottleGroups throttleGroups;
+  protected IConnectionThrottler connectionThrottler;
+  protected IFetchThrottler fetchThrottler;
+
+  @Setup(Level.Trial)
+  public void setUp()
+    throws Exception
+  {
+    threadContext = BenchmarkEnvironment.initialize();
+    throttleGroups = ThrottleGroupsFactory.make(threadContext);
+    throttleGroups.createOrUpdateThrottleGroup(throttleGroupType,throttleGroup,new BenchmarkThrottleSpec());
+    String[] binNames = new String[numBins];
+    for (int i = 0; i < numBins; i++)
+    {
+      binNames[i] = "bin"+i;
+    }
+    connectionThrottler = throttleGroups.obtainConnectionThrottler(throttleGroupType,throttleGroup,binNames);
+    // Polling is what distributes the connection quota to this process; nothing is available before it
+    throttleGroups.poll(throttleGroupType);
+    fetchThrottler = connectionThrottler.getNewConnectionFetchThrottler();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+    throws Exception
+  {
+    throttleGroups.removeThrottleGroup(throttleGroupType,throttleGroup);
+    BenchmarkEnvironment.cleanUp();
+  }
+
+  /** Obtain a connection and return it to the pool. */
+  @Benchmark
+  @Threads(4)
+  public int connectionObtainReturn()
+    throws InterruptedException
+  {
+    int rval = connectionThrottler.waitConnectionAvailable();
+    if (connectionThrottler.noteReturnedConnection())
+      connectionThrottler.noteConnectionDestroyed();
+    else
+      connectionThrottler.noteConnectionReturnedToPool();
+    return rval;
+  }
+
+  /** Get permission to fetch a document, with no minimum interval between fetches. */
+  @Benchmark
+  @Threads(4)
+  public boolean fetchPermission()
+    throws InterruptedException
+  {
+    return fetchThrottler.obtainFetchDocumentPermission();
+  }
+
+  /** The throttle specification: plenty of connections, and no fetch rate or bandwidth limits. */
+  protected static class BenchmarkThrottleSpec implements IThrottleSpec
+  {
+    public int getMaxOpenConnections(String binName)
+    {
+      return 1000;
+    }
+
+    public double getMinimumMillisecondsPerByte(String binName)
+    {
+      return 0.0;
+    }
+
+    public long getMinimumMillisecondsPerFetch(String binName)
+    {
+      return 0L;
+    }
+  }
+}
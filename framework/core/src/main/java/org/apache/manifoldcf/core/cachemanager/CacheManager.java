@@ -46,6 +46,7 @@ public class CacheManager implements ICacheManager
     throws ManifoldCFException
   {
     lockManager = LockManagerFactory.make(context);
+    cache.setMaxMemory(LockManagerFactory.getLongProperty(context,ManifoldCF.cacheMaxMemoryProperty,0L) * 1048576L);
   }
 
   /** Locate or create a set of objects in the cached object pool, and/or destroy and invalidate
@@ -389,6 +390,9 @@ public class CacheManager implements ICacheManager
     if (set == null)
       return null;
 
+    CacheStatistics statistics = cache.getStatistics();
+    String objectClassName = getObjectClassName(objectDescription);
+
     // If this is in a transaction, we must look at the local cached copy first.
     // In fact, we walk back through the chain of parent transactions until we find it,
     // or until the cache keys are invalid against the transaction's invalidation keys.
@@ -412,11 +416,15 @@ public class CacheManager implements ICacheManager
           {
             Logging.cache.debug(" Object '"+objectDescription.getCriticalSectionName()+"' found in transaction cache");
           }
+          statistics.noteLookup(objectClassName,true);
           return q;
         }
         // See if we can look at the parent
         if (transactionHandle.checkCacheKeys(set))
+        {
+          statistics.noteLookup(objectClassName,false);
           return null;
+        }
         transactionHandle = transactionHandle.getParentTransaction();
       }
       // If nothing stops us, look in the global cache too
@@ -424,7 +432,10 @@ public class CacheManager implements ICacheManager
 
     Object o = cache.lookup(objectDescription);
     if (o == null)
+    {
+      statistics.noteLookup(objectClassName,false);
       return null;
+    }
 
     if (Logging.cache.isDebugEnabled())
     {
@@ -437,6 +448,8 @@ public class CacheManager implements ICacheManager
     {
       // Blow away the entry in cache, since it has expired
       cache.deleteObject(objectDescription);
+      statistics.noteExpiration(objectClassName);
+      statistics.noteLookup(objectClassName,false);
       return null;
     }
     
@@ -451,8 +464,10 @@ public class CacheManager implements ICacheManager
       String key = (String)iter.next();
       if (hasExpired(key,createTime))
       {
-        // Blow away the entry in cache, since it has expired
+        // Blow away the entry in cache, since it has been invalidated elsewhere
         cache.deleteObject(objectDescription);
+        statistics.noteObjectInvalidation(objectClassName,null);
+        statistics.noteLookup(objectClassName,false);
         return null;
       }
     }
@@ -467,9 +482,30 @@ public class CacheManager implements ICacheManager
     // Update the expiration time for this object.
     resetObjectExpiration(objectDescription,handle.getLookupTime());
 
+    statistics.noteLookup(objectClassName,true);
     return o;
   }
 
+  /** Get the running statistics for the cache in this JVM.
+  *@return the statistics.
+  */
+  public static CacheStatistics getStatistics()
+  {
+    return cache.getStatistics();
+  }
+
+  /** Get the object class name for an object description.
+  *@param objectDescription is the description object.
+  *@return the class name, or null if the object has no class.
+  */
+  protected static String getObjectClassName(ICacheDescription objectDescription)
+  {
+    ICacheClass objectClass = objectDescription.getObjectClass();
+    if (objectClass == null)
+      return null;
+    return objectClass.getClassName();
+  }
+
   /** Check if object has expired (by looking at file system).
   *@param key is the invalidation key.
   *@param createTime is the creation time.
@@ -556,6 +592,7 @@ public class CacheManager implements ICacheManager
       String transactionID = handle.getTransactionID();
       if (transactionID == null)
       {
+        cache.getStatistics().noteSave(getObjectClassName(objectDescription));
         cache.setObject(objectDescription,object,keys,handle.getLookupTime());
         // Update the expiration time for this object.
         resetObjectExpiration(objectDescription,handle.getLookupTime());
@@ -742,6 +779,7 @@ public class CacheManager implements ICacheManager
         ICacheDescription desc = (ICacheDescription)iter.next();
         Object o = handle.lookupObject(desc);
         // System.out.println("Moving object to main cache: "+desc.getCriticalSectionName());
+        cache.getStatistics().noteSave(getObjectClassName(desc));
         cache.setObject(desc,o,desc.getObjectKeys(),currentTime);
         // Now, set expiration and LRU
         // Update the expiration time for this object.
@@ -0,0 +1,336 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.cachemanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class keeps running counters for a GeneralCache, by object class and by invalidation
+* key prefix.  The counters are cumulative since the JVM started, and are local to the JVM, like
+* the cache itself.  Objects with no object class are counted under the empty class name.
+*
+* An invalidation key's prefix is the part of the key before the first underscore, which for
+* the keys built by the various CacheKeyFactory classes is the kind of thing the key describes.
+*/
+public class CacheStatistics
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The class name used for objects that have no object class */
+  public static final String NO_CLASS = "";
+
+  /** The maximum number of distinct key prefixes we will track */
+  protected final static int maxKeyPrefixes = 1000;
+  /** The prefix that everything beyond the maximum is counted under */
+  protected final static String OTHER_PREFIX = "*";
+
+  /** The cache these statistics describe */
+  protected final GeneralCache cache;
+  /** Counters by object class */
+  protected final ConcurrentHashMap<String,ClassCounters> classCounters = new ConcurrentHashMap<String,ClassCounters>();
+  /** Counters by key prefix */
+  protected final ConcurrentHashMap<String,KeyPrefixCounters> keyPrefixCounters = new ConcurrentHashMap<String,KeyPrefixCounters>();
+
+  public CacheStatistics(GeneralCache cache)
+  {
+    this.cache = cache;
+  }
+
+  /** Note a lookup.
+  *@param objectClass is the object class, or null.
+  *@param hit is true if the object was found.
+  */
+  public void noteLookup(String objectClass, boolean hit)
+  {
+    ClassCounters c = getClassCounters(objectClass);
+    c.lookups.incrementAndGet();
+    if (hit)
+      c.hits.incrementAndGet();
+  }
+
+  /** Note that a newly created object was saved.
+  *@param objectClass is the object class, or null.
+  */
+  public void noteSave(String objectClass)
+  {
+    getClassCounters(objectClass).saves.incrementAndGet();
+  }
+
+  /** Note that an object was removed because it expired.
+  *@param objectClass is the object class, or null.
+  */
+  public void noteExpiration(String objectClass)
+  {
+    getClassCounters(objectClass).expirations.incrementAndGet();
+  }
+
+  /** Note that an object was flushed to meet an LRU count or memory limit.
+  *@param objectClass is the object class, or null.
+  */
+  public void noteEviction(String objectClass)
+  {
+    getClassCounters(objectClass).evictions.incrementAndGet();
+  }
+
+  /** Note that an object was removed because it was invalidated.
+  *@param objectClass is the object class, or null.
+  *@param key is the invalidation key responsible, or null if the invalidation was noticed
+  * some other way (e.g. from another JVM).
+  */
+  public void noteObjectInvalidation(String objectClass, String key)
+  {
+    getClassCounters(objectClass).invalidations.incrementAndGet();
+    if (key != null)
+      getKeyPrefixCounters(key).objectsInvalidated.incrementAndGet();
+  }
+
+  /** Note that a key was invalidated.
+  *@param key is the key.
+  */
+  public void noteKeyInvalidation(String key)
+  {
+    getKeyPrefixCounters(key).invalidations.incrementAndGet();
+  }
+
+  /** Get a snapshot of the statistics for each object class.
+  *@return the statistics, sorted by class name.
+  */
+  public ObjectClassStatistics[] getObjectClassStatistics()
+  {
+    List<ObjectClassStatistics> rval = new ArrayList<ObjectClassStatistics>();
+    Iterator<String> iter = classCounters.keySet().iterator();
+    while (iter.hasNext())
+    {
+      String className = iter.next();
+      ClassCounters c = classCounters.get(className);
+      rval.add(new ObjectClassStatistics(className,c.lookups.get(),c.hits.get(),c.saves.get(),
+        c.invalidations.get(),c.expirations.get(),c.evictions.get(),
+        className.equals(NO_CLASS)?-1:cache.getObjectClassCount(className)));
+    }
+    ObjectClassStatistics[] array = rval.toArray(new ObjectClassStatistics[0]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Get a snapshot of the statistics for each invalidation key prefix.
+  *@return the statistics, sorted by prefix.
+  */
+  public KeyPrefixStatistics[] getKeyPrefixStatistics()
+  {
+    List<KeyPrefixStatistics> rval = new ArrayList<KeyPrefixStatistics>();
+    Iterator<String> iter = keyPrefixCounters.keySet().iterator();
+    while (iter.hasNext())
+    {
+      String prefix = iter.next();
+      KeyPrefixCounters c = keyPrefixCounters.get(prefix);
+      rval.add(new KeyPrefixStatistics(prefix,c.invalidations.get(),c.objectsInvalidated.get()));
+    }
+    KeyPrefixStatistics[] array = rval.toArray(new KeyPrefixStatistics[0]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Get the estimated memory held by sized objects.
+  *@return the estimate, in bytes.
+  */
+  public long getCurrentMemory()
+  {
+    return cache.getCurrentMemory();
+  }
+
+  /** Reset all counters.
+  */
+  public void reset()
+  {
+    classCounters.clear();
+    keyPrefixCounters.clear();
+  }
+
+  protected ClassCounters getClassCounters(String objectClass)
+  {
+    if (objectClass == null)
+      objectClass = NO_CLASS;
+    ClassCounters rval = classCounters.get(objectClass);
+    if (rval == null)
+    {
+      ClassCounters newCounters = new ClassCounters();
+      rval = classCounters.putIfAbsent(objectClass,newCounters);
+      if (rval == null)
+        rval = newCounters;
+    }
+    return rval;
+  }
+
+  protected KeyPrefixCounters getKeyPrefixCounters(String key)
+  {
+    int index = key.indexOf("_");
+    String prefix = (index == -1)?key:key.substring(0,index);
+    KeyPrefixCounters rval = keyPrefixCounters.get(prefix);
+    if (rval == null)
+    {
+      // Don't let badly-behaved keys grow the table without limit
+      if (keyPrefixCounters.size() >= maxKeyPrefixes)
+        prefix = OTHER_PREFIX;
+      KeyPrefixCounters newCounters = new KeyPrefixCounters();
+      rval = keyPrefixCounters.putIfAbsent(prefix,newCounters);
+      if (rval == null)
+        rval = newCounters;
+    }
+    return rval;
+  }
+
+  /** Live counters for an object class */
+  protected static class ClassCounters
+  {
+    public final AtomicLong lookups = new AtomicLong(0L);
+    public final AtomicLong hits = new AtomicLong(0L);
+    public final AtomicLong saves = new AtomicLong(0L);
+    public final AtomicLong invalidations = new AtomicLong(0L);
+    public final AtomicLong expirations = new AtomicLong(0L);
+    public final AtomicLong evictions = new AtomicLong(0L);
+  }
+
+  /** Live counters for an invalidation key prefix */
+  protected static class KeyPrefixCounters
+  {
+    public final AtomicLong invalidations = new AtomicLong(0L);
+    public final AtomicLong objectsInvalidated = new AtomicLong(0L);
+  }
+
+  /** A snapshot of the statistics for an object class.
+  */
+  public static class ObjectClassStatistics implements Comparable<ObjectClassStatistics>
+  {
+    protected final String className;
+    protected final long lookups;
+    protected final long hits;
+    protected final long saves;
+    protected final long invalidations;
+    protected final long expirations;
+    protected final long evictions;
+    protected final int currentCount;
+
+    public ObjectClassStatistics(String className, long lookups, long hits, long saves,
+      long invalidations, long expirations, long evictions, int currentCount)
+    {
+      this.className = className;
+      this.lookups = lookups;
+      this.hits = hits;
+      this.saves = saves;
+      this.invalidations = invalidations;
+      this.expirations = expirations;
+      this.evictions = evictions;
+      this.currentCount = currentCount;
+    }
+
+    /** Get the class name (empty for objects with no class) */
+    public String getClassName()
+    {
+      return className;
+    }
+
+    /** Get the number of lookups */
+    public long getLookups()
+    {
+      return lookups;
+    }
+
+    /** Get the number of lookups that found the object */
+    public long getHits()
+    {
+      return hits;
+    }
+
+    /** Get the number of newly created objects saved */
+    public long getSaves()
+    {
+      return saves;
+    }
+
+    /** Get the number of objects removed by invalidation */
+    public long getInvalidations()
+    {
+      return invalidations;
+    }
+
+    /** Get the number of objects removed because they expired */
+    public long getExpirations()
+    {
+      return expirations;
+    }
+
+    /** Get the number of objects flushed to meet the LRU count or memory limit */
+    public long getEvictions()
+    {
+      return evictions;
+    }
+
+    /** Get the number of objects of the class now in the cache, or -1 if not known */
+    public int getCurrentCount()
+    {
+      return currentCount;
+    }
+
+    public int compareTo(ObjectClassStatistics other)
+    {
+      return className.compareTo(other.className);
+    }
+  }
+
+  /** A snapshot of the statistics for an invalidation key prefix.
+  */
+  public static class KeyPrefixStatistics implements Comparable<KeyPrefixStatistics>
+  {
+    protected final String prefix;
+    protected final long invalidations;
+    protected final long objectsInvalidated;
+
+    public KeyPrefixStatistics(String prefix, long invalidations, long objectsInvalidated)
+    {
+      this.prefix = prefix;
+      this.invalidations = invalidations;
+      this.objectsInvalidated = objectsInvalidated;
+    }
+
+    /** Get the key prefix */
+    public String getPrefix()
+    {
+      return prefix;
+    }
+
+    /** Get the number of times keys with this prefix were invalidated */
+    public long getInvalidations()
+    {
+      return invalidations;
+    }
+
+    /** Get the number of objects those invalidations removed from the cache */
+    public long getObjectsInvalidated()
+    {
+      return objectsInvalidated;
+    }
+
+    public int compareTo(KeyPrefixStatistics other)
+    {
+      return prefix.compareTo(other.prefix);
+    }
+  }
+}
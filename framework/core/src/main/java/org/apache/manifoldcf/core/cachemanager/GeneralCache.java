@@ -20,37 +20,101 @@ package org.apache.manifoldcf.core.cachemanager;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /** General cache class.  This class will be statically instantiated.  It contains all the structures
 * needed to maintain a cache of objects, with both LRU flushing behavior, and timed expiration of
 * objects.
 * This cache is entirely local to a JVM and does NOT have any locking and synchronization semantics
 * cross-JVM.  That is handled at a higher level.
+*
+* The cache is divided into stripes by the hash of the object description.  Each stripe has its own
+* object table, invalidation table, object class LRU lists, and expiration tree, all protected by the
+* stripe's monitor, so threads working with different objects rarely contend.  Lookups do not lock at all.
+* The per-class LRU limits are global: each class has a single member count, and each record carries an
+* LRU stamp from a global counter, so that the least recently used member of a class can be found by
+* looking at the oldest member in each stripe.
+*
+* Optionally, the cache can also be bounded by memory.  Objects implementing IMemorySizedObject are
+* charged their estimated size, and the least recently used of them are flushed when the total exceeds
+* the limit.
 */
 public class GeneralCache
 {
   public static final String _rcsid = "@(#)$Id: GeneralCache.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // This table is for looking stuff up by object description
-  protected ObjectRecordTable hashtable = new ObjectRecordTable();
-  // This table is for looking stuff up by cache key - hash table of hash tables
-  protected InvalidationTable invalidationTable = new InvalidationTable();
-  // This table keeps the running count of each object class
-  protected ObjectClassTable objectClassTable = new ObjectClassTable();
-  // This structure is the general expiration tree
-  public ExpirationTree expirationTree = new ExpirationTree();
+  /** The number of stripes; must be a power of two */
+  protected final static int stripeCount = 16;
+
+  /** The stripes */
+  protected final CacheStripe[] stripes;
+  /** The running count of each object class, across all stripes */
+  protected final ConcurrentHashMap<String,AtomicInteger> objectClassCounts = new ConcurrentHashMap<String,AtomicInteger>();
+  /** The source of LRU stamps */
+  protected final AtomicLong lruCounter = new AtomicLong(0L);
+  /** The estimated memory currently held by sized objects, in bytes */
+  protected final AtomicLong currentMemory = new AtomicLong(0L);
+  /** The maximum memory sized objects may hold, in bytes, or 0L if there is no limit */
+  protected volatile long maxMemory = 0L;
+  /** The running statistics */
+  protected final CacheStatistics statistics = new CacheStatistics(this);
 
   public GeneralCache()
   {
+    stripes = new CacheStripe[stripeCount];
+    int i = 0;
+    while (i < stripeCount)
+    {
+      stripes[i++] = new CacheStripe();
+    }
+  }
+
+  /** Set the memory limit for sized objects.  Objects cached while the limit is zero are not charged.
+  *@param maxMemory is the limit in bytes, or 0L for no limit.
+  */
+  public void setMaxMemory(long maxMemory)
+  {
+    this.maxMemory = maxMemory;
+    if (maxMemory > 0L)
+      enforceMemoryLimit();
+  }
+
+  /** Get the running statistics for this cache.
+  *@return the statistics.
+  */
+  public CacheStatistics getStatistics()
+  {
+    return statistics;
+  }
+
+  /** Get the estimated memory held by sized objects.
+  *@return the estimate, in bytes.
+  */
+  public long getCurrentMemory()
+  {
+    return currentMemory.get();
+  }
+
+  /** Get the number of cached objects belonging to an object class.
+  *@param objectClass is the object class.
+  *@return the count.
+  */
+  public int getObjectClassCount(String objectClass)
+  {
+    AtomicInteger count = objectClassCounts.get(objectClass);
+    if (count == null)
+      return 0;
+    return count.get();
   }
 
   /** Locate an object in the cache, and return it if found.
   *@param objectDescription is the object's unique identifier.
   *@return the object if found, or null if not present in the cache.
   */
-  public synchronized Object lookup(Object objectDescription)
+  public Object lookup(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getStripe(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return null;
     return o.getObject();
@@ -60,9 +124,9 @@ public class GeneralCache
   *@param objectDescription is the object's unique identifier.
   *@return the creation time, or -1 if object not found.
   */
-  public synchronized long getObjectCreationTime(Object objectDescription)
+  public long getObjectCreationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getStripe(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return -1L;
     return o.getCreationTime();
@@ -72,9 +136,9 @@ public class GeneralCache
   *@param objectDescription is the object's unique identifier.
   *@return the keys, or null if not found.
   */
-  public synchronized StringSet getObjectInvalidationKeys(Object objectDescription)
+  public StringSet getObjectInvalidationKeys(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getStripe(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return null;
     return o.getKeys();
@@ -84,9 +148,9 @@ public class GeneralCache
   *@param objectDescription is the object's unique identifier.
   *@return the expiration time (-1L means none).
   */
-  public synchronized long getObjectExpirationTime(Object objectDescription)
+  public long getObjectExpirationTime(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
+    ObjectRecord o = getStripe(objectDescription).hashtable.lookup(objectDescription);
     if (o == null)
       return -1L;
     return o.getObjectExpiration();
@@ -95,11 +159,15 @@ public class GeneralCache
   /** Delete a record from the cache.
   *@param objectDescription is the unique description.
   */
-  public synchronized void deleteObject(Object objectDescription)
+  public void deleteObject(Object objectDescription)
   {
-    ObjectRecord o = hashtable.lookup(objectDescription);
-    if (o != null)
-      deleteEntry(o);
+    CacheStripe stripe = getStripe(objectDescription);
+    synchronized (stripe)
+    {
+      ObjectRecord o = stripe.hashtable.lookup(objectDescription);
+      if (o != null)
+        stripe.deleteEntry(o);
+    }
   }
 
   /** Add a newly created object to the cache.  Use ONLY for newly created objects!
@@ -108,37 +176,59 @@ public class GeneralCache
   *@param keys are the invalidation keys for the newly created object.
   *@param timestamp is the creation timestamp for this object (used for cross-JVM invalidation)
   */
-  public synchronized void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
+  public void setObject(Object objectDescription, Object object, StringSet keys, long timestamp)
   {
-    ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp);
-    hashtable.add(record);
-    // Make an entry in the invalidation hash
-    invalidationTable.addKeys(keys,record);
-    // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
-    // class trees
+    long memorySize = 0L;
+    if (maxMemory > 0L && (object instanceof IMemorySizedObject))
+      memorySize = ((IMemorySizedObject)object).getEstimatedMemorySize();
+    ObjectRecord record = new ObjectRecord(objectDescription,object,keys,timestamp,memorySize);
+    CacheStripe stripe = getStripe(objectDescription);
+    synchronized (stripe)
+    {
+      // If another thread got here first, its record must go, or it will be left
+      // behind in the other structures
+      ObjectRecord existing = stripe.hashtable.lookup(objectDescription);
+      if (existing != null)
+        stripe.deleteEntry(existing);
+      record.setLRUStamp(lruCounter.incrementAndGet());
+      stripe.hashtable.add(record);
+      // Make an entry in the invalidation hash
+      stripe.invalidationTable.addKeys(keys,record);
+      // Charge the object's memory
+      if (memorySize > 0L)
+        stripe.sizedTable.addEntry(record);
+      // Object has no expiration or class yet, so don't add it to the expiration tree, or to the object
+      // class trees
+    }
+    if (memorySize > 0L)
+      enforceMemoryLimit();
   }
 
   /** Set an object's expiration time.
   *@param objectDescription is the object's unique description.
   *@param expirationTime is the object's new expiration time, in milliseconds since epoch.
   */
-  public synchronized void setObjectExpiration(Object objectDescription, long expirationTime)
+  public void setObjectExpiration(Object objectDescription, long expirationTime)
   {
-    // Find existing object
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectExpiration() != -1)
+    CacheStripe stripe = getStripe(objectDescription);
+    synchronized (stripe)
     {
-      // Pull the object from the expiration tree
-      expirationTree.removeEntry(existing);
-    }
-    // Set the new expiration
-    existing.setObjectExpiration(expirationTime);
-    if (expirationTime != -1)
-    {
-      //Put the object back into the expiration tree
-      expirationTree.addEntry(existing);
+      // Find existing object
+      ObjectRecord existing = stripe.hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectExpiration() != -1)
+      {
+        // Pull the object from the expiration tree
+        stripe.expirationTree.removeEntry(existing);
+      }
+      // Set the new expiration
+      existing.setObjectExpiration(expirationTime);
+      if (expirationTime != -1)
+      {
+        //Put the object back into the expiration tree
+        stripe.expirationTree.addEntry(existing);
+      }
     }
   }
 
@@ -149,35 +239,70 @@ public class GeneralCache
   *@param maxCount is the maximum number of objects of the class to permit to
   * remain in the cache.
   */
-  public synchronized void setObjectClass(Object objectDescription, String objectClass,
+  public void setObjectClass(Object objectDescription, String objectClass,
     int maxCount)
   {
-    // Lookup the existing object class
-    ObjectRecord existing = hashtable.lookup(objectDescription);
-    if (existing == null)
-      return;
-    if (existing.getObjectClass() != null)
+    CacheStripe stripe = getStripe(objectDescription);
+    synchronized (stripe)
     {
-      // Pull the object from the object class expiration tree
-      objectClassTable.removeEntry(existing);
+      // Lookup the existing object class
+      ObjectRecord existing = stripe.hashtable.lookup(objectDescription);
+      if (existing == null)
+        return;
+      if (existing.getObjectClass() != null)
+      {
+        // Pull the object from the object class expiration tree
+        stripe.objectClassTable.removeEntry(existing);
+      }
+      if (existing.getMemorySize() > 0L)
+        stripe.sizedTable.removeEntry(existing);
+      // Set the new object class & LRU value
+      existing.setObjectClass(objectClass);
+      existing.setLRUStamp(lruCounter.incrementAndGet());
+      if (existing.getMemorySize() > 0L)
+        stripe.sizedTable.addEntry(existing);
+      if (objectClass != null)
+      {
+        // Put the object into the object class expiration tree
+        stripe.objectClassTable.addEntry(existing);
+      }
     }
-    // Set the new object class & LRU value
-    existing.setObjectClass(objectClass);
-    if (objectClass != null)
-    {
-      // Put the object into the object class expiration tree
-      objectClassTable.addEntry(existing);
 
-      if (maxCount >= 0)
+    if (objectClass != null && maxCount >= 0)
+    {
+      // Now, clean up objects to meet the count
+      while (getObjectClassCount(objectClass) > maxCount)
       {
-        // Now, clean up objects to meet the count
-        while (objectClassTable.getCurrentMemberCount(objectClass) > maxCount)
+        // Find the stripe with the least recently used member of the class
+        CacheStripe oldestStripe = null;
+        long oldestStamp = Long.MAX_VALUE;
+        int i = 0;
+        while (i < stripeCount)
         {
-          ObjectRecord oldestRecord = objectClassTable.getOldestEntry(objectClass);
+          CacheStripe candidate = stripes[i++];
+          synchronized (candidate)
+          {
+            ObjectRecord oldestRecord = candidate.objectClassTable.getOldestEntry(objectClass);
+            if (oldestRecord != null && oldestRecord.getLRUStamp() < oldestStamp)
+            {
+              oldestStamp = oldestRecord.getLRUStamp();
+              oldestStripe = candidate;
+            }
+          }
+        }
+        if (oldestStripe == null)
+          break;
+        synchronized (oldestStripe)
+        {
+          // Another thread may have beaten us to it, but any member of the class will do
+          ObjectRecord oldestRecord = oldestStripe.objectClassTable.getOldestEntry(objectClass);
           // Delete this entry from all places it lives
-          deleteEntry(oldestRecord);
+          if (oldestRecord != null)
+          {
+            oldestStripe.deleteEntry(oldestRecord);
+            statistics.noteEviction(objectClass);
+          }
         }
-
       }
     }
 
@@ -187,31 +312,37 @@ public class GeneralCache
   * keys as invalidation keys to be removed from the cache.
   *@param keys is the StringSet describing the keys to invalidate.
   */
-  public synchronized void invalidateKeys(StringSet keys)
+  public void invalidateKeys(StringSet keys)
   {
-    Iterator enum2 = keys.getKeys();
-    while (enum2.hasNext())
+    Iterator enum3 = keys.getKeys();
+    while (enum3.hasNext())
     {
-      String invalidateKey = (String)enum2.next();
-      Iterator enum1 = invalidationTable.getObjectRecordsForKey(invalidateKey);
-      while (enum1.hasNext())
+      statistics.noteKeyInvalidation((String)enum3.next());
+    }
+    int i = 0;
+    while (i < stripeCount)
+    {
+      CacheStripe stripe = stripes[i++];
+      synchronized (stripe)
       {
-        ObjectRecord record = (ObjectRecord)enum1.next();
-        hashtable.remove(record);
-        // Remove from object class table
-        if (record.getObjectClass() != null)
-        {
-          objectClassTable.removeEntry(record);
-        }
-        // Remove from expiration table
-        if (record.getExpirationTime() >= 0)
+        Iterator enum2 = keys.getKeys();
+        while (enum2.hasNext())
         {
-          expirationTree.removeEntry(record);
+          String invalidateKey = (String)enum2.next();
+          // Copy the records, because deleting them modifies the table we'd be enumerating
+          List<ObjectRecord> records = stripe.invalidationTable.getObjectRecordsForKey(invalidateKey);
+          if (records == null)
+            continue;
+          Iterator<ObjectRecord> enum1 = records.iterator();
+          while (enum1.hasNext())
+          {
+            ObjectRecord record = enum1.next();
+            stripe.deleteEntry(record);
+            statistics.noteObjectInvalidation(record.getObjectClass(),invalidateKey);
+          }
+          stripe.invalidationTable.removeKey(invalidateKey);
         }
-
       }
-      // We do this last, because we are enumerating over something in here!
-      invalidationTable.removeKey(invalidateKey);
     }
   }
 
@@ -220,47 +351,132 @@ public class GeneralCache
   */
   public void expireRecords(long expireTime)
   {
-    while (true)
+    int i = 0;
+    while (i < stripeCount)
     {
-      // Do the synchronizer inside the loop.  Cleanup is slower,
-      // but the cache does not get locked for long periods.
-      synchronized (this)
+      CacheStripe stripe = stripes[i++];
+      while (true)
       {
-        // Get the oldest record, if any
-        ObjectRecord x = expirationTree.getOldestEntry();
-        if (x == null)
-          break;
-        if (x.getExpirationTime() > expireTime)
-          break;
-        // Remove the entry
-        deleteEntry(x);
+        // Do the synchronizer inside the loop.  Cleanup is slower,
+        // but the cache does not get locked for long periods.
+        synchronized (stripe)
+        {
+          // Get the oldest record, if any
+          ObjectRecord x = stripe.expirationTree.getOldestEntry();
+          if (x == null)
+            break;
+          if (x.getExpirationTime() > expireTime)
+            break;
+          // Remove the entry
+          stripe.deleteEntry(x);
+          statistics.noteExpiration(x.getObjectClass());
+        }
       }
     }
   }
 
-  /** Delete a record from the cache. NOTE WELL: This method cannot be used
-  * if the data associated with the record is currently being processed with
-  * an enumeration (for example), since it modifies the structures that the
-  * enumeration is based on!
-  *@param record is the object record.
+  /** Flush least recently used sized objects until the memory limit is met.
   */
-  protected void deleteEntry(ObjectRecord record)
+  protected void enforceMemoryLimit()
   {
-    // Delete from the main cache
-    hashtable.remove(record);
-    // Delete from key hash
-    invalidationTable.removeObjectRecord(record);
-    // Remove from object class table
-    if (record.getObjectClass() != null)
-    {
-      objectClassTable.removeEntry(record);
-    }
-    // Remove from expiration table
-    if (record.getExpirationTime() >= 0)
+    while (true)
     {
-      expirationTree.removeEntry(record);
+      long limit = maxMemory;
+      if (limit <= 0L || currentMemory.get() <= limit)
+        return;
+      // Find the stripe with the least recently used sized object
+      CacheStripe oldestStripe = null;
+      long oldestStamp = Long.MAX_VALUE;
+      int i = 0;
+      while (i < stripeCount)
+      {
+        CacheStripe candidate = stripes[i++];
+        synchronized (candidate)
+        {
+          ObjectRecord oldestRecord = candidate.sizedTable.getOldestEntry();
+          if (oldestRecord != null && oldestRecord.getLRUStamp() < oldestStamp)
+          {
+            oldestStamp = oldestRecord.getLRUStamp();
+            oldestStripe = candidate;
+          }
+        }
+      }
+      if (oldestStripe == null)
+        return;
+      synchronized (oldestStripe)
+      {
+        ObjectRecord oldestRecord = oldestStripe.sizedTable.getOldestEntry();
+        if (oldestRecord != null)
+        {
+          oldestStripe.deleteEntry(oldestRecord);
+          statistics.noteEviction(oldestRecord.getObjectClass());
+        }
+      }
     }
+  }
 
+  /** Find the stripe for an object.
+  *@param objectDescription is the object's unique description.
+  *@return the stripe.
+  */
+  protected CacheStripe getStripe(Object objectDescription)
+  {
+    int h = objectDescription.hashCode();
+    // Spread the hash, since descriptions often have poor low-order bits
+    h ^= (h >>> 16);
+    h ^= (h >>> 8);
+    return stripes[h & (stripeCount - 1)];
+  }
+
+  /** This class holds one stripe of the cache.  All access to the structures other than the
+  * object table must be done while synchronized on the stripe.
+  */
+  protected class CacheStripe
+  {
+    // This table is for looking stuff up by object description
+    protected final ObjectRecordTable hashtable = new ObjectRecordTable();
+    // This table is for looking stuff up by cache key - hash table of hash tables
+    protected final InvalidationTable invalidationTable = new InvalidationTable();
+    // This table keeps the LRU list of each object class
+    protected final ObjectClassTable objectClassTable = new ObjectClassTable();
+    // This table keeps the LRU list of objects that are charged memory
+    protected final SizedObjectTable sizedTable = new SizedObjectTable();
+    // This structure is the general expiration tree
+    protected final ExpirationTree expirationTree = new ExpirationTree();
+
+    public CacheStripe()
+    {
+    }
+
+    /** Delete a record from the stripe. NOTE WELL: This method cannot be used
+    * if the data associated with the record is currently being processed with
+    * an enumeration (for example), since it modifies the structures that the
+    * enumeration is based on!
+    *@param record is the object record.
+    */
+    public void deleteEntry(ObjectRecord record)
+    {
+      // Delete from the main cache
+      hashtable.remove(record);
+      // Delete from key hash
+      invalidationTable.removeObjectRecord(record);
+      // Remove from object class table
+      if (record.getObjectClass() != null)
+      {
+        objectClassTable.removeEntry(record);
+      }
+      // Remove from the memory accounting
+      if (record.getMemorySize() > 0L)
+      {
+        sizedTable.removeEntry(record);
+      }
+      // Remove from expiration table
+      if (record.getExpirationTime() >= 0)
+      {
+        expirationTree.removeEntry(record);
+      }
+
+    }
   }
 
   /** This class represents a cached object.  It has enough hooks to allow it
@@ -268,23 +484,65 @@ public class GeneralCache
   */
   protected class ObjectRecord
   {
-    protected Object objectDescription;
-    protected Object theObject;
-    protected StringSet invalidationKeys;
-    protected long creationTime;
-    protected long expirationTime = -1;
+    protected final Object objectDescription;
+    protected final Object theObject;
+    protected final StringSet invalidationKeys;
+    protected final long creationTime;
+    protected final long memorySize;
+    // Read without the stripe lock
+    protected volatile long expirationTime = -1;
     protected String objectClass = null;
+    protected long lruStamp = 0L;
     protected ObjectRecord prevLRU = null;
     protected ObjectRecord nextLRU = null;
+    protected ObjectRecord prevSized = null;
+    protected ObjectRecord nextSized = null;
     protected ObjectRecord sameExpirationPrev = null;
     protected ObjectRecord sameExpirationNext = null;
 
-    public ObjectRecord(Object objectDescription, Object theObject, StringSet invalidationKeys, long creationTime)
+    public ObjectRecord(Object objectDescription, Object theObject, StringSet invalidationKeys, long creationTime,
+      long memorySize)
     {
       this.creationTime = creationTime;
       this.objectDescription = objectDescription;
       this.theObject = theObject;
       this.invalidationKeys = invalidationKeys;
+      this.memorySize = memorySize;
+    }
+
+    public long getMemorySize()
+    {
+      return memorySize;
+    }
+
+    public void setLRUStamp(long stamp)
+    {
+      lruStamp = stamp;
+    }
+
+    public long getLRUStamp()
+    {
+      return lruStamp;
+    }
+
+    public ObjectRecord getPrevSized()
+    {
+      return prevSized;
+    }
+
+    public ObjectRecord getNextSized()
+    {
+      return nextSized;
+    }
+
+    public void setPrevSized(ObjectRecord prev)
+    {
+      prevSized = prev;
+    }
+
+    public void setNextSized(ObjectRecord next)
+    {
+      nextSized = next;
     }
 
     public long getCreationTime()
@@ -387,11 +645,12 @@ public class GeneralCache
   }
 
   /** This class describes a table of object records, looked up
-  * by the unique object description.
+  * by the unique object description.  Lookups may be done without
+  * holding the stripe lock.
   */
   protected class ObjectRecordTable
   {
-    protected HashMap hashtable = new HashMap();
+    protected ConcurrentHashMap<Object,ObjectRecord> hashtable = new ConcurrentHashMap<Object,ObjectRecord>();
 
     public ObjectRecordTable()
     {
@@ -414,7 +673,7 @@ public class GeneralCache
 
     public ObjectRecord lookup(Object objectDescription)
     {
-      return (ObjectRecord)hashtable.get(objectDescription);
+      return hashtable.get(objectDescription);
     }
   }
 
@@ -445,15 +704,15 @@ public class GeneralCache
       }
     }
 
-    public Iterator getObjectRecordsForKey(String key)
+    /** Get a copy of the records for a key.
+    *@return the records, or null if there are none.
+    */
+    public List<ObjectRecord> getObjectRecordsForKey(String key)
     {
       HashMap ht = (HashMap)hashtable.get(key);
       if (ht == null)
-      {
-        ht = new HashMap();
-        hashtable.put(key,ht);
-      }
-      return ht.keySet().iterator();
+        return null;
+      return new ArrayList<ObjectRecord>(ht.keySet());
     }
 
     public void removeKey(String key)
@@ -479,6 +738,8 @@ public class GeneralCache
       if (ht == null)
         return;
       ht.remove(objectRecord);
+      if (ht.size() == 0)
+        hashtable.remove(key);
     }
 
   }
@@ -504,6 +765,15 @@ public class GeneralCache
         hashtable.put(record.getObjectClass(),x);
       }
       x.addEntry(record);
+      AtomicInteger count = objectClassCounts.get(record.getObjectClass());
+      if (count == null)
+      {
+        AtomicInteger newCount = new AtomicInteger(0);
+        count = objectClassCounts.putIfAbsent(record.getObjectClass(),newCount);
+        if (count == null)
+          count = newCount;
+      }
+      count.incrementAndGet();
     }
 
     /** Call ONLY if there is known to be an existing record in the object class table
@@ -514,6 +784,9 @@ public class GeneralCache
       if (x == null)
         return;
       x.removeEntry(record);
+      objectClassCounts.get(record.getObjectClass()).decrementAndGet();
+      if (x.getCurrentMemberCount() == 0)
+        hashtable.remove(record.getObjectClass());
     }
 
     public int getCurrentMemberCount(String objectClassName)
@@ -598,6 +871,61 @@ public class GeneralCache
 
   }
 
+  /** This class keeps the objects that are charged memory in a stripe, in LRU order,
+  * and charges and credits their sizes against the cache total.
+  */
+  protected class SizedObjectTable
+  {
+    protected ObjectRecord firstLRU = null;
+    protected ObjectRecord lastLRU = null;
+
+    public SizedObjectTable()
+    {
+    }
+
+    /** Add a record to the end of the LRU list.
+    * Call this ONLY if it is known that the entry is not already present!!!
+    */
+    public void addEntry(ObjectRecord x)
+    {
+      x.setNextSized(null);
+      x.setPrevSized(lastLRU);
+      if (lastLRU == null)
+        firstLRU = x;
+      else
+        lastLRU.setNextSized(x);
+      lastLRU = x;
+      currentMemory.addAndGet(x.getMemorySize());
+    }
+
+    /** Call this ONLY if it is known that the entry is present!!!
+    */
+    public void removeEntry(ObjectRecord x)
+    {
+      ObjectRecord prev = x.getPrevSized();
+      ObjectRecord next = x.getNextSized();
+      if (prev == null)
+        firstLRU = next;
+      else
+        prev.setNextSized(next);
+      if (next == null)
+        lastLRU = prev;
+      else
+        next.setPrevSized(prev);
+      x.setPrevSized(null);
+      x.setNextSized(null);
+      currentMemory.addAndGet(-x.getMemorySize());
+    }
+
+    /** Find the first (oldest) entry, or null
+    * if there is none.
+    */
+    public ObjectRecord getOldestEntry()
+    {
+      return firstLRU;
+    }
+  }
+
   /** This class represents a timed expiration tree.  Expiration
   * is used to order the nodes.
   */
@@ -0,0 +1,271 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class runs InterruptibleIOTask objects on a bounded, shared set of daemon threads,
+* so that connectors need not create a new thread for every call they make to a server.
+* Idle threads go away after a while.
+*
+* Besides the overall bound, no more than a configured number of tasks with the same
+* connection key run at once; the rest wait, in order, for a running task with that key to
+* finish.  A task waiting either way can be cancelled, and never runs.
+*
+* The executor is configured once per JVM, when the environment is initialized.  Until then it
+* uses its defaults.  The thread count should be well above the number of threads (e.g. worker
+* threads) that may be waiting on tasks at the same time, since a task that streams content may
+* hold its executor thread until the waiting thread has read everything.
+*/
+public class InterruptibleIOExecutor
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Default number of executor threads */
+  public final static int DEFAULT_MAX_THREADS = 500;
+  /** Default number of tasks per connection key that may run at once (0 means no limit) */
+  public final static int DEFAULT_MAX_PER_CONNECTION = 0;
+
+  /** How long an idle executor thread lives, in seconds */
+  protected final static long threadKeepAlive = 60L;
+
+  protected static int maxThreads = DEFAULT_MAX_THREADS;
+  protected static int maxPerConnection = DEFAULT_MAX_PER_CONNECTION;
+
+  /** The executor, created when first needed */
+  protected static ThreadPoolExecutor executor = null;
+
+  /** Tasks running, or waiting, per connection key (only when there is a per-connection limit) */
+  protected final static Map<String,ConnectionState> connectionStates = new HashMap<String,ConnectionState>();
+  /** The number of tasks held back by a per-connection limit */
+  protected static int connectionQueueDepth = 0;
+
+  /** Counter for thread names */
+  protected final static AtomicInteger threadCounter = new AtomicInteger(0);
+
+  private InterruptibleIOExecutor()
+  {
+  }
+
+  /** Configure the executor.
+  *@param threads is the most tasks that may run at once.
+  *@param perConnection is the most tasks with the same connection key that may run at once, or 0 for no limit.
+  */
+  public static synchronized void configure(int threads, int perConnection)
+  {
+    maxThreads = threads;
+    maxPerConnection = perConnection;
+    if (executor != null)
+    {
+      // Raise the maximum first, since the core size may not exceed it
+      if (threads > executor.getMaximumPoolSize())
+      {
+        executor.setMaximumPoolSize(threads);
+        executor.setCorePoolSize(threads);
+      }
+      else
+      {
+        executor.setCorePoolSize(threads);
+        executor.setMaximumPoolSize(threads);
+      }
+    }
+  }
+
+  /** Stop all threads.  Running tasks are interrupted, and queued tasks are dropped.  The
+  * executor starts up again if more tasks are submitted.
+  */
+  public static void shutdown()
+  {
+    ThreadPoolExecutor oldExecutor;
+    List<InterruptibleIOTask> droppedTasks = new ArrayList<InterruptibleIOTask>();
+    synchronized (InterruptibleIOExecutor.class)
+    {
+      oldExecutor = executor;
+      executor = null;
+      for (ConnectionState cs : connectionStates.values())
+      {
+        droppedTasks.addAll(cs.pending);
+      }
+      connectionStates.clear();
+      connectionQueueDepth = 0;
+    }
+    if (oldExecutor != null)
+    {
+      for (Runnable r : oldExecutor.shutdownNow())
+      {
+        droppedTasks.add(((InterruptibleIOTask.TaskRunnable)r).getTask());
+      }
+    }
+    // Anyone waiting for a dropped task must not wait forever
+    for (InterruptibleIOTask task : droppedTasks)
+    {
+      task.markDone();
+    }
+  }
+
+  /** Get the number of tasks waiting to run, whether for a thread or because of a
+  * per-connection limit.
+  */
+  public static synchronized int getQueueDepth()
+  {
+    int rval = connectionQueueDepth;
+    if (executor != null)
+      rval += executor.getQueue().size();
+    return rval;
+  }
+
+  /** Get the number of tasks running.
+  */
+  public static synchronized int getActiveCount()
+  {
+    if (executor == null)
+      return 0;
+    return executor.getActiveCount();
+  }
+
+  /** Get the number of tasks with a given connection key that are held back by the
+  * per-connection limit.
+  */
+  public static synchronized int getQueueDepth(String connectionKey)
+  {
+    ConnectionState cs = connectionStates.get(connectionKey);
+    if (cs == null)
+      return 0;
+    return cs.pending.size();
+  }
+
+  /** Get the number of tasks with a given connection key that have been handed to the
+  * executor, and have not yet finished.  This is only counted when there is a per-connection limit.
+  */
+  public static synchronized int getActiveCount(String connectionKey)
+  {
+    ConnectionState cs = connectionStates.get(connectionKey);
+    if (cs == null)
+      return 0;
+    return cs.activeCount;
+  }
+
+  /** Queue a task.
+  */
+  protected static synchronized void submit(InterruptibleIOTask task)
+  {
+    String connectionKey = task.getConnectionKey();
+    if (connectionKey != null && maxPerConnection > 0)
+    {
+      ConnectionState cs = connectionStates.get(connectionKey);
+      if (cs == null)
+      {
+        cs = new ConnectionState();
+        connectionStates.put(connectionKey,cs);
+      }
+      if (cs.activeCount >= maxPerConnection)
+      {
+        cs.pending.add(task);
+        connectionQueueDepth++;
+        return;
+      }
+      cs.activeCount++;
+    }
+    getExecutor().execute(task.runnable);
+  }
+
+  /** Try to remove a task that has not yet started.
+  *@return true if the task was removed, and so will never run.
+  */
+  protected static synchronized boolean cancel(InterruptibleIOTask task)
+  {
+    String connectionKey = task.getConnectionKey();
+    ConnectionState cs = (connectionKey == null)?null:connectionStates.get(connectionKey);
+    if (cs != null && cs.pending.remove(task))
+    {
+      connectionQueueDepth--;
+      if (cs.activeCount == 0 && cs.pending.size() == 0)
+        connectionStates.remove(connectionKey);
+      return true;
+    }
+    if (executor != null && executor.remove(task.runnable))
+    {
+      releaseConnectionSlot(task);
+      return true;
+    }
+    return false;
+  }
+
+  /** Note that a task is done running.
+  */
+  protected static synchronized void taskDone(InterruptibleIOTask task)
+  {
+    releaseConnectionSlot(task);
+  }
+
+  /** Give up a task's per-connection slot, and start the next task waiting for it.
+  */
+  protected static void releaseConnectionSlot(InterruptibleIOTask task)
+  {
+    String connectionKey = task.getConnectionKey();
+    if (connectionKey == null)
+      return;
+    ConnectionState cs = connectionStates.get(connectionKey);
+    if (cs == null)
+      return;
+    InterruptibleIOTask next = cs.pending.poll();
+    if (next != null)
+    {
+      connectionQueueDepth--;
+      getExecutor().execute(next.runnable);
+      return;
+    }
+    cs.activeCount--;
+    if (cs.activeCount <= 0)
+      connectionStates.remove(connectionKey);
+  }
+
+  protected static ThreadPoolExecutor getExecutor()
+  {
+    if (executor == null)
+    {
+      executor = new ThreadPoolExecutor(maxThreads,maxThreads,threadKeepAlive,TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),new ExecutorThreadFactory());
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
+
+  /** Tasks running or waiting, for a connection key */
+  protected static class ConnectionState
+  {
+    public int activeCount = 0;
+    public final LinkedList<InterruptibleIOTask> pending = new LinkedList<InterruptibleIOTask>();
+  }
+
+  /** Make daemon threads, so that abandoned I/O never holds up JVM exit */
+  protected static class ExecutorThreadFactory implements ThreadFactory
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r,"I/O task "+Integer.toString(threadCounter.incrementAndGet()));
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+}
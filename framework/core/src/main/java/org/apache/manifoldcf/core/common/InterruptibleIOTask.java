@@ -0,0 +1,218 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import org.apache.manifoldcf.core.system.Logging;
+
+/** This is the base class for a piece of blocking I/O that a connector runs on behalf of a
+* worker thread, so that the worker thread can be interrupted (and can abandon the I/O) even
+* though the I/O itself cannot be.  It is a drop-in replacement for a dedicated java.lang.Thread:
+* the connector calls start(), then join() (or waits on its own signals), and interrupt() if the
+* worker thread is itself interrupted.
+*
+* The difference is that the task runs on one of the shared threads of the InterruptibleIOExecutor,
+* rather than on a thread of its own.  Interrupting a task that is still waiting for a thread
+* simply removes it from the queue.
+*/
+public abstract class InterruptibleIOTask
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final static int STATE_NEW = 0;
+  protected final static int STATE_QUEUED = 1;
+  protected final static int STATE_RUNNING = 2;
+  protected final static int STATE_DONE = 3;
+
+  /** The key that the per-connection limit applies to, or null if none */
+  protected final String connectionKey;
+
+  /** What the executor actually runs */
+  protected final TaskRunnable runnable = new TaskRunnable();
+
+  private int state = STATE_NEW;
+  private Thread runner = null;
+  private boolean interruptRequested = false;
+
+  /** Constructor, for a task that is not subject to any per-connection limit.
+  */
+  protected InterruptibleIOTask()
+  {
+    this(null);
+  }
+
+  /** Constructor.
+  *@param connectionKey describes the server or connection the task talks to.  No more than the
+  * configured number of tasks with the same key run at once.
+  */
+  protected InterruptibleIOTask(String connectionKey)
+  {
+    this.connectionKey = connectionKey;
+  }
+
+  /** Do the work.  This is called on an executor thread.
+  */
+  public abstract void run();
+
+  /** Get the connection key.
+  */
+  public String getConnectionKey()
+  {
+    return connectionKey;
+  }
+
+  /** Queue the task to run.
+  */
+  public void start()
+  {
+    synchronized (this)
+    {
+      if (state != STATE_NEW)
+        throw new IllegalStateException("Task already started");
+      state = STATE_QUEUED;
+    }
+    InterruptibleIOExecutor.submit(this);
+  }
+
+  /** Interrupt the task.  If it is running, the thread running it is interrupted; if it
+  * is still queued, it will never run.
+  */
+  public void interrupt()
+  {
+    synchronized (this)
+    {
+      interruptRequested = true;
+      if (state == STATE_RUNNING)
+      {
+        runner.interrupt();
+        return;
+      }
+      if (state != STATE_QUEUED)
+        return;
+    }
+    // Still waiting.  If we can pull it from the queue, it is done; otherwise an executor thread
+    // has already picked it up, and will see the interruption request when it starts.
+    if (InterruptibleIOExecutor.cancel(this))
+      markDone();
+  }
+
+  /** Wait for the task to finish.
+  */
+  public void join()
+    throws InterruptedException
+  {
+    synchronized (this)
+    {
+      while (state == STATE_QUEUED || state == STATE_RUNNING)
+      {
+        wait();
+      }
+    }
+  }
+
+  /** Wait for the task to finish, but no longer than the specified time.
+  *@param millis is the longest time to wait, in milliseconds; 0 means forever.
+  */
+  public void join(long millis)
+    throws InterruptedException
+  {
+    if (millis == 0L)
+    {
+      join();
+      return;
+    }
+    long endTime = System.currentTimeMillis() + millis;
+    synchronized (this)
+    {
+      while (state == STATE_QUEUED || state == STATE_RUNNING)
+      {
+        long waitTime = endTime - System.currentTimeMillis();
+        if (waitTime <= 0L)
+          return;
+        wait(waitTime);
+      }
+    }
+  }
+
+  /** Check whether the task has been started and has not yet finished.
+  */
+  public synchronized boolean isAlive()
+  {
+    return state == STATE_QUEUED || state == STATE_RUNNING;
+  }
+
+  /** Called by the executor thread.
+  */
+  protected void execute()
+  {
+    synchronized (this)
+    {
+      if (state != STATE_QUEUED)
+        return;
+      state = STATE_RUNNING;
+      runner = Thread.currentThread();
+      if (interruptRequested)
+        runner.interrupt();
+    }
+    try
+    {
+      run();
+    }
+    catch (Throwable e)
+    {
+      Logging.misc.warn("Uncaught exception in I/O task: "+e.getMessage(),e);
+    }
+    finally
+    {
+      // Give up the task's slot before anyone waiting in join() can see it is done
+      InterruptibleIOExecutor.taskDone(this);
+      synchronized (this)
+      {
+        // The task is done as soon as it no longer has a runner, so that interrupt() never
+        // sees a running task without one
+        runner = null;
+        state = STATE_DONE;
+        // Don't let an interruption leak into the next task this thread runs
+        Thread.interrupted();
+        notifyAll();
+      }
+    }
+  }
+
+  protected synchronized void markDone()
+  {
+    state = STATE_DONE;
+    notifyAll();
+  }
+
+  /** The executor runs this, rather than the task itself, so that run() remains the task's own */
+  protected class TaskRunnable implements Runnable
+  {
+    public InterruptibleIOTask getTask()
+    {
+      return InterruptibleIOTask.this;
+    }
+
+    @Override
+    public void run()
+    {
+      execute();
+    }
+  }
+
+}
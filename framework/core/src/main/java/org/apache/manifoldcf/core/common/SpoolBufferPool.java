@@ -0,0 +1,264 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import java.lang.ref.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class hands out the fixed-size buffers that spooled content (e.g. TempFileInput) is held
+* in before, or instead of, being written to a temporary file.  The total memory handed out at once
+* is capped; when the cap is reached, no buffer is handed out, and the caller is expected to spill
+* to disk instead.  Returned buffers are kept for reuse, up to a limit.
+*
+* The pool is configured once per JVM, when the environment is initialized.  Until then it uses
+* its defaults.
+*
+* Buffers that hold content are handed to their owner as a Lease.  Releasing the lease gives the
+* buffers back; a lease that becomes unreachable without being released is reclaimed the next time
+* the pool runs short, so a forgotten discard() does not shrink the pool for good.
+*/
+public class SpoolBufferPool
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The size of each buffer */
+  public final static int BUFFER_SIZE = 65536;
+
+  /** The most buffers we will keep around for reuse */
+  protected final static int maxPooledBuffers = 256;
+
+  /** Default largest amount of content a single stream may hold in memory */
+  public final static int DEFAULT_MEMORY_THRESHOLD = 1048576;
+
+  protected static volatile int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+  protected static volatile long maxMemory = getDefaultMaxMemory();
+  protected static volatile boolean offHeap = false;
+
+  /** Memory currently handed out */
+  protected final static AtomicLong memoryInUse = new AtomicLong(0L);
+  /** Buffers available for reuse */
+  protected final static ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+  /** The number of buffers available for reuse */
+  protected final static AtomicInteger freeBufferCount = new AtomicInteger(0);
+
+  /** References to the leases that have not been released, which must stay reachable themselves */
+  protected final static Set<LeaseReference> liveLeases = Collections.newSetFromMap(new ConcurrentHashMap<LeaseReference,Boolean>());
+  /** The queue that references to unreachable leases are put on */
+  protected final static ReferenceQueue<Lease> droppedLeases = new ReferenceQueue<Lease>();
+
+  private SpoolBufferPool()
+  {
+  }
+
+  /** Configure the pool.
+  *@param threshold is the most content, in bytes, a single stream may keep in memory; 0 means always use disk.
+  *@param maxTotal is the most memory, in bytes, that all streams together may keep.
+  *@param useOffHeap is true if buffers should be allocated outside the Java heap.
+  */
+  public static void configure(int threshold, long maxTotal, boolean useOffHeap)
+  {
+    memoryThreshold = threshold;
+    maxMemory = maxTotal;
+    if (useOffHeap != offHeap)
+    {
+      offHeap = useOffHeap;
+      // Don't hand out buffers of the wrong kind
+      freeBuffers.clear();
+      freeBufferCount.set(0);
+    }
+  }
+
+  /** Get the default total memory that may be handed out, which is one eighth of the maximum heap.
+  */
+  public static long getDefaultMaxMemory()
+  {
+    long heap = Runtime.getRuntime().maxMemory();
+    if (heap == Long.MAX_VALUE)
+      return 32L * 1048576L;
+    return heap / 8L;
+  }
+
+  /** Get the most content, in bytes, a single stream may keep in memory.
+  */
+  public static int getMemoryThreshold()
+  {
+    return memoryThreshold;
+  }
+
+  /** Get the memory currently held by spooled content.
+  */
+  public static long getMemoryInUse()
+  {
+    return memoryInUse.get();
+  }
+
+  /** Get a buffer, if memory permits.
+  *@return an empty buffer, ready to be filled, or null if the memory cap has been reached.
+  */
+  public static ByteBuffer acquire()
+  {
+    boolean reclaimed = false;
+    while (true)
+    {
+      long current = memoryInUse.get();
+      if (current + BUFFER_SIZE > maxMemory)
+      {
+        // See if any forgotten leases can be had back before giving up
+        if (reclaimed || !reclaimDroppedLeases())
+          return null;
+        reclaimed = true;
+        continue;
+      }
+      if (memoryInUse.compareAndSet(current,current + BUFFER_SIZE))
+        break;
+    }
+    ByteBuffer rval = freeBuffers.poll();
+    if (rval != null)
+    {
+      freeBufferCount.decrementAndGet();
+      rval.clear();
+      return rval;
+    }
+    if (offHeap)
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    return ByteBuffer.allocate(BUFFER_SIZE);
+  }
+
+  /** Copy a buffer that is mostly empty into one just large enough for its content, and give the
+  * original back, so small content is not charged a whole buffer.
+  *@param buffer is a buffer from acquire(), ready for reading.
+  *@return a buffer holding the same content, ready for reading.
+  */
+  public static ByteBuffer compact(ByteBuffer buffer)
+  {
+    int size = buffer.remaining();
+    if (size > buffer.capacity() / 2)
+      return buffer;
+    ByteBuffer rval = offHeap?ByteBuffer.allocateDirect(size):ByteBuffer.allocate(size);
+    memoryInUse.addAndGet(size);
+    rval.put(buffer.duplicate());
+    rval.flip();
+    release(buffer);
+    return rval;
+  }
+
+  /** Return a buffer obtained from acquire() or compact().
+  */
+  public static void release(ByteBuffer buffer)
+  {
+    memoryInUse.addAndGet(-buffer.capacity());
+    if (buffer.capacity() != BUFFER_SIZE || buffer.isDirect() != offHeap)
+      return;
+    if (freeBufferCount.incrementAndGet() <= maxPooledBuffers)
+      freeBuffers.add(buffer);
+    else
+      freeBufferCount.decrementAndGet();
+  }
+
+  /** Hand a set of buffers to an owner.
+  *@param buffers are buffers from acquire() or compact().
+  *@return the lease, which the owner must release once it is done with the content.
+  */
+  public static Lease lease(List<ByteBuffer> buffers)
+  {
+    reclaimDroppedLeases();
+    return new Lease(buffers);
+  }
+
+  /** Give back the buffers of leases that became unreachable without being released.
+  *@return true if any were found.
+  */
+  protected static boolean reclaimDroppedLeases()
+  {
+    boolean rval = false;
+    while (true)
+    {
+      Reference<? extends Lease> ref = droppedLeases.poll();
+      if (ref == null)
+        return rval;
+      ((LeaseReference)ref).releaseBuffers();
+      rval = true;
+    }
+  }
+
+  /** A set of buffers held by one owner.
+  */
+  public static class Lease
+  {
+    protected final List<ByteBuffer> buffers;
+    protected final LeaseReference reference;
+
+    protected Lease(List<ByteBuffer> buffers)
+    {
+      this.buffers = buffers;
+      this.reference = new LeaseReference(this,buffers);
+      liveLeases.add(reference);
+    }
+
+    /** Get the buffers.  They must not be used after the lease is released.
+    */
+    public List<ByteBuffer> getBuffers()
+    {
+      return buffers;
+    }
+
+    /** Give the buffers back to the pool.  Releasing more than once is harmless.
+    */
+    public void release()
+    {
+      reference.releaseBuffers();
+    }
+  }
+
+  /** The reference that lets the buffers of an unreachable lease be given back.  It holds the
+  * buffers, but not the lease.
+  */
+  protected static class LeaseReference extends PhantomReference<Lease>
+  {
+    protected List<ByteBuffer> buffers;
+
+    public LeaseReference(Lease lease, List<ByteBuffer> buffers)
+    {
+      super(lease,droppedLeases);
+      this.buffers = buffers;
+    }
+
+    public void releaseBuffers()
+    {
+      List<ByteBuffer> toRelease;
+      synchronized (this)
+      {
+        toRelease = buffers;
+        buffers = null;
+      }
+      if (toRelease == null)
+        return;
+      liveLeases.remove(this);
+      clear();
+      for (ByteBuffer buffer : toRelease)
+      {
+        release(buffer);
+      }
+    }
+  }
+
+}
@@ -57,6 +57,14 @@ public class BaseTable
     return dbInterface.getTransactionID();
   }
 
+  /** Arrange to be told when the transaction in effect ends.
+  *@param listener is the object to tell.
+  */
+  protected void addTransactionListener(ITransactionListener listener)
+  {
+    dbInterface.addTransactionListener(listener);
+  }
+
   /** Perform an insert operation.
   *@param invalidateKeys are the cache keys that should be
   * invalidated.
@@ -68,6 +76,17 @@ public class BaseTable
     dbInterface.performInsert(tableName,parameterMap,invalidateKeys);
   }
 
+  /** Perform an insert operation for many rows at once.
+  *@param rows is the list of column name/value maps to write, one per row.
+  *@param invalidateKeys are the cache keys that should be
+  * invalidated.
+  */
+  protected void performInsertMultiple(List<Map<String,Object>> rows, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    dbInterface.performInsertMultiple(tableName,rows,invalidateKeys);
+  }
+
   /** Perform an update operation.
   *@param invalidateKeys are the cache keys that should be invalidated.
   *@param parameterMap is the map of column name/values to write.
@@ -47,6 +47,16 @@ public class ConnectionFactory
   public static WrappedConnection getConnection(String jdbcUrl, String jdbcDriver, String database, String userName, String password,
     int maxDBConnections, boolean debug)
     throws ManifoldCFException
+  {
+    return getConnection(jdbcUrl,jdbcDriver,database,userName,password,new ConnectionPoolOptions(maxDBConnections,300000L),debug);
+  }
+
+  /** Get a connection, setting up the pool with the given options if it doesn't exist yet.
+  *@param poolOptions describes the pool's size, limits, validation, and statement caching.
+  */
+  public static WrappedConnection getConnection(String jdbcUrl, String jdbcDriver, String database, String userName, String password,
+    ConnectionPoolOptions poolOptions, boolean debug)
+    throws ManifoldCFException
   {
     // Make sure database driver is registered
     try
@@ -68,8 +78,7 @@ public class ConnectionFactory
       if (cp == null)
       {
         cpm.addAlias(database, jdbcDriver, jdbcUrl,
-          userName, password,
-          maxDBConnections, 300000L);
+          userName, password, poolOptions);
         cp = cpm.getPool(database);
       }
       return getConnectionWithRetries(cp);
@@ -102,6 +111,17 @@ public class ConnectionFactory
     c.release();
   }
 
+  /** Get statistics for this JVM's connection pools.
+  *@return a map from database name to pool statistics; empty if no pools have been set up.
+  */
+  public static Map<String,ConnectionPoolStatistics> getPoolStatistics()
+  {
+    ConnectionPoolManager cpm = poolManager.getPoolManager();
+    if (cpm == null)
+      return new HashMap<String,ConnectionPoolStatistics>();
+    return cpm.getStatistics();
+  }
+
   public static void releaseAll()
   {
     if (poolManager != null)
@@ -174,6 +194,14 @@ public class ConnectionFactory
       }
     }
 
+    public ConnectionPoolManager getPoolManager()
+    {
+      synchronized (poolExistenceLock)
+      {
+        return _pool;
+      }
+    }
+
     public void releaseAll()
     {
       ConnectionPoolManager thisPool;
@@ -216,6 +216,25 @@ public class DBInterfaceDerby extends Database implements IDBInterface
     performModification(bf.toString(),paramArray,invalidateKeys);
   }
 
+  /** Obtain the largest number of rows to write with one multi-row INSERT statement.
+  *@return the maximum number of rows.
+  */
+  @Override
+  protected int getMaxInsertRows()
+  {
+    return 100;
+  }
+
+  /** Obtain the largest number of parameters to bind to one multi-row INSERT statement.
+  *@return the maximum number of parameters.
+  */
+  @Override
+  protected int getMaxInsertParameters()
+  {
+    // Derby compiles long VALUES lists into deeply nested code, so keep them short
+    return 2000;
+  }
+
 
   /** Perform an update operation.
   *@param tableName is the name of the table.
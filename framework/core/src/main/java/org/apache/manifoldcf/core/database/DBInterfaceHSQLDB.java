@@ -230,6 +230,25 @@ public class DBInterfaceHSQLDB extends Database implements IDBInterface
     performModification(bf.toString(),paramArray,invalidateKeys);
   }
 
+  /** Obtain the largest number of rows to write with one multi-row INSERT statement.
+  *@return the maximum number of rows.
+  */
+  @Override
+  protected int getMaxInsertRows()
+  {
+    return 500;
+  }
+
+  /** Obtain the largest number of parameters to bind to one multi-row INSERT statement.
+  *@return the maximum number of parameters.
+  */
+  @Override
+  protected int getMaxInsertParameters()
+  {
+    // Very long statements are slow for HSQLDB to compile
+    return 10000;
+  }
+
 
   /** Perform an update operation.
   *@param tableName is the name of the table.
@@ -222,6 +222,25 @@ public class DBInterfaceMySQL extends Database implements IDBInterface
     performModification(bf.toString(),paramArray,invalidateKeys);
   }
 
+  /** Obtain the largest number of rows to write with one multi-row INSERT statement.
+  *@return the maximum number of rows.
+  */
+  @Override
+  protected int getMaxInsertRows()
+  {
+    return 1000;
+  }
+
+  /** Obtain the largest number of parameters to bind to one multi-row INSERT statement.
+  *@return the maximum number of parameters.
+  */
+  @Override
+  protected int getMaxInsertParameters()
+  {
+    // Keep each statement comfortably inside max_allowed_packet
+    return 30000;
+  }
+
 
   /** Perform an update operation.
   *@param tableName is the name of the table.
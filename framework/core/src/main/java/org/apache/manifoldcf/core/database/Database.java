@@ -51,10 +51,12 @@ public abstract class Database
   protected boolean commitDone = false;
   protected int delayedTransactionDepth = 0;
   protected Map<String,Modifications> modificationsSet = new HashMap<String,Modifications>();
+  /** Listeners to tell when the outermost transaction ends */
+  protected List<ITransactionListener> transactionListeners = new ArrayList<ITransactionListener>();
 
   protected final long maxQueryTime;
   protected final boolean debug;
-  protected final int maxDBConnections;
+  protected final ConnectionPoolOptions poolOptions;
   
   protected static Random random = new Random();
 
@@ -72,7 +74,11 @@ public abstract class Database
     
     this.maxQueryTime = ((long)LockManagerFactory.getIntProperty(context, ManifoldCF.databaseQueryMaxTimeProperty,60)) * 1000L;
     this.debug = LockManagerFactory.getBooleanProperty(context, ManifoldCF.databaseConnectionTrackingProperty, false);
-    this.maxDBConnections = LockManagerFactory.getIntProperty(context, ManifoldCF.databaseHandleMaxcountProperty, 50);
+    this.poolOptions = new ConnectionPoolOptions(LockManagerFactory.getIntProperty(context, ManifoldCF.databaseHandleMaxcountProperty, 50),300000L);
+    poolOptions.setAcquireTimeout(((long)LockManagerFactory.getIntProperty(context, ManifoldCF.databaseHandleAcquireTimeoutProperty, 0)) * 1000L);
+    poolOptions.setMaxWaiters(LockManagerFactory.getIntProperty(context, ManifoldCF.databaseHandleMaxWaitersProperty, 1000));
+    poolOptions.setValidationInterval(((long)LockManagerFactory.getIntProperty(context, ManifoldCF.databaseHandleValidationIntervalProperty, 60)) * 1000L);
+    poolOptions.setStatementCacheSize(LockManagerFactory.getIntProperty(context, ManifoldCF.databaseStatementCacheSizeProperty, 50));
 
     this.cacheManager = CacheManagerFactory.make(context);
   }
@@ -253,7 +259,7 @@ public abstract class Database
     if (connection == null)
     {
       connection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
-        maxDBConnections,debug);
+        poolOptions,debug);
       try
       {
         // Initialize the connection (for HSQLDB)
@@ -412,11 +418,37 @@ public abstract class Database
           modificationsSet.clear();
         else
           playbackModifications();
+        notifyTransactionListeners();
       }
     }
 
   }
 
+  /** Arrange to be told when the transaction in effect ends.  The listener is called when the outermost
+  * transaction ends, or right away if no transaction is in effect.
+  *@param listener is the object to tell.
+  */
+  public void addTransactionListener(ITransactionListener listener)
+  {
+    if (th == null)
+      listener.transactionEnded();
+    else
+      transactionListeners.add(listener);
+  }
+
+  /** Tell the listeners that the transaction is over */
+  private void notifyTransactionListeners()
+  {
+    if (transactionListeners.size() == 0)
+      return;
+    ITransactionListener[] listeners = transactionListeners.toArray(new ITransactionListener[transactionListeners.size()]);
+    transactionListeners.clear();
+    for (ITransactionListener listener : listeners)
+    {
+      listener.transactionEnded();
+    }
+  }
+
   /** Playback modifications */
   private void playbackModifications()
     throws ManifoldCFException
@@ -545,6 +577,139 @@ public abstract class Database
   */
   public abstract String constructOffsetLimitClause(int offset, int limit, boolean afterOrderBy);
 
+  /** Perform a general database modification query.
+  *@param query is the query string.
+  *@param params are the parameterized values, if needed.
+  *@param invalidateKeys are the cache keys to invalidate.
+  */
+  public abstract void performModification(String query, List params, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
+  /** Obtain the largest number of rows to write with one multi-row INSERT statement.
+  *@return the maximum number of rows.
+  */
+  protected abstract int getMaxInsertRows();
+
+  /** Obtain the largest number of parameters to bind to one multi-row INSERT statement.
+  *@return the maximum number of parameters.
+  */
+  protected abstract int getMaxInsertParameters();
+
+  /** Perform an insert operation for many rows at once.
+  *@param tableName is the name of the table.
+  *@param rows is the list of column name/value maps to write, one per row.
+  *@param invalidateKeys are the cache keys that should be
+  * invalidated.
+  */
+  public void performInsertMultiple(String tableName, List<Map<String,Object>> rows, StringSet invalidateKeys)
+    throws ManifoldCFException
+  {
+    List<String> queries = new ArrayList<String>();
+    List<List> parameters = new ArrayList<List>();
+    buildInsertMultipleStatements(tableName,rows,getMaxInsertRows(),getMaxInsertParameters(),queries,parameters);
+    int i = 0;
+    while (i < queries.size())
+    {
+      performModification(queries.get(i),parameters.get(i),invalidateKeys);
+      i++;
+    }
+  }
+
+  /** Build the multi-row INSERT statements needed to write a set of rows to a table.
+  * Null values are skipped, just as for a single-row insert, so rows are grouped by the set of columns
+  * they actually write; each group is then split into statements of no more than the given number
+  * of rows and parameters.
+  *@param tableName is the name of the table.
+  *@param rows is the list of column name/value maps to write.
+  *@param maxRows is the largest number of rows to put in one statement.
+  *@param maxParameters is the largest number of parameters to put in one statement.
+  *@param queries is the list the statements will be added to.
+  *@param parameters is the list the parameters for each statement will be added to.
+  */
+  protected void buildInsertMultipleStatements(String tableName, List<Map<String,Object>> rows,
+    int maxRows, int maxParameters, List<String> queries, List<List> parameters)
+  {
+    // Group the rows by their (non-null) columns, keeping the original order within each group
+    Map<String,List<String>> groupColumns = new HashMap<String,List<String>>();
+    Map<String,List<Map<String,Object>>> groupRows = new LinkedHashMap<String,List<Map<String,Object>>>();
+    for (Map<String,Object> row : rows)
+    {
+      List<String> columns = new ArrayList<String>();
+      for (Map.Entry<String,Object> e : row.entrySet())
+      {
+        if (e.getValue() != null)
+          columns.add(e.getKey());
+      }
+      Collections.sort(columns);
+      StringBuilder groupKey = new StringBuilder();
+      for (String column : columns)
+      {
+        groupKey.append(column).append(',');
+      }
+      String key = groupKey.toString();
+      List<Map<String,Object>> group = groupRows.get(key);
+      if (group == null)
+      {
+        group = new ArrayList<Map<String,Object>>();
+        groupRows.put(key,group);
+        groupColumns.put(key,columns);
+      }
+      group.add(row);
+    }
+
+    for (Map.Entry<String,List<Map<String,Object>>> e : groupRows.entrySet())
+    {
+      List<String> columns = groupColumns.get(e.getKey());
+      List<Map<String,Object>> group = e.getValue();
+
+      StringBuilder prefix = new StringBuilder("INSERT INTO ");
+      prefix.append(tableName).append(" (");
+      StringBuilder rowValues = new StringBuilder("(");
+      for (int i = 0; i < columns.size(); i++)
+      {
+        if (i > 0)
+        {
+          prefix.append(',');
+          rowValues.append(',');
+        }
+        prefix.append(columns.get(i));
+        rowValues.append('?');
+      }
+      prefix.append(") VALUES ");
+      rowValues.append(')');
+
+      int rowsPerStatement = maxRows;
+      if (columns.size() > 0 && maxParameters / columns.size() < rowsPerStatement)
+        rowsPerStatement = maxParameters / columns.size();
+      if (rowsPerStatement < 1)
+        rowsPerStatement = 1;
+
+      int start = 0;
+      while (start < group.size())
+      {
+        int end = start + rowsPerStatement;
+        if (end > group.size())
+          end = group.size();
+        StringBuilder sb = new StringBuilder(prefix);
+        List params = new ArrayList();
+        for (int j = start; j < end; j++)
+        {
+          if (j > start)
+            sb.append(',');
+          sb.append(rowValues);
+          Map<String,Object> row = group.get(j);
+          for (String column : columns)
+          {
+            params.add(row.get(column));
+          }
+        }
+        queries.add(sb.toString());
+        parameters.add(params);
+        start = end;
+      }
+    }
+  }
+
   /* Calculate the number of values a particular clause can have, given the values for all the other clauses.
   * For example, if in the expression x AND y AND z, x has 2 values and z has 1, find out how many values x can legally have
   * when using the buildConjunctionClause() method below.
@@ -584,13 +749,16 @@ public abstract class Database
       {
         if (values.size() > 1)
         {
+          // Pad the list by repeating its last value, so that the query text comes in a few
+          // sizes only and its prepared statement can be reused
+          int paddedSize = padInClauseSize(values.size());
           sb.append(" IN (");
-          for (int j = 0 ; j < values.size() ; j++)
+          for (int j = 0 ; j < paddedSize ; j++)
           {
             if (j > 0)
               sb.append(",");
             sb.append("?");
-            outputParameters.add(values.get(j));
+            outputParameters.add(values.get(Math.min(j,values.size()-1)));
           }
           sb.append(")");
         }
@@ -610,6 +778,20 @@ public abstract class Database
     return sb.toString();
   }
 
+  /** Find the size to pad an IN list to: the next power of two, but no more than the
+  * IN clause maximum unless the list is already larger.
+  *@param size is the number of values.
+  *@return the padded size.
+  */
+  protected int padInClauseSize(int size)
+  {
+    int limit = Math.max(size,getMaxInClause());
+    int paddedSize = 1;
+    while (paddedSize < size)
+      paddedSize <<= 1;
+    return Math.min(paddedSize,limit);
+  }
+
   /** Class to keep track of modifications while we're in a transaction.
   */
   protected static class Modifications
@@ -652,6 +834,7 @@ public abstract class Database
   protected class ExecuteQueryThread extends Thread
   {
     protected Connection connection;
+    protected StatementCache statementCache;
     protected String query;
     protected List params;
     protected boolean bResults;
@@ -661,12 +844,13 @@ public abstract class Database
     protected Throwable exception = null;
     protected IResultSet rval = null;
 
-    public ExecuteQueryThread(Connection connection, String query, List params, boolean bResults, int maxResults,
+    public ExecuteQueryThread(Connection connection, StatementCache statementCache, String query, List params, boolean bResults, int maxResults,
       ResultSpecification spec, ILimitChecker returnLimit)
     {
       super();
       setDaemon(true);
       this.connection = connection;
+      this.statementCache = statementCache;
       this.query = query;
       this.params = params;
       this.bResults = bResults;
@@ -680,7 +864,7 @@ public abstract class Database
       try
       {
         // execute using the passed connection handle
-        rval = execute(connection,query,params,bResults,maxResults,spec,returnLimit);
+        rval = execute(connection,statementCache,query,params,bResults,maxResults,spec,returnLimit);
       }
       catch (Throwable e)
       {
@@ -716,12 +900,20 @@ public abstract class Database
   protected IResultSet executeViaThread(Connection connection, String query, List params, boolean bResults, int maxResults,
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
+  {
+    return executeViaThread(connection,null,query,params,bResults,maxResults,spec,returnLimit);
+  }
+
+  /** Do query execution via a subthread, reusing prepared statements from the connection's statement cache */
+  protected IResultSet executeViaThread(Connection connection, StatementCache statementCache, String query, List params, boolean bResults, int maxResults,
+    ResultSpecification spec, ILimitChecker returnLimit)
+    throws ManifoldCFException
   {
     if (connection == null)
       // This probably means that the thread was interrupted and the connection was abandoned.  Just return null.
       return null;
 
-    ExecuteQueryThread t = new ExecuteQueryThread(connection,query,params,bResults,maxResults,spec,returnLimit);
+    ExecuteQueryThread t = new ExecuteQueryThread(connection,statementCache,query,params,bResults,maxResults,spec,returnLimit);
     try
     {
       t.start();
@@ -759,7 +951,7 @@ public abstract class Database
     {
       try
       {
-        return executeViaThread(connection.getConnection(),query,params,bResults,maxResults,spec,returnLimit);
+        return executeViaThread(connection.getConnection(),connection.getStatementCache(),query,params,bResults,maxResults,spec,returnLimit);
       }
       catch (ManifoldCFException e)
       {
@@ -773,12 +965,12 @@ public abstract class Database
     {
       // Grab a connection
       WrappedConnection tempConnection = ConnectionFactory.getConnection(jdbcUrl,jdbcDriverClass,databaseName,userName,password,
-        maxDBConnections,debug);
+        poolOptions,debug);
       try
       {
         // Initialize the connection (for HSQLDB)
         initializeConnection(tempConnection.getConnection());
-        return executeViaThread(tempConnection.getConnection(),query,params,bResults,maxResults,spec,returnLimit);
+        return executeViaThread(tempConnection.getConnection(),tempConnection.getStatementCache(),query,params,bResults,maxResults,spec,returnLimit);
       }
       catch (ManifoldCFException e)
       {
@@ -819,6 +1011,16 @@ public abstract class Database
   protected IResultSet execute(Connection connection, String query, List params, boolean bResults, int maxResults,
     ResultSpecification spec, ILimitChecker returnLimit)
     throws ManifoldCFException
+  {
+    return execute(connection,null,query,params,bResults,maxResults,spec,returnLimit);
+  }
+
+  /** Run a query, taking prepared statements from a statement cache if there is one.
+  * @param statementCache is the connection's statement cache, or null.
+  */
+  protected IResultSet execute(Connection connection, StatementCache statementCache, String query, List params, boolean bResults, int maxResults,
+    ResultSpecification spec, ILimitChecker returnLimit)
+    throws ManifoldCFException
   {
     IResultSet rval = null;
     try
@@ -868,10 +1070,18 @@ public abstract class Database
           {
             stmt.close();
           }
+          // Statements prepared before a schema change may no longer be valid, on any connection
+          if (statementCache != null)
+            statementCache.noteUnpreparedStatement(query);
         }
         else
         {
-          PreparedStatement ps = connection.prepareStatement(query);
+          PreparedStatement ps;
+          if (statementCache != null)
+            ps = statementCache.prepare(connection,query);
+          else
+            ps = connection.prepareStatement(query);
+          boolean reusable = false;
           try
           {
             loadPS(ps, params);
@@ -894,10 +1104,14 @@ public abstract class Database
               ps.executeUpdate();
               rval = getData(null,false,0,spec,null);
             }
+            reusable = true;
           }
           finally
           {
-            ps.close();
+            if (statementCache != null)
+              statementCache.release(query,ps,reusable);
+            else
+              ps.close();
           }
         }
         if (Logging.db.isDebugEnabled())
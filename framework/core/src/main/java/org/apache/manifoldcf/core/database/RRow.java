@@ -23,7 +23,7 @@ import java.util.*;
 
 /** This class represents a result row.
 */
-public class RRow implements IResultRow
+public class RRow implements IResultRow, IMemorySizedObject
 {
   public static final String _rcsid = "@(#)$Id: RRow.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -63,5 +63,28 @@ public class RRow implements IResultRow
     return rowData.get(columnName);
   }
 
+  /** Estimate the memory occupied by this row.  Column names are usually shared between
+  * rows, so only the values and the map entries are counted.
+  *@return the estimated size, in bytes.
+  */
+  public long getEstimatedMemorySize()
+  {
+    long rval = 64L;
+    Iterator<Object> iter = rowData.values().iterator();
+    while (iter.hasNext())
+    {
+      Object value = iter.next();
+      // Map entry
+      rval += 32L;
+      if (value == null)
+        continue;
+      if (value instanceof String)
+        rval += 40L + 2L * (long)((String)value).length();
+      else
+        rval += 24L;
+    }
+    return rval;
+  }
+
 
 }
@@ -21,7 +21,7 @@ package org.apache.manifoldcf.core.database;
 import org.apache.manifoldcf.core.interfaces.*;
 import java.util.*;
 
-public class RSet implements IResultSet
+public class RSet implements IResultSet, IMemorySizedObject
 {
   public static final String _rcsid = "@(#)$Id: RSet.java 988245 2010-08-23 18:39:35Z kwright $";
 
@@ -73,4 +73,22 @@ public class RSet implements IResultSet
     return rval;
   }
 
+  /** Estimate the memory occupied by this resultset.
+  *@return the estimated size, in bytes.
+  */
+  public long getEstimatedMemorySize()
+  {
+    long rval = 64L;
+    int i = 0;
+    while (i < rows.size())
+    {
+      IResultRow row = rows.get(i++);
+      if (row instanceof IMemorySizedObject)
+        rval += ((IMemorySizedObject)row).getEstimatedMemorySize();
+      else
+        rval += 256L;
+    }
+    return rval;
+  }
+
 }
@@ -0,0 +1,597 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.fuzzyml;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.io.*;
+import java.util.*;
+
+/** This class is a streaming, allocation-light alternative to the TagParseState/HTMLParseState chain,
+* for callers that only want a handful of tags and attributes out of an HTML document (for example,
+* the links).  Characters are read from the stream in bulk, and the scanner jumps from one '&lt;' to the
+* next without looking at the text in between.  Only the tags and attributes that an implementing class
+* declares interest in, via addInterest(), are examined, and attribute values are handed back as offsets
+* into the scanner's own buffer rather than as new strings.
+*
+* Tag and attribute names are matched without regard to case, and the names passed to the note methods
+* are always the lower-case strings that were registered, so implementations may compare them cheaply.
+* Comments, CDATA sections, and &lt;!...&gt; and &lt;?...?&gt; constructs are skipped.
+*/
+public abstract class HTMLTagScanner extends CharacterReceiver
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The default initial size of the character buffer */
+  protected static final int DEFAULT_BUFFER_SIZE = 65536;
+  /** The default longest tag the buffer will grow to hold */
+  protected static final int DEFAULT_MAX_TAG_LENGTH = 1048576;
+
+  /** The result of examining a markup construct */
+  protected static final int MARKUP_DONE = 0;
+  protected static final int MARKUP_INCOMPLETE = 1;
+  protected static final int MARKUP_ABORT = 2;
+
+  /** The tags of interest, in order of registration */
+  protected final List<TagInterest> interestList = new ArrayList<TagInterest>();
+  /** The tags of interest, as an array, built when scanning begins */
+  protected TagInterest[] interests = null;
+  /** The longest tag the buffer will grow to hold */
+  protected final int maxTagLength;
+
+  /** The character buffer */
+  protected char[] buffer;
+  /** The position of the next unexamined character */
+  protected int position = 0;
+  /** The end of the valid characters in the buffer */
+  protected int limit = 0;
+  /** If non-null, everything up to and including this string is to be skipped */
+  protected String skipTerminator = null;
+
+  /** Constructor.
+  */
+  public HTMLTagScanner()
+  {
+    this(DEFAULT_BUFFER_SIZE,DEFAULT_MAX_TAG_LENGTH);
+  }
+
+  /** Constructor.
+  *@param bufferSize is the initial size of the character buffer.
+  *@param maxTagLength is the length, in characters, past which a tag is skipped rather than buffered.
+  */
+  public HTMLTagScanner(int bufferSize, int maxTagLength)
+  {
+    super();
+    this.buffer = new char[bufferSize];
+    this.maxTagLength = Math.max(bufferSize,maxTagLength);
+  }
+
+  /** Declare interest in a tag, and optionally one of its attributes.  Call this before scanning begins,
+  * typically from the constructor of the implementing class.
+  *@param tagName is the name of the tag.
+  *@param attributeName is the name of the attribute, or null if only the tag itself is of interest.
+  */
+  protected void addInterest(String tagName, String attributeName)
+  {
+    tagName = tagName.toLowerCase(Locale.ROOT);
+    if (attributeName != null)
+      attributeName = attributeName.toLowerCase(Locale.ROOT);
+    TagInterest interest = null;
+    for (TagInterest ti : interestList)
+    {
+      if (ti.tagName.equals(tagName))
+      {
+        interest = ti;
+        break;
+      }
+    }
+    if (interest == null)
+    {
+      interest = new TagInterest(tagName);
+      interestList.add(interest);
+    }
+    if (attributeName != null)
+      interest.addAttribute(attributeName);
+    interests = null;
+  }
+
+  /** Receive a stream of characters.
+  *@return true if abort signalled, false if end of stream.
+  */
+  @Override
+  public boolean dealWithCharacters(Reader reader)
+    throws IOException, ManifoldCFException
+  {
+    if (interests == null)
+      interests = interestList.toArray(new TagInterest[0]);
+    position = 0;
+    limit = 0;
+    skipTerminator = null;
+    boolean endOfStream = false;
+    while (true)
+    {
+      if (scanBuffer(endOfStream))
+        return true;
+      if (endOfStream)
+        return false;
+      // Keep the unexamined part, which is either empty or the start of an incomplete construct
+      if (position > 0)
+      {
+        System.arraycopy(buffer,position,buffer,0,limit-position);
+        limit -= position;
+        position = 0;
+      }
+      if (limit == buffer.length)
+      {
+        if (buffer.length >= maxTagLength)
+        {
+          // Too long to be worth holding on to; pass over it
+          position = 1;
+          skipTerminator = ">";
+          continue;
+        }
+        char[] newBuffer = new char[(int)Math.min((long)buffer.length * 2L,(long)maxTagLength)];
+        System.arraycopy(buffer,0,newBuffer,0,limit);
+        buffer = newBuffer;
+      }
+      int amt = reader.read(buffer,limit,buffer.length-limit);
+      if (amt == -1)
+        endOfStream = true;
+      else
+        limit += amt;
+    }
+  }
+
+  /** Scan what is in the buffer, leaving position at the first character that cannot yet be dealt with.
+  *@param endOfStream is true if no more characters will arrive.
+  *@return true if abort signalled.
+  */
+  protected boolean scanBuffer(boolean endOfStream)
+    throws ManifoldCFException
+  {
+    while (true)
+    {
+      if (skipTerminator != null)
+      {
+        int index = indexOf(skipTerminator,position);
+        if (index == -1)
+        {
+          // Hold back only what could be the beginning of the terminator
+          position = Math.max(position,limit - (skipTerminator.length() - 1));
+          return false;
+        }
+        position = index + skipTerminator.length();
+        skipTerminator = null;
+      }
+      int i = position;
+      while (i < limit && buffer[i] != '<')
+      {
+        i++;
+      }
+      position = i;
+      if (i == limit)
+        return false;
+      int result = scanMarkup();
+      if (result == MARKUP_ABORT)
+        return true;
+      if (result == MARKUP_INCOMPLETE)
+      {
+        // An unterminated construct at the end of the document is dropped
+        if (endOfStream)
+          position = limit;
+        return false;
+      }
+    }
+  }
+
+  /** Examine the markup construct that begins at the current position, which is a '&lt;'.
+  *@return MARKUP_DONE if the construct was dealt with, MARKUP_INCOMPLETE if more characters are
+  * needed, or MARKUP_ABORT if abort was signalled.
+  */
+  protected int scanMarkup()
+    throws ManifoldCFException
+  {
+    int i = position + 1;
+    if (i >= limit)
+      return MARKUP_INCOMPLETE;
+    char x = buffer[i];
+    if (x == '!')
+    {
+      int match = matchAt("<!--",position);
+      if (match == -1)
+        return MARKUP_INCOMPLETE;
+      if (match == 1)
+      {
+        position += 4;
+        skipTerminator = "-->";
+        return MARKUP_DONE;
+      }
+      match = matchAt("<![CDATA[",position);
+      if (match == -1)
+        return MARKUP_INCOMPLETE;
+      if (match == 1)
+      {
+        position += 9;
+        skipTerminator = "]]>";
+        return MARKUP_DONE;
+      }
+      position += 2;
+      skipTerminator = ">";
+      return MARKUP_DONE;
+    }
+    if (x == '?')
+    {
+      position += 2;
+      skipTerminator = ">";
+      return MARKUP_DONE;
+    }
+    if (x == '/')
+      return scanEndTag(i + 1);
+    return scanTag(i);
+  }
+
+  /** Examine an end tag.
+  *@param start is the position just after the "&lt;/".
+  */
+  protected int scanEndTag(int start)
+    throws ManifoldCFException
+  {
+    int end = indexOf('>',start);
+    if (end == -1)
+      return MARKUP_INCOMPLETE;
+    int nameStart = skipWhitespace(start,end);
+    int nameEnd = nameStart;
+    while (nameEnd < end && !isWhitespace(buffer[nameEnd]))
+    {
+      nameEnd++;
+    }
+    position = end + 1;
+    TagInterest interest = findInterest(nameStart,nameEnd - nameStart);
+    if (interest != null && noteEndTag(interest.tagName))
+      return MARKUP_ABORT;
+    return MARKUP_DONE;
+  }
+
+  /** Examine a start tag.
+  *@param start is the position just after the "&lt;".
+  */
+  protected int scanTag(int start)
+    throws ManifoldCFException
+  {
+    int end = findTagEnd(start);
+    if (end == -1)
+      return MARKUP_INCOMPLETE;
+    position = end + 1;
+
+    int nameStart = skipWhitespace(start,end);
+    int nameEnd = nameStart;
+    while (nameEnd < end && !isWhitespace(buffer[nameEnd]) && buffer[nameEnd] != '/')
+    {
+      nameEnd++;
+    }
+    if (nameEnd == nameStart)
+      return MARKUP_DONE;
+    TagInterest interest = findInterest(nameStart,nameEnd - nameStart);
+    if (interest == null)
+      return MARKUP_DONE;
+
+    String tagName = interest.tagName;
+    if (noteTag(tagName))
+      return MARKUP_ABORT;
+    int i = nameEnd;
+    while (i < end)
+    {
+      char x = buffer[i];
+      if (isWhitespace(x) || x == '/')
+      {
+        i++;
+        continue;
+      }
+      // Attribute name
+      int attrStart = i;
+      while (i < end && !isWhitespace(buffer[i]) && buffer[i] != '=' && buffer[i] != '/')
+      {
+        i++;
+      }
+      int attrEnd = i;
+      // Attribute value, if any
+      int valueStart = i;
+      int valueEnd = i;
+      int j = skipWhitespace(i,end);
+      if (j < end && buffer[j] == '=')
+      {
+        j = skipWhitespace(j + 1,end);
+        if (j < end && (buffer[j] == '"' || buffer[j] == '\''))
+        {
+          valueStart = j + 1;
+          valueEnd = findQuoteEnd(buffer[j],valueStart,end);
+          i = (valueEnd < end)?valueEnd + 1:end;
+        }
+        else
+        {
+          valueStart = j;
+          valueEnd = j;
+          while (valueEnd < end && !isWhitespace(buffer[valueEnd]))
+          {
+            valueEnd++;
+          }
+          i = valueEnd;
+        }
+      }
+      if (attrEnd > attrStart)
+      {
+        String attributeName = interest.findAttribute(buffer,attrStart,attrEnd - attrStart);
+        if (attributeName != null && noteAttribute(tagName,attributeName,buffer,valueStart,valueEnd - valueStart))
+          return MARKUP_ABORT;
+      }
+    }
+    if (noteTagDone(tagName))
+      return MARKUP_ABORT;
+    // A self-closing tag also gets an end-tag notification, as it does from TagParseState
+    if (end > start && buffer[end - 1] == '/' && noteEndTag(tagName))
+      return MARKUP_ABORT;
+    return MARKUP_DONE;
+  }
+
+  /** Find the '&gt;' that ends a start tag, skipping over quoted attribute values.
+  *@return the position of the '&gt;', or -1 if it is not in the buffer.
+  */
+  protected int findTagEnd(int start)
+  {
+    boolean sawEquals = false;
+    int i = start;
+    while (i < limit)
+    {
+      char x = buffer[i];
+      if (x == '>')
+        return i;
+      if (x == '=')
+        sawEquals = true;
+      else if (sawEquals && (x == '"' || x == '\''))
+      {
+        i = findQuoteEnd(x,i + 1,limit);
+        if (i == limit)
+          return -1;
+        sawEquals = false;
+      }
+      else if (!isWhitespace(x))
+        sawEquals = false;
+      i++;
+    }
+    return -1;
+  }
+
+  /** Find the end of a quoted value.  As with TagParseState, a line break also ends the value.
+  *@return the position of the closing character, or end if there is none.
+  */
+  protected int findQuoteEnd(char quote, int start, int end)
+  {
+    int i = start;
+    while (i < end)
+    {
+      char x = buffer[i];
+      if (x == quote || x == '\n' || x == '\r')
+        return i;
+      i++;
+    }
+    return end;
+  }
+
+  /** Skip whitespace.
+  *@return the position of the first non-whitespace character, or end.
+  */
+  protected int skipWhitespace(int start, int end)
+  {
+    while (start < end && isWhitespace(buffer[start]))
+    {
+      start++;
+    }
+    return start;
+  }
+
+  /** Find a character in the buffer.
+  *@return the position, or -1 if not found.
+  */
+  protected int indexOf(char x, int start)
+  {
+    int i = start;
+    while (i < limit)
+    {
+      if (buffer[i] == x)
+        return i;
+      i++;
+    }
+    return -1;
+  }
+
+  /** Find a string in the buffer.
+  *@return the position, or -1 if not found.
+  */
+  protected int indexOf(String s, int start)
+  {
+    char first = s.charAt(0);
+    int last = limit - s.length();
+    int i = start;
+    while (i <= last)
+    {
+      if (buffer[i] == first && matchAt(s,i) == 1)
+        return i;
+      i++;
+    }
+    return -1;
+  }
+
+  /** See whether the buffer holds a string, ignoring case, at a position.
+  *@return 1 if it does, 0 if it does not, or -1 if the buffer ends before that can be decided.
+  */
+  protected int matchAt(String s, int start)
+  {
+    int i = 0;
+    while (i < s.length())
+    {
+      if (start + i >= limit)
+        return -1;
+      if (toLower(buffer[start + i]) != toLower(s.charAt(i)))
+        return 0;
+      i++;
+    }
+    return 1;
+  }
+
+  /** Find the interest record for a tag name in the buffer.
+  *@return the record, or null if the tag is not of interest.
+  */
+  protected TagInterest findInterest(int start, int length)
+  {
+    for (TagInterest interest : interests)
+    {
+      if (nameMatches(interest.tagName,buffer,start,length))
+        return interest;
+    }
+    return null;
+  }
+
+  /** Called for the start of each tag of interest, before any of its attributes.
+  *@param tagName is the registered tag name.
+  *@return true to halt further processing.
+  */
+  protected boolean noteTag(String tagName)
+    throws ManifoldCFException
+  {
+    return false;
+  }
+
+  /** Called for each attribute of interest.  The characters are valid only for the duration of the call,
+  * and are not entity-decoded; use decodeAttribute() to obtain the value as a string.
+  *@param tagName is the registered tag name.
+  *@param attributeName is the registered attribute name.
+  *@param buffer is the buffer holding the raw attribute value.
+  *@param start is the offset of the value in the buffer.
+  *@param length is the length of the value.
+  *@return true to halt further processing.
+  */
+  protected abstract boolean noteAttribute(String tagName, String attributeName, char[] buffer, int start, int length)
+    throws ManifoldCFException;
+
+  /** Called after the attributes of a tag of interest have all been seen.
+  *@param tagName is the registered tag name.
+  *@return true to halt further processing.
+  */
+  protected boolean noteTagDone(String tagName)
+    throws ManifoldCFException
+  {
+    return false;
+  }
+
+  /** Called for the end of each tag of interest.
+  *@param tagName is the registered tag name.
+  *@return true to halt further processing.
+  */
+  protected boolean noteEndTag(String tagName)
+    throws ManifoldCFException
+  {
+    return false;
+  }
+
+  /** Decode an attribute value, replacing entity references the way TagParseState does.
+  *@return the decoded value.
+  */
+  public static String decodeAttribute(char[] buffer, int start, int length)
+  {
+    String value = new String(buffer,start,length);
+    int i = start;
+    int end = start + length;
+    while (i < end)
+    {
+      if (buffer[i] == '&')
+        return TagParseState.attributeDecode(value);
+      i++;
+    }
+    return value;
+  }
+
+  /** Compare a lower-case name with characters in a buffer, ignoring case. */
+  protected static boolean nameMatches(String name, char[] buffer, int start, int length)
+  {
+    if (name.length() != length)
+      return false;
+    int i = 0;
+    while (i < length)
+    {
+      if (name.charAt(i) != toLower(buffer[start + i]))
+        return false;
+      i++;
+    }
+    return true;
+  }
+
+  /** Lower-case a character, cheaply for ASCII. */
+  protected static char toLower(char x)
+  {
+    if (x >= 'A' && x <= 'Z')
+      return (char)(x + ('a' - 'A'));
+    if (x < 128)
+      return x;
+    return Character.toLowerCase(x);
+  }
+
+  /** Is a character markup language whitespace? */
+  protected static boolean isWhitespace(char x)
+  {
+    return x <= ' ';
+  }
+
+  /** A tag of interest, and its attributes of interest */
+  protected static class TagInterest
+  {
+    protected final String tagName;
+    protected String[] attributeNames = new String[0];
+
+    public TagInterest(String tagName)
+    {
+      this.tagName = tagName;
+    }
+
+    public void addAttribute(String attributeName)
+    {
+      for (String name : attributeNames)
+      {
+        if (name.equals(attributeName))
+          return;
+      }
+      String[] newNames = new String[attributeNames.length + 1];
+      System.arraycopy(attributeNames,0,newNames,0,attributeNames.length);
+      newNames[attributeNames.length] = attributeName;
+      attributeNames = newNames;
+    }
+
+    /** Find the registered attribute name matching characters in a buffer.
+    *@return the name, or null if the attribute is not of interest.
+    */
+    public String findAttribute(char[] buffer, int start, int length)
+    {
+      for (String name : attributeNames)
+      {
+        if (nameMatches(name,buffer,start,length))
+          return name;
+      }
+      return null;
+    }
+  }
+
+}
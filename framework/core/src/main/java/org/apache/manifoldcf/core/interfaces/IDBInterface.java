@@ -76,6 +76,16 @@ public interface IDBInterface
   public void performInsert(String tableName, Map<String,Object> parameterMap, StringSet invalidateKeys)
     throws ManifoldCFException;
 
+  /** Perform an insert operation for many rows at once.  The rows are written using as few
+  * statements as the database permits, rather than one statement per row.
+  *@param tableName is the name of the table.
+  *@param rows is the list of column name/value maps to write, one per row.
+  *@param invalidateKeys are the cache keys that should be
+  * invalidated.
+  */
+  public void performInsertMultiple(String tableName, List<Map<String,Object>> rows, StringSet invalidateKeys)
+    throws ManifoldCFException;
+
   /** Perform an update operation.
   *@param tableName is the name of the table.
   *@param invalidateKeys are the cache keys that should be invalidated.
@@ -421,6 +431,12 @@ public interface IDBInterface
   public void endTransaction()
     throws ManifoldCFException;
 
+  /** Arrange to be told when the transaction in effect ends.  The listener is called when the outermost
+  * transaction ends, or right away if no transaction is in effect.
+  *@param listener is the object to tell.
+  */
+  public void addTransactionListener(ITransactionListener listener);
+
   /** Note a number of inserts, modifications, or deletions to a specific table.  This is so we can decide when to do appropriate maintenance.
   *@param tableName is the name of the table being modified.
   *@param insertCount is the number of inserts.
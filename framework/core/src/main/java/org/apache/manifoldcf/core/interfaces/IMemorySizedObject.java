@@ -0,0 +1,35 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.interfaces;
+
+/** This interface is implemented by cacheable objects that can estimate how much memory
+* they occupy.  When the cache is bounded by memory, such objects are charged their estimated
+* size, and are flushed in least-recently-used order when the bound is exceeded.  Objects that
+* do not implement this interface are bounded only by their object class's LRU count.
+*/
+public interface IMemorySizedObject
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Estimate the memory occupied by this object.  The estimate should be cheap to compute,
+  * and need not be exact.
+  *@return the estimated size, in bytes.
+  */
+  public long getEstimatedMemorySize();
+}
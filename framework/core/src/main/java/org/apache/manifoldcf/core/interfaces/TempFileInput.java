@@ -19,7 +19,11 @@
 package org.apache.manifoldcf.core.interfaces;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
 import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.common.SpoolBufferPool;
 
 /** This class represents a temporary file data input
 * stream.  Call the "done" method to clean up the
@@ -28,17 +32,25 @@ import org.apache.manifoldcf.core.system.ManifoldCF;
 * a file that has already been created by some means.  The
 * file must be a dedicated temporary file, which can be
 * destroyed when the data has been used.
+*
+* When constructed from a stream, content is first held in memory, in buffers
+* from the SpoolBufferPool.  Only if the content exceeds the configured threshold,
+* or the pool's memory is exhausted, is a temporary file created.  The buffers are held
+* under a lease, so they go back to the pool even if discard() is never called, once neither
+* this object nor any stream over it is reachable.
 */
 public class TempFileInput extends BinaryInput
 {
   public static final String _rcsid = "@(#)$Id: TempFileInput.java 988245 2010-08-23 18:39:35Z kwright $";
 
   protected File file;
+  /** The in-memory content, if there's no file; each buffer is ready for reading */
+  protected SpoolBufferPool.Lease lease = null;
 
   protected final static int CHUNK_SIZE = 65536;
 
   /** Construct from an input stream.
-  * This will also create a temporary, backing file.
+  * This will also create a temporary, backing file, if the content is too large to hold in memory.
   *@param is is the input stream to use to construct the temporary file.
   */
   public TempFileInput(InputStream is)
@@ -55,73 +67,193 @@ public class TempFileInput extends BinaryInput
     throws ManifoldCFException
   {
     super();
+    List<ByteBuffer> memoryBuffers = new ArrayList<ByteBuffer>();
+    try
+    {
+      long totalMoved = 0L;
+      int memoryThreshold = SpoolBufferPool.getMemoryThreshold();
+      // Read into memory buffers for as long as we're allowed to
+      while (length == -1L || totalMoved < length)
+      {
+        if (totalMoved >= memoryThreshold)
+          break;
+        ByteBuffer buffer = SpoolBufferPool.acquire();
+        if (buffer == null)
+          break;
+        memoryBuffers.add(buffer);
+        int readsize = fillBuffer(is,buffer,(length == -1L)?-1L:(length-totalMoved));
+        buffer.flip();
+        totalMoved += readsize;
+        if (buffer.limit() < buffer.capacity())
+        {
+          // Stream ended; everything fits in memory
+          keepInMemory(memoryBuffers);
+          memoryBuffers = null;
+          this.length = totalMoved;
+          return;
+        }
+      }
+      if (length != -1L && totalMoved == length)
+      {
+        keepInMemory(memoryBuffers);
+        memoryBuffers = null;
+        this.length = totalMoved;
+        return;
+      }
+      // Too big for memory: spill what we have, and the rest of the stream, to disk
+      spill(is,length,totalMoved,memoryBuffers);
+    }
+    catch (InterruptedIOException e)
+    {
+      throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("Cannot write temporary file",e,ManifoldCFException.GENERAL_ERROR);
+    }
+    finally
+    {
+      if (memoryBuffers != null)
+        releaseBuffers(memoryBuffers);
+    }
+  }
+
+  /** Hold the content in memory, shrinking the last buffer to fit.
+  */
+  protected void keepInMemory(List<ByteBuffer> memoryBuffers)
+  {
+    int last = memoryBuffers.size() - 1;
+    if (last >= 0)
+      memoryBuffers.set(last,SpoolBufferPool.compact(memoryBuffers.get(last)));
+    lease = SpoolBufferPool.lease(memoryBuffers);
+  }
+
+  /** Read from the stream until the buffer is full, the stream ends, or the limit is reached.
+  *@return the number of bytes read.
+  */
+  protected static int fillBuffer(InputStream is, ByteBuffer buffer, long limit)
+    throws IOException
+  {
+    int total = 0;
+    if (buffer.hasArray())
+    {
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset();
+      while (buffer.hasRemaining())
+      {
+        int moveAmount = buffer.remaining();
+        if (limit != -1L && limit-total < moveAmount)
+          moveAmount = (int)(limit-total);
+        if (moveAmount == 0)
+          break;
+        int readsize = is.read(array,offset+buffer.position(),moveAmount);
+        if (readsize == -1)
+          break;
+        buffer.position(buffer.position()+readsize);
+        total += readsize;
+      }
+      return total;
+    }
+    // Direct buffer; go through a heap array
+    byte[] transferBuffer = new byte[8192];
+    while (buffer.hasRemaining())
+    {
+      int moveAmount = Math.min(buffer.remaining(),transferBuffer.length);
+      if (limit != -1L && limit-total < moveAmount)
+        moveAmount = (int)(limit-total);
+      if (moveAmount == 0)
+        break;
+      int readsize = is.read(transferBuffer,0,moveAmount);
+      if (readsize == -1)
+        break;
+      buffer.put(transferBuffer,0,readsize);
+      total += readsize;
+    }
+    return total;
+  }
+
+  /** Write the buffered content, followed by the rest of the stream, to a temporary file.
+  * On success, the file becomes the backing store for this object.
+  */
+  protected void spill(InputStream is, long length, long totalMoved, List<ByteBuffer> memoryBuffers)
+    throws IOException
+  {
+    // Create a temporary file to put the stuff in
+    File outfile = File.createTempFile("_MC_","");
     try
     {
-      // Create a temporary file to put the stuff in
-      File outfile = File.createTempFile("_MC_","");
+      // Register the file for autodeletion, using our infrastructure.
+      ManifoldCF.addFile(outfile);
+      // deleteOnExit() causes memory leakage!
+      // outfile.deleteOnExit();
+      FileOutputStream outStream = new FileOutputStream(outfile);
       try
       {
-        // Register the file for autodeletion, using our infrastructure.
-        ManifoldCF.addFile(outfile);
-        // deleteOnExit() causes memory leakage!
-        // outfile.deleteOnExit();
-        FileOutputStream outStream = new FileOutputStream(outfile);
-        try
+        FileChannel channel = outStream.getChannel();
+        for (ByteBuffer buffer : memoryBuffers)
         {
-          byte[] buffer = new byte[CHUNK_SIZE];
-          long totalMoved = 0;
-          while (true)
+          while (buffer.hasRemaining())
           {
-            int moveAmount;
-            if (length == -1L || length-totalMoved > CHUNK_SIZE)
-              moveAmount = CHUNK_SIZE;
-            else
-              moveAmount = (int)(length-totalMoved);
-            if (moveAmount == 0)
-              break;
-            // Read binary data in 64K chunks
-            int readsize = is.read(buffer,0,moveAmount);
-            if (readsize == -1)
-              break;
-            outStream.write(buffer,0,readsize);
-            totalMoved += readsize;
+            channel.write(buffer);
           }
-          // System.out.println(" Moved "+Long.toString(totalMoved));
         }
-        finally
+        // Give the memory back before copying the remainder
+        releaseBuffers(memoryBuffers);
+        memoryBuffers.clear();
+
+        byte[] buffer = new byte[CHUNK_SIZE];
+        while (true)
         {
-          outStream.close();
+          int moveAmount;
+          if (length == -1L || length-totalMoved > CHUNK_SIZE)
+            moveAmount = CHUNK_SIZE;
+          else
+            moveAmount = (int)(length-totalMoved);
+          if (moveAmount == 0)
+            break;
+          // Read binary data in 64K chunks
+          int readsize = is.read(buffer,0,moveAmount);
+          if (readsize == -1)
+            break;
+          outStream.write(buffer,0,readsize);
+          totalMoved += readsize;
         }
-
-        // Now, create the input stream.
-        // Save the file name
-        file = outfile;
-        this.length = file.length();
-
       }
-      catch (Throwable e)
+      finally
       {
-        // Delete the temp file we created on any error condition
-        // outfile.delete();
-        ManifoldCF.deleteFile(outfile);
-        if (e instanceof Error)
-          throw (Error)e;
-        if (e instanceof RuntimeException)
-          throw (RuntimeException)e;
-        if (e instanceof Exception)
-          throw (Exception)e;
-        throw new Exception("Unexpected throwable: "+e.getMessage(),e);
+        outStream.close();
       }
+
+      // Save the file name
+      file = outfile;
+      this.length = file.length();
     }
-    catch (InterruptedIOException e)
+    catch (IOException e)
     {
-      throw new ManifoldCFException("Interrupted: "+e.getMessage(),e,ManifoldCFException.INTERRUPTED);
+      // Delete the temp file we created on any error condition
+      ManifoldCF.deleteFile(outfile);
+      throw e;
     }
-    catch (Exception e)
+    catch (RuntimeException e)
     {
-      throw new ManifoldCFException("Cannot write temporary file",e,ManifoldCFException.GENERAL_ERROR);
+      ManifoldCF.deleteFile(outfile);
+      throw e;
     }
+    catch (Error e)
+    {
+      ManifoldCF.deleteFile(outfile);
+      throw e;
+    }
+  }
 
+  /** Return buffers to the pool.
+  */
+  protected static void releaseBuffers(List<ByteBuffer> bufferList)
+  {
+    for (ByteBuffer buffer : bufferList)
+    {
+      SpoolBufferPool.release(buffer);
+    }
   }
 
   /** Construct from an existing temporary fle.
@@ -146,9 +278,11 @@ public class TempFileInput extends BinaryInput
   {
     TempFileInput rval = new TempFileInput();
     rval.file = file;
+    rval.lease = lease;
     rval.stream = stream;
     rval.length = length;
     file = null;
+    lease = null;
     stream = null;
     length = -1L;
     return rval;
@@ -163,11 +297,21 @@ public class TempFileInput extends BinaryInput
       ManifoldCF.deleteFile(file);
       file = null;
     }
+    if (lease != null)
+    {
+      lease.release();
+      lease = null;
+    }
   }
 
   protected void openStream()
     throws ManifoldCFException
   {
+    if (lease != null)
+    {
+      stream = new BufferListInputStream(lease);
+      return;
+    }
     try
     {
       // Open the file and create a stream.
@@ -182,7 +326,104 @@ public class TempFileInput extends BinaryInput
   protected void calculateLength()
     throws ManifoldCFException
   {
-    this.length = file.length();
+    if (lease != null)
+    {
+      long total = 0L;
+      for (ByteBuffer buffer : lease.getBuffers())
+      {
+        total += buffer.limit();
+      }
+      this.length = total;
+    }
+    else
+      this.length = file.length();
+  }
+
+  /** Stream over in-memory content.  Each stream reads through its own views of the buffers,
+  * so the content can be read any number of times.  The stream keeps the lease reachable.
+  */
+  protected static class BufferListInputStream extends InputStream
+  {
+    protected final SpoolBufferPool.Lease lease;
+    protected final ByteBuffer[] views;
+    protected int currentView = 0;
+
+    public BufferListInputStream(SpoolBufferPool.Lease lease)
+    {
+      this.lease = lease;
+      List<ByteBuffer> buffers = lease.getBuffers();
+      views = new ByteBuffer[buffers.size()];
+      int i = 0;
+      for (ByteBuffer buffer : buffers)
+      {
+        views[i++] = buffer.duplicate();
+      }
+    }
+
+    @Override
+    public int read()
+      throws IOException
+    {
+      ByteBuffer view = currentBuffer();
+      if (view == null)
+        return -1;
+      return view.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      if (len == 0)
+        return 0;
+      ByteBuffer view = currentBuffer();
+      if (view == null)
+        return -1;
+      int amt = Math.min(len,view.remaining());
+      view.get(b,off,amt);
+      return amt;
+    }
+
+    @Override
+    public long skip(long n)
+      throws IOException
+    {
+      long skipped = 0L;
+      while (skipped < n)
+      {
+        ByteBuffer view = currentBuffer();
+        if (view == null)
+          break;
+        int amt = (int)Math.min(n-skipped,(long)view.remaining());
+        view.position(view.position()+amt);
+        skipped += amt;
+      }
+      return skipped;
+    }
+
+    @Override
+    public int available()
+      throws IOException
+    {
+      ByteBuffer view = currentBuffer();
+      if (view == null)
+        return 0;
+      return view.remaining();
+    }
+
+    /** Find the buffer with data remaining, or null if there is none.
+    */
+    protected ByteBuffer currentBuffer()
+    {
+      while (currentView < views.length)
+      {
+        ByteBuffer view = views[currentView];
+        if (view.hasRemaining())
+          return view;
+        currentView++;
+      }
+      return null;
+    }
   }
 
 }
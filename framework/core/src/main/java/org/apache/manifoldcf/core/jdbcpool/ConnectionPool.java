@@ -22,43 +22,101 @@ import java.sql.*;
 import javax.naming.*;
 import javax.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import org.apache.manifoldcf.core.system.Logging;
 
 /** The class that defines a connection pool.
+*
+* Free connections are kept on a lock-free stack, so that a caller who finds a free connection
+* never contends with anyone else.  A caller who finds none joins a FIFO wait queue, and
+* connections that are released (or newly created) are handed directly to the longest waiter,
+* so nobody can barge in front of a thread that has already been waiting.  New connections are
+* created by background threads belonging to the pool, several at once if several callers are
+* waiting, so that a slow database login never holds up callers who could have been given a
+* connection someone else released.  Idle connections are validated periodically by the pool
+* manager's background thread.
+*
+* Each connection carries a cache of prepared statements, which stays with it while it is in the pool.
+* The caches share a schema generation count; when any connection changes the schema, the count goes
+* up, and every cache drops the statements it prepared before then.
 */
 public class ConnectionPool
 {
   public static final String _rcsid = "@(#)$Id$";
 
+  /** Maximum number of distinct caller classes we keep statistics for */
+  protected final static int maxCallerClasses = 100;
+  /** The caller class that everything beyond the maximum is counted under */
+  protected final static String OTHER_CALLER_CLASS = "*";
+  /** Seconds to allow for a validation check */
+  protected final static int validationTimeoutSeconds = 5;
+  /** The largest number of connections to create at once */
+  protected final static int maxCreatorThreads = 10;
+
   protected final String dbURL;
   protected final String userName;
   protected final String password;
-  protected volatile int freePointer;
-  protected volatile int activeConnections;
-  protected volatile boolean closed;
-  protected final Connection[] freeConnections;
-  protected final long[] connectionCleanupTimeouts;
+  protected final int maxConnections;
   protected final long expiration;
-  
+  protected final long acquireTimeout;
+  protected final int maxWaiters;
+  protected final long validationInterval;
+  protected final int statementCacheSize;
+
   protected final boolean debug;
-  
+
+  /** Bumped whenever a connection of this pool changes the schema, so all statement caches can tell */
+  protected final AtomicLong schemaGeneration = new AtomicLong(0L);
+
+  /** Free connections; the most recently used is first */
+  protected final ConcurrentLinkedDeque<PooledConnection> freeConnections = new ConcurrentLinkedDeque<PooledConnection>();
+  /** Threads waiting for a connection, in arrival order */
+  protected final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+  /** The number of waiters; kept separately because the queue's size() is not constant-time */
+  protected final AtomicInteger waiterCount = new AtomicInteger(0);
+  /** Connections that exist or are being created */
+  protected final AtomicInteger activeConnections = new AtomicInteger(0);
+  protected volatile boolean closed = false;
+
+  /** Creates connections in the background */
+  protected final ConnectionCreator creator = new ConnectionCreator();
+
+  /** Time the pool was set up */
+  protected final long startTime = System.currentTimeMillis();
+  protected final AtomicLong connectionsCreated = new AtomicLong(0L);
+  protected final AtomicLong connectionsDestroyed = new AtomicLong(0L);
+  protected final AtomicLong creationFailures = new AtomicLong(0L);
+  protected final AtomicLong validationFailures = new AtomicLong(0L);
+  protected final AtomicLong waiterRejections = new AtomicLong(0L);
+  /** Counters by caller class */
+  protected final ConcurrentHashMap<String,CallerCounters> callerCounters = new ConcurrentHashMap<String,CallerCounters>();
+
   protected final Set<WrappedConnection> outstandingConnections = new HashSet<WrappedConnection>();
-  
+
   /** Constructor */
   public ConnectionPool(String dbURL, String userName, String password, int maxConnections, long expiration, boolean debug)
+  {
+    this(dbURL,userName,password,new ConnectionPoolOptions(maxConnections,expiration),debug);
+  }
+
+  /** Constructor.
+  *@param options describes the pool's size, limits, validation, and statement caching.
+  */
+  public ConnectionPool(String dbURL, String userName, String password, ConnectionPoolOptions options, boolean debug)
   {
     this.dbURL = dbURL;
     this.userName = userName;
     this.password = password;
-    this.freeConnections = new Connection[maxConnections];
-    this.connectionCleanupTimeouts = new long[maxConnections];
-    this.freePointer = 0;
-    this.activeConnections = 0;
-    this.closed = false;
-    this.expiration = expiration;
+    this.maxConnections = options.getMaxConnections();
+    this.expiration = options.getExpiration();
+    this.acquireTimeout = options.getAcquireTimeout();
+    this.maxWaiters = options.getMaxWaiters();
+    this.validationInterval = options.getValidationInterval();
+    this.statementCacheSize = options.getStatementCacheSize();
     this.debug = debug;
   }
-  
+
   /** Obtain a connection from the pool.
   * This will wait until a connection is free, if the pool is already completely tapped.
   * The connection is returned by the "close" operation, executed on the connection.
@@ -72,55 +130,31 @@ public class ConnectionPool
       instantiationException = new Exception("Possibly leaked db connection");
     else
       instantiationException = null;
-    Connection rval = null;
-    while (true)
+
+    if (closed)
+      throw new InterruptedException("Pool already closed");
+
+    String callerClass = getCallerClass();
+    CallerCounters counters = getCallerCounters(callerClass);
+    long waitStart = System.nanoTime();
+
+    // Fast path: someone left a connection for us
+    PooledConnection rval = freeConnections.pollFirst();
+    boolean waited = false;
+    if (rval == null)
     {
-      synchronized (this)
-      {
-        if (freePointer > 0)
-        {
-          if (closed)
-            throw new InterruptedException("Pool already closed");
-          rval = freeConnections[--freePointer];
-          freeConnections[freePointer] = null;
-          break;
-        }
-        if (activeConnections == freeConnections.length)
-        {
-          // If properly configured, we really shouldn't be getting here.
-          if (debug)
-          {
-            synchronized (outstandingConnections)
-            {
-              Logging.db.warn("Out of db connections, list of outstanding ones follows.");
-              for (WrappedConnection c : outstandingConnections)
-              {
-                Logging.db.warn("Found a possibly leaked db connection",c.getInstantiationException());
-              }
-            }
-          }
-          // Wait until kicked; we hope something will free up...
-          this.wait();
-          continue;
-        }
-        // Increment active connection counter, because we're about to mint a new connection, and break out of our loop
-        activeConnections++;
-        break;
-      }
+      waited = true;
+      rval = waitForConnection(counters,waitStart);
     }
 
+    long acquireTime = System.nanoTime();
+    counters.noteAcquisition(waited,acquireTime-waitStart);
+
     boolean returnedValue = true;
     try
     {
-      if (rval == null)
-      {
-        if (userName != null)
-          rval = DriverManager.getConnection(dbURL, userName, password);
-        else
-          rval = DriverManager.getConnection(dbURL);
-      }
-
-      WrappedConnection wc = new WrappedConnection(this,rval,instantiationException);
+      WrappedConnection wc = new WrappedConnection(this,rval.connection,instantiationException,callerClass,acquireTime,
+        rval.statementCache);
       if (debug)
       {
         synchronized (outstandingConnections)
@@ -140,86 +174,270 @@ public class ConnectionPool
       returnedValue = false;
       throw e;
     }
-    catch (SQLException e)
-    {
-      returnedValue = false;
-      throw e;
-    }
     finally
     {
       if (!returnedValue)
       {
-        // We didn't finish.  Restore the pool to the correct form.
-        // Note: We should always be able to just return any current connection to the pool.  This is
-        // safe because we reserved a slot when we decided to create the connection (if that's what
-        // we did), or we just used a connection that was already allocated.  Either way, we can put
-        // it into the pool.
-        if (rval != null)
+        // We didn't finish.  The connection is ours, so it can go back into the pool.
+        release(rval.connection,rval.statementCache);
+      }
+    }
+  }
+
+  /** Wait in line for a connection.
+  */
+  protected PooledConnection waitForConnection(CallerCounters counters, long waitStart)
+    throws SQLException, InterruptedException
+  {
+    if (maxWaiters > 0 && waiterCount.get() >= maxWaiters)
+    {
+      waiterRejections.incrementAndGet();
+      counters.timeouts.incrementAndGet();
+      throw new SQLException("Too many threads waiting for a database connection ("+Integer.toString(maxWaiters)+")");
+    }
+
+    Waiter w = new Waiter();
+    waiterCount.incrementAndGet();
+    waiters.add(w);
+    try
+    {
+      // Ask for a new connection, if there's room for one.  Whoever gets there first (a release,
+      // or the new connection) serves the head of the line.
+      if (reserveConnection())
+        creator.requestCreation();
+      else if (debug)
+        logOutstandingConnections();
+
+      // A connection may have been freed between our looking and our getting in line; if it
+      // went to the free list, nobody will hand it to us, so look again.
+      PooledConnection pc = freeConnections.pollFirst();
+      if (pc != null)
+      {
+        if (w.cancel())
+          return pc;
+        // We were served in the meantime, so put the extra back
+        offerConnection(pc);
+      }
+
+      long deadline = (acquireTimeout > 0L)?waitStart + acquireTimeout * 1000000L:0L;
+      synchronized (w)
+      {
+        while (!w.isServed())
         {
-          release(rval);
+          if (closed)
+            break;
+          if (deadline == 0L)
+            w.wait();
+          else
+          {
+            long remaining = (deadline - System.nanoTime()) / 1000000L;
+            if (remaining <= 0L)
+              break;
+            w.wait(remaining);
+          }
         }
       }
     }
+    catch (InterruptedException e)
+    {
+      abandonWait(w);
+      throw e;
+    }
+    finally
+    {
+      waiterCount.decrementAndGet();
+    }
+
+    if (!w.cancel())
+    {
+      // We were served
+      if (w.exception != null)
+        throw w.exception;
+      return w.connection;
+    }
+    waiters.remove(w);
+    if (closed)
+      throw new InterruptedException("Pool already closed");
+    counters.timeouts.incrementAndGet();
+    throw new SQLException("Timed out waiting for a database connection after "+Long.toString(acquireTimeout)+" ms");
   }
-  
-  /** Close down the pool.
+
+  /** Leave the wait queue, returning anything that was handed to us at the last moment.
+  */
+  protected void abandonWait(Waiter w)
+  {
+    if (w.cancel())
+    {
+      waiters.remove(w);
+      return;
+    }
+    if (w.connection != null)
+      release(w.connection.connection,w.connection.statementCache);
+  }
+
+  /** Reserve room for a new connection.
+  *@return true if there was room.
+  */
+  protected boolean reserveConnection()
+  {
+    while (true)
+    {
+      int current = activeConnections.get();
+      if (current >= maxConnections)
+        return false;
+      if (activeConnections.compareAndSet(current,current+1))
+        return true;
+    }
+  }
+
+  /** Note that a connection has gone away, or a reserved connection was never created.
+  */
+  protected void connectionGone()
+  {
+    activeConnections.decrementAndGet();
+    // Someone may be waiting with no creation on the way to serve them
+    if (!closed && !waiters.isEmpty() && reserveConnection())
+      creator.requestCreation();
+  }
+
+  /** Give a connection to the longest waiter, or put it on the free list if nobody is waiting.
   */
-  public synchronized void closePool()
+  protected void offerConnection(PooledConnection pc)
   {
-    for (int i = 0 ; i < freePointer ; i++)
+    while (true)
     {
-      try
+      if (closed)
       {
-        freeConnections[i].close();
+        destroyConnection(pc.connection);
+        return;
       }
-      catch (SQLException e)
+      Waiter w = waiters.poll();
+      if (w != null)
       {
-        Logging.db.warn("Error closing pooled connection: "+e.getMessage(),e);
+        if (w.serve(pc,null))
+          return;
+        // That waiter gave up; try the next one
+        continue;
       }
-      freeConnections[i] = null;
+      freeConnections.offerFirst(pc);
+      // A waiter may have arrived after we looked; if so, it may already have missed the free list.
+      if (waiters.isEmpty())
+        return;
+      if (!freeConnections.removeFirstOccurrence(pc))
+        return;
     }
-    freePointer = 0;
+  }
+
+  /** Tell the longest waiter that a connection could not be created.
+  */
+  protected void failWaiter(SQLException e)
+  {
+    while (true)
+    {
+      Waiter w = waiters.poll();
+      if (w == null)
+        return;
+      if (w.serve(null,e))
+        return;
+    }
+  }
+
+  protected void logOutstandingConnections()
+  {
+    // If properly configured, we really shouldn't be getting here.
+    synchronized (outstandingConnections)
+    {
+      Logging.db.warn("Out of db connections, list of outstanding ones follows.");
+      for (WrappedConnection c : outstandingConnections)
+      {
+        Logging.db.warn("Found a possibly leaked db connection",c.getInstantiationException());
+      }
+    }
+  }
+
+  /** Close down the pool.
+  */
+  public void closePool()
+  {
     closed = true;
-    notifyAll();
+    creator.shutdown();
+    while (true)
+    {
+      PooledConnection pc = freeConnections.pollFirst();
+      if (pc == null)
+        break;
+      destroyConnection(pc.connection);
+    }
+    // Wake up everyone waiting; they'll see that we're closed
+    while (true)
+    {
+      Waiter w = waiters.poll();
+      if (w == null)
+        break;
+      w.wake();
+    }
   }
-  
-  /** Clean up expired connections.
+
+  /** Clean up expired connections, and validate those that have been idle a while.
+  * This is called periodically by the pool manager's background thread.
   */
-  public synchronized void cleanupExpiredConnections(long currentTime)
+  public void cleanupExpiredConnections(long currentTime)
   {
-    int i = 0;
-    while (i < freePointer)
+    List<PooledConnection> toValidate = null;
+    // The oldest connections are at the end
+    Iterator<PooledConnection> iter = freeConnections.descendingIterator();
+    while (iter.hasNext())
     {
-      if (connectionCleanupTimeouts[i] <= currentTime)
+      PooledConnection pc = iter.next();
+      if (pc.cleanupTime <= currentTime)
       {
-        Connection c = freeConnections[i];
-        freeConnections[i] = null;
-        freePointer--;
-        activeConnections--;
-        if (freePointer == i)
-        {
-          freeConnections[i] = null;
-        }
-        else
+        if (freeConnections.removeFirstOccurrence(pc))
+          destroyConnection(pc.connection);
+      }
+      else if (validationInterval > 0L && pc.lastValidated + validationInterval <= currentTime)
+      {
+        if (freeConnections.removeFirstOccurrence(pc))
         {
-          freeConnections[i] = freeConnections[freePointer];
-          connectionCleanupTimeouts[i] = connectionCleanupTimeouts[freePointer];
-          freeConnections[freePointer] = null;
+          if (toValidate == null)
+            toValidate = new ArrayList<PooledConnection>();
+          toValidate.add(pc);
         }
+      }
+    }
+
+    if (toValidate != null)
+    {
+      for (PooledConnection pc : toValidate)
+      {
+        boolean valid;
         try
         {
-         c.close();
+          valid = pc.connection.isValid(validationTimeoutSeconds);
         }
         catch (SQLException e)
         {
-          Logging.db.warn("Error closing pooled connection: "+e.getMessage(),e);
+          valid = false;
+        }
+        catch (AbstractMethodError e)
+        {
+          // Pre-JDBC4 driver; assume the best
+          valid = true;
+        }
+        if (valid)
+        {
+          pc.lastValidated = System.currentTimeMillis();
+          offerConnection(pc);
+        }
+        else
+        {
+          Logging.db.warn("Discarding pooled database connection that failed validation");
+          validationFailures.incrementAndGet();
+          destroyConnection(pc.connection);
         }
       }
-      else
-        i++;
     }
   }
-  
+
   public void releaseConnection(WrappedConnection connection)
   {
 
@@ -231,21 +449,289 @@ public class ConnectionPool
       }
     }
 
-    release(connection.getConnection());
+    if (connection.getCallerClass() != null)
+      getCallerCounters(connection.getCallerClass()).noteRelease(System.nanoTime() - connection.getAcquireTime());
+    release(connection.getConnection(),connection.getStatementCache());
+  }
+
+  protected void release(Connection c, StatementCache statementCache)
+  {
+    long currentTime = System.currentTimeMillis();
+    offerConnection(new PooledConnection(c,statementCache,currentTime + expiration,currentTime));
+  }
+
+  /** Close a connection that is leaving the pool.
+  */
+  protected void destroyConnection(Connection c)
+  {
+    try
+    {
+      c.close();
+    }
+    catch (SQLException e)
+    {
+      Logging.db.warn("Error closing pooled connection: "+e.getMessage(),e);
+    }
+    connectionsDestroyed.incrementAndGet();
+    connectionGone();
+  }
+
+  /** Create a brand-new database connection.
+  */
+  protected Connection createConnection()
+    throws SQLException
+  {
+    if (userName != null)
+      return DriverManager.getConnection(dbURL, userName, password);
+    else
+      return DriverManager.getConnection(dbURL);
   }
-  
-  protected void release(Connection c)
+
+  /** Get a snapshot of this pool's statistics.
+  */
+  public ConnectionPoolStatistics getStatistics()
   {
-    synchronized (this)
+    List<ConnectionPoolStatistics.CallerClassStatistics> callerStatistics = new ArrayList<ConnectionPoolStatistics.CallerClassStatistics>();
+    Iterator<String> iter = callerCounters.keySet().iterator();
+    while (iter.hasNext())
+    {
+      String callerClass = iter.next();
+      CallerCounters c = callerCounters.get(callerClass);
+      callerStatistics.add(new ConnectionPoolStatistics.CallerClassStatistics(callerClass,
+        c.acquisitions.get(),c.waits.get(),c.timeouts.get(),
+        c.totalWaitTime.get()/1000000L,c.maxWaitTime.get()/1000000L,c.totalHoldTime.get()/1000000L));
+    }
+    ConnectionPoolStatistics.CallerClassStatistics[] array = callerStatistics.toArray(new ConnectionPoolStatistics.CallerClassStatistics[0]);
+    Arrays.sort(array);
+    return new ConnectionPoolStatistics(maxConnections,activeConnections.get(),freeConnections.size(),waiterCount.get(),
+      connectionsCreated.get(),connectionsDestroyed.get(),creationFailures.get(),validationFailures.get(),waiterRejections.get(),
+      System.currentTimeMillis() - startTime,array);
+  }
+
+  /** Figure out what kind of thread is calling us.  Framework threads are named after what they
+  * do, followed by an instance number (e.g. "Worker thread '12'"), so the name up to the
+  * instance number is used.
+  */
+  protected static String getCallerClass()
+  {
+    String name = Thread.currentThread().getName();
+    int i = 0;
+    while (i < name.length())
+    {
+      char x = name.charAt(i);
+      if (x == '\'' || x == '(' || (x >= '0' && x <= '9'))
+        break;
+      i++;
+    }
+    while (i > 0)
+    {
+      char x = name.charAt(i-1);
+      if (x != ' ' && x != '-' && x != '_' && x != '#')
+        break;
+      i--;
+    }
+    if (i == 0)
+      return name;
+    return name.substring(0,i);
+  }
+
+  protected CallerCounters getCallerCounters(String callerClass)
+  {
+    CallerCounters rval = callerCounters.get(callerClass);
+    if (rval == null)
+    {
+      // Don't let oddly-named threads grow the table without limit
+      if (callerCounters.size() >= maxCallerClasses)
+        callerClass = OTHER_CALLER_CLASS;
+      CallerCounters newCounters = new CallerCounters();
+      rval = callerCounters.putIfAbsent(callerClass,newCounters);
+      if (rval == null)
+        rval = newCounters;
+    }
+    return rval;
+  }
+
+  /** A free connection */
+  protected static class PooledConnection
+  {
+    public final Connection connection;
+    public final StatementCache statementCache;
+    public final long cleanupTime;
+    public long lastValidated;
+
+    public PooledConnection(Connection connection, StatementCache statementCache, long cleanupTime, long lastValidated)
+    {
+      this.connection = connection;
+      this.statementCache = statementCache;
+      this.cleanupTime = cleanupTime;
+      this.lastValidated = lastValidated;
+    }
+  }
+
+  /** A thread waiting for a connection.  Exactly one of serve() or cancel() succeeds. */
+  protected static class Waiter
+  {
+    public PooledConnection connection = null;
+    public SQLException exception = null;
+    protected boolean served = false;
+    protected boolean cancelled = false;
+
+    public synchronized boolean serve(PooledConnection connection, SQLException exception)
+    {
+      if (cancelled)
+        return false;
+      this.connection = connection;
+      this.exception = exception;
+      served = true;
+      notifyAll();
+      return true;
+    }
+
+    public synchronized boolean cancel()
+    {
+      if (served)
+        return false;
+      cancelled = true;
+      return true;
+    }
+
+    public synchronized boolean isServed()
+    {
+      return served;
+    }
+
+    public synchronized void wake()
     {
-      freeConnections[freePointer] = c;
-      connectionCleanupTimeouts[freePointer] = System.currentTimeMillis() + expiration;
-      freePointer++;
       notifyAll();
     }
-    
   }
-  
-}
 
+  /** Live counters for a caller class */
+  protected static class CallerCounters
+  {
+    public final AtomicLong acquisitions = new AtomicLong(0L);
+    public final AtomicLong waits = new AtomicLong(0L);
+    public final AtomicLong timeouts = new AtomicLong(0L);
+    public final AtomicLong totalWaitTime = new AtomicLong(0L);
+    public final AtomicLong maxWaitTime = new AtomicLong(0L);
+    public final AtomicLong totalHoldTime = new AtomicLong(0L);
+
+    public void noteAcquisition(boolean waited, long waitTime)
+    {
+      acquisitions.incrementAndGet();
+      if (!waited)
+        return;
+      waits.incrementAndGet();
+      totalWaitTime.addAndGet(waitTime);
+      while (true)
+      {
+        long currentMax = maxWaitTime.get();
+        if (waitTime <= currentMax || maxWaitTime.compareAndSet(currentMax,waitTime))
+          break;
+      }
+    }
+
+    public void noteRelease(long holdTime)
+    {
+      totalHoldTime.addAndGet(holdTime);
+    }
+  }
+
+  /** This creates connections on request, on threads of its own, so that callers don't have to wait in
+  * line behind a slow database login.  A thread is started for each request, up to a limit, so that
+  * several logins can be under way at once; threads go away when there is nothing left to create.
+  */
+  protected class ConnectionCreator
+  {
+    /** Creations requested but not yet taken up by a thread */
+    protected int pendingCreations = 0;
+    /** The creation threads now running */
+    protected final Set<ConnectionCreatorThread> threads = new HashSet<ConnectionCreatorThread>();
+
+    public ConnectionCreator()
+    {
+    }
+
+    /** Ask for a connection to be created.  Room for it must already have been reserved. */
+    public synchronized void requestCreation()
+    {
+      pendingCreations++;
+      if (threads.size() < maxCreatorThreads)
+      {
+        ConnectionCreatorThread t = new ConnectionCreatorThread();
+        threads.add(t);
+        t.start();
+      }
+    }
 
+    /** Take a request, or, if there are none, note that the thread is done.
+    *@return true if there was a request.
+    */
+    protected synchronized boolean takeRequest(ConnectionCreatorThread t)
+    {
+      if (pendingCreations == 0 || closed)
+      {
+        threads.remove(t);
+        return false;
+      }
+      pendingCreations--;
+      return true;
+    }
+
+    /** Stop creating connections.
+    */
+    public synchronized void shutdown()
+    {
+      for (ConnectionCreatorThread t : threads)
+      {
+        t.interrupt();
+      }
+      // Release anything we promised but never made
+      activeConnections.addAndGet(-pendingCreations);
+      pendingCreations = 0;
+    }
+  }
+
+  /** A thread that creates connections for as long as there are requests for them.
+  */
+  protected class ConnectionCreatorThread extends Thread
+  {
+    public ConnectionCreatorThread()
+    {
+      super();
+      setName("Connection pool creator");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (creator.takeRequest(this))
+      {
+        Connection c;
+        try
+        {
+          c = createConnection();
+        }
+        catch (SQLException e)
+        {
+          creationFailures.incrementAndGet();
+          activeConnections.decrementAndGet();
+          failWaiter(e);
+          continue;
+        }
+        catch (Throwable e)
+        {
+          Logging.db.error("Unexpected error creating database connection: "+e.getMessage(),e);
+          creationFailures.incrementAndGet();
+          activeConnections.decrementAndGet();
+          failWaiter(new SQLException("Unexpected error creating connection: "+e.getMessage(),e));
+          continue;
+        }
+        connectionsCreated.incrementAndGet();
+        long currentTime = System.currentTimeMillis();
+        offerConnection(new PooledConnection(c,new StatementCache(statementCacheSize,schemaGeneration),currentTime + expiration,currentTime));
+      }
+    }
+  }
+
+}
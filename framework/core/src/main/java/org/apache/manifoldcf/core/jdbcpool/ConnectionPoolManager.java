@@ -59,12 +59,47 @@ public class ConnectionPoolManager
   public synchronized ConnectionPool addAlias(String poolKey, String driverClassName, String dbURL,
     String userName, String password, int maxSize, long expiration)
     throws ClassNotFoundException, InstantiationException, IllegalAccessException
+  {
+    return addAlias(poolKey,driverClassName,dbURL,userName,password,new ConnectionPoolOptions(maxSize,expiration));
+  }
+
+  /** Set up a pool with a given key.
+  *@param options describes the pool's size, limits, validation, and statement caching.
+  */
+  public synchronized ConnectionPool addAlias(String poolKey, String driverClassName, String dbURL,
+    String userName, String password, ConnectionPoolOptions options)
+    throws ClassNotFoundException, InstantiationException, IllegalAccessException
   {
     Class.forName(driverClassName).newInstance();
-    ConnectionPool cp = new ConnectionPool(dbURL,userName,password,maxSize,expiration,debug);
+    // Two threads may race to set up the same pool; the first one wins, since
+    // each pool owns a background thread and callers may already be using it.
+    ConnectionPool cp = poolMap.get(poolKey);
+    if (cp != null)
+      return cp;
+    cp = new ConnectionPool(dbURL,userName,password,options,debug);
     poolMap.put(poolKey,cp);
     return cp;
   }
+
+  /** Get statistics for all the pools.
+  *@return a map from pool key to statistics.
+  */
+  public Map<String,ConnectionPoolStatistics> getStatistics()
+  {
+    Map<String,ConnectionPool> pools;
+    synchronized (this)
+    {
+      pools = new HashMap<String,ConnectionPool>(poolMap);
+    }
+    Map<String,ConnectionPoolStatistics> rval = new HashMap<String,ConnectionPoolStatistics>();
+    Iterator<String> iter = pools.keySet().iterator();
+    while (iter.hasNext())
+    {
+      String poolKey = iter.next();
+      rval.put(poolKey,pools.get(poolKey).getStatistics());
+    }
+    return rval;
+  }
   
   public void shutdown()
   {
@@ -0,0 +1,121 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+/** This class describes how a connection pool is to be set up: how large it is, how long
+* connections last, how long callers may wait, how connections are validated, and how many
+* prepared statements each connection keeps.  Everything but the size and expiration has a
+* default that turns the feature off.
+*/
+public class ConnectionPoolOptions
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final int maxConnections;
+  protected final long expiration;
+  protected long acquireTimeout = 0L;
+  protected int maxWaiters = 0;
+  protected long validationInterval = 0L;
+  protected int statementCacheSize = 0;
+
+  /** Constructor.
+  *@param maxConnections is the largest number of connections the pool may hold.
+  *@param expiration is how long a free connection is kept, in milliseconds.
+  */
+  public ConnectionPoolOptions(int maxConnections, long expiration)
+  {
+    this.maxConnections = maxConnections;
+    this.expiration = expiration;
+  }
+
+  /** Get the largest number of connections.
+  */
+  public int getMaxConnections()
+  {
+    return maxConnections;
+  }
+
+  /** Get how long a free connection is kept, in milliseconds.
+  */
+  public long getExpiration()
+  {
+    return expiration;
+  }
+
+  /** Set the longest time a caller will wait for a connection.
+  *@param acquireTimeout is the time in milliseconds, or 0 for no limit.
+  */
+  public void setAcquireTimeout(long acquireTimeout)
+  {
+    this.acquireTimeout = acquireTimeout;
+  }
+
+  /** Get the longest time a caller will wait for a connection, in milliseconds, or 0 for no limit.
+  */
+  public long getAcquireTimeout()
+  {
+    return acquireTimeout;
+  }
+
+  /** Set the largest number of threads that may wait for a connection at once.
+  *@param maxWaiters is the number of threads, or 0 for no limit.
+  */
+  public void setMaxWaiters(int maxWaiters)
+  {
+    this.maxWaiters = maxWaiters;
+  }
+
+  /** Get the largest number of threads that may wait at once, or 0 for no limit.
+  */
+  public int getMaxWaiters()
+  {
+    return maxWaiters;
+  }
+
+  /** Set how long a connection may sit idle before it is validated.
+  *@param validationInterval is the time in milliseconds, or 0 if connections are never validated.
+  */
+  public void setValidationInterval(long validationInterval)
+  {
+    this.validationInterval = validationInterval;
+  }
+
+  /** Get how long a connection may sit idle before it is validated, in milliseconds, or 0 for never.
+  */
+  public long getValidationInterval()
+  {
+    return validationInterval;
+  }
+
+  /** Set the number of prepared statements to keep open on each connection.
+  *@param statementCacheSize is the number of statements, or 0 for none.
+  */
+  public void setStatementCacheSize(int statementCacheSize)
+  {
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  /** Get the number of prepared statements to keep open on each connection, or 0 for none.
+  */
+  public int getStatementCacheSize()
+  {
+    return statementCacheSize;
+  }
+
+}
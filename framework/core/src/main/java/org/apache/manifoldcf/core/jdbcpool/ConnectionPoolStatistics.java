@@ -0,0 +1,207 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+/** A snapshot of the statistics for a connection pool.  Counters are cumulative since the pool
+* was set up.  Times are in milliseconds.
+*/
+public class ConnectionPoolStatistics
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final int maxConnections;
+  protected final int activeConnections;
+  protected final int freeConnections;
+  protected final int waiters;
+  protected final long connectionsCreated;
+  protected final long connectionsDestroyed;
+  protected final long creationFailures;
+  protected final long validationFailures;
+  protected final long waiterRejections;
+  protected final long upTime;
+  protected final CallerClassStatistics[] callerClassStatistics;
+
+  public ConnectionPoolStatistics(int maxConnections, int activeConnections, int freeConnections, int waiters,
+    long connectionsCreated, long connectionsDestroyed, long creationFailures, long validationFailures,
+    long waiterRejections, long upTime, CallerClassStatistics[] callerClassStatistics)
+  {
+    this.maxConnections = maxConnections;
+    this.activeConnections = activeConnections;
+    this.freeConnections = freeConnections;
+    this.waiters = waiters;
+    this.connectionsCreated = connectionsCreated;
+    this.connectionsDestroyed = connectionsDestroyed;
+    this.creationFailures = creationFailures;
+    this.validationFailures = validationFailures;
+    this.waiterRejections = waiterRejections;
+    this.upTime = upTime;
+    this.callerClassStatistics = callerClassStatistics;
+  }
+
+  /** Get the maximum number of connections */
+  public int getMaxConnections()
+  {
+    return maxConnections;
+  }
+
+  /** Get the number of connections that exist or are being created */
+  public int getActiveConnections()
+  {
+    return activeConnections;
+  }
+
+  /** Get the number of connections sitting in the pool unused */
+  public int getFreeConnections()
+  {
+    return freeConnections;
+  }
+
+  /** Get the number of threads waiting for a connection */
+  public int getWaiters()
+  {
+    return waiters;
+  }
+
+  /** Get the number of connections created */
+  public long getConnectionsCreated()
+  {
+    return connectionsCreated;
+  }
+
+  /** Get the number of connections closed, for expiration, validation failure, or shutdown */
+  public long getConnectionsDestroyed()
+  {
+    return connectionsDestroyed;
+  }
+
+  /** Get the number of attempts to create a connection that failed */
+  public long getCreationFailures()
+  {
+    return creationFailures;
+  }
+
+  /** Get the number of idle connections that failed validation */
+  public long getValidationFailures()
+  {
+    return validationFailures;
+  }
+
+  /** Get the number of requests turned away because the wait queue was full */
+  public long getWaiterRejections()
+  {
+    return waiterRejections;
+  }
+
+  /** Get the time since the pool was set up */
+  public long getUpTime()
+  {
+    return upTime;
+  }
+
+  /** Get the fraction of the pool's capacity that has been held by callers since it was set up */
+  public double getUtilization()
+  {
+    if (upTime == 0L || maxConnections == 0)
+      return 0.0;
+    long totalHoldTime = 0L;
+    for (CallerClassStatistics c : callerClassStatistics)
+    {
+      totalHoldTime += c.getTotalHoldTime();
+    }
+    return ((double)totalHoldTime) / ((double)upTime * (double)maxConnections);
+  }
+
+  /** Get the statistics for each caller class, sorted by name */
+  public CallerClassStatistics[] getCallerClassStatistics()
+  {
+    return callerClassStatistics;
+  }
+
+  /** A snapshot of the statistics for one kind of calling thread.
+  */
+  public static class CallerClassStatistics implements Comparable<CallerClassStatistics>
+  {
+    protected final String callerClass;
+    protected final long acquisitions;
+    protected final long waits;
+    protected final long timeouts;
+    protected final long totalWaitTime;
+    protected final long maxWaitTime;
+    protected final long totalHoldTime;
+
+    public CallerClassStatistics(String callerClass, long acquisitions, long waits, long timeouts,
+      long totalWaitTime, long maxWaitTime, long totalHoldTime)
+    {
+      this.callerClass = callerClass;
+      this.acquisitions = acquisitions;
+      this.waits = waits;
+      this.timeouts = timeouts;
+      this.totalWaitTime = totalWaitTime;
+      this.maxWaitTime = maxWaitTime;
+      this.totalHoldTime = totalHoldTime;
+    }
+
+    /** Get the caller class, which is the thread name without its instance number */
+    public String getCallerClass()
+    {
+      return callerClass;
+    }
+
+    /** Get the number of connections obtained */
+    public long getAcquisitions()
+    {
+      return acquisitions;
+    }
+
+    /** Get the number of those that had to wait */
+    public long getWaits()
+    {
+      return waits;
+    }
+
+    /** Get the number of requests that timed out or were turned away */
+    public long getTimeouts()
+    {
+      return timeouts;
+    }
+
+    /** Get the total time spent waiting */
+    public long getTotalWaitTime()
+    {
+      return totalWaitTime;
+    }
+
+    /** Get the longest single wait */
+    public long getMaxWaitTime()
+    {
+      return maxWaitTime;
+    }
+
+    /** Get the total time connections were held before being released */
+    public long getTotalHoldTime()
+    {
+      return totalHoldTime;
+    }
+
+    public int compareTo(CallerClassStatistics other)
+    {
+      return callerClass.compareTo(other.callerClass);
+    }
+  }
+}
@@ -0,0 +1,253 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.manifoldcf.core.system.Logging;
+
+/** A least-recently-used cache of prepared statements for one database connection, keyed by SQL text.
+* The cache belongs to the physical connection, so it survives the connection going back to the pool
+* and being handed out again.  A statement is taken out of the cache while it is in use, and put back
+* when the caller is done with it, so two users can never share one statement.
+*
+* A statement prepared before a schema change may no longer be valid (PostgreSQL, for instance, refuses
+* to run a cached plan whose result type has changed).  All the caches of a pool therefore share a schema
+* generation count.  A cache that sees the count change drops everything it prepared before, and a
+* statement that was in use across the change is closed rather than kept.
+*/
+public class StatementCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The largest number of statements to keep */
+  protected final int maxStatements;
+  /** The idle statements, least recently used first */
+  protected final LinkedHashMap<String,PreparedStatement> statements;
+  /** The schema generation count shared by all the caches of a pool */
+  protected final AtomicLong schemaGeneration;
+  /** The schema generation the cached statements were prepared under */
+  protected long cachedGeneration;
+  /** The statements now in use, and the schema generation each was handed out under */
+  protected final Map<PreparedStatement,Long> inUse = new IdentityHashMap<PreparedStatement,Long>();
+
+  protected long hits = 0L;
+  protected long misses = 0L;
+
+  /** Constructor.
+  *@param maxStatements is the largest number of statements to keep open.
+  *@param schemaGeneration is the schema generation count shared with the pool's other caches.
+  */
+  public StatementCache(int maxStatements, AtomicLong schemaGeneration)
+  {
+    this.maxStatements = maxStatements;
+    this.statements = new LinkedHashMap<String,PreparedStatement>(16,0.75f,true);
+    this.schemaGeneration = schemaGeneration;
+    this.cachedGeneration = schemaGeneration.get();
+  }
+
+  /** Get a prepared statement for some SQL, reusing a cached one if there is one.
+  *@param connection is the connection the cache belongs to.
+  *@param sql is the SQL text.
+  *@return the statement; hand it back with release() when done.
+  */
+  public PreparedStatement prepare(Connection connection, String sql)
+    throws SQLException
+  {
+    PreparedStatement ps;
+    long generation;
+    List<PreparedStatement> stale;
+    synchronized (this)
+    {
+      stale = dropStaleStatements();
+      generation = cachedGeneration;
+      ps = statements.remove(sql);
+      if (ps != null)
+      {
+        hits++;
+        inUse.put(ps,new Long(generation));
+      }
+      else
+        misses++;
+    }
+    if (stale != null)
+      closeAll(stale);
+    if (ps != null)
+      return ps;
+    ps = connection.prepareStatement(sql);
+    synchronized (this)
+    {
+      inUse.put(ps,new Long(generation));
+    }
+    return ps;
+  }
+
+  /** Hand back a statement obtained from prepare().
+  *@param sql is the SQL text.
+  *@param ps is the statement.
+  *@param reusable is false if the statement failed, and should be closed rather than kept.
+  */
+  public void release(String sql, PreparedStatement ps, boolean reusable)
+    throws SQLException
+  {
+    synchronized (this)
+    {
+      Long generation = inUse.remove(ps);
+      // Don't keep a statement prepared before the schema changed
+      if (generation != null && generation.longValue() != schemaGeneration.get())
+        reusable = false;
+    }
+    if (reusable && maxStatements > 0)
+    {
+      try
+      {
+        ps.clearParameters();
+      }
+      catch (SQLException e)
+      {
+        reusable = false;
+      }
+    }
+    if (!reusable || maxStatements <= 0)
+    {
+      ps.close();
+      return;
+    }
+
+    List<PreparedStatement> toClose = new ArrayList<PreparedStatement>();
+    synchronized (this)
+    {
+      List<PreparedStatement> stale = dropStaleStatements();
+      if (stale != null)
+        toClose.addAll(stale);
+      PreparedStatement old = statements.put(sql,ps);
+      if (old != null)
+        toClose.add(old);
+      Iterator<PreparedStatement> iter = statements.values().iterator();
+      while (statements.size() > maxStatements && iter.hasNext())
+      {
+        toClose.add(iter.next());
+        iter.remove();
+      }
+    }
+    closeAll(toClose);
+  }
+
+  /** Note that some SQL was run on this cache's connection without being prepared.  If it changed
+  * the schema, the statements cached by every connection of the pool are dropped.  Statements that
+  * only set up a transaction or a session, or maintain tables (such as SET, ANALYZE, or REINDEX), leave
+  * the caches alone, since they are run all the time and cannot change a statement's result type.
+  *@param sql is the SQL text.
+  */
+  public void noteUnpreparedStatement(String sql)
+  {
+    if (isSchemaStatement(sql))
+      noteSchemaChange();
+  }
+
+  /** Check whether some SQL changes the schema.
+  */
+  public static boolean isSchemaStatement(String sql)
+  {
+    int i = 0;
+    while (i < sql.length() && Character.isWhitespace(sql.charAt(i)))
+      i++;
+    return sql.regionMatches(true,i,"CREATE",0,6) ||
+      sql.regionMatches(true,i,"ALTER",0,5) ||
+      sql.regionMatches(true,i,"DROP",0,4) ||
+      sql.regionMatches(true,i,"RENAME",0,6);
+  }
+
+  /** Note that this cache's connection has changed the schema.  The statements cached by every
+  * connection of the pool are dropped.
+  */
+  public void noteSchemaChange()
+  {
+    schemaGeneration.incrementAndGet();
+    clear();
+  }
+
+  /** Close every statement cached for this connection.
+  */
+  public void clear()
+  {
+    List<PreparedStatement> toClose;
+    synchronized (this)
+    {
+      toClose = new ArrayList<PreparedStatement>(statements.values());
+      statements.clear();
+    }
+    closeAll(toClose);
+  }
+
+  /** If the schema has changed since the cached statements were prepared, forget them all.
+  * Call this while synchronized.
+  *@return the statements to close, or null if there are none.
+  */
+  protected List<PreparedStatement> dropStaleStatements()
+  {
+    long currentGeneration = schemaGeneration.get();
+    if (currentGeneration == cachedGeneration)
+      return null;
+    cachedGeneration = currentGeneration;
+    if (statements.size() == 0)
+      return null;
+    List<PreparedStatement> rval = new ArrayList<PreparedStatement>(statements.values());
+    statements.clear();
+    return rval;
+  }
+
+  /** Get the number of statements now cached.
+  */
+  public synchronized int size()
+  {
+    return statements.size();
+  }
+
+  /** Get the number of prepare() calls that reused a cached statement.
+  */
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  /** Get the number of prepare() calls that prepared a new statement.
+  */
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  protected static void closeAll(List<PreparedStatement> toClose)
+  {
+    for (PreparedStatement ps : toClose)
+    {
+      try
+      {
+        ps.close();
+      }
+      catch (SQLException e)
+      {
+        Logging.db.warn("Error closing cached statement: "+e.getMessage(),e);
+      }
+    }
+  }
+
+}
@@ -31,6 +31,12 @@ public class WrappedConnection
   protected ConnectionPool owner;
   /** Exception, to keep track of where the connection was allocated */
   protected Exception instantiationException;
+  /** The kind of thread that obtained the connection, or null if unknown */
+  protected String callerClass;
+  /** The System.nanoTime() at which the connection was obtained */
+  protected long acquireTime;
+  /** The prepared statements kept open on this connection, or null if none are */
+  protected StatementCache statementCache;
   
   /** Constructor */
   public WrappedConnection(ConnectionPool owner, Connection connection)
@@ -40,10 +46,24 @@ public class WrappedConnection
   
   /** Constructor */
   public WrappedConnection(ConnectionPool owner, Connection connection, Exception instantiationException)
+  {
+    this(owner,connection,instantiationException,null,0L,null);
+  }
+
+  /** Constructor, for a connection handed out by a pool.
+  *@param callerClass is the kind of thread that obtained the connection, or null if unknown.
+  *@param acquireTime is the System.nanoTime() at which the connection was obtained.
+  *@param statementCache is the prepared statement cache that goes with the connection, or null.
+  */
+  public WrappedConnection(ConnectionPool owner, Connection connection, Exception instantiationException,
+    String callerClass, long acquireTime, StatementCache statementCache)
   {
     this.owner = owner;
     this.connection = connection;
     this.instantiationException = instantiationException;
+    this.callerClass = callerClass;
+    this.acquireTime = acquireTime;
+    this.statementCache = statementCache;
   }
   
   /** Get the JDBC connection object.
@@ -53,12 +73,21 @@ public class WrappedConnection
     return connection;
   }
   
+  /** Get the prepared statement cache that goes with the connection.
+  *@return the cache, or null if the connection has none.
+  */
+  public StatementCache getStatementCache()
+  {
+    return statementCache;
+  }
+
   /** Release the object into its pool.
   */
   public void release()
   {
     owner.releaseConnection(this);
     this.connection = null;
+    this.statementCache = null;
   }
   
   /** Get instantiation exception.
@@ -67,6 +96,20 @@ public class WrappedConnection
   {
     return instantiationException;
   }
+
+  /** Get the kind of thread that obtained the connection.
+  */
+  public String getCallerClass()
+  {
+    return callerClass;
+  }
+
+  /** Get the time the connection was obtained, as a System.nanoTime() value.
+  */
+  public long getAcquireTime()
+  {
+    return acquireTime;
+  }
   
 }
 
@@ -961,6 +961,7 @@ public class BaseLockManager implements ILockManager
 
     // We don't own a local non-ex write lock.  Get one.  The global lock will need
     // to know if we already have a a read lock.
+    long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITENONEX);
     while (true)
     {
       LockGate lo = crossLocks.getObject(lockKey);
@@ -971,6 +972,7 @@ public class BaseLockManager implements ILockManager
       }
       catch (InterruptedException e)
       {
+        LockProfiler.noteWaitAbandoned();
         throw new ManifoldCFException("Interrupted",e,ManifoldCFException.INTERRUPTED);
       }
       catch (ExpiredObjectException e)
@@ -978,6 +980,7 @@ public class BaseLockManager implements ILockManager
         // Try again to get a valid object
       }
     }
+    LockProfiler.noteAcquired(description,lockKey,TYPE_WRITENONEX,waitStart);
     ll.incrementNonExWriteLocks();
     if (Logging.lock.isDebugEnabled())
       Logging.lock.debug(" Successfully obtained "+description+"!");
@@ -1010,6 +1013,7 @@ public class BaseLockManager implements ILockManager
 
     // We don't own a local non-ex write lock.  Get one.  The global lock will need
     // to know if we already have a a read lock.
+    long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITENONEX);
     while (true)
     {
       LockGate lo = crossLocks.getObject(lockKey);
@@ -1028,10 +1032,12 @@ public class BaseLockManager implements ILockManager
           Logging.lock.debug(" Could not non-ex write "+description+" '"+lockKey+"', lock exception");
 
         // Throw LockException instead
+        LockProfiler.noteWaitAbandoned();
         throw new LockException(e.getMessage());
       }
       catch (InterruptedException e)
       {
+        LockProfiler.noteWaitAbandoned();
         throw new ManifoldCFException("Interrupted",e,ManifoldCFException.INTERRUPTED);
       }
       catch (ExpiredObjectException e)
@@ -1039,6 +1045,7 @@ public class BaseLockManager implements ILockManager
         // Try again to get a valid object
       }
     }
+    LockProfiler.noteAcquired(description,lockKey,TYPE_WRITENONEX,waitStart);
     ll.incrementNonExWriteLocks();
     if (Logging.lock.isDebugEnabled())
       Logging.lock.debug(" Successfully obtained "+description+"!");
@@ -1091,6 +1098,7 @@ public class BaseLockManager implements ILockManager
         }
       }
 
+      LockProfiler.noteRelease(description,lockKey);
       localLocks.releaseLocalLock(lockKey);
     }
   }
@@ -1122,6 +1130,7 @@ public class BaseLockManager implements ILockManager
     // We don't own a local write lock.  Get one.  The global lock will need
     // to know if we already have a non-exclusive lock or a read lock, which we don't because
     // it's illegal.
+    long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITE);
     while (true)
     {
       LockGate lo = crossLocks.getObject(lockKey);
@@ -1132,6 +1141,7 @@ public class BaseLockManager implements ILockManager
       }
       catch (InterruptedException e)
       {
+        LockProfiler.noteWaitAbandoned();
         throw new ManifoldCFException("Interrupted",e,ManifoldCFException.INTERRUPTED);
       }
       catch (ExpiredObjectException e)
@@ -1139,6 +1149,7 @@ public class BaseLockManager implements ILockManager
         // Try again
       }
     }
+    LockProfiler.noteAcquired(description,lockKey,TYPE_WRITE,waitStart);
     ll.incrementWriteLocks();
     if (Logging.lock.isDebugEnabled())
       Logging.lock.debug(" Successfully obtained "+description+"!");
@@ -1171,6 +1182,7 @@ public class BaseLockManager implements ILockManager
     // We don't own a local write lock.  Get one.  The global lock will need
     // to know if we already have a non-exclusive lock or a read lock, which we don't because
     // it's illegal.
+    long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITE);
     while (true)
     {
       LockGate lo = crossLocks.getObject(lockKey);
@@ -1190,10 +1202,12 @@ public class BaseLockManager implements ILockManager
           Logging.lock.debug(" Could not write "+description+" '"+lockKey+"', lock exception");
         }
 
+        LockProfiler.noteWaitAbandoned();
         throw new LockException(e.getMessage());
       }
       catch (InterruptedException e)
       {
+        LockProfiler.noteWaitAbandoned();
         throw new ManifoldCFException("Interrupted",e,ManifoldCFException.INTERRUPTED);
       }
       catch (ExpiredObjectException e)
@@ -1202,6 +1216,7 @@ public class BaseLockManager implements ILockManager
       }
     }
 
+    LockProfiler.noteAcquired(description,lockKey,TYPE_WRITE,waitStart);
     ll.incrementWriteLocks();
     if (Logging.lock.isDebugEnabled())
       Logging.lock.debug(" Successfully obtained "+description+"!");
@@ -1251,6 +1266,7 @@ public class BaseLockManager implements ILockManager
         }
       }
 
+      LockProfiler.noteRelease(description,lockKey);
       localLocks.releaseLocalLock(lockKey);
     }
   }
@@ -1275,6 +1291,7 @@ public class BaseLockManager implements ILockManager
     }
 
     // We don't own a local read lock.  Get one.
+    long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_READ);
     while (true)
     {
       LockGate lo = crossLocks.getObject(lockKey);
@@ -1285,6 +1302,7 @@ public class BaseLockManager implements ILockManager
       }
       catch (InterruptedException e)
       {
+        LockProfiler.noteWaitAbandoned();
         throw new ManifoldCFException("Interrupted",e,ManifoldCFException.INTERRUPTED);
       }
       catch (ExpiredObjectException e)
@@ -1292,6 +1310,7 @@ public class BaseLockManager implements ILockManager
         // Try again
       }
     }
+    LockProfiler.noteAcquired(description,lockKey,TYPE_READ,waitStart);
     ll.incrementReadLocks();
     if (Logging.lock.isDebugEnabled())
       Logging.lock.debug(" Successfully obtained "+description+"!");
@@ -1316,6 +1335,7 @@ public class BaseLockManager implements ILockManager
     }
 
     // We don't own a local read lock.  Get one.
+    long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_READ);
     while (true)
     {
       LockGate lo = crossLocks.getObject(lockKey);
@@ -1333,10 +1353,12 @@ public class BaseLockManager implements ILockManager
         if (Logging.lock.isDebugEnabled())
           Logging.lock.debug(" Could not read "+description+" '"+lockKey+"', lock exception");
 
+        LockProfiler.noteWaitAbandoned();
         throw new LockException(e.getMessage());
       }
       catch (InterruptedException e)
       {
+        LockProfiler.noteWaitAbandoned();
         throw new ManifoldCFException("Interrupted",e,ManifoldCFException.INTERRUPTED);
       }
       catch (ExpiredObjectException e)
@@ -1345,6 +1367,7 @@ public class BaseLockManager implements ILockManager
       }
     }
 
+    LockProfiler.noteAcquired(description,lockKey,TYPE_READ,waitStart);
     ll.incrementReadLocks();
     if (Logging.lock.isDebugEnabled())
       Logging.lock.debug(" Successfully obtained "+description+"!");
@@ -1393,6 +1416,7 @@ public class BaseLockManager implements ILockManager
           // Try again
         }
       }
+      LockProfiler.noteRelease(description,lockKey);
       localLocks.releaseLocalLock(lockKey);
     }
   }
@@ -1475,6 +1499,7 @@ public class BaseLockManager implements ILockManager
           if (!ll.hasWriteLock())
           {
             // We don't own a local write lock.  Get one.
+            long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITE);
             while (true)
             {
               LockGate lo = crossLocks.getObject(lockKey);
@@ -1488,6 +1513,7 @@ public class BaseLockManager implements ILockManager
                 // Try again
               }
             }
+            LockProfiler.noteAcquired(description,lockKey,TYPE_WRITE,waitStart);
           }
           ll.incrementWriteLocks();
           break;
@@ -1503,6 +1529,7 @@ public class BaseLockManager implements ILockManager
           if (!(ll.hasNonExWriteLock() || ll.hasWriteLock()))
           {
             // We don't own a local write lock.  Get one.
+            long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITENONEX);
             while (true)
             {
               LockGate lo = crossLocks.getObject(lockKey);
@@ -1516,6 +1543,7 @@ public class BaseLockManager implements ILockManager
                 // Try again
               }
             }
+            LockProfiler.noteAcquired(description,lockKey,TYPE_WRITENONEX,waitStart);
           }
           ll.incrementNonExWriteLocks();
           break;
@@ -1524,6 +1552,7 @@ public class BaseLockManager implements ILockManager
           if (!(ll.hasReadLock() || ll.hasNonExWriteLock() || ll.hasWriteLock()))
           {
             // We don't own a local read lock.  Get one.
+            long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_READ);
             while (true)
             {
               LockGate lo = crossLocks.getObject(lockKey);
@@ -1537,6 +1566,7 @@ public class BaseLockManager implements ILockManager
                 // Try again
               }
             }
+            LockProfiler.noteAcquired(description,lockKey,TYPE_READ,waitStart);
           }
           ll.incrementReadLocks();
           break;
@@ -1549,6 +1579,7 @@ public class BaseLockManager implements ILockManager
     }
     catch (Throwable ex)
     {
+      LockProfiler.noteWaitAbandoned();
       // No matter what, undo the locks we've taken
       ManifoldCFException ae = null;
       int errno = 0;
@@ -1660,6 +1691,7 @@ public class BaseLockManager implements ILockManager
           if (!ll.hasWriteLock())
           {
             // We don't own a local write lock.  Get one.
+            long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITE);
             while (true)
             {
               LockGate lo = crossLocks.getObject(lockKey);
@@ -1676,6 +1708,7 @@ public class BaseLockManager implements ILockManager
                 }
               }
             }
+            LockProfiler.noteAcquired(description,lockKey,TYPE_WRITE,waitStart);
           }
           ll.incrementWriteLocks();
           break;
@@ -1691,6 +1724,7 @@ public class BaseLockManager implements ILockManager
           if (!(ll.hasNonExWriteLock() || ll.hasWriteLock()))
           {
             // We don't own a local write lock.  Get one.
+            long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_WRITENONEX);
             while (true)
             {
               LockGate lo = crossLocks.getObject(lockKey);
@@ -1707,6 +1741,7 @@ public class BaseLockManager implements ILockManager
                 }
               }
             }
+            LockProfiler.noteAcquired(description,lockKey,TYPE_WRITENONEX,waitStart);
           }
           ll.incrementNonExWriteLocks();
           break;
@@ -1715,6 +1750,7 @@ public class BaseLockManager implements ILockManager
           if (!(ll.hasReadLock() || ll.hasNonExWriteLock() || ll.hasWriteLock()))
           {
             // We don't own a local read lock.  Get one.
+            long waitStart = LockProfiler.noteWaitStart(description,lockKey,TYPE_READ);
             while (true)
             {
               LockGate lo = crossLocks.getObject(lockKey);
@@ -1731,6 +1767,7 @@ public class BaseLockManager implements ILockManager
                 }
               }
             }
+            LockProfiler.noteAcquired(description,lockKey,TYPE_READ,waitStart);
           }
           ll.incrementReadLocks();
           break;
@@ -1744,6 +1781,7 @@ public class BaseLockManager implements ILockManager
     }
     catch (Throwable ex)
     {
+      LockProfiler.noteWaitAbandoned();
       // No matter what, undo the locks we've taken
       ManifoldCFException ae = null;
       int errno = 0;
@@ -22,9 +22,17 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.core.system.ManifoldCF;
 import org.apache.manifoldcf.core.system.Logging;
 import java.io.*;
+import java.nio.channels.*;
 
 /** One instance of this object exists for each lock on each JVM!
 * This is the file-system version of the lock.
+*
+* The lock state lives in a status file, which is guarded by an OS-level lock on one byte of a
+* per-key mutex file.  While a JVM holds the global lock, it also keeps an OS-level lock on another
+* byte of the mutex file: exclusive for a write lock, shared for non-ex write and read locks.  A JVM
+* that finds the lock taken blocks on that byte, and so wakes up as soon as the holders let go,
+* instead of polling.  OS-level locks disappear with the process that holds them, so a crashed
+* JVM no longer leaves the mutex stuck.
 */
 public class FileLockObject extends LockObject
 {
@@ -32,11 +40,29 @@ public class FileLockObject extends LockObject
 
   private final static int STATUS_WRITELOCKED = -1;
 
-  private File lockDirectoryName = null;
+  // Byte offsets in the mutex file
+  private final static long REGION_MUTEX = 0L;
+  private final static long REGION_WRITE = 1L;
+  private final static long REGION_NONEXWRITE = 2L;
+  private final static long REGION_READ = 3L;
+
+  // Backoff limits for when the holder isn't keeping its region locked
+  private final static long MIN_BACKOFF = 1L;
+  private final static long MAX_BACKOFF = 100L;
+  // How many times to try for a region lock before leaving waiters to poll
+  private final static int MAX_REGION_ATTEMPTS = 10;
+
+  private File mutexFileName = null;
   private File lockFileName = null;
   private boolean isSync;                 // True if we need to be synchronizing across JVM's
 
-  private final static String DOTLOCK = ".lock";
+  private FileChannel mutexChannel = null;
+  private FileLock mutexLock = null;
+  private FileLock heldLock = null;
+  private int blockingStatus = 0;         // The status that made the last attempt fail
+  private long backoffTime = MIN_BACKOFF;
+
+  private final static String DOTMUTEX = ".mutex";
   private final static String DOTFILE = ".file";
   private final static String SLASH = "/";
 
@@ -58,7 +84,7 @@ public class FileLockObject extends LockObject
       (new File(fullDir)).mkdirs();
       String filename = createFileName(lockKey);
 
-      lockDirectoryName = new File(fullDir,filename+DOTLOCK);
+      mutexFileName = new File(fullDir,filename+DOTMUTEX);
       lockFileName = new File(fullDir,filename+DOTFILE);
     }
   }
@@ -68,6 +94,60 @@ public class FileLockObject extends LockObject
     return "lock-"+ManifoldCF.safeFileName(lockKey.toString());
   }
 
+  @Override
+  protected void obtainGlobalWriteLock()
+    throws ManifoldCFException, InterruptedException
+  {
+    while (true)
+    {
+      try
+      {
+        obtainGlobalWriteLockNoWait();
+        return;
+      }
+      catch (LockException e)
+      {
+        waitForRelease();
+      }
+    }
+  }
+
+  @Override
+  protected void obtainGlobalNonExWriteLock()
+    throws ManifoldCFException, InterruptedException
+  {
+    while (true)
+    {
+      try
+      {
+        obtainGlobalNonExWriteLockNoWait();
+        return;
+      }
+      catch (LockException e)
+      {
+        waitForRelease();
+      }
+    }
+  }
+
+  @Override
+  protected void obtainGlobalReadLock()
+    throws ManifoldCFException, InterruptedException
+  {
+    while (true)
+    {
+      try
+      {
+        obtainGlobalReadLockNoWait();
+        return;
+      }
+      catch (LockException e)
+      {
+        waitForRelease();
+      }
+    }
+  }
+
   @Override
   protected void obtainGlobalWriteLockNoWait()
     throws ManifoldCFException, LockException, InterruptedException
@@ -80,9 +160,11 @@ public class FileLockObject extends LockObject
         int status = readFile();
         if (status != 0)
         {
+          blockingStatus = status;
           throw new LockException(LOCKEDANOTHERJVM);
         }
         writeFile(STATUS_WRITELOCKED);
+        holdRegion(REGION_WRITE,false);
       }
       finally
       {
@@ -101,6 +183,7 @@ public class FileLockObject extends LockObject
       try
       {
         writeFile(0);
+        releaseRegion();
       }
       finally
       {
@@ -120,13 +203,16 @@ public class FileLockObject extends LockObject
       try
       {
         int status = readFile();
-        if (status >= STATUS_WRITELOCKED)
+        // Write-locked, or read-locked
+        if (status == STATUS_WRITELOCKED || status > 0)
         {
+          blockingStatus = status;
           throw new LockException(LOCKEDANOTHERJVM);
         }
         if (status == 0)
           status = STATUS_WRITELOCKED;
         writeFile(status-1);
+        holdRegion(REGION_NONEXWRITE,true);
       }
       finally
       {
@@ -151,6 +237,7 @@ public class FileLockObject extends LockObject
         if (status == STATUS_WRITELOCKED)
           status = 0;
         writeFile(status);
+        releaseRegion();
       }
       finally
       {
@@ -172,10 +259,12 @@ public class FileLockObject extends LockObject
         int status = readFile();
         if (status <= STATUS_WRITELOCKED)
         {
+          blockingStatus = status;
           throw new LockException(LOCKEDANOTHERJVM);
         }
         status++;
         writeFile(status);
+        holdRegion(REGION_READ,true);
       }
       finally
       {
@@ -199,6 +288,7 @@ public class FileLockObject extends LockObject
           throw new RuntimeException("JVM error: File lock is not in expected state for object "+this.toString());
         status--;
         writeFile(status);
+        releaseRegion();
         // System.out.println(" Wrote status = "+Integer.toString(status));
       }
       finally
@@ -208,114 +298,264 @@ public class FileLockObject extends LockObject
     }
   }
 
-  private final static String FILELOCKED = "File locked";
+  /** Wait until the lock holders that caused the last failed attempt may have let go.
+  */
+  private void waitForRelease()
+    throws InterruptedException
+  {
+    int status = blockingStatus;
+    long position;
+    boolean shared;
+    if (status == STATUS_WRITELOCKED)
+    {
+      // A write holder keeps an exclusive region lock; any lock on it waits for the holder
+      position = REGION_WRITE;
+      shared = true;
+    }
+    else if (status < STATUS_WRITELOCKED)
+    {
+      // Non-ex write holders keep shared region locks; an exclusive lock waits for all of them
+      position = REGION_NONEXWRITE;
+      shared = false;
+    }
+    else
+    {
+      // Read holders keep shared region locks, likewise
+      position = REGION_READ;
+      shared = false;
+    }
+
+    try
+    {
+      FileChannel channel = getChannel();
+      FileLock waitLock = channel.tryLock(position,1L,shared);
+      if (waitLock == null)
+      {
+        // The holders have the region locked, so block until they let go
+        waitLock = channel.lock(position,1L,shared);
+        waitLock.release();
+        closeChannelIfIdle();
+        backoffTime = MIN_BACKOFF;
+        return;
+      }
+      waitLock.release();
+      closeChannelIfIdle();
+    }
+    catch (OverlappingFileLockException e)
+    {
+      // Another lock object in this JVM has the region; fall through to back off
+    }
+    catch (FileLockInterruptionException e)
+    {
+      discardChannel();
+      throw new InterruptedException("Interrupted waiting for file lock: "+e.getMessage());
+    }
+    catch (ClosedByInterruptException e)
+    {
+      discardChannel();
+      throw new InterruptedException("Interrupted waiting for file lock: "+e.getMessage());
+    }
+    catch (IOException e)
+    {
+      try
+      {
+        Logging.lock.warn("Attempt to wait on file lock '"+mutexFileName.toString()+"' failed: "+e.getMessage(),e);
+      }
+      catch (Throwable e2)
+      {
+        e.printStackTrace();
+      }
+      discardChannel();
+    }
+
+    // The holder isn't keeping its region locked (it may have been interrupted, or the file
+    // system may not support locking), so fall back to polling with exponential backoff
+    ManifoldCF.sleep(backoffTime);
+    backoffTime = Math.min(backoffTime * 2L, MAX_BACKOFF);
+  }
 
-  private synchronized void grabFileLock()
-    throws LockException, InterruptedException
+  /** Keep a region lock for as long as this JVM holds the global lock, so other JVMs can wait on it.
+  * Called with the file mutex held.
+  */
+  private void holdRegion(long position, boolean shared)
+    throws InterruptedException
   {
-    while (true)
+    try
+    {
+      // A waiter in another JVM may have the region for a moment.  Don't block on it, since we
+      // hold the mutex, and some platforms let a pending exclusive lock block shared ones.
+      int attempt = 0;
+      while (true)
+      {
+        heldLock = getChannel().tryLock(position,1L,shared);
+        if (heldLock != null || ++attempt >= MAX_REGION_ATTEMPTS)
+          break;
+        ManifoldCF.sleep(1L);
+      }
+    }
+    catch (OverlappingFileLockException e)
+    {
+      // Waiters will just fall back to polling
+    }
+    catch (FileLockInterruptionException e)
     {
-      // Try to create the lock file
+      throw new InterruptedException("Interrupted locking file region: "+e.getMessage());
+    }
+    catch (ClosedByInterruptException e)
+    {
+      throw new InterruptedException("Interrupted locking file region: "+e.getMessage());
+    }
+    catch (IOException e)
+    {
+      // Waiters will just fall back to polling
       try
       {
-        if (lockDirectoryName.createNewFile() == false)
-          throw new LockException(FILELOCKED);
-        break;
+        Logging.lock.warn("Attempt to lock region of file '"+mutexFileName.toString()+"' failed: "+e.getMessage(),e);
       }
-      catch (InterruptedIOException e)
+      catch (Throwable e2)
       {
-        throw new InterruptedException("Interrupted IO: "+e.getMessage());
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /** Let go of the region lock, if any.  Called with the file mutex held.
+  */
+  private void releaseRegion()
+  {
+    if (heldLock != null)
+    {
+      try
+      {
+        if (heldLock.isValid())
+          heldLock.release();
       }
       catch (IOException e)
       {
-        // Log this if possible
         try
         {
-          Logging.lock.warn("Attempt to set file lock '"+lockDirectoryName.toString()+"' failed: "+e.getMessage(),e);
+          Logging.lock.warn("Attempt to unlock region of file '"+mutexFileName.toString()+"' failed: "+e.getMessage(),e);
         }
         catch (Throwable e2)
         {
           e.printStackTrace();
         }
-        // Winnt sometimes throws an exception when you can't do the lock
-        ManifoldCF.sleep(100);
-        continue;
       }
+      heldLock = null;
     }
   }
 
-  private synchronized void releaseFileLock()
+  private synchronized void grabFileLock()
     throws InterruptedException
   {
-    Throwable ie = null;
     while (true)
     {
+      // Block until no other JVM has the mutex region
       try
       {
-        if (lockDirectoryName.delete())
-          break;
-        try
-        {
-          Logging.lock.fatal("Failure deleting file lock '"+lockDirectoryName.toString()+"'");
-        }
-        catch (Throwable e2)
-        {
-          System.out.println("Failure deleting file lock '"+lockDirectoryName.toString()+"'");
-        }
-        // Fail hard
-        System.exit(-100);
+        mutexLock = getChannel().lock(REGION_MUTEX,1L,false);
+        return;
       }
-      catch (Error e)
+      catch (OverlappingFileLockException e)
       {
-        // An error - must try again to delete
-        // Attempting to log this to the log may not work due to disk being full, but try anyway.
-        String message = "Error deleting file lock '"+lockDirectoryName.toString()+"': "+e.getMessage();
-        try
-        {
-          Logging.lock.error(message,e);
-        }
-        catch (Throwable e2)
-        {
-          // Ok, we failed, send it to standard out
-          System.out.println(message);
-          e.printStackTrace();
-        }
-        ie = e;
-        ManifoldCF.sleep(100);
+        // Another lock object for the same key in this JVM has the mutex; it won't be long
+        ManifoldCF.sleep(1L);
         continue;
       }
-      catch (RuntimeException e)
+      catch (FileLockInterruptionException e)
+      {
+        discardChannel();
+        throw new InterruptedException("Interrupted IO: "+e.getMessage());
+      }
+      catch (ClosedByInterruptException e)
       {
-        // A runtime exception - try again to delete
-        // Attempting to log this to the log may not work due to disk being full, but try anyway.
-        String message = "Error deleting file lock '"+lockDirectoryName.toString()+"': "+e.getMessage();
+        discardChannel();
+        throw new InterruptedException("Interrupted IO: "+e.getMessage());
+      }
+      catch (IOException e)
+      {
+        // Log this if possible
         try
         {
-          Logging.lock.error(message,e);
+          Logging.lock.warn("Attempt to set file lock '"+mutexFileName.toString()+"' failed: "+e.getMessage(),e);
         }
         catch (Throwable e2)
         {
-          // Ok, we failed, send it to standard out
-          System.out.println(message);
           e.printStackTrace();
         }
-        ie = e;
+        discardChannel();
         ManifoldCF.sleep(100);
         continue;
       }
     }
+  }
 
-    // Succeeded finally - but we need to rethrow any exceptions we got
-    if (ie != null)
+  private synchronized void releaseFileLock()
+    throws InterruptedException
+  {
+    try
+    {
+      mutexLock.release();
+    }
+    catch (IOException e)
+    {
+      // The mutex goes away with the channel, so close it
+      String message = "Error releasing file lock '"+mutexFileName.toString()+"': "+e.getMessage();
+      try
+      {
+        Logging.lock.error(message,e);
+      }
+      catch (Throwable e2)
+      {
+        System.out.println(message);
+        e.printStackTrace();
+      }
+      discardChannel();
+    }
+    finally
     {
-      if (ie instanceof InterruptedException)
-        throw (InterruptedException)ie;
-      if (ie instanceof Error)
-        throw (Error)ie;
-      if (ie instanceof RuntimeException)
-        throw (RuntimeException)ie;
+      mutexLock = null;
     }
+    closeChannelIfIdle();
+  }
 
+  /** Get the channel to the mutex file, opening it if needed.  One channel per file is used for all
+  * the locks this JVM takes on it, since closing any channel drops all of them on some platforms.
+  */
+  private FileChannel getChannel()
+    throws IOException
+  {
+    if (mutexChannel == null)
+      mutexChannel = new RandomAccessFile(mutexFileName,"rw").getChannel();
+    return mutexChannel;
+  }
+
+  /** Close the channel if no locks are held through it, to keep open files to a minimum.
+  */
+  private void closeChannelIfIdle()
+  {
+    if (mutexLock == null && heldLock == null)
+      discardChannel();
+  }
+
+  /** Close the channel, dropping any locks held through it.
+  */
+  private void discardChannel()
+  {
+    if (mutexChannel != null)
+    {
+      try
+      {
+        mutexChannel.close();
+      }
+      catch (IOException e)
+      {
+        // Nothing more we can do
+      }
+      mutexChannel = null;
+    }
+    mutexLock = null;
+    heldLock = null;
   }
 
   private synchronized int readFile()
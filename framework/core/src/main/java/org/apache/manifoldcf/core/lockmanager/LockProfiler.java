@@ -0,0 +1,478 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class records, for the lock managers in this JVM, how long threads wait for locks and
+* critical sections and how long they hold them, by lock key prefix, along with who holds and who
+* is waiting for each key right now.  It is off unless turned on, since it adds a little work to
+* every lock operation.
+*
+* Only the outermost acquisition of a key by a thread is recorded; nested acquisitions don't
+* touch the underlying lock.  Holders and waiters in other JVMs are not visible here.
+*
+* A key's prefix is the leading "_NAME_" part for keys that start with an underscore (e.g.
+* "_STUFFER_", "_Cache_"), the part before the first colon for keys that have one (e.g. the
+* per-output-connection document locks), and otherwise the key itself.
+*/
+public class LockProfiler
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The maximum number of distinct key prefixes we will track */
+  protected final static int maxKeyPrefixes = 1000;
+  /** The prefix that everything beyond the maximum is counted under */
+  protected final static String OTHER_PREFIX = "*";
+
+  protected static volatile boolean enabled = false;
+
+  /** Statistics, by description (kind) and key prefix */
+  protected final static ConcurrentHashMap<String,PrefixCounters> prefixCounters = new ConcurrentHashMap<String,PrefixCounters>();
+  /** Current holders, by description and key, then by thread */
+  protected final static ConcurrentHashMap<String,ConcurrentHashMap<Long,Usage>> holders = new ConcurrentHashMap<String,ConcurrentHashMap<Long,Usage>>();
+  /** Current waiters, by thread.  A thread can only wait for one thing at a time. */
+  protected final static ConcurrentHashMap<Long,Usage> waiters = new ConcurrentHashMap<Long,Usage>();
+
+  private LockProfiler()
+  {
+  }
+
+  /** Turn profiling on or off.
+  */
+  public static void setEnabled(boolean value)
+  {
+    enabled = value;
+    if (!value)
+    {
+      holders.clear();
+      waiters.clear();
+    }
+  }
+
+  /** Check whether profiling is on.
+  */
+  public static boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /** Forget all the statistics gathered so far.  Current holders and waiters are kept.
+  */
+  public static void reset()
+  {
+    prefixCounters.clear();
+  }
+
+  /** Note that the current thread is about to try to obtain a lock or section.
+  *@return the start time, to be passed to noteAcquired().
+  */
+  public static long noteWaitStart(String description, String lockKey, int lockType)
+  {
+    if (!enabled)
+      return -1L;
+    long startTime = System.nanoTime();
+    Thread thread = Thread.currentThread();
+    Long threadID = new Long(thread.getId());
+    waiters.put(threadID,new Usage(description,lockKey,lockType,threadID,thread.getName(),startTime));
+    return startTime;
+  }
+
+  /** Note that the current thread now holds a lock or section.
+  *@param waitStart is the value returned by noteWaitStart().
+  */
+  public static void noteAcquired(String description, String lockKey, int lockType, long waitStart)
+  {
+    if (waitStart == -1L)
+      return;
+    Thread thread = Thread.currentThread();
+    Long threadID = new Long(thread.getId());
+    waiters.remove(threadID);
+    if (!enabled)
+      return;
+    long now = System.nanoTime();
+    getPrefixCounters(description,lockKey).waitTimes.record((now - waitStart) / 1000L);
+    String holderKey = makeHolderKey(description,lockKey);
+    ConcurrentHashMap<Long,Usage> keyHolders = holders.get(holderKey);
+    if (keyHolders == null)
+    {
+      ConcurrentHashMap<Long,Usage> newHolders = new ConcurrentHashMap<Long,Usage>();
+      keyHolders = holders.putIfAbsent(holderKey,newHolders);
+      if (keyHolders == null)
+        keyHolders = newHolders;
+    }
+    keyHolders.put(threadID,new Usage(description,lockKey,lockType,threadID,thread.getName(),now));
+  }
+
+  /** Note that the current thread has stopped waiting without obtaining what it was waiting for.
+  */
+  public static void noteWaitAbandoned()
+  {
+    if (!enabled)
+      return;
+    waiters.remove(new Long(Thread.currentThread().getId()));
+  }
+
+  /** Note that the current thread has given up a lock or section.
+  */
+  public static void noteRelease(String description, String lockKey)
+  {
+    if (!enabled)
+      return;
+    String holderKey = makeHolderKey(description,lockKey);
+    ConcurrentHashMap<Long,Usage> keyHolders = holders.get(holderKey);
+    if (keyHolders == null)
+      return;
+    Usage usage = keyHolders.remove(new Long(Thread.currentThread().getId()));
+    if (keyHolders.isEmpty())
+      holders.remove(holderKey,keyHolders);
+    if (usage == null)
+      return;
+    getPrefixCounters(description,lockKey).holdTimes.record((System.nanoTime() - usage.startTime) / 1000L);
+  }
+
+  /** Get a snapshot of the statistics, by description and key prefix.
+  *@return the statistics, sorted by description and prefix.
+  */
+  public static PrefixStatistics[] getPrefixStatistics()
+  {
+    List<PrefixStatistics> rval = new ArrayList<PrefixStatistics>();
+    for (PrefixCounters c : prefixCounters.values())
+    {
+      rval.add(new PrefixStatistics(c.description,c.prefix,c.waitTimes,c.holdTimes));
+    }
+    PrefixStatistics[] array = rval.toArray(new PrefixStatistics[0]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Get the current holders of locks and sections in this JVM.
+  *@return the holders, longest-held first.
+  */
+  public static UsageSnapshot[] getHolders()
+  {
+    List<UsageSnapshot> rval = new ArrayList<UsageSnapshot>();
+    long now = System.nanoTime();
+    for (ConcurrentHashMap<Long,Usage> keyHolders : holders.values())
+    {
+      for (Usage usage : keyHolders.values())
+      {
+        rval.add(new UsageSnapshot(usage,now));
+      }
+    }
+    UsageSnapshot[] array = rval.toArray(new UsageSnapshot[0]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Get the threads in this JVM waiting for locks and sections.
+  *@return the waiters, longest-waiting first.
+  */
+  public static UsageSnapshot[] getWaiters()
+  {
+    List<UsageSnapshot> rval = new ArrayList<UsageSnapshot>();
+    long now = System.nanoTime();
+    for (Usage usage : waiters.values())
+    {
+      rval.add(new UsageSnapshot(usage,now));
+    }
+    UsageSnapshot[] array = rval.toArray(new UsageSnapshot[0]);
+    Arrays.sort(array);
+    return array;
+  }
+
+  /** Work out the prefix statistics are kept under, for a lock key.
+  */
+  public static String getKeyPrefix(String lockKey)
+  {
+    if (lockKey.startsWith("_"))
+    {
+      int index = lockKey.indexOf("_",1);
+      if (index != -1)
+        return lockKey.substring(0,index+1);
+      return lockKey;
+    }
+    int index = lockKey.indexOf(":");
+    if (index != -1)
+      return lockKey.substring(0,index);
+    return lockKey;
+  }
+
+  protected static String makeHolderKey(String description, String lockKey)
+  {
+    return description + ":" + lockKey;
+  }
+
+  protected static PrefixCounters getPrefixCounters(String description, String lockKey)
+  {
+    String prefix = getKeyPrefix(lockKey);
+    String mapKey = description + ":" + prefix;
+    PrefixCounters rval = prefixCounters.get(mapKey);
+    if (rval == null)
+    {
+      // Don't let badly-behaved keys grow the table without limit
+      if (prefixCounters.size() >= maxKeyPrefixes)
+      {
+        prefix = OTHER_PREFIX;
+        mapKey = description + ":" + prefix;
+      }
+      PrefixCounters newCounters = new PrefixCounters(description,prefix);
+      rval = prefixCounters.putIfAbsent(mapKey,newCounters);
+      if (rval == null)
+        rval = newCounters;
+    }
+    return rval;
+  }
+
+  protected static String describeType(int lockType)
+  {
+    switch (lockType)
+    {
+    case BaseLockManager.TYPE_READ:
+      return "read";
+    case BaseLockManager.TYPE_WRITENONEX:
+      return "nonexwrite";
+    case BaseLockManager.TYPE_WRITE:
+      return "write";
+    default:
+      return "unknown";
+    }
+  }
+
+  /** Live statistics for a key prefix */
+  protected static class PrefixCounters
+  {
+    public final String description;
+    public final String prefix;
+    public final TimeHistogram waitTimes = new TimeHistogram();
+    public final TimeHistogram holdTimes = new TimeHistogram();
+
+    public PrefixCounters(String description, String prefix)
+    {
+      this.description = description;
+      this.prefix = prefix;
+    }
+  }
+
+  /** A thread's hold on, or wait for, a key */
+  protected static class Usage
+  {
+    public final String description;
+    public final String lockKey;
+    public final int lockType;
+    public final Long threadID;
+    public final String threadName;
+    public final long startTime;
+
+    public Usage(String description, String lockKey, int lockType, Long threadID, String threadName, long startTime)
+    {
+      this.description = description;
+      this.lockKey = lockKey;
+      this.lockType = lockType;
+      this.threadID = threadID;
+      this.threadName = threadName;
+      this.startTime = startTime;
+    }
+  }
+
+  /** A snapshot of the statistics for a key prefix.  Times are in microseconds.
+  */
+  public static class PrefixStatistics implements Comparable<PrefixStatistics>
+  {
+    protected final String description;
+    protected final String prefix;
+    protected final long acquisitions;
+    protected final long waitTotal;
+    protected final long waitMax;
+    protected final long waitP50;
+    protected final long waitP90;
+    protected final long waitP99;
+    protected final long releases;
+    protected final long holdTotal;
+    protected final long holdMax;
+    protected final long holdP50;
+    protected final long holdP90;
+    protected final long holdP99;
+
+    public PrefixStatistics(String description, String prefix, TimeHistogram waitTimes, TimeHistogram holdTimes)
+    {
+      this.description = description;
+      this.prefix = prefix;
+      this.acquisitions = waitTimes.getCount();
+      this.waitTotal = waitTimes.getTotal();
+      this.waitMax = waitTimes.getMax();
+      this.waitP50 = waitTimes.getPercentile(50.0);
+      this.waitP90 = waitTimes.getPercentile(90.0);
+      this.waitP99 = waitTimes.getPercentile(99.0);
+      this.releases = holdTimes.getCount();
+      this.holdTotal = holdTimes.getTotal();
+      this.holdMax = holdTimes.getMax();
+      this.holdP50 = holdTimes.getPercentile(50.0);
+      this.holdP90 = holdTimes.getPercentile(90.0);
+      this.holdP99 = holdTimes.getPercentile(99.0);
+    }
+
+    /** Get what kind of thing this is, e.g. "lock" or "critical section" */
+    public String getDescription()
+    {
+      return description;
+    }
+
+    public String getPrefix()
+    {
+      return prefix;
+    }
+
+    /** Get the number of times a key with this prefix was obtained */
+    public long getAcquisitions()
+    {
+      return acquisitions;
+    }
+
+    public long getWaitTotal()
+    {
+      return waitTotal;
+    }
+
+    public long getWaitMax()
+    {
+      return waitMax;
+    }
+
+    public long getWaitPercentile50()
+    {
+      return waitP50;
+    }
+
+    public long getWaitPercentile90()
+    {
+      return waitP90;
+    }
+
+    public long getWaitPercentile99()
+    {
+      return waitP99;
+    }
+
+    /** Get the number of times a key with this prefix was given up */
+    public long getReleases()
+    {
+      return releases;
+    }
+
+    public long getHoldTotal()
+    {
+      return holdTotal;
+    }
+
+    public long getHoldMax()
+    {
+      return holdMax;
+    }
+
+    public long getHoldPercentile50()
+    {
+      return holdP50;
+    }
+
+    public long getHoldPercentile90()
+    {
+      return holdP90;
+    }
+
+    public long getHoldPercentile99()
+    {
+      return holdP99;
+    }
+
+    public int compareTo(PrefixStatistics other)
+    {
+      int rval = description.compareTo(other.description);
+      if (rval != 0)
+        return rval;
+      return prefix.compareTo(other.prefix);
+    }
+  }
+
+  /** A snapshot of a thread's hold on, or wait for, a key.
+  */
+  public static class UsageSnapshot implements Comparable<UsageSnapshot>
+  {
+    protected final String description;
+    protected final String lockKey;
+    protected final String lockType;
+    protected final long threadID;
+    protected final String threadName;
+    protected final long elapsedTime;
+
+    public UsageSnapshot(Usage usage, long now)
+    {
+      this.description = usage.description;
+      this.lockKey = usage.lockKey;
+      this.lockType = describeType(usage.lockType);
+      this.threadID = usage.threadID.longValue();
+      this.threadName = usage.threadName;
+      this.elapsedTime = (now - usage.startTime) / 1000000L;
+    }
+
+    /** Get what kind of thing this is, e.g. "lock" or "critical section" */
+    public String getDescription()
+    {
+      return description;
+    }
+
+    public String getLockKey()
+    {
+      return lockKey;
+    }
+
+    /** Get "read", "nonexwrite", or "write" */
+    public String getLockType()
+    {
+      return lockType;
+    }
+
+    public long getThreadID()
+    {
+      return threadID;
+    }
+
+    public String getThreadName()
+    {
+      return threadName;
+    }
+
+    /** Get how long the key has been held or waited for, in milliseconds */
+    public long getElapsedTime()
+    {
+      return elapsedTime;
+    }
+
+    public int compareTo(UsageSnapshot other)
+    {
+      if (elapsedTime > other.elapsedTime)
+        return -1;
+      if (elapsedTime < other.elapsedTime)
+        return 1;
+      return lockKey.compareTo(other.lockKey);
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import java.util.concurrent.atomic.*;
+
+/** This is a histogram of times, in microseconds, in the style of an HDR histogram: the bucket
+* boundaries grow exponentially, with eight linear sub-buckets per power of two, so any recorded
+* value is known to within about 12%, from one microsecond up to days, in a fixed, small amount
+* of memory.  Recording is lock-free.
+*/
+public class TimeHistogram
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Values below this are counted exactly */
+  protected final static int linearLimit = 16;
+  /** Sub-buckets per power of two, as a number of bits */
+  protected final static int subBucketBits = 3;
+  /** Largest power of two we track; anything larger goes in the last bucket */
+  protected final static int maxExponent = 42;
+
+  protected final static int bucketCount = linearLimit + (maxExponent - 4 + 1) * (1 << subBucketBits);
+
+  protected final AtomicLongArray counts = new AtomicLongArray(bucketCount);
+  protected final AtomicLong totalCount = new AtomicLong(0L);
+  protected final AtomicLong totalValue = new AtomicLong(0L);
+  protected final AtomicLong maxValue = new AtomicLong(0L);
+
+  public TimeHistogram()
+  {
+  }
+
+  /** Record a value.
+  *@param value is the time, in microseconds.
+  */
+  public void record(long value)
+  {
+    if (value < 0L)
+      value = 0L;
+    counts.incrementAndGet(bucketIndex(value));
+    totalCount.incrementAndGet();
+    totalValue.addAndGet(value);
+    while (true)
+    {
+      long currentMax = maxValue.get();
+      if (value <= currentMax || maxValue.compareAndSet(currentMax,value))
+        break;
+    }
+  }
+
+  /** Get the number of values recorded.
+  */
+  public long getCount()
+  {
+    return totalCount.get();
+  }
+
+  /** Get the sum of all values recorded, in microseconds.
+  */
+  public long getTotal()
+  {
+    return totalValue.get();
+  }
+
+  /** Get the largest value recorded, in microseconds.
+  */
+  public long getMax()
+  {
+    return maxValue.get();
+  }
+
+  /** Estimate a percentile.
+  *@param percentile is the percentile, from 0.0 to 100.0.
+  *@return the upper bound of the bucket that the percentile falls in, in microseconds, but
+  * never more than the largest value recorded.
+  */
+  public long getPercentile(double percentile)
+  {
+    long count = totalCount.get();
+    if (count == 0L)
+      return 0L;
+    long target = (long)Math.ceil((percentile / 100.0) * (double)count);
+    if (target < 1L)
+      target = 1L;
+    long seen = 0L;
+    for (int i = 0; i < bucketCount; i++)
+    {
+      seen += counts.get(i);
+      if (seen >= target)
+        return Math.min(bucketUpperBound(i),maxValue.get());
+    }
+    return maxValue.get();
+  }
+
+  protected static int bucketIndex(long value)
+  {
+    if (value < linearLimit)
+      return (int)value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent > maxExponent)
+      return bucketCount - 1;
+    int subBucket = (int)((value >> (exponent - subBucketBits)) & ((1 << subBucketBits) - 1));
+    return linearLimit + (exponent - 4) * (1 << subBucketBits) + subBucket;
+  }
+
+  protected static long bucketUpperBound(int index)
+  {
+    if (index < linearLimit)
+      return index;
+    int offset = index - linearLimit;
+    int exponent = (offset >> subBucketBits) + 4;
+    int subBucket = offset & ((1 << subBucketBits) - 1);
+    long bucketWidth = 1L << (exponent - subBucketBits);
+    return (1L << exponent) + (subBucket + 1) * bucketWidth - 1L;
+  }
+
+}
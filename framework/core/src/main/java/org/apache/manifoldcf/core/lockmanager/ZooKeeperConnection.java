@@ -1013,6 +1013,80 @@ public class ZooKeeperConnection
     }
   }
 
+  /** Hand the (saved) lock over to the caller, who then becomes responsible for releasing it
+  * with releaseLock(String).  This frees the connection for other locks.
+  *@return the lock node path.
+  */
+  public String detachLock()
+  {
+    if (lockNode == null)
+      throw new IllegalStateException("Can't detach lock we don't hold");
+    String rval = lockNode;
+    lockNode = null;
+    return rval;
+  }
+
+  /** Release a lock that was detached from this connection.
+  *@param lockNodePath is the lock node path returned by detachLock().
+  */
+  public void releaseLock(String lockNodePath)
+    throws ManifoldCFException, InterruptedException
+  {
+    while (true)
+    {
+      try
+      {
+        zookeeper.delete(lockNodePath,-1);
+        break;
+      }
+      catch (KeeperException.NoNodeException e)
+      {
+        break;
+      }
+      catch (KeeperException e)
+      {
+        handleKeeperException(e);
+      }
+    }
+  }
+
+  /** Check that a detached read lock is still in place with no writer waiting behind it, and
+  * if so, set a watch that fires when the lock's waiters change.
+  *@param lockPath is the lock node path.
+  *@param lockNodePath is the read lock node path returned by detachLock().
+  *@param watcher is the watcher to set.
+  *@return true if the read lock is still in place and no write or non-ex write lock is pending.
+  */
+  public boolean watchReadLock(String lockPath, String lockNodePath, Watcher watcher)
+    throws ManifoldCFException, InterruptedException
+  {
+    String lockNodeName = lockNodePath.substring(lockPath.length() + 1);
+    while (true)
+    {
+      try
+      {
+        List<String> children = zookeeper.getChildren(lockPath,watcher);
+        boolean found = false;
+        for (String x : children)
+        {
+          if (x.startsWith(WRITE_PREFIX) || x.startsWith(NONEXWRITE_PREFIX))
+            return false;
+          if (x.equals(lockNodeName))
+            found = true;
+        }
+        return found;
+      }
+      catch (KeeperException.NoNodeException e)
+      {
+        return false;
+      }
+      catch (KeeperException e)
+      {
+        handleKeeperException(e);
+      }
+    }
+  }
+
   public byte[] readData(String resourcePath)
     throws ManifoldCFException, InterruptedException
   {
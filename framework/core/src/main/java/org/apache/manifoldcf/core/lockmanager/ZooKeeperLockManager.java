@@ -36,6 +36,7 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
 
   protected final static String zookeeperConnectStringParameter = "org.apache.manifoldcf.zookeeper.connectstring";
   protected final static String zookeeperSessionTimeoutParameter = "org.apache.manifoldcf.zookeeper.sessiontimeout";
+  protected final static String zookeeperMaxReadLeasesParameter = "org.apache.manifoldcf.zookeeper.maxreadleases";
 
   private final static String CONFIGURATION_PATH = "/org.apache.manifoldcf.configuration";
   private final static String RESOURCE_PATH_PREFIX = "/org.apache.manifoldcf.resources-";
@@ -52,6 +53,7 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
   // ZooKeeper connection pool
   protected static Integer connectionPoolLock = new Integer(0);
   protected static ZooKeeperConnectionPool pool = null;
+  protected static ZooKeeperReadLeases readLeases = null;
   protected static Integer zookeeperPoolLocker = new Integer(0);
   protected static LockPool myZooKeeperLocks = null;
 
@@ -70,13 +72,16 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
         int sessionTimeout = ManifoldCF.getIntProperty(zookeeperSessionTimeoutParameter,300000);
         ManifoldCF.addShutdownHook(new ZooKeeperShutdown());
         pool = new ZooKeeperConnectionPool(connectString, sessionTimeout);
+        int maxReadLeases = ManifoldCF.getIntProperty(zookeeperMaxReadLeasesParameter,0);
+        if (maxReadLeases > 0)
+          readLeases = new ZooKeeperReadLeases(pool, maxReadLeases);
       }
     }
     synchronized (zookeeperPoolLocker)
     {
       if (myZooKeeperLocks == null)
       {
-        myZooKeeperLocks = new LockPool(new ZooKeeperLockObjectFactory(pool));
+        myZooKeeperLocks = new LockPool(new ZooKeeperLockObjectFactory(pool, readLeases));
       }
     }
   }
@@ -913,6 +918,11 @@ public class ZooKeeperLockManager extends BaseLockManager implements ILockManage
       {
         try
         {
+          if (readLeases != null)
+          {
+            readLeases.close();
+            readLeases = null;
+          }
           pool.closeAll();
           pool = null;
         }
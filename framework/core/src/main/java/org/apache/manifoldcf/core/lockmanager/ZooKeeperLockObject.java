@@ -33,14 +33,25 @@ public class ZooKeeperLockObject extends LockObject
   private final static String LOCK_PATH_PREFIX = "/org.apache.manifoldcf.locks-";
 
   private final ZooKeeperConnectionPool pool;
+  private final ZooKeeperReadLeases leases;
   private final String lockPath;
   
   private ZooKeeperConnection currentConnection = null;
+  private boolean usingLease = false;
 
   public ZooKeeperLockObject(LockPool lockPool, Object lockKey, ZooKeeperConnectionPool pool)
+  {
+    this(lockPool,lockKey,pool,null);
+  }
+
+  /** Constructor.
+  *@param leases is the read lease cache, or null if read leases are not used.
+  */
+  public ZooKeeperLockObject(LockPool lockPool, Object lockKey, ZooKeeperConnectionPool pool, ZooKeeperReadLeases leases)
   {
     super(lockPool,lockKey);
     this.pool = pool;
+    this.leases = leases;
     this.lockPath = LOCK_PATH_PREFIX + ZooKeeperConnection.zooKeeperSafeName(lockKey.toString());
   }
 
@@ -50,6 +61,8 @@ public class ZooKeeperLockObject extends LockObject
   {
     if (currentConnection != null)
       throw new IllegalStateException("Already have a connection before write locking: "+lockPath);
+    if (leases != null)
+      leases.dropLease(lockPath);
     boolean succeeded = false;
     currentConnection = pool.grab();
     try
@@ -74,6 +87,8 @@ public class ZooKeeperLockObject extends LockObject
   {
     if (currentConnection != null)
       throw new IllegalStateException("Already have a connection before write locking: "+lockPath);
+    if (leases != null)
+      leases.dropLease(lockPath);
     boolean succeeded = false;
     currentConnection = pool.grab();
     try
@@ -106,6 +121,8 @@ public class ZooKeeperLockObject extends LockObject
   {
     if (currentConnection != null)
       throw new IllegalStateException("Already have a connection before non-ex-write locking: "+lockPath);
+    if (leases != null)
+      leases.dropLease(lockPath);
     boolean succeeded = false;
     currentConnection = pool.grab();
     try
@@ -130,6 +147,8 @@ public class ZooKeeperLockObject extends LockObject
   {
     if (currentConnection != null)
       throw new IllegalStateException("Already have a connection before non-ex-write locking: "+lockPath);
+    if (leases != null)
+      leases.dropLease(lockPath);
     boolean succeeded = false;
     currentConnection = pool.grab();
     try
@@ -162,6 +181,11 @@ public class ZooKeeperLockObject extends LockObject
   {
     if (currentConnection != null)
       throw new IllegalStateException("Already have a connection before read locking: "+lockPath);
+    if (leases != null && leases.useLease(lockPath))
+    {
+      usingLease = true;
+      return;
+    }
     boolean succeeded = false;
     currentConnection = pool.grab();
     try
@@ -186,6 +210,11 @@ public class ZooKeeperLockObject extends LockObject
   {
     if (currentConnection != null)
       throw new IllegalStateException("Already have a connection before read locking: "+lockPath);
+    if (leases != null && leases.useLease(lockPath))
+    {
+      usingLease = true;
+      return;
+    }
     boolean succeeded = false;
     currentConnection = pool.grab();
     try
@@ -207,8 +236,17 @@ public class ZooKeeperLockObject extends LockObject
   protected void clearGlobalReadLockNoWait()
     throws ManifoldCFException, LockException, InterruptedException
   {
+    if (usingLease)
+    {
+      usingLease = false;
+      leases.doneWithLease(lockPath);
+      return;
+    }
     if (currentConnection == null)
       throw new IllegalStateException("Cannot clear read lock we don't have: "+lockPath);
+    // Keep a lease on the lock for the next reader in this JVM, if we can
+    if (leases != null)
+      leases.createLease(lockPath);
     clearLock();
   }
 
@@ -30,16 +30,26 @@ public class ZooKeeperLockObjectFactory extends LockObjectFactory
   public static final String _rcsid = "@(#)$Id$";
 
   protected final ZooKeeperConnectionPool pool;
+  protected final ZooKeeperReadLeases leases;
   
   public ZooKeeperLockObjectFactory(ZooKeeperConnectionPool pool)
+  {
+    this(pool,null);
+  }
+
+  /** Constructor.
+  *@param leases is the read lease cache, or null if read leases are not used.
+  */
+  public ZooKeeperLockObjectFactory(ZooKeeperConnectionPool pool, ZooKeeperReadLeases leases)
   {
     this.pool = pool;
+    this.leases = leases;
   }
   
   @Override
   public LockObject newLockObject(LockPool lockPool, Object lockKey)
   {
-    return new ZooKeeperLockObject(lockPool, lockKey, pool);
+    return new ZooKeeperLockObject(lockPool, lockKey, pool, leases);
   }
 }
 
@@ -0,0 +1,285 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.Logging;
+
+import org.apache.zookeeper.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** This class keeps ZooKeeper read locks ("leases") in place after the last reader in this JVM
+* has left them, so that the next reader of the same key does not need any ZooKeeper round trips.
+* A lease is given up when a write or non-ex write lock request appears for its key, which a
+* ZooKeeper watch tells us about; when the JVM wants a write or non-ex write lock on the key
+* itself; or when there are too many leases.
+* All leases live on one dedicated connection, since a pooled connection holds only one lock.
+*/
+public class ZooKeeperReadLeases
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final ZooKeeperConnectionPool pool;
+  protected final int maxLeases;
+
+  /** The connection the leases are held on */
+  protected ZooKeeperConnection connection = null;
+  /** The leases, by lock path, least recently used first */
+  protected final LinkedHashMap<String,Lease> leases = new LinkedHashMap<String,Lease>(16,0.75f,true);
+  /** Lock paths whose watches have fired */
+  protected final BlockingQueue<String> checkQueue = new LinkedBlockingQueue<String>();
+  protected LeaseCheckThread checkThread = null;
+
+  public ZooKeeperReadLeases(ZooKeeperConnectionPool pool, int maxLeases)
+  {
+    this.pool = pool;
+    this.maxLeases = maxLeases;
+  }
+
+  /** Start using the lease for a key, if there is one that no writer is waiting on.
+  *@return true if the lease is now in use, and takes the place of a read lock.
+  */
+  public synchronized boolean useLease(String lockPath)
+  {
+    Lease lease = leases.get(lockPath);
+    if (lease == null || lease.revoked)
+      return false;
+    if (lease.inUse)
+      throw new IllegalStateException("Read lease already in use: "+lockPath);
+    lease.inUse = true;
+    return true;
+  }
+
+  /** Stop using a lease.  If a writer is waiting, the lease is given up now.
+  */
+  public synchronized void doneWithLease(String lockPath)
+    throws ManifoldCFException, InterruptedException
+  {
+    Lease lease = leases.get(lockPath);
+    if (lease == null || !lease.inUse)
+      throw new IllegalStateException("Read lease not in use: "+lockPath);
+    lease.inUse = false;
+    if (lease.revoked)
+      removeLease(lockPath,lease);
+  }
+
+  /** Try to take a lease on a key.  Called while still holding a read lock on the key, so that the
+  * lease can be had without waiting unless a writer is already queued.
+  */
+  public synchronized void createLease(String lockPath)
+    throws ManifoldCFException, InterruptedException
+  {
+    if (leases.get(lockPath) != null)
+      return;
+    if (connection == null)
+    {
+      connection = pool.grab();
+      checkThread = new LeaseCheckThread();
+      checkThread.start();
+    }
+    if (!connection.obtainReadLockNoWait(lockPath))
+      return;
+    Lease lease = new Lease(connection.detachLock());
+    leases.put(lockPath,lease);
+    if (!connection.watchReadLock(lockPath,lease.lockNodePath,new LeaseWatcher(lockPath)))
+    {
+      removeLease(lockPath,lease);
+      return;
+    }
+
+    // Give up the least recently used idle leases if there are too many
+    if (leases.size() > maxLeases)
+    {
+      List<String> toRemove = new ArrayList<String>();
+      int excess = leases.size() - maxLeases;
+      for (Map.Entry<String,Lease> entry : leases.entrySet())
+      {
+        if (excess == 0)
+          break;
+        if (!entry.getValue().inUse)
+        {
+          toRemove.add(entry.getKey());
+          excess--;
+        }
+      }
+      for (String path : toRemove)
+      {
+        removeLease(path,leases.get(path));
+      }
+    }
+  }
+
+  /** Give up the lease on a key, if any, before this JVM asks for a write or non-ex write lock on it.
+  */
+  public synchronized void dropLease(String lockPath)
+    throws ManifoldCFException, InterruptedException
+  {
+    Lease lease = leases.get(lockPath);
+    if (lease == null)
+      return;
+    if (lease.inUse)
+      throw new IllegalStateException("Can't write lock while read lease is in use: "+lockPath);
+    removeLease(lockPath,lease);
+  }
+
+  /** Give up all leases, and the connection.
+  */
+  public synchronized void close()
+    throws ManifoldCFException, InterruptedException
+  {
+    if (checkThread != null)
+    {
+      checkThread.interrupt();
+      checkThread = null;
+    }
+    if (connection != null)
+    {
+      for (Lease lease : leases.values())
+      {
+        connection.releaseLock(lease.lockNodePath);
+      }
+      leases.clear();
+      pool.release(connection);
+      connection = null;
+    }
+  }
+
+  /** Called when a lease's watch fires.
+  *@param immediate is true if the lease should not be used again before it is checked.
+  */
+  protected void noteWatchFired(String lockPath, boolean immediate)
+  {
+    if (immediate)
+    {
+      synchronized (this)
+      {
+        Lease lease = leases.get(lockPath);
+        if (lease != null)
+          lease.revoked = true;
+      }
+    }
+    checkQueue.add(lockPath);
+  }
+
+  /** See if a lease still stands, and either watch it again or give it up.
+  */
+  protected synchronized void checkLease(String lockPath)
+    throws ManifoldCFException, InterruptedException
+  {
+    Lease lease = leases.get(lockPath);
+    if (lease == null || connection == null)
+      return;
+    if (!lease.revoked && connection.watchReadLock(lockPath,lease.lockNodePath,new LeaseWatcher(lockPath)))
+      return;
+    lease.revoked = true;
+    if (!lease.inUse)
+      removeLease(lockPath,lease);
+  }
+
+  protected void removeLease(String lockPath, Lease lease)
+    throws ManifoldCFException, InterruptedException
+  {
+    leases.remove(lockPath);
+    connection.releaseLock(lease.lockNodePath);
+  }
+
+  /** A read lock held on behalf of this JVM */
+  protected static class Lease
+  {
+    public final String lockNodePath;
+    public boolean inUse = false;
+    public boolean revoked = false;
+
+    public Lease(String lockNodePath)
+    {
+      this.lockNodePath = lockNodePath;
+    }
+  }
+
+  /** Watch on a leased lock's children */
+  protected class LeaseWatcher implements Watcher
+  {
+    protected final String lockPath;
+
+    public LeaseWatcher(String lockPath)
+    {
+      this.lockPath = lockPath;
+    }
+
+    @Override
+    public void process(WatchedEvent event)
+    {
+      // Anything other than a change in the lock's waiters means the session is in doubt, so the
+      // lease must not be trusted until it is checked
+      noteWatchFired(lockPath,event.getType() != Event.EventType.NodeChildrenChanged);
+    }
+  }
+
+  /** Thread that checks leases whose watches have fired */
+  protected class LeaseCheckThread extends Thread
+  {
+    public LeaseCheckThread()
+    {
+      super();
+      setName("ZooKeeper read lease checker");
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        String lockPath;
+        try
+        {
+          lockPath = checkQueue.take();
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        try
+        {
+          checkLease(lockPath);
+        }
+        catch (InterruptedException e)
+        {
+          return;
+        }
+        catch (Throwable e)
+        {
+          Logging.lock.warn("Error checking ZooKeeper read lease '"+lockPath+"': "+e.getMessage(),e);
+          // Don't trust the lease; try again later
+          noteWatchFired(lockPath,true);
+          try
+          {
+            Thread.sleep(1000L);
+          }
+          catch (InterruptedException e2)
+          {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+}
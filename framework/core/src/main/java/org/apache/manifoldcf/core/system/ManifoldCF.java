@@ -19,6 +19,9 @@
 package org.apache.manifoldcf.core.system;
 
 import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.common.SpoolBufferPool;
+import org.apache.manifoldcf.core.common.InterruptibleIOExecutor;
+import org.apache.manifoldcf.core.lockmanager.LockProfiler;
 import java.io.*;
 import java.util.*;
 import java.security.MessageDigest;
@@ -124,10 +127,40 @@ public class ManifoldCF
   public static final String databaseHandleTimeoutProperty = "org.apache.manifoldcf.database.handletimeout";
   /** Connection tracking debug property */
   public static final String databaseConnectionTrackingProperty = "org.apache.manifoldcf.database.connectiontracking";
+  /** Longest time to wait for a database handle, in seconds (0 means wait indefinitely) */
+  public static final String databaseHandleAcquireTimeoutProperty = "org.apache.manifoldcf.database.acquiretimeout";
+  /** Maximum number of threads that may wait for a database handle at once (0 means no limit) */
+  public static final String databaseHandleMaxWaitersProperty = "org.apache.manifoldcf.database.maxwaiters";
+  /** Idle time after which a pooled database handle is validated, in seconds (0 means never) */
+  public static final String databaseHandleValidationIntervalProperty = "org.apache.manifoldcf.database.validationinterval";
+  /** Number of prepared statements kept open on each pooled database handle (0 means none) */
+  public static final String databaseStatementCacheSizeProperty = "org.apache.manifoldcf.database.statementcachesize";
 
   // Database performance monitoring properties
   /** Elapsed time a query can take before a warning is output to the log, in seconds */
   public static final String databaseQueryMaxTimeProperty = "org.apache.manifoldcf.database.maxquerytime";
+
+  // Cache properties
+  /** Memory that cached objects of known size, such as query results, may occupy, in megabytes (0 means no limit) */
+  public static final String cacheMaxMemoryProperty = "org.apache.manifoldcf.cache.maxmemory";
+
+  // Content spooling properties
+  /** Most content a single spooled stream may hold in memory before it goes to disk, in kilobytes (0 means always use disk) */
+  public static final String spoolMemoryThresholdProperty = "org.apache.manifoldcf.spool.memorythreshold";
+  /** Memory that all spooled streams together may hold, in megabytes */
+  public static final String spoolMaxMemoryProperty = "org.apache.manifoldcf.spool.maxmemory";
+  /** True if spooled content should be held outside the Java heap */
+  public static final String spoolOffHeapProperty = "org.apache.manifoldcf.spool.offheap";
+
+  // Connector I/O properties
+  /** Most threads that connectors' interruptible I/O calls may run on at once */
+  public static final String ioTaskMaxThreadsProperty = "org.apache.manifoldcf.iotasks.maxthreads";
+  /** Most interruptible I/O calls to the same server that may run at once (0 means no limit) */
+  public static final String ioTaskMaxPerConnectionProperty = "org.apache.manifoldcf.iotasks.maxperconnection";
+
+  // Lock manager properties
+  /** Set to true to record lock wait and hold times, and current lock holders and waiters */
+  public static final String lockProfileProperty = "org.apache.manifoldcf.lockmanager.profile";
   
   // Log configuration properties
   /** Location of log configuration file */
@@ -258,6 +291,18 @@ public class ManifoldCF
           // Register the file tracker for cleanup on shutdown
           tracker = new FileTrack();
           addShutdownHook(tracker);
+          // Set up content spooling, which needs the file tracker when content spills to disk
+          SpoolBufferPool.configure(
+            LockManagerFactory.getIntProperty(threadContext,spoolMemoryThresholdProperty,SpoolBufferPool.DEFAULT_MEMORY_THRESHOLD/1024) * 1024,
+            LockManagerFactory.getLongProperty(threadContext,spoolMaxMemoryProperty,SpoolBufferPool.getDefaultMaxMemory()/1048576L) * 1048576L,
+            LockManagerFactory.getBooleanProperty(threadContext,spoolOffHeapProperty,false));
+          // Set up the shared executor for connectors' I/O calls, and register it for cleanup on shutdown
+          InterruptibleIOExecutor.configure(
+            LockManagerFactory.getIntProperty(threadContext,ioTaskMaxThreadsProperty,InterruptibleIOExecutor.DEFAULT_MAX_THREADS),
+            LockManagerFactory.getIntProperty(threadContext,ioTaskMaxPerConnectionProperty,InterruptibleIOExecutor.DEFAULT_MAX_PER_CONNECTION));
+          addShutdownHook(new IOExecutorShutdown());
+          // Turn on lock profiling, if requested
+          LockProfiler.setEnabled(LockManagerFactory.getBooleanProperty(threadContext,lockProfileProperty,false));
           // Register the database cleanup hook
           addShutdownHook(new DatabaseShutdown());
 
@@ -1417,6 +1462,22 @@ public class ManifoldCF
 
   }
   
+  /** Class that stops the shared I/O executor on exit */
+  protected static class IOExecutorShutdown implements IShutdownHook
+  {
+    public IOExecutorShutdown()
+    {
+    }
+    
+    @Override
+    public void doCleanup(IThreadContext threadContext)
+      throws ManifoldCFException
+    {
+      InterruptibleIOExecutor.shutdown();
+    }
+
+  }
+  
   /** Class that cleans up database handles on exit */
   protected static class DatabaseShutdown implements IShutdownHook
   {
@@ -0,0 +1,230 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.cachemanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestGeneralCache
+{
+
+  @Test
+  public void classLRUTest()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache();
+    // Enough objects that every stripe gets some
+    for (int i = 0; i < 100; i++)
+    {
+      String description = "object"+i;
+      cache.setObject(description,new Integer(i),new StringSet(new String[]{"key"+(i%10)}),0L);
+      cache.setObjectClass(description,"class",50);
+    }
+    assertEquals(50,cache.getObjectClassCount("class"));
+    // The oldest half should be gone, regardless of stripe
+    for (int i = 0; i < 50; i++)
+    {
+      assertNull(cache.lookup("object"+i));
+    }
+    for (int i = 50; i < 100; i++)
+    {
+      assertEquals(new Integer(i),cache.lookup("object"+i));
+    }
+    // Touching an object makes it the most recently used
+    cache.setObjectClass("object50","class",50);
+    cache.setObject("object100",new Integer(100),new StringSet(new String[]{"key0"}),0L);
+    cache.setObjectClass("object100","class",50);
+    assertNotNull(cache.lookup("object50"));
+    assertNull(cache.lookup("object51"));
+  }
+
+  @Test
+  public void invalidationTest()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache();
+    for (int i = 0; i < 100; i++)
+    {
+      String description = "object"+i;
+      cache.setObject(description,new Integer(i),new StringSet(new String[]{"key"+(i%10),"all"}),0L);
+      cache.setObjectClass(description,"class",1000);
+      cache.setObjectExpiration(description,1000L+i);
+    }
+    cache.invalidateKeys(new StringSet(new String[]{"key3"}));
+    for (int i = 0; i < 100; i++)
+    {
+      if (i%10 == 3)
+        assertNull(cache.lookup("object"+i));
+      else
+        assertNotNull(cache.lookup("object"+i));
+    }
+    assertEquals(90,cache.getObjectClassCount("class"));
+    cache.expireRecords(1049L);
+    assertNull(cache.lookup("object49"));
+    assertNotNull(cache.lookup("object50"));
+    cache.invalidateKeys(new StringSet(new String[]{"all"}));
+    assertEquals(0,cache.getObjectClassCount("class"));
+    assertNull(cache.lookup("object99"));
+  }
+
+  @Test
+  public void statisticsTest()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache();
+    for (int i = 0; i < 20; i++)
+    {
+      String description = "object"+i;
+      cache.setObject(description,new Integer(i),new StringSet(new String[]{"JOB_"+(i%2)}),0L);
+      cache.setObjectClass(description,"class",15);
+      cache.setObjectExpiration(description,1000L+i);
+    }
+    cache.expireRecords(1006L);
+    cache.invalidateKeys(new StringSet(new String[]{"JOB_0"}));
+    CacheStatistics.ObjectClassStatistics[] classStatistics = cache.getStatistics().getObjectClassStatistics();
+    assertEquals(1,classStatistics.length);
+    assertEquals("class",classStatistics[0].getClassName());
+    assertEquals(5L,classStatistics[0].getEvictions());
+    assertEquals(2L,classStatistics[0].getExpirations());
+    assertEquals(6L,classStatistics[0].getInvalidations());
+    assertEquals(7,classStatistics[0].getCurrentCount());
+    CacheStatistics.KeyPrefixStatistics[] prefixStatistics = cache.getStatistics().getKeyPrefixStatistics();
+    assertEquals(1,prefixStatistics.length);
+    assertEquals("JOB",prefixStatistics[0].getPrefix());
+    assertEquals(1L,prefixStatistics[0].getInvalidations());
+    assertEquals(6L,prefixStatistics[0].getObjectsInvalidated());
+  }
+
+  @Test
+  public void memoryLimitTest()
+    throws Exception
+  {
+    GeneralCache cache = new GeneralCache();
+    cache.setMaxMemory(10000L);
+    for (int i = 0; i < 100; i++)
+    {
+      String description = "object"+i;
+      cache.setObject(description,new SizedObject(1000L),new StringSet(new String[]{"key"}),0L);
+      cache.setObjectClass(description,null,Integer.MAX_VALUE);
+      assertTrue(cache.getCurrentMemory() <= 10000L);
+    }
+    assertEquals(10000L,cache.getCurrentMemory());
+    assertNull(cache.lookup("object89"));
+    assertNotNull(cache.lookup("object90"));
+    // Unsized objects are not affected
+    cache.setObject("unsized",new Integer(0),new StringSet(new String[]{"key"}),0L);
+    cache.setObject("big",new SizedObject(5000L),new StringSet(new String[]{"key"}),0L);
+    assertNotNull(cache.lookup("unsized"));
+    assertNull(cache.lookup("object94"));
+    assertNotNull(cache.lookup("object95"));
+    cache.invalidateKeys(new StringSet(new String[]{"key"}));
+    assertEquals(0L,cache.getCurrentMemory());
+  }
+
+  @Test
+  public void multiThreadTest()
+    throws Throwable
+  {
+    final GeneralCache cache = new GeneralCache();
+    cache.setMaxMemory(50000L);
+    int numThreads = 10;
+    TesterThread[] threads = new TesterThread[numThreads];
+    for (int i = 0; i < numThreads; i++)
+    {
+      threads[i] = new TesterThread(cache,i);
+      threads[i].start();
+    }
+    for (int i = 0; i < numThreads; i++)
+    {
+      threads[i].finishUp();
+    }
+    assertTrue(cache.getObjectClassCount("class") <= 200);
+    assertTrue(cache.getCurrentMemory() <= 50000L);
+    cache.invalidateKeys(new StringSet(new String[]{"key0","key1","key2","key3","key4"}));
+    assertEquals(0,cache.getObjectClassCount("class"));
+    assertEquals(0L,cache.getCurrentMemory());
+  }
+
+  protected static class SizedObject implements IMemorySizedObject
+  {
+    protected final long size;
+
+    public SizedObject(long size)
+    {
+      this.size = size;
+    }
+
+    public long getEstimatedMemorySize()
+    {
+      return size;
+    }
+  }
+
+  protected static class TesterThread extends Thread
+  {
+    protected final GeneralCache cache;
+    protected final int threadNumber;
+    protected Throwable exception = null;
+
+    public TesterThread(GeneralCache cache, int threadNumber)
+    {
+      this.cache = cache;
+      this.threadNumber = threadNumber;
+    }
+
+    public void run()
+    {
+      try
+      {
+        Random r = new Random(threadNumber);
+        for (int i = 0; i < 20000; i++)
+        {
+          String description = "object"+r.nextInt(1000);
+          int action = r.nextInt(10);
+          if (action < 6)
+          {
+            if (cache.lookup(description) != null)
+              cache.setObjectClass(description,"class",200);
+          }
+          else if (action < 9)
+          {
+            cache.setObject(description,new SizedObject(100L),new StringSet(new String[]{"key"+r.nextInt(5)}),0L);
+            cache.setObjectClass(description,"class",200);
+          }
+          else
+            cache.invalidateKeys(new StringSet(new String[]{"key"+r.nextInt(5)}));
+        }
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public void finishUp()
+      throws Throwable
+    {
+      join();
+      if (exception != null)
+        throw exception;
+    }
+  }
+}
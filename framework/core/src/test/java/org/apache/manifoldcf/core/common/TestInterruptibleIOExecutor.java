@@ -0,0 +1,148 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.common;
+
+import java.util.concurrent.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestInterruptibleIOExecutor
+{
+
+  @After
+  public void restoreDefaults()
+  {
+    InterruptibleIOExecutor.shutdown();
+    InterruptibleIOExecutor.configure(InterruptibleIOExecutor.DEFAULT_MAX_THREADS,InterruptibleIOExecutor.DEFAULT_MAX_PER_CONNECTION);
+  }
+
+  @Test
+  public void runTest()
+    throws Exception
+  {
+    InterruptibleIOExecutor.configure(4,0);
+    BlockingTask[] tasks = new BlockingTask[20];
+    for (int i = 0; i < tasks.length; i++)
+    {
+      tasks[i] = new BlockingTask("key",null);
+      tasks[i].start();
+    }
+    for (int i = 0; i < tasks.length; i++)
+    {
+      tasks[i].join();
+      assertTrue(tasks[i].ran);
+      assertFalse(tasks[i].isAlive());
+    }
+    assertEquals(0,InterruptibleIOExecutor.getQueueDepth());
+  }
+
+  @Test
+  public void perConnectionLimitTest()
+    throws Exception
+  {
+    InterruptibleIOExecutor.configure(4,1);
+    CountDownLatch gate = new CountDownLatch(1);
+    BlockingTask first = new BlockingTask("key",gate);
+    BlockingTask second = new BlockingTask("key",null);
+    BlockingTask other = new BlockingTask("otherkey",null);
+    first.start();
+    first.started.await();
+    second.start();
+    other.start();
+    // The other key is not held up
+    other.join();
+    assertTrue(other.ran);
+    assertEquals(1,InterruptibleIOExecutor.getQueueDepth("key"));
+    assertEquals(1,InterruptibleIOExecutor.getActiveCount("key"));
+    assertTrue(second.isAlive());
+    gate.countDown();
+    first.join();
+    second.join();
+    assertTrue(second.ran);
+    assertEquals(0,InterruptibleIOExecutor.getQueueDepth("key"));
+    assertEquals(0,InterruptibleIOExecutor.getActiveCount("key"));
+  }
+
+  @Test
+  public void interruptQueuedTest()
+    throws Exception
+  {
+    InterruptibleIOExecutor.configure(4,1);
+    CountDownLatch gate = new CountDownLatch(1);
+    BlockingTask first = new BlockingTask("key",gate);
+    BlockingTask second = new BlockingTask("key",null);
+    first.start();
+    first.started.await();
+    second.start();
+    second.interrupt();
+    second.join();
+    assertFalse(second.isAlive());
+    assertEquals(0,InterruptibleIOExecutor.getQueueDepth());
+    gate.countDown();
+    first.join();
+    assertFalse(second.ran);
+  }
+
+  @Test
+  public void interruptRunningTest()
+    throws Exception
+  {
+    InterruptibleIOExecutor.configure(4,0);
+    CountDownLatch gate = new CountDownLatch(1);
+    BlockingTask task = new BlockingTask("key",gate);
+    task.start();
+    task.started.await();
+    task.interrupt();
+    task.join(10000L);
+    assertFalse(task.isAlive());
+    assertTrue(task.interrupted);
+    assertFalse(task.ran);
+  }
+
+  protected static class BlockingTask extends InterruptibleIOTask
+  {
+    protected final CountDownLatch gate;
+    protected final CountDownLatch started = new CountDownLatch(1);
+    protected volatile boolean ran = false;
+    protected volatile boolean interrupted = false;
+
+    public BlockingTask(String connectionKey, CountDownLatch gate)
+    {
+      super(connectionKey);
+      this.gate = gate;
+    }
+
+    @Override
+    public void run()
+    {
+      started.countDown();
+      try
+      {
+        if (gate != null)
+          gate.await();
+        ran = true;
+      }
+      catch (InterruptedException e)
+      {
+        interrupted = true;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.database;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.core.system.ManifoldCF;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestInsertMultiple extends BaseHSQLDB
+{
+  protected final static String tableName = "insertmultipletest";
+
+  protected IDBInterface database = null;
+
+  @Before
+  public void createTable()
+    throws Exception
+  {
+    database = DBInterfaceFactory.make(ThreadContextFactory.make(),
+      ManifoldCF.getMasterDatabaseName(),
+      ManifoldCF.getMasterDatabaseUsername(),
+      ManifoldCF.getMasterDatabasePassword());
+    Map<String,ColumnDescription> columns = new HashMap<String,ColumnDescription>();
+    columns.put("id",new ColumnDescription("BIGINT",true,false,null,null,false));
+    columns.put("name",new ColumnDescription("VARCHAR(255)",false,false,null,null,false));
+    columns.put("value",new ColumnDescription("VARCHAR(255)",false,true,null,null,false));
+    database.performCreate(tableName,columns,null);
+  }
+
+  @After
+  public void dropTable()
+    throws Exception
+  {
+    database.performDrop(tableName,null);
+  }
+
+  @Test
+  public void insertTest()
+    throws Exception
+  {
+    // More rows than fit in one statement, with a mix of null and non-null values
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    for (int i = 0; i < 1234; i++)
+    {
+      Map<String,Object> row = new HashMap<String,Object>();
+      row.put("id",new Long(i));
+      row.put("name","name"+i);
+      row.put("value",((i % 3) == 0)?null:("value"+i));
+      rows.add(row);
+    }
+    database.performInsertMultiple(tableName,rows,null);
+
+    IResultSet set = database.performQuery("SELECT id,name,value FROM "+tableName+" ORDER BY id ASC",null,null,null);
+    assertEquals(1234,set.getRowCount());
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      IResultRow row = set.getRow(i);
+      assertEquals(new Long(i),row.getValue("id"));
+      assertEquals("name"+i,row.getValue("name"));
+      if ((i % 3) == 0)
+        assertNull(row.getValue("value"));
+      else
+        assertEquals("value"+i,row.getValue("value"));
+    }
+  }
+
+  @Test
+  public void emptyTest()
+    throws Exception
+  {
+    database.performInsertMultiple(tableName,new ArrayList<Map<String,Object>>(),null);
+    IResultSet set = database.performQuery("SELECT id FROM "+tableName,null,null,null);
+    assertEquals(0,set.getRowCount());
+  }
+
+}
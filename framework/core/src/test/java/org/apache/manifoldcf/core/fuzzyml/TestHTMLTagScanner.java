@@ -0,0 +1,170 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.fuzzyml;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/** Test the fuzzyml tag scanner against the full HTML parser */
+public class TestHTMLTagScanner
+{
+
+  protected final static String htmlTestString =
+"<!DOCTYPE html>\n"+
+"<HTML><head><title>Links</title>\n"+
+"<LINK REL=\"stylesheet\" HREF=\"/style.css\">\n"+
+"<script type=\"text/javascript\">var x = 1;</script></head>\n"+
+"<body>\n"+
+"<!-- <a href=\"commented.html\">not a link</a> -->\n"+
+"<a href=\"first.html\">first</a> <A Href='second.html?a=1&amp;b=2'>second</A>\n"+
+"<a name=anchor href = \"third.html\" title=\"it's > here\">third</a>\n"+
+"<p>Some text with a < in it, and an <b>bold</b> word.</p>\n"+
+"<img alt=\"\" src=\"/images/picture.png\">\n"+
+"<a\n  class=\"x\"\n  href=\"fourth.html\"\n>fourth</a><br/>\n"+
+"<![CDATA[<a href=\"cdata.html\">]]>\n"+
+"<frame src=\"&#x66;rame.html\"/>\n"+
+"<a href=\"last.html\">last</a>\n"+
+"</body></HTML>\n";
+
+  @Before
+  public void setUp()
+  {
+    // The full parser logs through the framework
+    org.apache.manifoldcf.core.system.Logging.misc = org.apache.log4j.Logger.getLogger("test");
+  }
+
+  @Test
+  public void testMatchesHTMLParser()
+    throws IOException, ManifoldCFException
+  {
+    List<String> expected = parseLinks(htmlTestString);
+    assertEquals(8,expected.size());
+    assertEquals(expected,scanLinks(htmlTestString,65536,1048576));
+    // A tiny buffer forces tags and comments to straddle refills
+    assertEquals(expected,scanLinks(htmlTestString,8,1048576));
+  }
+
+  @Test
+  public void testLongTagSkipped()
+    throws IOException, ManifoldCFException
+  {
+    StringBuilder sb = new StringBuilder("<a href=\"before.html\">");
+    sb.append("<a title=\"");
+    for (int i = 0; i < 1000; i++)
+    {
+      sb.append('x');
+    }
+    sb.append("\" href=\"skipped.html\"><a href=\"after.html\">");
+    List<String> links = scanLinks(sb.toString(),16,256);
+    assertEquals(Arrays.asList("a:href=before.html","a:href=after.html"),links);
+  }
+
+  @Test
+  public void testEndTagsAndAbort()
+    throws IOException, ManifoldCFException
+  {
+    final List<String> events = new ArrayList<String>();
+    HTMLTagScanner scanner = new HTMLTagScanner()
+    {
+      {
+        addInterest("form",null);
+        addInterest("input","name");
+      }
+
+      @Override
+      protected boolean noteTag(String tagName)
+      {
+        events.add("<"+tagName);
+        return false;
+      }
+
+      @Override
+      protected boolean noteAttribute(String tagName, String attributeName, char[] buffer, int start, int length)
+      {
+        events.add(attributeName+"="+new String(buffer,start,length));
+        return false;
+      }
+
+      @Override
+      protected boolean noteEndTag(String tagName)
+      {
+        events.add("/"+tagName);
+        return tagName == "input";
+      }
+    };
+    assertTrue(scanner.dealWithCharacters(new StringReader(
+      "<Form action=\"x\"><input type=text name=q /></FORM><input name=never>")));
+    assertEquals(Arrays.asList("<form","<input","name=q","/input"),events);
+  }
+
+  protected static List<String> parseLinks(String document)
+    throws IOException, ManifoldCFException
+  {
+    final List<String> links = new ArrayList<String>();
+    HTMLParseState state = new HTMLParseState()
+    {
+      @Override
+      protected boolean noteTag(String tagName, Map<String,String> attributes)
+      {
+        addLink(links,tagName,"href",attributes.get("href"));
+        addLink(links,tagName,"src",attributes.get("src"));
+        return false;
+      }
+    };
+    new Parser().parseWithoutCharsetDetection("utf-8",new ByteArrayInputStream(document.getBytes("utf-8")),state);
+    return links;
+  }
+
+  protected static List<String> scanLinks(String document, int bufferSize, int maxTagLength)
+    throws IOException, ManifoldCFException
+  {
+    final List<String> links = new ArrayList<String>();
+    HTMLTagScanner scanner = new HTMLTagScanner(bufferSize,maxTagLength)
+    {
+      {
+        addInterest("a","href");
+        addInterest("link","href");
+        addInterest("img","src");
+        addInterest("frame","src");
+      }
+
+      @Override
+      protected boolean noteAttribute(String tagName, String attributeName, char[] buffer, int start, int length)
+      {
+        addLink(links,tagName,attributeName,decodeAttribute(buffer,start,length));
+        return false;
+      }
+    };
+    new Parser().parseWithoutCharsetDetection("utf-8",new ByteArrayInputStream(document.getBytes("utf-8")),scanner);
+    return links;
+  }
+
+  protected static void addLink(List<String> links, String tagName, String attributeName, String value)
+  {
+    if (value == null)
+      return;
+    if (tagName.equals("a") || tagName.equals("link") || tagName.equals("img") || tagName.equals("frame"))
+      links.add(tagName+":"+attributeName+"="+value);
+  }
+
+}
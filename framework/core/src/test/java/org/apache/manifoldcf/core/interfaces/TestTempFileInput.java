@@ -0,0 +1,149 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.interfaces;
+
+import org.apache.manifoldcf.core.common.SpoolBufferPool;
+import org.apache.manifoldcf.core.tests.BaseHSQLDB;
+import java.io.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestTempFileInput extends BaseHSQLDB
+{
+
+  @Override
+  protected void writeProperties(StringBuilder output)
+    throws Exception
+  {
+    super.writeProperties(output);
+    output.append(
+      "  <property name=\"org.apache.manifoldcf.spool.memorythreshold\" value=\"128\"/>\n"
+    );
+  }
+
+  @Test
+  public void inMemoryTest()
+    throws Exception
+  {
+    long memoryBefore = SpoolBufferPool.getMemoryInUse();
+    byte[] content = makeContent(100000);
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(content));
+    assertNull(input.file);
+    assertEquals(100000L,input.getLength());
+    assertArrayEquals(content,readAll(input));
+    // Content can be read again once the stream is done with
+    input.doneWithStream();
+    assertArrayEquals(content,readAll(input));
+    input.discard();
+    assertEquals(memoryBefore,SpoolBufferPool.getMemoryInUse());
+  }
+
+  @Test
+  public void smallContentTest()
+    throws Exception
+  {
+    long memoryBefore = SpoolBufferPool.getMemoryInUse();
+    byte[] content = makeContent(1000);
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(content));
+    // Small content is charged for its size, not for a whole buffer
+    assertEquals(1000L,SpoolBufferPool.getMemoryInUse() - memoryBefore);
+    assertArrayEquals(content,readAll(input));
+    input.discard();
+    assertEquals(memoryBefore,SpoolBufferPool.getMemoryInUse());
+  }
+
+  @Test
+  public void emptyTest()
+    throws Exception
+  {
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(new byte[0]));
+    assertNull(input.file);
+    assertEquals(0L,input.getLength());
+    assertEquals(-1,input.getStream().read());
+    input.discard();
+  }
+
+  @Test
+  public void spillTest()
+    throws Exception
+  {
+    long memoryBefore = SpoolBufferPool.getMemoryInUse();
+    byte[] content = makeContent(300000);
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(content));
+    assertNotNull(input.file);
+    // Memory is given back once content goes to disk
+    assertEquals(memoryBefore,SpoolBufferPool.getMemoryInUse());
+    assertEquals(300000L,input.getLength());
+    assertArrayEquals(content,readAll(input));
+    File f = input.file;
+    input.discard();
+    assertFalse(f.exists());
+  }
+
+  @Test
+  public void limitedLengthTest()
+    throws Exception
+  {
+    byte[] content = makeContent(200000);
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(content),65536L);
+    assertNull(input.file);
+    assertEquals(65536L,input.getLength());
+    assertArrayEquals(Arrays.copyOf(content,65536),readAll(input));
+    input.discard();
+  }
+
+  @Test
+  public void transferTest()
+    throws Exception
+  {
+    long memoryBefore = SpoolBufferPool.getMemoryInUse();
+    byte[] content = makeContent(1000);
+    TempFileInput input = new TempFileInput(new ByteArrayInputStream(content));
+    BinaryInput transferred = input.transfer();
+    // Discarding the original must leave the transferred content intact
+    input.discard();
+    assertArrayEquals(content,readAll(transferred));
+    transferred.discard();
+    assertEquals(memoryBefore,SpoolBufferPool.getMemoryInUse());
+  }
+
+  protected static byte[] makeContent(int size)
+  {
+    byte[] rval = new byte[size];
+    new Random(size).nextBytes(rval);
+    return rval;
+  }
+
+  protected static byte[] readAll(BinaryInput input)
+    throws Exception
+  {
+    InputStream is = input.getStream();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] buffer = new byte[7000];
+    while (true)
+    {
+      int amt = is.read(buffer);
+      if (amt == -1)
+        break;
+      baos.write(buffer,0,amt);
+    }
+    return baos.toByteArray();
+  }
+}
@@ -0,0 +1,427 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.jdbcpool;
+
+import java.sql.*;
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestConnectionPool
+{
+  protected final static String dbURL = "jdbc:hsqldb:mem:testconnectionpool";
+
+  @BeforeClass
+  public static void loadDriver()
+    throws Exception
+  {
+    Class.forName("org.hsqldb.jdbcDriver");
+    // Get the database started, so that it doesn't count against any timeouts
+    DriverManager.getConnection(dbURL,"SA","").close();
+  }
+
+  @Test
+  public void reuseTest()
+    throws Exception
+  {
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",2,300000L,false);
+    try
+    {
+      WrappedConnection wc = pool.getConnection();
+      Connection c = wc.getConnection();
+      wc.release();
+      WrappedConnection wc2 = pool.getConnection();
+      assertSame(c,wc2.getConnection());
+      wc2.release();
+      ConnectionPoolStatistics statistics = pool.getStatistics();
+      assertEquals(1L,statistics.getConnectionsCreated());
+      assertEquals(1,statistics.getFreeConnections());
+      ConnectionPoolStatistics.CallerClassStatistics[] callerStatistics = statistics.getCallerClassStatistics();
+      assertEquals(1,callerStatistics.length);
+      assertEquals(2L,callerStatistics[0].getAcquisitions());
+      assertEquals(1L,callerStatistics[0].getWaits());
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void timeoutTest()
+    throws Exception
+  {
+    ConnectionPoolOptions options = new ConnectionPoolOptions(1,300000L);
+    options.setAcquireTimeout(500L);
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",options,false);
+    try
+    {
+      WrappedConnection wc = pool.getConnection();
+      try
+      {
+        pool.getConnection();
+        fail("Should have timed out");
+      }
+      catch (SQLException e)
+      {
+      }
+      wc.release();
+      // The connection that was handed to nobody must still be usable
+      pool.getConnection().release();
+      assertEquals(1L,pool.getStatistics().getConnectionsCreated());
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void fairnessTest()
+    throws Exception
+  {
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",1,300000L,false);
+    try
+    {
+      WrappedConnection wc = pool.getConnection();
+      List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      TesterThread[] threads = new TesterThread[5];
+      for (int i = 0; i < threads.length; i++)
+      {
+        threads[i] = new TesterThread(pool,i,order,1,0L);
+        threads[i].start();
+        // Make sure the threads get in line in order
+        while (pool.getStatistics().getWaiters() < i + 1)
+          Thread.sleep(10L);
+      }
+      wc.release();
+      for (int i = 0; i < threads.length; i++)
+      {
+        threads[i].finishUp();
+      }
+      assertEquals(Arrays.asList(new Integer[]{0,1,2,3,4}),order);
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void multiThreadTest()
+    throws Exception
+  {
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",5,300000L,false);
+    try
+    {
+      List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      TesterThread[] threads = new TesterThread[20];
+      for (int i = 0; i < threads.length; i++)
+      {
+        threads[i] = new TesterThread(pool,i,order,200,1L);
+        threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++)
+      {
+        threads[i].finishUp();
+      }
+      assertEquals(20*200,order.size());
+      ConnectionPoolStatistics statistics = pool.getStatistics();
+      assertTrue(statistics.getConnectionsCreated() <= 5L);
+      assertEquals(statistics.getActiveConnections(),statistics.getFreeConnections());
+      assertEquals(0,statistics.getWaiters());
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void statementCacheTest()
+    throws Exception
+  {
+    ConnectionPoolOptions options = new ConnectionPoolOptions(1,300000L);
+    options.setStatementCacheSize(2);
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",options,false);
+    try
+    {
+      String sql = "VALUES(CAST(? AS INTEGER))";
+      WrappedConnection wc = pool.getConnection();
+      StatementCache cache = wc.getStatementCache();
+      PreparedStatement ps = cache.prepare(wc.getConnection(),sql);
+      cache.release(sql,ps,true);
+      wc.release();
+      // The statement stays with the connection across trips through the pool
+      WrappedConnection wc2 = pool.getConnection();
+      assertSame(cache,wc2.getStatementCache());
+      assertSame(ps,cache.prepare(wc2.getConnection(),sql));
+      // A statement in use is not handed out twice
+      PreparedStatement ps2 = cache.prepare(wc2.getConnection(),sql);
+      assertNotSame(ps,ps2);
+      cache.release(sql,ps2,false);
+      assertTrue(ps2.isClosed());
+      cache.release(sql,ps,true);
+      // The least recently used statement is closed when the cache is full
+      PreparedStatement other1 = cache.prepare(wc2.getConnection(),"VALUES(1)");
+      PreparedStatement other2 = cache.prepare(wc2.getConnection(),"VALUES(2)");
+      cache.release("VALUES(1)",other1,true);
+      cache.release("VALUES(2)",other2,true);
+      assertEquals(2,cache.size());
+      assertTrue(ps.isClosed());
+      cache.clear();
+      assertTrue(other1.isClosed());
+      assertEquals(0,cache.size());
+      wc2.release();
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void schemaChangeTest()
+    throws Exception
+  {
+    ConnectionPoolOptions options = new ConnectionPoolOptions(2,300000L);
+    options.setStatementCacheSize(10);
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",options,false);
+    try
+    {
+      String sql = "VALUES(CAST(? AS INTEGER))";
+      WrappedConnection wc1 = pool.getConnection();
+      WrappedConnection wc2 = pool.getConnection();
+      StatementCache cache1 = wc1.getStatementCache();
+      StatementCache cache2 = wc2.getStatementCache();
+      assertNotSame(cache1,cache2);
+      PreparedStatement cached = cache1.prepare(wc1.getConnection(),sql);
+      cache1.release(sql,cached,true);
+      PreparedStatement inUse = cache1.prepare(wc1.getConnection(),"VALUES(1)");
+      // A schema change on one connection drops what the others have cached
+      cache2.noteSchemaChange();
+      PreparedStatement fresh = cache1.prepare(wc1.getConnection(),sql);
+      assertNotSame(cached,fresh);
+      assertTrue(cached.isClosed());
+      cache1.release(sql,fresh,true);
+      // A statement that was in use across the change is not kept
+      cache1.release("VALUES(1)",inUse,true);
+      assertTrue(inUse.isClosed());
+      assertEquals(1,cache1.size());
+      wc1.release();
+      wc2.release();
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void nonSchemaStatementTest()
+    throws Exception
+  {
+    ConnectionPoolOptions options = new ConnectionPoolOptions(2,300000L);
+    options.setStatementCacheSize(10);
+    ConnectionPool pool = new ConnectionPool(dbURL,"SA","",options,false);
+    try
+    {
+      String sql = "VALUES(CAST(? AS INTEGER))";
+      WrappedConnection wc1 = pool.getConnection();
+      WrappedConnection wc2 = pool.getConnection();
+      StatementCache cache1 = wc1.getStatementCache();
+      StatementCache cache2 = wc2.getStatementCache();
+      PreparedStatement cached = cache1.prepare(wc1.getConnection(),sql);
+      cache1.release(sql,cached,true);
+      // Transaction setup and table maintenance, run on another connection, leave the cache alone
+      String[] nonSchema = new String[]{"SET TRANSACTION ISOLATION LEVEL SERIALIZABLE","ANALYZE jobqueue",
+        "  set session characteristics as transaction isolation level read committed","REINDEX TABLE jobqueue"};
+      for (String statement : nonSchema)
+      {
+        cache2.noteUnpreparedStatement(statement);
+      }
+      PreparedStatement again = cache1.prepare(wc1.getConnection(),sql);
+      assertSame(cached,again);
+      cache1.release(sql,again,true);
+      // Real DDL does drop it
+      cache2.noteUnpreparedStatement("  alter TABLE jobqueue ADD COLUMN x INTEGER");
+      PreparedStatement fresh = cache1.prepare(wc1.getConnection(),sql);
+      assertNotSame(cached,fresh);
+      assertTrue(cached.isClosed());
+      cache1.release(sql,fresh,true);
+      wc1.release();
+      wc2.release();
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void parallelCreationTest()
+    throws Exception
+  {
+    SlowPool pool = new SlowPool(4,200L);
+    try
+    {
+      List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      TesterThread[] threads = new TesterThread[4];
+      for (int i = 0; i < threads.length; i++)
+      {
+        threads[i] = new TesterThread(pool,i,order,1,1000L);
+        threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++)
+      {
+        threads[i].finishUp();
+      }
+      assertEquals(4L,pool.getStatistics().getConnectionsCreated());
+      // Slow logins for different waiters overlap rather than queueing behind one another
+      assertTrue(pool.getMaxConcurrentCreations() > 1);
+    }
+    finally
+    {
+      pool.closePool();
+    }
+  }
+
+  @Test
+  public void callerClassTest()
+    throws Exception
+  {
+    String oldName = Thread.currentThread().getName();
+    try
+    {
+      Thread.currentThread().setName("Worker thread '12'");
+      assertEquals("Worker thread",ConnectionPool.getCallerClass());
+      Thread.currentThread().setName("pool-1-thread-2");
+      assertEquals("pool",ConnectionPool.getCallerClass());
+      Thread.currentThread().setName("main");
+      assertEquals("main",ConnectionPool.getCallerClass());
+    }
+    finally
+    {
+      Thread.currentThread().setName(oldName);
+    }
+  }
+
+  /** A pool whose database logins are slow */
+  protected static class SlowPool extends ConnectionPool
+  {
+    protected final long loginTime;
+    protected int concurrentCreations = 0;
+    protected int maxConcurrentCreations = 0;
+
+    public SlowPool(int maxConnections, long loginTime)
+    {
+      super(TestConnectionPool.dbURL,"SA","",maxConnections,300000L,false);
+      this.loginTime = loginTime;
+    }
+
+    @Override
+    protected Connection createConnection()
+      throws SQLException
+    {
+      synchronized (this)
+      {
+        concurrentCreations++;
+        if (concurrentCreations > maxConcurrentCreations)
+          maxConcurrentCreations = concurrentCreations;
+      }
+      try
+      {
+        Thread.sleep(loginTime);
+        return super.createConnection();
+      }
+      catch (InterruptedException e)
+      {
+        throw new SQLException("Interrupted");
+      }
+      finally
+      {
+        synchronized (this)
+        {
+          concurrentCreations--;
+        }
+      }
+    }
+
+    public synchronized int getMaxConcurrentCreations()
+    {
+      return maxConcurrentCreations;
+    }
+  }
+
+  protected static class TesterThread extends Thread
+  {
+    protected final ConnectionPool pool;
+    protected final int threadNumber;
+    protected final List<Integer> order;
+    protected final int iterations;
+    protected final long holdTime;
+    protected Throwable exception = null;
+
+    public TesterThread(ConnectionPool pool, int threadNumber, List<Integer> order, int iterations, long holdTime)
+    {
+      this.pool = pool;
+      this.threadNumber = threadNumber;
+      this.order = order;
+      this.iterations = iterations;
+      this.holdTime = holdTime;
+    }
+
+    public void run()
+    {
+      try
+      {
+        for (int i = 0; i < iterations; i++)
+        {
+          WrappedConnection wc = pool.getConnection();
+          try
+          {
+            order.add(new Integer(threadNumber));
+            if (holdTime > 0L)
+              Thread.sleep(holdTime);
+          }
+          finally
+          {
+            wc.release();
+          }
+        }
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+
+    public void finishUp()
+      throws Exception
+    {
+      join();
+      if (exception != null)
+      {
+        if (exception instanceof Exception)
+          throw (Exception)exception;
+        throw new RuntimeException(exception);
+      }
+    }
+  }
+}
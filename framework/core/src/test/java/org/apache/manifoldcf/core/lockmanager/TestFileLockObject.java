@@ -0,0 +1,159 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.io.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestFileLockObject
+{
+  protected File synchDir;
+
+  @Before
+  public void createSynchDirectory()
+    throws IOException
+  {
+    if (org.apache.manifoldcf.core.system.Logging.lock == null)
+      org.apache.manifoldcf.core.system.Logging.lock = org.apache.log4j.Logger.getLogger("test");
+    synchDir = File.createTempFile("synch","dir");
+    synchDir.delete();
+    synchDir.mkdirs();
+  }
+
+  @After
+  public void removeSynchDirectory()
+  {
+    removeFiles(synchDir);
+  }
+
+  /** Each pool stands in for a separate JVM sharing the synch directory */
+  protected LockObject makeLockObject(String lockKey)
+  {
+    LockPool pool = new LockPool(new FileLockObjectFactory(synchDir));
+    return new FileLockObject(pool,lockKey,synchDir);
+  }
+
+  @Test
+  public void exclusionTest()
+    throws Exception
+  {
+    LockObject first = makeLockObject("filelocktest");
+    LockObject second = makeLockObject("filelocktest");
+
+    first.enterWriteLockNoWait();
+    assertLocked(second,"read");
+    assertLocked(second,"nonexwrite");
+    assertLocked(second,"write");
+    first.leaveWriteLock();
+
+    first.enterReadLockNoWait();
+    second.enterReadLockNoWait();
+    assertLocked(makeLockObject("filelocktest"),"nonexwrite");
+    first.leaveReadLock();
+    second.leaveReadLock();
+
+    first.enterNonExWriteLockNoWait();
+    second.enterNonExWriteLockNoWait();
+    assertLocked(makeLockObject("filelocktest"),"read");
+    first.leaveNonExWriteLock();
+    second.leaveNonExWriteLock();
+
+    second.enterWriteLockNoWait();
+    second.leaveWriteLock();
+  }
+
+  @Test
+  public void waitTest()
+    throws Exception
+  {
+    LockObject first = makeLockObject("filelocktest");
+    LockObject second = makeLockObject("filelocktest");
+
+    first.enterWriteLockNoWait();
+    WaitingThread thread = new WaitingThread(second);
+    thread.start();
+    thread.join(200L);
+    assertTrue(thread.isAlive());
+    first.leaveWriteLock();
+    thread.join(10000L);
+    assertFalse(thread.isAlive());
+    assertNull(thread.exception);
+    second.leaveReadLock();
+  }
+
+  protected static void assertLocked(LockObject lockObject, String lockType)
+    throws Exception
+  {
+    try
+    {
+      if (lockType.equals("read"))
+        lockObject.enterReadLockNoWait();
+      else if (lockType.equals("nonexwrite"))
+        lockObject.enterNonExWriteLockNoWait();
+      else
+        lockObject.enterWriteLockNoWait();
+      fail("Should not have been able to get "+lockType+" lock");
+    }
+    catch (LockException e)
+    {
+      // Expected
+    }
+  }
+
+  protected static void removeFiles(File file)
+  {
+    File[] children = file.listFiles();
+    if (children != null)
+    {
+      for (File child : children)
+      {
+        removeFiles(child);
+      }
+    }
+    file.delete();
+  }
+
+  protected static class WaitingThread extends Thread
+  {
+    protected final LockObject lockObject;
+    public Throwable exception = null;
+
+    public WaitingThread(LockObject lockObject)
+    {
+      super();
+      setDaemon(true);
+      this.lockObject = lockObject;
+    }
+
+    public void run()
+    {
+      try
+      {
+        lockObject.enterReadLock();
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,167 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.core.lockmanager;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestLockProfiler
+{
+
+  @Before
+  public void enableProfiling()
+  {
+    if (org.apache.manifoldcf.core.system.Logging.lock == null)
+      org.apache.manifoldcf.core.system.Logging.lock = org.apache.log4j.Logger.getLogger("test");
+    LockProfiler.reset();
+    LockProfiler.setEnabled(true);
+  }
+
+  @After
+  public void disableProfiling()
+  {
+    LockProfiler.setEnabled(false);
+    LockProfiler.reset();
+  }
+
+  @Test
+  public void histogramTest()
+  {
+    TimeHistogram histogram = new TimeHistogram();
+    assertEquals(0L,histogram.getPercentile(50.0));
+    for (long i = 1L; i <= 1000L; i++)
+    {
+      histogram.record(i);
+    }
+    assertEquals(1000L,histogram.getCount());
+    assertEquals(500500L,histogram.getTotal());
+    assertEquals(1000L,histogram.getMax());
+    assertWithin(500L,histogram.getPercentile(50.0));
+    assertWithin(900L,histogram.getPercentile(90.0));
+    assertWithin(990L,histogram.getPercentile(99.0));
+    assertEquals(1000L,histogram.getPercentile(100.0));
+  }
+
+  @Test
+  public void holderTest()
+    throws Exception
+  {
+    BaseLockManager lockManager = new BaseLockManager();
+    lockManager.enterWriteLock("profiletest:1");
+    // Reentrant acquisitions don't count
+    lockManager.enterWriteLock("profiletest:1");
+    lockManager.enterLocks(new String[]{"profiletest:2"},null,null);
+
+    LockProfiler.UsageSnapshot[] holders = LockProfiler.getHolders();
+    assertEquals(2,holders.length);
+    assertEquals("profiletest:1",holders[0].getLockKey());
+    assertEquals("write",holders[0].getLockType());
+    assertEquals("profiletest:2",holders[1].getLockKey());
+    assertEquals("read",holders[1].getLockType());
+    assertEquals(Thread.currentThread().getId(),holders[0].getThreadID());
+
+    lockManager.leaveLocks(new String[]{"profiletest:2"},null,null);
+    lockManager.leaveWriteLock("profiletest:1");
+    assertEquals(1,LockProfiler.getHolders().length);
+    lockManager.leaveWriteLock("profiletest:1");
+    assertEquals(0,LockProfiler.getHolders().length);
+
+    LockProfiler.PrefixStatistics[] statistics = LockProfiler.getPrefixStatistics();
+    assertEquals(1,statistics.length);
+    assertEquals("profiletest",statistics[0].getPrefix());
+    assertEquals(2L,statistics[0].getAcquisitions());
+    assertEquals(2L,statistics[0].getReleases());
+  }
+
+  @Test
+  public void waiterTest()
+    throws Exception
+  {
+    BaseLockManager lockManager = new BaseLockManager();
+    lockManager.enterWriteLock("profiletest:waited");
+    LockingThread thread = new LockingThread("profiletest:waited");
+    thread.start();
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (LockProfiler.getWaiters().length == 0 && System.currentTimeMillis() < deadline)
+    {
+      Thread.sleep(10L);
+    }
+    LockProfiler.UsageSnapshot[] waiters = LockProfiler.getWaiters();
+    assertEquals(1,waiters.length);
+    assertEquals("profiletest:waited",waiters[0].getLockKey());
+    assertEquals(thread.getId(),waiters[0].getThreadID());
+    Thread.sleep(50L);
+    lockManager.leaveWriteLock("profiletest:waited");
+    thread.join();
+    assertNull(thread.exception);
+    assertEquals(0,LockProfiler.getWaiters().length);
+    assertEquals(0,LockProfiler.getHolders().length);
+
+    LockProfiler.PrefixStatistics[] statistics = LockProfiler.getPrefixStatistics();
+    assertEquals(1,statistics.length);
+    assertEquals(2L,statistics[0].getAcquisitions());
+    assertTrue(statistics[0].getWaitMax() >= 50000L);
+  }
+
+  @Test
+  public void disabledTest()
+    throws Exception
+  {
+    LockProfiler.setEnabled(false);
+    BaseLockManager lockManager = new BaseLockManager();
+    lockManager.enterWriteLock("profiletest:1");
+    assertEquals(0,LockProfiler.getHolders().length);
+    lockManager.leaveWriteLock("profiletest:1");
+    assertEquals(0,LockProfiler.getPrefixStatistics().length);
+  }
+
+  /** A percentile estimate should be within the histogram's resolution of the real value */
+  protected static void assertWithin(long expected, long actual)
+  {
+    assertTrue("Expected about "+expected+" but got "+actual,actual >= expected && actual <= expected + expected / 8L);
+  }
+
+  protected static class LockingThread extends Thread
+  {
+    protected final String lockKey;
+    public Throwable exception = null;
+
+    public LockingThread(String lockKey)
+    {
+      super();
+      setDaemon(true);
+      this.lockKey = lockKey;
+    }
+
+    public void run()
+    {
+      try
+      {
+        BaseLockManager lockManager = new BaseLockManager();
+        lockManager.enterWriteLock(lockKey);
+        lockManager.leaveWriteLock(lockKey);
+      }
+      catch (Throwable e)
+      {
+        exception = e;
+      }
+    }
+  }
+
+}
@@ -42,6 +42,17 @@ public class TestZooKeeperLocks extends ZooKeeperBase
 
     runTest(factory);
   }
+
+  @Test
+  public void multiThreadZooKeeperReadLeaseTest()
+    throws Exception
+  {
+    // Each thread has its own lock pool, and stands in for its own JVM, so each needs its own leases
+    ZooKeeperConnectionPool pool = new ZooKeeperConnectionPool("localhost:8348",2000);
+    LockObjectFactory factory = new ReadLeaseLockObjectFactory(pool);
+
+    runTest(factory);
+  }
   
   @Before
   public void createSynchDir()
@@ -169,6 +180,30 @@ public class TestZooKeeperLocks extends ZooKeeperBase
     }
   }
   
+  /** Factory that gives each lock pool its own read leases */
+  protected static class ReadLeaseLockObjectFactory extends LockObjectFactory
+  {
+    protected final ZooKeeperConnectionPool pool;
+    protected final Map<LockPool,ZooKeeperReadLeases> leases = new HashMap<LockPool,ZooKeeperReadLeases>();
+
+    public ReadLeaseLockObjectFactory(ZooKeeperConnectionPool pool)
+    {
+      this.pool = pool;
+    }
+
+    @Override
+    public synchronized LockObject newLockObject(LockPool lockPool, Object lockKey)
+    {
+      ZooKeeperReadLeases poolLeases = leases.get(lockPool);
+      if (poolLeases == null)
+      {
+        poolLeases = new ZooKeeperReadLeases(pool,100);
+        leases.put(lockPool,poolLeases);
+      }
+      return new ZooKeeperLockObject(lockPool, lockKey, pool, poolLeases);
+    }
+  }
+
   /** Reader thread */
   protected static class ReaderThread extends Thread
   {
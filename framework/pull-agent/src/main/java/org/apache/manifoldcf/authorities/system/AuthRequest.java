@@ -39,6 +39,8 @@ public class AuthRequest
   protected boolean answerComplete = false;
   protected AuthorizationResponse answerResponse = null;
   protected Throwable answerException = null;
+  // Things to do when the request is complete
+  protected List<Runnable> completionListeners = new ArrayList<Runnable>();
 
   /** Construct the request, and record the question.
   */
@@ -72,6 +74,31 @@ public class AuthRequest
     return identifyingString;
   }
 
+  /** Arrange for something to be done when the request is complete.  The listener runs in the
+  * thread that completes the request, or right away if the request is already complete, so it
+  * should be quick.
+  *@param listener is what to run.
+  */
+  public void runOnCompletion(Runnable listener)
+  {
+    synchronized (this)
+    {
+      if (!answerComplete)
+      {
+        completionListeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  /** Check whether the request is complete.
+  */
+  public synchronized boolean isComplete()
+  {
+    return answerComplete;
+  }
+
   /** Wait for an auth request to be complete.
   */
   public void waitForComplete()
@@ -89,6 +116,7 @@ public class AuthRequest
   */
   public void completeRequest(AuthorizationResponse answerResponse, Throwable answerException)
   {
+    List<Runnable> listeners;
     synchronized (this)
     {
       if (answerComplete)
@@ -101,7 +129,10 @@ public class AuthRequest
 
       // Notify threads waiting on the answer.
       this.notifyAll();
+      listeners = completionListeners;
+      completionListeners = null;
     }
+    runListeners(listeners);
   }
 
   /** Get the answer tokens */
@@ -116,4 +147,19 @@ public class AuthRequest
     return answerException;
   }
 
+  protected static void runListeners(List<Runnable> listeners)
+  {
+    for (Runnable listener : listeners)
+    {
+      try
+      {
+        listener.run();
+      }
+      catch (RuntimeException e)
+      {
+        Logging.authorityService.error("Error running request completion listener: "+e.getMessage(),e);
+      }
+    }
+  }
+
 }
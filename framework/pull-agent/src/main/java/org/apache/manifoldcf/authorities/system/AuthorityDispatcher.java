@@ -0,0 +1,282 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/** This class hands authorization requests to the authority connectors.  Each authority connection
+* has its own bounded executor, so a slow or hung directory server can only tie up its own lookups,
+* never those of other authorities.  Executor threads are created as lookups arrive and go away when
+* they have been idle for a while, so the number of threads follows the number of outstanding lookups.
+* A request is answered by completing it, which wakes up (or calls back) whoever is waiting for it.
+*/
+public class AuthorityDispatcher
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How long an idle executor thread lives, in milliseconds */
+  protected static final long IDLE_THREAD_TIME = 60000L;
+
+  /** The most lookups one authority connection may have in progress at once */
+  protected final int maxThreadsPerAuthority;
+  /** The most lookups one authority connection may have waiting to start */
+  protected final int maxQueuedPerAuthority;
+
+  /** The executors, keyed by authority connection name */
+  protected final ConcurrentHashMap<String,ThreadPoolExecutor> executors = new ConcurrentHashMap<String,ThreadPoolExecutor>();
+  /** Each executor thread keeps its own thread context */
+  protected final ThreadLocal<IThreadContext> threadContexts = new ThreadLocal<IThreadContext>();
+  protected volatile boolean shutdown = false;
+
+  /** Constructor.
+  *@param maxThreadsPerAuthority is the most lookups one authority connection may have in progress at once.
+  *@param maxQueuedPerAuthority is the most lookups one authority connection may have waiting to start.
+  */
+  public AuthorityDispatcher(int maxThreadsPerAuthority, int maxQueuedPerAuthority)
+  {
+    this.maxThreadsPerAuthority = maxThreadsPerAuthority;
+    this.maxQueuedPerAuthority = maxQueuedPerAuthority;
+  }
+
+  /** Start answering a request.  This method does not wait for the answer.
+  *@param request is the request.
+  */
+  public void dispatch(AuthRequest request)
+  {
+    // Requests without a user have no answer to look up
+    if (request.getUserID() == null)
+    {
+      request.completeRequest(null,null);
+      return;
+    }
+    if (shutdown)
+    {
+      request.completeRequest(null,new ManifoldCFException("Authority service is shutting down",ManifoldCFException.INTERRUPTED));
+      return;
+    }
+    try
+    {
+      getExecutor(request.getAuthorityConnection().getName()).execute(new AuthCheckTask(request));
+    }
+    catch (RejectedExecutionException e)
+    {
+      Logging.authorityService.warn("Too many lookups waiting for authority '"+request.getIdentifyingString()+"'; treating it as unreachable");
+      completeWithDefault(ThreadContextFactory.make(),request,new ManifoldCFException("Authority lookup rejected: "+e.getMessage(),e));
+    }
+  }
+
+  /** Stop all lookups, and wait for the executor threads to finish.
+  */
+  public void shutdown()
+    throws InterruptedException
+  {
+    shutdown = true;
+    for (ThreadPoolExecutor executor : executors.values())
+    {
+      List<Runnable> pending = executor.shutdownNow();
+      for (Runnable r : pending)
+      {
+        if (r instanceof AuthCheckTask)
+          ((AuthCheckTask)r).abandon();
+      }
+    }
+    for (ThreadPoolExecutor executor : executors.values())
+    {
+      executor.awaitTermination(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+    }
+    executors.clear();
+  }
+
+  /** Get the executor for an authority connection, creating it if needed.
+  */
+  protected ThreadPoolExecutor getExecutor(final String connectionName)
+  {
+    ThreadPoolExecutor executor = executors.get(connectionName);
+    if (executor != null)
+      return executor;
+    ThreadFactory threadFactory = new ThreadFactory()
+    {
+      protected final AtomicInteger threadNumber = new AtomicInteger(0);
+
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r,"Auth check thread '"+connectionName+"' "+Integer.toString(threadNumber.getAndIncrement()));
+        t.setDaemon(true);
+        return t;
+      }
+    };
+    executor = new ThreadPoolExecutor(maxThreadsPerAuthority,maxThreadsPerAuthority,
+      IDLE_THREAD_TIME,TimeUnit.MILLISECONDS,new LinkedBlockingQueue<Runnable>(maxQueuedPerAuthority),threadFactory);
+    executor.allowCoreThreadTimeOut(true);
+    ThreadPoolExecutor existing = executors.putIfAbsent(connectionName,executor);
+    if (existing != null)
+    {
+      executor.shutdown();
+      return existing;
+    }
+    return executor;
+  }
+
+  /** Get the thread context for the current executor thread.
+  */
+  protected IThreadContext getThreadContext()
+  {
+    IThreadContext threadContext = threadContexts.get();
+    if (threadContext == null)
+    {
+      threadContext = ThreadContextFactory.make();
+      threadContexts.set(threadContext);
+    }
+    return threadContext;
+  }
+
+  /** Answer a request by asking its authority connector.
+  */
+  protected void processRequest(IThreadContext threadContext, AuthRequest theRequest)
+    throws ManifoldCFException
+  {
+    if (Logging.authorityService.isDebugEnabled())
+    {
+      Logging.authorityService.debug(" Calling connector class '"+theRequest.getAuthorityConnection().getClassName()+"'");
+    }
+
+    AuthorizationResponse response = null;
+    Throwable exception = null;
+
+    try
+    {
+      IAuthorityConnectorPool authorityConnectorPool = AuthorityConnectorPoolFactory.make(threadContext);
+      IAuthorityConnector connector = authorityConnectorPool.grab(theRequest.getAuthorityConnection());
+      // If this is null, we MUST treat this as an "unauthorized" condition!!
+      // We signal that by setting the exception value.
+      try
+      {
+        if (connector == null)
+          exception = new ManifoldCFException("Authority connector "+theRequest.getAuthorityConnection().getClassName()+" is not registered.");
+        else
+        {
+          // Get the acl for the user
+          try
+          {
+            response = connector.getAuthorizationResponse(theRequest.getUserID());
+          }
+          catch (ManifoldCFException e)
+          {
+            if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+              throw e;
+            Logging.authorityService.warn("Authority error: "+e.getMessage(),e);
+            response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+          }
+
+        }
+      }
+      finally
+      {
+        authorityConnectorPool.release(theRequest.getAuthorityConnection(),connector);
+      }
+    }
+    catch (ManifoldCFException e)
+    {
+      if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+        throw e;
+      Logging.authorityService.warn("Authority connection exception: "+e.getMessage(),e);
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+      if (response == null)
+        exception = e;
+    }
+    catch (Throwable e)
+    {
+      Logging.authorityService.warn("Authority connection error: "+e.getMessage(),e);
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,theRequest.getAuthorityConnection().getClassName(),theRequest.getUserID());
+      if (response == null)
+        exception = e;
+    }
+
+    // The request is complete
+    theRequest.completeRequest(response,exception);
+  }
+
+  /** Answer a request with its connector's default response, which is what an unreachable authority gets.
+  *@param threadContext is the thread context to use.
+  *@param request is the request.
+  *@param cause is what to answer with if there is no default response.
+  */
+  public static void completeWithDefault(IThreadContext threadContext, AuthRequest request, Throwable cause)
+  {
+    AuthorizationResponse response = null;
+    try
+    {
+      response = AuthorityConnectorFactory.getDefaultAuthorizationResponse(threadContext,request.getAuthorityConnection().getClassName(),request.getUserID());
+    }
+    catch (ManifoldCFException e)
+    {
+      cause = e;
+    }
+    if (response != null)
+      request.completeRequest(response,null);
+    else
+      request.completeRequest(null,cause);
+  }
+
+  /** The task that answers one request */
+  protected class AuthCheckTask implements Runnable
+  {
+    protected final AuthRequest request;
+
+    public AuthCheckTask(AuthRequest request)
+    {
+      this.request = request;
+    }
+
+    public void run()
+    {
+      try
+      {
+        processRequest(getThreadContext(),request);
+      }
+      catch (ManifoldCFException e)
+      {
+        if (e.getErrorCode() != ManifoldCFException.INTERRUPTED)
+          Logging.authorityService.error("Exception tossed: "+e.getMessage(),e);
+        request.completeRequest(null,e);
+        if (e.getErrorCode() == ManifoldCFException.SETUP_ERROR)
+        {
+          // Shut the whole system down!
+          System.exit(1);
+        }
+      }
+      catch (Throwable e)
+      {
+        Logging.authorityService.fatal("Error tossed: "+e.getMessage(),e);
+        request.completeRequest(null,e);
+      }
+    }
+
+    /** Give up on the request without running it */
+    public void abandon()
+    {
+      request.completeRequest(null,new ManifoldCFException("Authority service is shutting down",ManifoldCFException.INTERRUPTED));
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.authorities.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.authorities.interfaces.*;
+import java.util.*;
+
+/** This is an authority dispatcher that answers requests from a cache of authorization responses
+* where it can, so that only a cache miss costs a trip to the authority.  Responses are kept per authority
+* connection and (mapped) user.
+*
+* - Requests for the same user that arrive while that user's response is being fetched wait for the one
+* fetch, rather than each asking the authority.
+* - A user who is asked about more than once in a cache lifetime is fetched again in the background shortly
+* before the response expires, so popular users never see a miss.
+* - "User not found", "unauthorized" and "unreachable" responses are kept for a shorter time than good ones.
+* - Requests that fail outright are not cached.
+*/
+public class AuthorizationResponseCache extends AuthorityDispatcher
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The fraction of a response's lifetime after which a popular user is fetched again */
+  protected static final double REFRESH_AHEAD_FRACTION = 0.8;
+  /** The number of times a user must be asked about in one lifetime to be refreshed ahead */
+  protected static final int REFRESH_MIN_HITS = 2;
+
+  /** How long a good response is kept, in milliseconds */
+  protected final long responseLifetime;
+  /** How long any other response is kept, in milliseconds */
+  protected final long negativeLifetime;
+  /** The largest number of users to keep */
+  protected final int maxEntries;
+
+  /** The entries, least recently used first */
+  protected final LinkedHashMap<CacheKey,CacheEntry> entries = new LinkedHashMap<CacheKey,CacheEntry>(16,0.75f,true);
+
+  /** Constructor.
+  *@param responseLifetime is how long to keep a good response, in milliseconds.
+  *@param negativeLifetime is how long to keep any other response, in milliseconds.
+  *@param maxEntries is the largest number of users to keep.
+  *@param maxThreadsPerAuthority is the most lookups one authority connection may have in progress at once.
+  *@param maxQueuedPerAuthority is the most lookups one authority connection may have waiting to start.
+  */
+  public AuthorizationResponseCache(long responseLifetime, long negativeLifetime, int maxEntries,
+    int maxThreadsPerAuthority, int maxQueuedPerAuthority)
+  {
+    super(maxThreadsPerAuthority,maxQueuedPerAuthority);
+    this.responseLifetime = responseLifetime;
+    this.negativeLifetime = negativeLifetime;
+    this.maxEntries = maxEntries;
+  }
+
+  /** Start answering a request, or answer it right away from the cache.
+  *@param dd is the request.
+  */
+  @Override
+  public void dispatch(AuthRequest dd)
+  {
+    // Requests without a user have no answer to look up
+    if (dd.getUserID() == null)
+    {
+      super.dispatch(dd);
+      return;
+    }
+
+    CacheKey key = new CacheKey(dd.getAuthorityConnection(),dd.getUserID());
+    long currentTime = System.currentTimeMillis();
+    AuthorizationResponse answer = null;
+    LoadRequest toQueue = null;
+    synchronized (entries)
+    {
+      CacheEntry entry = entries.get(key);
+      if (entry == null)
+      {
+        entry = new CacheEntry();
+        entries.put(key,entry);
+        trim();
+      }
+      if (entry.response != null && currentTime < entry.expireTime)
+      {
+        answer = entry.response;
+        entry.hits++;
+        if (entry.loader == null && currentTime >= entry.refreshTime && entry.hits >= REFRESH_MIN_HITS)
+        {
+          entry.loader = new LoadRequest(key,dd);
+          toQueue = entry.loader;
+        }
+      }
+      else
+      {
+        entry.waiters.add(dd);
+        if (entry.loader == null)
+        {
+          entry.loader = new LoadRequest(key,dd);
+          toQueue = entry.loader;
+        }
+      }
+    }
+
+    if (answer != null)
+    {
+      if (Logging.authorityService.isDebugEnabled())
+        Logging.authorityService.debug("Answering authorization request for user '"+dd.getUserID()+"' from cache");
+      dd.completeRequest(answer,null);
+    }
+    if (toQueue != null)
+      super.dispatch(toQueue);
+  }
+
+  /** Record the answer to a fetch, and pass it on to everyone who was waiting for it.
+  */
+  protected void loadComplete(LoadRequest loader, AuthorizationResponse response, Throwable exception)
+  {
+    List<AuthRequest> waiters = null;
+    long currentTime = System.currentTimeMillis();
+    synchronized (entries)
+    {
+      CacheEntry entry = entries.get(loader.key);
+      if (entry != null && entry.loader == loader)
+      {
+        entry.loader = null;
+        waiters = entry.waiters;
+        entry.waiters = new ArrayList<AuthRequest>();
+        if (response != null && exception == null)
+        {
+          long lifetime = (response.getResponseStatus() == AuthorizationResponse.RESPONSE_OK)?responseLifetime:negativeLifetime;
+          entry.response = response;
+          entry.expireTime = currentTime + lifetime;
+          entry.refreshTime = currentTime + (long)((double)lifetime * REFRESH_AHEAD_FRACTION);
+          entry.hits = 0;
+        }
+        else if (entry.response == null)
+          entries.remove(loader.key);
+      }
+    }
+
+    if (waiters != null)
+    {
+      for (AuthRequest waiter : waiters)
+      {
+        waiter.completeRequest(response,exception);
+      }
+    }
+  }
+
+  /** Forget everything that is cached.
+  */
+  public void clear()
+  {
+    synchronized (entries)
+    {
+      // Entries with fetches in flight have requests waiting on them, so they stay
+      Iterator<CacheEntry> iter = entries.values().iterator();
+      while (iter.hasNext())
+      {
+        CacheEntry entry = iter.next();
+        if (entry.loader == null)
+          iter.remove();
+        else
+          entry.response = null;
+      }
+    }
+  }
+
+  /** Drop least-recently-used entries until there is room.  Must be called with the entries locked.
+  */
+  protected void trim()
+  {
+    Iterator<CacheEntry> iter = entries.values().iterator();
+    while (entries.size() > maxEntries && iter.hasNext())
+    {
+      CacheEntry entry = iter.next();
+      if (entry.loader == null)
+        iter.remove();
+    }
+  }
+
+  /** The request that fetches a response on behalf of the cache.  When the lookup
+  * completes it, the cache is updated.
+  */
+  protected class LoadRequest extends AuthRequest
+  {
+    protected final CacheKey key;
+
+    public LoadRequest(CacheKey key, AuthRequest firstRequest)
+    {
+      super(firstRequest.getAuthorityConnection(),firstRequest.getIdentifyingString());
+      this.key = key;
+      setUserID(firstRequest.getUserID());
+    }
+
+    @Override
+    public void completeRequest(AuthorizationResponse answerResponse, Throwable answerException)
+    {
+      super.completeRequest(answerResponse,answerException);
+      loadComplete(this,answerResponse,answerException);
+    }
+  }
+
+  /** The cached state for one user of one authority connection */
+  protected static class CacheEntry
+  {
+    public AuthorizationResponse response = null;
+    public long expireTime = 0L;
+    public long refreshTime = 0L;
+    public int hits = 0;
+    /** The fetch in flight, if any */
+    public LoadRequest loader = null;
+    /** Requests waiting for the fetch in flight */
+    public List<AuthRequest> waiters = new ArrayList<AuthRequest>();
+
+    public CacheEntry()
+    {
+    }
+  }
+
+  /** The cache key.  The connection's class and configuration are part of the key, so that a
+  * reconfigured connection does not see responses from before the change.
+  */
+  protected static class CacheKey
+  {
+    protected final String connectionName;
+    protected final String className;
+    protected final ConfigParams configParams;
+    protected final String userID;
+
+    public CacheKey(IAuthorityConnection connection, String userID)
+    {
+      this.connectionName = connection.getName();
+      this.className = connection.getClassName();
+      this.configParams = connection.getConfigParams();
+      this.userID = userID;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return connectionName.hashCode() + className.hashCode() + configParams.hashCode() + userID.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof CacheKey))
+        return false;
+      CacheKey other = (CacheKey)o;
+      return connectionName.equals(other.connectionName) && className.equals(other.className) &&
+        userID.equals(other.userID) && configParams.equals(other.configParams);
+    }
+  }
+
+}
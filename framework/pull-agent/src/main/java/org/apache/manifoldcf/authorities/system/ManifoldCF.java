@@ -30,19 +30,28 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
   
   // Threads
   protected static IdleCleanupThread idleCleanupThread = null;
-  protected static AuthCheckThread[] authCheckThreads = null;
   protected static MappingThread[] mappingThreads = null;
 
-  // Number of auth check threads
+  // Most lookups in progress at once for each authority connection
   protected static int numAuthCheckThreads = 0;
   // Number of mapping threads
   protected static int numMappingThreads = 0;
   
   protected static final String authCheckThreadCountProperty = "org.apache.manifoldcf.authorityservice.threads";
   protected static final String mappingThreadCountProperty = "org.apache.manifoldcf.authorityservice.mappingthreads";
+  /** Most lookups for one authority connection that may wait for a free thread */
+  protected static final String authCheckQueueSizeProperty = "org.apache.manifoldcf.authorityservice.maxqueued";
+  /** Seconds the authority service waits for authorities to answer before treating them as unreachable (0 means wait indefinitely) */
+  public static final String authCheckTimeoutProperty = "org.apache.manifoldcf.authorityservice.timeout";
+  /** Seconds to keep a good authorization response (0 means responses are not cached) */
+  protected static final String responseCacheLifetimeProperty = "org.apache.manifoldcf.authorityservice.cachelifetime";
+  /** Seconds to keep a user-not-found, unauthorized, or unreachable authorization response */
+  protected static final String responseCacheNegativeLifetimeProperty = "org.apache.manifoldcf.authorityservice.negativecachelifetime";
+  /** Largest number of users to keep authorization responses for */
+  protected static final String responseCacheSizeProperty = "org.apache.manifoldcf.authorityservice.cachesize";
 
-  // Request queue
-  protected static RequestQueue<AuthRequest> requestQueue = null;
+  // Authority request dispatcher
+  protected static AuthorityDispatcher authorityDispatcher = null;
   // Mapping request queue
   protected static RequestQueue<MappingRequest> mappingRequestQueue = null;
   
@@ -156,25 +165,31 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     numAuthCheckThreads = LockManagerFactory.getIntProperty(threadContext, authCheckThreadCountProperty, 10);
     if (numAuthCheckThreads < 1 || numAuthCheckThreads > 100)
       throw new ManifoldCFException("Illegal value for the number of auth check threads");
+    int authCheckQueueSize = LockManagerFactory.getIntProperty(threadContext, authCheckQueueSizeProperty, 1000);
+    if (authCheckQueueSize < 1)
+      throw new ManifoldCFException("Illegal value for the number of queued auth checks");
 
     numMappingThreads = LockManagerFactory.getIntProperty(threadContext, mappingThreadCountProperty, 10);
     if (numMappingThreads < 1 || numMappingThreads > 100)
       throw new ManifoldCFException("Illegal value for the number of mapping threads");
 
+    long responseCacheLifetime = 1000L * (long)LockManagerFactory.getIntProperty(threadContext, responseCacheLifetimeProperty, 60);
+    long responseCacheNegativeLifetime = 1000L * (long)LockManagerFactory.getIntProperty(threadContext, responseCacheNegativeLifetimeProperty, 5);
+    int responseCacheSize = LockManagerFactory.getIntProperty(threadContext, responseCacheSizeProperty, 10000);
+    if (responseCacheLifetime < 0L || responseCacheNegativeLifetime < 0L || responseCacheSize < 1)
+      throw new ManifoldCFException("Illegal value for the authorization response cache settings");
+
     // Start up threads
     idleCleanupThread = new IdleCleanupThread();
     idleCleanupThread.start();
 
-    requestQueue = new RequestQueue<AuthRequest>();
+    if (responseCacheLifetime > 0L)
+      authorityDispatcher = new AuthorizationResponseCache(responseCacheLifetime,responseCacheNegativeLifetime,responseCacheSize,
+        numAuthCheckThreads,authCheckQueueSize);
+    else
+      authorityDispatcher = new AuthorityDispatcher(numAuthCheckThreads,authCheckQueueSize);
     mappingRequestQueue = new RequestQueue<MappingRequest>();
 
-    authCheckThreads = new AuthCheckThread[numAuthCheckThreads];
-    for (int i = 0; i < numAuthCheckThreads; i++)
-    {
-      authCheckThreads[i] = new AuthCheckThread(Integer.toString(i),requestQueue);
-      authCheckThreads[i].start();
-    }
-    
     mappingThreads = new MappingThread[numMappingThreads];
     for (int i = 0; i < numMappingThreads; i++)
     {
@@ -190,20 +205,22 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     throws ManifoldCFException
   {
 
-    while (idleCleanupThread != null || authCheckThreads != null || mappingThreads != null)
+    if (authorityDispatcher != null)
     {
-      if (idleCleanupThread != null)
+      try
       {
-        idleCleanupThread.interrupt();
+        authorityDispatcher.shutdown();
       }
-      if (authCheckThreads != null)
+      catch (InterruptedException e)
       {
-        for (int i = 0; i < authCheckThreads.length; i++)
-        {
-          Thread authCheckThread = authCheckThreads[i];
-          if (authCheckThread != null)
-            authCheckThread.interrupt();
-        }
+      }
+    }
+
+    while (idleCleanupThread != null || mappingThreads != null)
+    {
+      if (idleCleanupThread != null)
+      {
+        idleCleanupThread.interrupt();
       }
       if (mappingThreads != null)
       {
@@ -220,25 +237,6 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
         if (!idleCleanupThread.isAlive())
           idleCleanupThread = null;
       }
-      if (authCheckThreads != null)
-      {
-        boolean isAlive = false;
-        for (int i = 0; i < authCheckThreads.length; i++)
-        {
-          Thread authCheckThread = authCheckThreads[i];
-          if (authCheckThread != null)
-          {
-            if (!authCheckThread.isAlive())
-              authCheckThreads[i] = null;
-            else
-              isAlive = true;
-          }
-          i++;
-        }
-        if (!isAlive)
-          authCheckThreads = null;
-      }
-
       if (mappingThreads != null)
       {
         boolean isAlive = false;
@@ -270,16 +268,16 @@ public class ManifoldCF extends org.apache.manifoldcf.core.system.ManifoldCF
     // Release all authority connectors
     AuthorityConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
     numAuthCheckThreads = 0;
-    requestQueue = null;
+    authorityDispatcher = null;
     MappingConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
     numMappingThreads = 0;
     mappingRequestQueue = null;
   }
 
-  /** Get the current request queue */
-  public static RequestQueue<AuthRequest> getRequestQueue()
+  /** Get the current authority request dispatcher */
+  public static AuthorityDispatcher getAuthorityDispatcher()
   {
-    return requestQueue;
+    return authorityDispatcher;
   }
 
   /** Get the current mapping request queue */
@@ -39,6 +39,8 @@ public class MappingRequest
   protected boolean answerComplete = false;
   protected String outputUserID = null;
   protected Throwable answerException = null;
+  // Things to do when the request is complete
+  protected List<Runnable> completionListeners = new ArrayList<Runnable>();
 
   /** Construct the request, and record the question.
   */
@@ -73,6 +75,31 @@ public class MappingRequest
     return identifyingString;
   }
 
+  /** Arrange for something to be done when the request is complete.  The listener runs in the
+  * thread that completes the request, or right away if the request is already complete, so it
+  * should be quick.
+  *@param listener is what to run.
+  */
+  public void runOnCompletion(Runnable listener)
+  {
+    synchronized (this)
+    {
+      if (!answerComplete)
+      {
+        completionListeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  /** Check whether the request is complete.
+  */
+  public synchronized boolean isComplete()
+  {
+    return answerComplete;
+  }
+
   /** Wait for an auth request to be complete.
   */
   public void waitForComplete()
@@ -90,6 +117,7 @@ public class MappingRequest
   */
   public void completeRequest(String outputUserID, Throwable answerException)
   {
+    List<Runnable> listeners;
     synchronized (this)
     {
       if (answerComplete)
@@ -102,7 +130,10 @@ public class MappingRequest
 
       // Notify threads waiting on the answer.
       this.notifyAll();
+      listeners = completionListeners;
+      completionListeners = null;
     }
+    runListeners(listeners);
   }
 
   /** Get the answer user */
@@ -117,4 +148,19 @@ public class MappingRequest
     return answerException;
   }
 
+  protected static void runListeners(List<Runnable> listeners)
+  {
+    for (Runnable listener : listeners)
+    {
+      try
+      {
+        listener.run();
+      }
+      catch (RuntimeException e)
+      {
+        Logging.authorityService.error("Error running request completion listener: "+e.getMessage(),e);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,189 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.bins;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** This class manages the docbinleases table.
+* A row in this table records a block of bin counter values that a process has reserved
+* but not yet handed out.  It is used only to give the unused values back when the process
+* goes away.
+* 
+* <br><br>
+* <b>docbinleases</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>binname</td><td>VARCHAR(255)</td><td></td></tr>
+* <tr><td>processid</td><td>VARCHAR(16)</td><td></td></tr>
+* <tr><td>leasestart</td><td>FLOAT</td><td>First value not handed out when the lease was taken</td></tr>
+* <tr><td>leaseend</td><td>FLOAT</td><td>The bin counter value just after the lease</td></tr>
+* </table>
+* <br><br>
+* 
+*/
+public class BinLeaseManager extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Field names
+  public final static String binNameField = "binname";
+  public final static String processIDField = "processid";
+  public final static String leaseStartField = "leasestart";
+  public final static String leaseEndField = "leaseend";
+
+  /** Constructor.
+  *@param database is the database handle.
+  */
+  public BinLeaseManager(IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"docbinleases");
+  }
+
+  /** Install or upgrade this table.
+  */
+  public void install()
+    throws ManifoldCFException
+  {
+    // Standard practice: outer loop for installs
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(binNameField,new ColumnDescription("VARCHAR(255)",false,false,null,null,false));
+        map.put(processIDField,new ColumnDescription("VARCHAR(16)",false,false,null,null,false));
+        map.put(leaseStartField,new ColumnDescription("FLOAT",false,false,null,null,false));
+        map.put(leaseEndField,new ColumnDescription("FLOAT",false,false,null,null,false));
+        performCreate(map,null);
+      }
+      else
+      {
+        // Upgrade goes here if needed
+      }
+
+      // Index management goes here
+      IndexDescription leaseIndex = new IndexDescription(true,new String[]{binNameField,processIDField});
+      IndexDescription processIndex = new IndexDescription(false,new String[]{processIDField});
+
+      // Get rid of indexes that shouldn't be there
+      Map indexes = getTableIndexes(null,null);
+      Iterator iter = indexes.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String indexName = (String)iter.next();
+        IndexDescription id = (IndexDescription)indexes.get(indexName);
+
+        if (leaseIndex != null && id.equals(leaseIndex))
+          leaseIndex = null;
+        else if (processIndex != null && id.equals(processIndex))
+          processIndex = null;
+        else if (indexName.indexOf("_pkey") == -1)
+          // This index shouldn't be here; drop it
+          performRemoveIndex(indexName);
+      }
+
+      // Add the ones we didn't find
+      if (leaseIndex != null)
+        performAddIndex(null,leaseIndex);
+      if (processIndex != null)
+        performAddIndex(null,processIndex);
+
+      break;
+    }
+  }
+
+  /** Uninstall.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Record a process's lease on a bin, replacing any it had before.
+  * We expect this to happen within a transaction.
+  *@param binName is the bin name.
+  *@param processID is the process holding the lease.
+  *@param leaseStart is the first value of the lease not yet handed out.
+  *@param leaseEnd is the bin counter value just after the lease.
+  */
+  public void writeLease(String binName, String processID, double leaseStart, double leaseEnd)
+    throws ManifoldCFException
+  {
+    deleteLease(binName,processID);
+    HashMap map = new HashMap();
+    map.put(binNameField,binName);
+    map.put(processIDField,processID);
+    map.put(leaseStartField,new Double(leaseStart));
+    map.put(leaseEndField,new Double(leaseEnd));
+    performInsert(map,null);
+  }
+
+  /** Forget a process's lease on a bin.
+  *@param binName is the bin name.
+  *@param processID is the process.
+  */
+  public void deleteLease(String binName, String processID)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(binNameField,binName),
+      new UnitaryClause(processIDField,processID)});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Get the leases held by a process.
+  *@param processID is the process.
+  *@return the leases, as rows with bin name, lease start and lease end.
+  */
+  public IResultSet getLeases(String processID)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(processIDField,processID)});
+    return performQuery("SELECT "+binNameField+","+leaseStartField+","+leaseEndField+" FROM "+getTableName()+" WHERE "+query,params,null,null);
+  }
+
+  /** Forget all the leases held by a process.
+  *@param processID is the process.
+  */
+  public void deleteLeases(String processID)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(processIDField,processID)});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Forget all leases.
+  */
+  public void reset()
+    throws ManifoldCFException
+  {
+    performDelete("",null,null);
+  }
+
+}
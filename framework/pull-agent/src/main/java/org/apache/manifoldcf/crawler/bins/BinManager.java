@@ -39,6 +39,10 @@ import java.util.*;
 * </table>
 * <br><br>
 * 
+* To keep from locking a bin's row for every value handed out, each process reserves
+* a block of counter values per bin at a time (a lease), and hands them out from memory.
+* Leases are recorded in the docbinleases table, so that values a dead process did not use
+* can be given back when it is cleaned up after.
 */
 public class BinManager extends org.apache.manifoldcf.core.database.BaseTable implements IBinManager
 {
@@ -47,14 +51,28 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
   // Field names
   public final static String binNameField = "binname";
   public final static String binCounterField = "bincounter";
-  
+
+  /** Leases held by this process, keyed by bin name.  Synchronize on this map to use it. */
+  protected final static Map<String,BinLease> localLeases = new HashMap<String,BinLease>();
+
+  /** The lease table */
+  protected final BinLeaseManager leaseManager;
+  /** The number of values to reserve at a time */
+  protected final int leaseSize;
+  /** How long a lease may be used for, in milliseconds */
+  protected final long leaseTime;
+
   /** Constructor.
+  *@param threadContext is the thread context.
   *@param database is the database handle.
   */
-  public BinManager(IDBInterface database)
+  public BinManager(IThreadContext threadContext, IDBInterface database)
     throws ManifoldCFException
   {
     super(database,"docbins");
+    leaseManager = new BinLeaseManager(database);
+    leaseSize = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.binLeaseSizeProperty,100);
+    leaseTime = LockManagerFactory.getLongProperty(threadContext,ManifoldCF.binLeaseTimeProperty,60L) * 1000L;
   }
 
   /** Install or upgrade this table.
@@ -104,6 +122,7 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
 
       break;
     }
+    leaseManager.install();
   }
 
   /** Uninstall.
@@ -112,6 +131,7 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
   public void deinstall()
     throws ManifoldCFException
   {
+    leaseManager.deinstall();
     performDrop(null);
   }
 
@@ -120,9 +140,90 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
   public void reset()
     throws ManifoldCFException
   {
+    // Leases held by other processes will run out on their own, within the lease time
+    synchronized (localLeases)
+    {
+      localLeases.clear();
+    }
+    leaseManager.reset();
     performDelete("", null, null);
   }
 
+  /** Give back the unused leased values of a process that is gone, and forget its leases.
+  *@param processID is the process ID.
+  */
+  @Override
+  public void cleanupProcessData(String processID)
+    throws ManifoldCFException
+  {
+    if (processID.equals(ManifoldCF.getProcessID()))
+    {
+      synchronized (localLeases)
+      {
+        localLeases.clear();
+      }
+    }
+    while (true)
+    {
+      long sleepAmt = 0L;
+      beginTransaction();
+      try
+      {
+        IResultSet set = leaseManager.getLeases(processID);
+        for (int i = 0; i < set.getRowCount(); i++)
+        {
+          IResultRow row = set.getRow(i);
+          String binName = (String)row.getValue(BinLeaseManager.binNameField);
+          double leaseStart = ((Double)row.getValue(BinLeaseManager.leaseStartField)).doubleValue();
+          double leaseEnd = ((Double)row.getValue(BinLeaseManager.leaseEndField)).doubleValue();
+          giveBackBinValues(binName,leaseStart,leaseEnd);
+        }
+        leaseManager.deleteLeases(processID);
+        return;
+      }
+      catch (Error e)
+      {
+        signalRollback();
+        throw e;
+      }
+      catch (RuntimeException e)
+      {
+        signalRollback();
+        throw e;
+      }
+      catch (ManifoldCFException e)
+      {
+        signalRollback();
+        if (e.getErrorCode() == e.DATABASE_TRANSACTION_ABORT)
+        {
+          if (Logging.perf.isDebugEnabled())
+            Logging.perf.debug("Aborted transaction cleaning up bin leases: "+e.getMessage());
+          sleepAmt = getSleepAmt();
+          continue;
+        }
+        throw e;
+      }
+      finally
+      {
+        endTransaction();
+        sleepFor(sleepAmt);
+      }
+    }
+  }
+
+  /** Forget all leases, for all processes.
+  */
+  @Override
+  public void cleanupProcessData()
+    throws ManifoldCFException
+  {
+    synchronized (localLeases)
+    {
+      localLeases.clear();
+    }
+    leaseManager.reset();
+  }
+
   /** Get N bin values (and set next one).  If the record does not yet exist, create it with a starting value.
   * We expect this to happen within a transaction!!.
   *@param binName is the name of the bin (256 char max)
@@ -135,6 +236,106 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
     throws ManifoldCFException
   {
     double[] returnValues = new double[count];
+    // A lease that has run out of time gives back what it did not use, so that this and other
+    // processes draw from the low end of the bin again
+    BinLease expiredLease = removeExpiredLease(binName,System.currentTimeMillis());
+    if (expiredLease != null)
+    {
+      giveBackBinValues(binName,expiredLease.getNextValue(),expiredLease.getLeaseEnd());
+      leaseManager.deleteLease(binName,ManifoldCF.getProcessID());
+    }
+    // Hand out what we can from this process's lease
+    int filled = takeLeasedValues(binName,newBinValue,returnValues);
+    if (filled == count)
+      return returnValues;
+    int needed = count - filled;
+    int blockSize = (leaseSize > needed)?leaseSize:needed;
+    double rval = reserveBinValues(binName,newBinValue,blockSize);
+    while (filled < count)
+    {
+      returnValues[filled++] = rval;
+      rval += 1.0;
+    }
+    if (blockSize > needed)
+    {
+      double leaseEnd = rval + (double)(blockSize - needed);
+      leaseManager.writeLease(binName,ManifoldCF.getProcessID(),rval,leaseEnd);
+      synchronized (localLeases)
+      {
+        // If another thread got a lease at the same time, the newer one wins; the other's values are just skipped
+        localLeases.put(binName,new BinLease(rval,leaseEnd,System.currentTimeMillis() + leaseTime));
+      }
+    }
+    return returnValues;
+  }
+
+  /** Hand out values from the local lease for a bin.
+  *@return the number of values filled in.
+  */
+  protected int takeLeasedValues(String binName, double newBinValue, double[] returnValues)
+  {
+    synchronized (localLeases)
+    {
+      BinLease lease = localLeases.get(binName);
+      if (lease == null)
+        return 0;
+      int filled = lease.takeValues(newBinValue,returnValues);
+      if (lease.isExhausted())
+        localLeases.remove(binName);
+      return filled;
+    }
+  }
+
+  /** Remove this process's lease for a bin, if it has expired.
+  *@return the expired lease, or null if there was none.
+  */
+  protected BinLease removeExpiredLease(String binName, long currentTime)
+  {
+    synchronized (localLeases)
+    {
+      BinLease lease = localLeases.get(binName);
+      if (lease == null || !lease.isExpired(currentTime))
+        return null;
+      localLeases.remove(binName);
+      return lease;
+    }
+  }
+
+  /** Give back unused leased values to a bin.
+  * Values can only be given back if nobody has reserved any since, i.e. if the bin counter
+  * is still at the end of the lease; otherwise they are skipped.
+  * We expect this to happen within a transaction!!.
+  *@param binName is the name of the bin.
+  *@param leaseStart is the first unused value of the lease.
+  *@param leaseEnd is the bin counter value just after the lease.
+  */
+  protected void giveBackBinValues(String binName, double leaseStart, double leaseEnd)
+    throws ManifoldCFException
+  {
+    if (leaseStart >= leaseEnd)
+      return;
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(binNameField,binName)});
+    IResultSet result = performQuery("SELECT "+binCounterField+" FROM "+getTableName()+" WHERE "+query+" FOR UPDATE",params,null,null);
+    if (result.getRowCount() > 0 && ((Double)result.getRow(0).getValue(binCounterField)).doubleValue() == leaseEnd)
+    {
+      HashMap map = new HashMap();
+      map.put(binCounterField,new Double(leaseStart));
+      performUpdate(map," WHERE "+query,params,null);
+    }
+  }
+
+  /** Reserve a block of counter values for a bin, in the database.
+  * We expect this to happen within a transaction!!.
+  *@param binName is the name of the bin.
+  *@param newBinValue is the lowest value the block may start at.
+  *@param count is the number of values to reserve.
+  *@return the first value of the block.
+  */
+  protected double reserveBinValues(String binName, double newBinValue, int count)
+    throws ManifoldCFException
+  {
     // SELECT FOR UPDATE/MODIFY is the most common path
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
@@ -147,29 +348,19 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
       double rval = value.doubleValue();
       if (rval < newBinValue)
         rval = newBinValue;
-      // rval is the starting value; compute the entire array based on it.
-      for (int i = 0; i < count; i++)
-      {
-        returnValues[i] = rval;
-        rval += 1.0;
-      }
       HashMap map = new HashMap();
-      map.put(binCounterField,new Double(rval));
+      map.put(binCounterField,new Double(rval + (double)count));
       performUpdate(map," WHERE "+query,params,null);
+      return rval;
     }
     else
     {
-      for (int i = 0; i < count; i++)
-      {
-        returnValues[i] = newBinValue;
-        newBinValue += 1.0;
-      }
       HashMap map = new HashMap();
       map.put(binNameField,binName);
-      map.put(binCounterField,new Double(newBinValue));
+      map.put(binCounterField,new Double(newBinValue + (double)count));
       performInsert(map,null);
+      return newBinValue;
     }
-    return returnValues;
   }
 
   /** Get N bin values (and set next one).  If the record does not yet exist, create it with a starting value.
@@ -222,4 +413,60 @@ public class BinManager extends org.apache.manifoldcf.core.database.BaseTable im
     }
   }
 
+  /** A block of counter values for a bin, reserved by this process.
+  */
+  protected static class BinLease
+  {
+    /** The next value to hand out */
+    protected double nextValue;
+    /** The value just past the block */
+    protected final double leaseEnd;
+    /** The time after which the lease should not be used */
+    protected final long expirationTime;
+
+    public BinLease(double nextValue, double leaseEnd, long expirationTime)
+    {
+      this.nextValue = nextValue;
+      this.leaseEnd = leaseEnd;
+      this.expirationTime = expirationTime;
+    }
+
+    /** Hand out values, no lower than the specified minimum.
+    *@return the number of values filled in.
+    */
+    public int takeValues(double newBinValue, double[] returnValues)
+    {
+      // Skip up to the minimum, just as the database counter would
+      if (nextValue < newBinValue)
+        nextValue = newBinValue;
+      int filled = 0;
+      while (filled < returnValues.length && nextValue < leaseEnd)
+      {
+        returnValues[filled++] = nextValue;
+        nextValue += 1.0;
+      }
+      return filled;
+    }
+
+    public boolean isExhausted()
+    {
+      return nextValue >= leaseEnd;
+    }
+
+    public boolean isExpired(long currentTime)
+    {
+      return currentTime > expirationTime;
+    }
+
+    public double getNextValue()
+    {
+      return nextValue;
+    }
+
+    public double getLeaseEnd()
+    {
+      return leaseEnd;
+    }
+  }
+
 }
@@ -45,6 +45,17 @@ public class BlockingDocuments
   public synchronized void addBlockingDocument(DocumentDescription dd)
   {
     docsInNeed.put(dd.getID(),dd);
+    notifyAll();
+  }
+
+  /** Wait until there is a document in the set, or until the time is up.
+  *@param maxWait is the longest time to wait, in milliseconds.
+  */
+  public synchronized void waitForBlockingDocument(long maxWait)
+    throws InterruptedException
+  {
+    if (docsInNeed.size() == 0)
+      wait(maxWait);
   }
 
   /** Pop a document from the set.
@@ -41,6 +41,17 @@ public interface IBinManager
   public void reset()
     throws ManifoldCFException;
 
+  /** Give back the unused leased values of a process that is gone, and forget its leases.
+  *@param processID is the process ID.
+  */
+  public void cleanupProcessData(String processID)
+    throws ManifoldCFException;
+
+  /** Forget all leases, for all processes.
+  */
+  public void cleanupProcessData()
+    throws ManifoldCFException;
+
   /** Get N bin values (and set next one).  If the record does not yet exist, create it with a starting value.
   * We expect this to happen within a transaction!! 
   *@param binName is the name of the bin (256 char max)
@@ -711,6 +711,15 @@ public interface IJobManager
   public String[] retrieveParentData(Long jobID, String docIDHash, String dataName)
     throws ManifoldCFException;
 
+  /** Retrieve specific parent data for a set of documents, all at once.
+  *@param jobID is the job identifier.
+  *@param docIDHashes are the hashes of the document identifiers.
+  *@param dataName is the kind of data to retrieve.
+  *@return the unique data values for each document, in the same order as docIDHashes.
+  */
+  public String[][] retrieveParentDataMultiple(Long jobID, String[] docIDHashes, String dataName)
+    throws ManifoldCFException;
+
   /** Retrieve specific parent data for a given document.
   *@param jobID is the job identifier.
   *@param docIDHash is the document identifier hash value.
@@ -961,6 +970,29 @@ public interface IJobManager
   public void deleteJobsReadyForDelete()
     throws ManifoldCFException;
 
+  /** Find when the next document becomes eligible for getNextDocuments() just by the passage of time.
+  * Every other way a document becomes eligible raises ManifoldCF.documentsQueuedSignal, so a thread that
+  * found nothing to do need not look again before then, unless the signal is raised.
+  *@param currentTime is the current time.
+  *@return the earliest check time of a queued document of a job whose documents can be handed out,
+  * currentTime if some such document is due already (and so was held back by throttling or by another job),
+  * or -1L if there is none.
+  */
+  public long getNextDocumentCheckTime(long currentTime)
+    throws ManifoldCFException;
+
+  /** Check whether any job is deleting, so getNextDeletableDocuments() might find something.
+  *@return true if such jobs exist.
+  */
+  public boolean deletingJobsPresent()
+    throws ManifoldCFException;
+
+  /** Check whether any job is shutting down, so getNextCleanableDocuments() might find something.
+  *@return true if such jobs exist.
+  */
+  public boolean cleaningJobsPresent()
+    throws ManifoldCFException;
+
   /** Get list of deletable document descriptions.  This list will take into account
   * multiple jobs that may own the same document.
   *@param processID is the current process ID.
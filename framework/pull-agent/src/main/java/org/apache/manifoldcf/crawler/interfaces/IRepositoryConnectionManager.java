@@ -133,6 +133,11 @@ public interface IRepositoryConnectionManager
   public void cleanUpHistoryData(long timeCutoff)
     throws ManifoldCFException;
 
+  /** Write any history rows this process has recorded but not yet stored.
+  */
+  public void flushHistory()
+    throws ManifoldCFException;
+
   // Activities the Connector Framework records
 
   /** Start a job */
@@ -41,6 +41,9 @@ public class PerformanceStatistics
   /** This hash is keyed by the connection name, and has elements of type AveragingQueue */
   protected HashMap connectionHash = new HashMap();
 
+  /** The total number of documents completed over all connections */
+  protected long totalDocumentsCompleted = 0L;
+
   /** Constructor */
   public PerformanceStatistics()
   {
@@ -56,6 +59,14 @@ public class PerformanceStatistics
       connectionHash.put(connectionName,q);
     }
     q.addRecord(documentSetSize,elapsedTime);
+    totalDocumentsCompleted += (long)documentSetSize;
+  }
+
+  /** Obtain the total number of documents completed so far, over all connections.  Sampling this
+  * value over time gives the rate at which the worker threads are consuming queued documents. */
+  public synchronized long getTotalDocumentsCompleted()
+  {
+    return totalDocumentsCompleted;
   }
 
   /** Obtain current average document fetch rate (in documents per minute per connection) */
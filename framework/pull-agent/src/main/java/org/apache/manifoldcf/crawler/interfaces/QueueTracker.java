@@ -22,6 +22,8 @@ import org.apache.manifoldcf.crawler.system.Logging;
 import org.apache.manifoldcf.core.interfaces.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.regex.*;
 
 /** This class attempts to provide document priorities in order to acheive as much balance as possible between documents having different bins.
@@ -49,6 +51,9 @@ import java.util.regex.*;
 * (1) When a document is handed to a worker thread
 * (2) When the worker thread completes the document
 *
+* The bin counts are kept in concurrent maps of atomic counters, so that the many worker threads rating document
+* sets do not serialize on a shared lock.
+*
 */
 public class QueueTracker
 {
@@ -62,10 +67,10 @@ public class QueueTracker
 
   /** These are the bin counts for tracking the documents that are on
   * the active queue, but are not being processed yet */
-  protected final Map<String,BinCount> queuedBinCounts = new HashMap<String,BinCount>();
+  protected final ConcurrentMap<String,BinCount> queuedBinCounts = new ConcurrentHashMap<String,BinCount>();
 
   /** These are the bin counts for active threads */
-  protected final Map<String,BinCount> activeBinCounts = new HashMap<String,BinCount>();
+  protected final ConcurrentMap<String,BinCount> activeBinCounts = new ConcurrentHashMap<String,BinCount>();
 
   /** Constructor */
   public QueueTracker()
@@ -94,16 +99,7 @@ public class QueueTracker
     while (i < binNames.length)
     {
       String binName = binNames[i++];
-      synchronized (queuedBinCounts)
-      {
-        BinCount value = queuedBinCounts.get(binName);
-        if (value == null)
-        {
-          value = new BinCount();
-          queuedBinCounts.put(binName,value);
-        }
-        value.increment();
-      }
+      incrementBin(queuedBinCounts,binName);
     }
 
   }
@@ -150,28 +146,11 @@ public class QueueTracker
     {
       String binName = binNames[i++];
 
-      // Increment queued bin count for this bin.
-      synchronized (queuedBinCounts)
-      {
-        BinCount value = queuedBinCounts.get(binName);
-        if (value != null)
-        {
-          if (value.decrement())
-            queuedBinCounts.remove(binName);
-        }
-      }
+      // Decrement queued bin count for this bin.
+      decrementBin(queuedBinCounts,binName);
 
-      // Decrement active bin count for this bin.
-      synchronized (activeBinCounts)
-      {
-        BinCount value = activeBinCounts.get(binName);
-        if (value == null)
-        {
-          value = new BinCount();
-          activeBinCounts.put(binName,value);
-        }
-        value.increment();
-      }
+      // Increment active bin count for this bin.
+      incrementBin(activeBinCounts,binName);
     }
   }
 
@@ -198,15 +177,7 @@ public class QueueTracker
     while (i < binNames.length)
     {
       String binName = binNames[i++];
-      synchronized (activeBinCounts)
-      {
-        BinCount value = activeBinCounts.get(binName);
-        if (value != null)
-        {
-          if (value.decrement())
-            activeBinCounts.remove(binName);
-        }
-      }
+      decrementBin(activeBinCounts,binName);
     }
   }
 
@@ -231,12 +202,9 @@ public class QueueTracker
     {
       String binName = binNames[i++];
       int count = 0;
-      synchronized (activeBinCounts)
-      {
-        BinCount value = activeBinCounts.get(binName);
-        if (value != null)
-          count = value.getValue();
-      }
+      BinCount value = activeBinCounts.get(binName);
+      if (value != null)
+        count = value.getValue();
       // rating *= (1.0 / (1.0 + (double)count))
       ratingLog -= Math.log(1.0 + (double)count);
     }
@@ -259,48 +227,85 @@ public class QueueTracker
   }
 
 
-  /** This is the class which allows a mutable integer count value to be saved in the bincount table.
+  /** Increment the count for a bin, creating the counter if needed.
   */
-  protected static class BinCount
+  protected static void incrementBin(ConcurrentMap<String,BinCount> binCounts, String binName)
   {
-    /** The count */
-    protected int count = 0;
-
-    /** Create */
-    public BinCount()
+    while (true)
     {
+      BinCount value = binCounts.get(binName);
+      if (value == null)
+      {
+        value = new BinCount();
+        BinCount existing = binCounts.putIfAbsent(binName,value);
+        if (existing != null)
+          value = existing;
+      }
+      if (value.increment())
+        return;
+      // The counter was retired while we were looking at it; get rid of it and try again
+      binCounts.remove(binName,value);
     }
+  }
 
-    public BinCount duplicate()
+  /** Decrement the count for a bin, retiring the counter when it reaches zero.
+  */
+  protected static void decrementBin(ConcurrentMap<String,BinCount> binCounts, String binName)
+  {
+    BinCount value = binCounts.get(binName);
+    if (value != null)
     {
-      BinCount rval = new BinCount();
-      rval.count = this.count;
-      return rval;
+      if (value.decrement())
+        binCounts.remove(binName,value);
     }
+  }
+
+  /** This is the class which allows a mutable integer count value to be saved in the bincount table.
+  * A counter that has dropped to zero is retired, so that it can be removed from the table without
+  * losing an increment that races with the removal.
+  */
+  protected static class BinCount
+  {
+    /** The count, or -1 once retired */
+    protected final AtomicInteger count = new AtomicInteger(0);
 
-    /** Increment the counter */
-    public void increment()
+    /** Create */
+    public BinCount()
     {
-      count++;
     }
 
-    /** Decrement the counter, returning true if empty */
-    public boolean decrement()
+    /** Increment the counter, returning false if it has been retired */
+    public boolean increment()
     {
-      count--;
-      return count == 0;
+      while (true)
+      {
+        int current = count.get();
+        if (current < 0)
+          return false;
+        if (count.compareAndSet(current,current+1))
+          return true;
+      }
     }
 
-    /** Set the counter value */
-    public void setValue(int count)
+    /** Decrement the counter, returning true if it is now empty and retired */
+    public boolean decrement()
     {
-      this.count = count;
+      while (true)
+      {
+        int current = count.get();
+        if (current <= 0)
+          return false;
+        int newValue = (current == 1)?-1:current-1;
+        if (count.compareAndSet(current,newValue))
+          return newValue == -1;
+      }
     }
 
     /** Get the counter value */
     public int getValue()
     {
-      return count;
+      int current = count.get();
+      return (current < 0)?0:current;
     }
   }
 
@@ -37,11 +37,13 @@ import org.apache.manifoldcf.crawler.system.ManifoldCF;
  * <tr><td>childidhash</td><td>VARCHAR(40)</td><td></td></tr>
  * <tr><td>dataname</td><td>VARCHAR(255)</td><td></td></tr>
  * <tr><td>datavaluehash</td><td>VARCHAR(40)</td><td></td></tr>
- * <tr><td>datavalue</td><td>LONGTEXT</td><td></td></tr>
+ * <tr><td>datavalue</td><td>LONGTEXT</td><td>Only in rows written before carrydownvalues existed</td></tr>
  * <tr><td>isnew</td><td>CHAR(1)</td><td></td></tr>
  * <tr><td>processid</td><td>VARCHAR(16)</td><td></td></tr>
  * </table>
  * <br><br>
+ * The values themselves are kept in the carrydownvalues table, once per job and distinct value,
+ * and are found through datavaluehash.
  * 
  */
 public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
@@ -76,13 +78,25 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     isNewMap.put("E",new Integer(ISNEW_EXISTING));
   }
 
+  /** Default number of characters of carrydown values to keep in memory, per job */
+  protected static final int DEFAULT_VALUE_CACHE_SIZE = 1048576;
+
+  /** In-memory copy of carrydown values, shared across the process */
+  protected final static CarrydownValueCache valueCache = new CarrydownValueCache();
+
+  /** The table holding the values themselves */
+  protected final CarrydownValues valueTable;
+
   /** Constructor.
+  *@param tc is the thread context.
   *@param database is the database handle.
   */
-  public Carrydown(IDBInterface database)
+  public Carrydown(IThreadContext tc, IDBInterface database)
     throws ManifoldCFException
   {
     super(database,"carrydown");
+    valueTable = new CarrydownValues(database);
+    valueCache.setMaxCharacters(LockManagerFactory.getIntProperty(tc,ManifoldCF.carrydownCacheSizeProperty,DEFAULT_VALUE_CACHE_SIZE));
   }
 
   /** Install or upgrade.
@@ -90,6 +104,8 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
   public void install(String jobsTable, String jobsColumn)
     throws ManifoldCFException
   {
+    valueTable.install(jobsTable,jobsColumn);
+
     // Standard practice: Outer loop, to support upgrade requirements.
     while (true)
     {
@@ -129,6 +145,8 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       IndexDescription uniqueIndex = new IndexDescription(true,new String[]{jobIDField,parentIDHashField,childIDHashField,dataNameField,dataValueHashField});
       IndexDescription jobChildDataIndex = new IndexDescription(false,new String[]{jobIDField,childIDHashField,dataNameField});
       IndexDescription newIndex = new IndexDescription(false,new String[]{newField,processIDField});
+      // Used when looking for values that nothing refers to any more
+      IndexDescription jobValueIndex = new IndexDescription(false,new String[]{jobIDField,dataValueHashField});
 
       Map indexes = getTableIndexes(null,null);
       Iterator iter = indexes.keySet().iterator();
@@ -143,6 +161,8 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
           jobChildDataIndex = null;
         else if (newIndex != null && id.equals(newIndex))
           newIndex = null;
+        else if (jobValueIndex != null && id.equals(jobValueIndex))
+          jobValueIndex = null;
         else if (indexName.indexOf("_pkey") == -1)
           // This index shouldn't be here; drop it
           performRemoveIndex(indexName);
@@ -156,6 +176,9 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       if (newIndex != null)
         performAddIndex(null,newIndex);
 
+      if (jobValueIndex != null)
+        performAddIndex(null,jobValueIndex);
+
       // This index is the constraint.  Only one row per job,dataname,datavalue,parent,and child.
       if (uniqueIndex != null)
         performAddIndex(null,uniqueIndex);
@@ -172,6 +195,7 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     throws ManifoldCFException
   {
     performDrop(null);
+    valueTable.deinstall();
   }
 
   /** Analyze job tables that need analysis.
@@ -183,6 +207,7 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     Logging.perf.debug("Beginning to analyze carrydown table");
     analyzeTable();
     Logging.perf.debug("Done analyzing carrydown table in "+new Long(System.currentTimeMillis()-startTime)+" ms");
+    valueTable.analyzeTables();
   }
 
   /** Delete an owning job (and clean up the corresponding carrydown rows).
@@ -194,6 +219,17 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID)});
     performDelete("WHERE "+query,list,null);
+    valueTable.deleteOwner(jobID);
+    valueCache.forgetJob(jobID);
+  }
+
+  /** Remove the stored values of a job that no carrydown row refers to any longer.  Call this only
+  * when none of the job's documents are being processed.
+  */
+  public void purgeUnusedValues(Long jobID)
+    throws ManifoldCFException
+  {
+    valueTable.purgeUnusedValues(jobID,getTableName(),jobIDField,dataValueHashField);
   }
 
   // The strategy here is to leave all rows that have a given document as a parent labelled as "BASE" at the start of the
@@ -353,6 +389,10 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     // an update.  Keep track of this information also, so we can build the return array when done.
 
     HashMap insertHappened = new HashMap();
+    // New rows are collected and written together at the end
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    // The values of the new rows, which go into the value table once each
+    Map<String,Object> newValues = new HashMap<String,Object>();
 
     int j = 0;
     Iterator iter = duplicateRemoval.keySet().iterator();
@@ -376,13 +416,12 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
         if (dataValueHash != null)
         {
           map.put(dataValueHashField,dataValueHash);
-          map.put(dataValueField,dataValue);
+          newValues.put(dataValueHash,dataValue);
         }
 
         map.put(newField,statusToString(ISNEW_NEW));
         map.put(processIDField,processID);
-        performInsert(map,null);
-        noteModifications(1,0,0);
+        insertRows.add(map);
         insertHappened.put(childDocumentIDHash,new Boolean(true));
       }
       else
@@ -426,6 +465,13 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       }
     }
 
+    if (insertRows.size() > 0)
+    {
+      valueTable.recordValues(jobID,newValues);
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
+
     boolean[] rval = new boolean[childDocumentIDHashes.length];
     i = 0;
     while (i < rval.length)
@@ -520,7 +566,11 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       
     sb.append(newField).append("=?");
     newList.add(statusToString(ISNEW_BASE));
+    Set<String> valueHashes = new HashSet<String>();
+    findValueHashes(sb.toString(),newList,valueHashes);
     performDelete(sb.toString(),newList,null);
+    // Values only the deleted rows referred to can go now, so a job that never finishes doesn't accumulate them
+    valueTable.purgeUnusedValues(jobID,valueHashes,getTableName(),jobIDField,dataValueHashField);
 
     // Restore new values
     sb = new StringBuilder("WHERE ");
@@ -603,6 +653,8 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     sb.append(buildConjunctionClause(newList,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID),
       new MultiClause(childIDHashField,list)}));
+    Set<String> valueHashes = new HashSet<String>();
+    findValueHashes(sb.toString(),newList,valueHashes);
     performDelete(sb.toString(),newList,null);
     
     sb = new StringBuilder("WHERE ");
@@ -611,35 +663,153 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     sb.append(buildConjunctionClause(newList,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID),
       new MultiClause(parentIDHashField,list)}));
+    findValueHashes(sb.toString(),newList,valueHashes);
     performDelete(sb.toString(),newList,null);
 
+    valueTable.purgeUnusedValues(jobID,valueHashes,getTableName(),jobIDField,dataValueHashField);
+
     noteModifications(0,0,list.size()*2);
   }
 
+  /** Find the value hashes referred to by the carrydown rows a where clause selects.
+  *@param whereClause is the where clause, starting with "WHERE".
+  *@param list is the where clause's parameters.
+  *@param valueHashes is where the hashes are added.
+  */
+  protected void findValueHashes(String whereClause, ArrayList list, Set<String> valueHashes)
+    throws ManifoldCFException
+  {
+    IResultSet set = performQuery("SELECT DISTINCT "+dataValueHashField+" FROM "+getTableName()+" "+whereClause,list,null,null);
+    for (int i = 0; i < set.getRowCount(); i++)
+    {
+      String valueHash = (String)set.getRow(i).getValue(dataValueHashField);
+      if (valueHash != null)
+        valueHashes.add(valueHash);
+    }
+  }
+
   /** Get unique values given a document identifier, data name, an job identifier */
   public String[] getDataValues(Long jobID, String documentIdentifierHash, String dataName)
     throws ManifoldCFException
+  {
+    return getDataValuesMultiple(jobID,new String[]{documentIdentifierHash},dataName)[0];
+  }
+
+  /** Get unique values for each of a set of documents, given a data name and a job identifier.
+  * The value hashes for all the documents are read together, and then any values that are not
+  * already in memory are read together.
+  *@return the values for each document, in the same order as the document identifier hashes.
+  */
+  public String[][] getDataValuesMultiple(Long jobID, String[] documentIdentifierHashes, String dataName)
+    throws ManifoldCFException
+  {
+    // Find the value hashes for each document.  Rows written before the value table existed carry their value.
+    Map<String,Map<String,String>> documentValues = new HashMap<String,Map<String,String>>();
+    int maxClause = maxClauseGetDataValues(jobID,dataName);
+    List<String> list = new ArrayList<String>();
+    for (String documentIdentifierHash : documentIdentifierHashes)
+    {
+      if (documentValues.get(documentIdentifierHash) != null)
+        continue;
+      documentValues.put(documentIdentifierHash,new TreeMap<String,String>());
+      if (list.size() == maxClause)
+      {
+        readDataValueHashes(jobID,dataName,list,documentValues);
+        list.clear();
+      }
+      list.add(documentIdentifierHash);
+    }
+    if (list.size() > 0)
+      readDataValueHashes(jobID,dataName,list,documentValues);
+
+    // Resolve the hashes that did not come with a value, from memory if we can
+    Map<String,String> resolved = new HashMap<String,String>();
+    Set<String> unresolved = new HashSet<String>();
+    for (Map<String,String> values : documentValues.values())
+    {
+      for (Map.Entry<String,String> entry : values.entrySet())
+      {
+        String dataValueHash = entry.getKey();
+        if (entry.getValue() != null || dataValueHash.length() == 0 || resolved.get(dataValueHash) != null)
+          continue;
+        String value = valueCache.get(jobID,dataValueHash);
+        if (value != null)
+          resolved.put(dataValueHash,value);
+        else
+          unresolved.add(dataValueHash);
+      }
+    }
+    if (unresolved.size() > 0)
+    {
+      Map<String,String> stored = valueTable.getValues(jobID,unresolved);
+      for (String dataValueHash : stored.keySet())
+      {
+        String value = stored.get(dataValueHash);
+        if (value == null)
+          value = "";
+        resolved.put(dataValueHash,value);
+        valueCache.put(jobID,dataValueHash,value);
+      }
+    }
+
+    String[][] rval = new String[documentIdentifierHashes.length][];
+    for (int i = 0; i < rval.length; i++)
+    {
+      Map<String,String> values = documentValues.get(documentIdentifierHashes[i]);
+      String[] result = new String[values.size()];
+      int j = 0;
+      for (Map.Entry<String,String> entry : values.entrySet())
+      {
+        String value = entry.getValue();
+        if (value == null)
+          value = resolved.get(entry.getKey());
+        if (value == null)
+          value = "";
+        result[j++] = value;
+      }
+      rval[i] = result;
+    }
+    return rval;
+  }
+
+  protected int maxClauseGetDataValues(Long jobID, String dataName)
+  {
+    return findConjunctionClauseMax(new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new UnitaryClause(dataNameField,dataName)});
+  }
+
+  /** Read the value hashes, and any inline values, for a set of documents.
+  *@param documentValues is keyed by document identifier hash; each entry maps value hash (blank for a
+  * null value) to the inline value, or to null if the value must be looked up.
+  */
+  protected void readDataValueHashes(Long jobID, String dataName, List<String> documentIdentifierHashes,
+    Map<String,Map<String,String>> documentValues)
+    throws ManifoldCFException
   {
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(jobIDField,jobID),
-      new UnitaryClause(childIDHashField,documentIdentifierHash),
-      new UnitaryClause(dataNameField,dataName)});
+      new UnitaryClause(dataNameField,dataName),
+      new MultiClause(childIDHashField,documentIdentifierHashes)});
 
-    IResultSet set = getDBInterface().performQuery("SELECT "+dataValueHashField+","+dataValueField+" FROM "+getTableName()+" WHERE "+
-      query+" ORDER BY 1 ASC",list,null,null,-1,null,new ResultDuplicateEliminator());
+    IResultSet set = getDBInterface().performQuery("SELECT "+childIDHashField+","+dataValueHashField+","+dataValueField+" FROM "+getTableName()+" WHERE "+
+      query+" ORDER BY 1 ASC,2 ASC",list,null,null,-1,null,new ResultDuplicateEliminator());
 
-    String[] rval = new String[set.getRowCount()];
     int i = 0;
-    while (i < rval.length)
+    while (i < set.getRowCount())
     {
-      IResultRow row = set.getRow(i);
-      rval[i] = (String)row.getValue(dataValueField);
-      if (rval[i] == null)
-        rval[i] = "";
-      i++;
+      IResultRow row = set.getRow(i++);
+      String documentIdentifierHash = (String)row.getValue(childIDHashField);
+      String dataValueHash = (String)row.getValue(dataValueHashField);
+      String dataValue = (String)row.getValue(dataValueField);
+      if (dataValueHash == null)
+      {
+        dataValueHash = "";
+        dataValue = "";
+      }
+      documentValues.get(documentIdentifierHash).put(dataValueHash,dataValue);
     }
-    return rval;
   }
 
   /** Get unique values given a document identifier, data name, an job identifier */
@@ -658,13 +828,34 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       query+" ORDER BY 1 ASC",list,null,null,-1,rs,new ResultDuplicateEliminator());
 
     CharacterInput[] rval = new CharacterInput[set.getRowCount()];
+    List<String> unresolved = new ArrayList<String>();
     int i = 0;
     while (i < rval.length)
     {
       IResultRow row = set.getRow(i);
       rval[i] = (CharacterInput)row.getValue(dataValueField);
+      String dataValueHash = (String)row.getValue(dataValueHashField);
+      if (rval[i] == null && dataValueHash != null)
+        unresolved.add(dataValueHash);
       i++;
     }
+
+    if (unresolved.size() > 0)
+    {
+      // Stream the values that are kept in the value table
+      Map<String,CharacterInput> stored = valueTable.getValuesAsFiles(jobID,unresolved);
+      i = 0;
+      while (i < rval.length)
+      {
+        if (rval[i] == null)
+        {
+          String dataValueHash = (String)set.getRow(i).getValue(dataValueHashField);
+          if (dataValueHash != null)
+            rval[i] = stored.get(dataValueHash);
+        }
+        i++;
+      }
+    }
     return rval;
   }
 
@@ -691,9 +882,11 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
     }
   }
 
-  /** Limit checker which removes duplicate rows, based on datavaluehash */
+  /** Limit checker which removes duplicate rows, based on datavaluehash (and childidhash, if selected) */
   protected static class ResultDuplicateEliminator implements ILimitChecker
   {
+    // The last value of child hash
+    protected String currentChildHashValue = null;
     // The last value of data hash
     protected String currentDataHashValue = null;
 
@@ -729,11 +922,15 @@ public class Carrydown extends org.apache.manifoldcf.core.database.BaseTable
       throws ManifoldCFException
     {
       // Check to be sure that this row is different from the last; only then agree to include it.
+      String child = (String)row.getValue(childIDHashField);
+      if (child == null)
+        child = "";
       String value = (String)row.getValue(dataValueHashField);
       if (value == null)
         value = "";
-      if (currentDataHashValue == null || !value.equals(currentDataHashValue))
+      if (currentDataHashValue == null || !value.equals(currentDataHashValue) || !child.equals(currentChildHashValue))
       {
+        currentChildHashValue = child;
         currentDataHashValue = value;
         return true;
       }
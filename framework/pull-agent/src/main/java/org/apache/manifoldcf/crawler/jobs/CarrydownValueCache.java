@@ -0,0 +1,124 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+/** This class is an in-memory, least-recently-used cache of carrydown data values, kept separately for
+* each job.  Values are keyed by their hash, so a cached value never goes stale; a job's values are
+* dropped only to make room, or when the job is deleted.  The cache is shared by all the threads in
+* the process.
+*/
+public class CarrydownValueCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The longest value that is worth caching, in characters */
+  public static final int MAX_VALUE_LENGTH = 16384;
+
+  /** The per-job caches, keyed by job ID */
+  protected final Map<Long,JobValues> jobCaches = new HashMap<Long,JobValues>();
+  /** The most characters to hold for any one job; 0 means disabled */
+  protected long maxCharacters = 0L;
+
+  public CarrydownValueCache()
+  {
+  }
+
+  /** Set the most characters to hold for any one job.
+  *@param maxCharacters is the limit; 0 disables the cache.
+  */
+  public synchronized void setMaxCharacters(long maxCharacters)
+  {
+    if (maxCharacters == this.maxCharacters)
+      return;
+    this.maxCharacters = maxCharacters;
+    for (JobValues jv : jobCaches.values())
+    {
+      jv.trim(maxCharacters);
+    }
+  }
+
+  /** Look up a value.
+  *@return the value, or null if it is not cached.
+  */
+  public synchronized String get(Long jobID, String valueHash)
+  {
+    JobValues jv = jobCaches.get(jobID);
+    if (jv == null)
+      return null;
+    return jv.values.get(valueHash);
+  }
+
+  /** Cache a value.
+  */
+  public synchronized void put(Long jobID, String valueHash, String value)
+  {
+    if (maxCharacters <= 0L || value.length() > MAX_VALUE_LENGTH)
+      return;
+    JobValues jv = jobCaches.get(jobID);
+    if (jv == null)
+    {
+      jv = new JobValues();
+      jobCaches.put(jobID,jv);
+    }
+    jv.put(valueHash,value);
+    jv.trim(maxCharacters);
+  }
+
+  /** Forget everything cached for a job.
+  */
+  public synchronized void forgetJob(Long jobID)
+  {
+    jobCaches.remove(jobID);
+  }
+
+  /** The cached values of one job */
+  protected static class JobValues
+  {
+    /** The values, in access order */
+    protected final LinkedHashMap<String,String> values = new LinkedHashMap<String,String>(16,0.75f,true);
+    /** The total number of characters held */
+    protected long characterCount = 0L;
+
+    public JobValues()
+    {
+    }
+
+    public void put(String valueHash, String value)
+    {
+      String old = values.put(valueHash,value);
+      if (old != null)
+        characterCount -= old.length();
+      characterCount += value.length();
+    }
+
+    public void trim(long maxCharacters)
+    {
+      Iterator<Map.Entry<String,String>> iter = values.entrySet().iterator();
+      while (characterCount > maxCharacters && iter.hasNext())
+      {
+        Map.Entry<String,String> entry = iter.next();
+        characterCount -= entry.getValue().length();
+        iter.remove();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,349 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+
+/** This class manages the table that holds carrydown data values.  Each distinct value is stored
+* once per job, keyed by its hash, and the carrydown table refers to it by that hash.  A parent that
+* hands the same value to thousands of children therefore writes it only once.
+* 
+* <br><br>
+* <b>carrydownvalues</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>jobid</td><td>BIGINT</td><td>Reference:jobs.id</td></tr>
+* <tr><td>datavaluehash</td><td>VARCHAR(40)</td><td></td></tr>
+* <tr><td>datavalue</td><td>LONGTEXT</td><td></td></tr>
+* </table>
+* <br><br>
+* 
+*/
+public class CarrydownValues extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Field names
+  public static final String jobIDField = "jobid";
+  public static final String dataValueHashField = "datavaluehash";
+  public static final String dataValueField = "datavalue";
+
+  /** Constructor.
+  *@param database is the database handle.
+  */
+  public CarrydownValues(IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"carrydownvalues");
+  }
+
+  /** Install or upgrade.
+  */
+  public void install(String jobsTable, String jobsColumn)
+    throws ManifoldCFException
+  {
+    // Standard practice: Outer loop, to support upgrade requirements.
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(jobIDField,new ColumnDescription("BIGINT",false,false,jobsTable,jobsColumn,false));
+        map.put(dataValueHashField,new ColumnDescription("VARCHAR(40)",false,false,null,null,false));
+        map.put(dataValueField,new ColumnDescription("LONGTEXT",false,true,null,null,false));
+        performCreate(map,null);
+      }
+      else
+      {
+        // Upgrade code goes here, if needed.
+      }
+
+      // Now do index management
+
+      IndexDescription uniqueIndex = new IndexDescription(true,new String[]{jobIDField,dataValueHashField});
+
+      Map indexes = getTableIndexes(null,null);
+      Iterator iter = indexes.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String indexName = (String)iter.next();
+        IndexDescription id = (IndexDescription)indexes.get(indexName);
+
+        if (uniqueIndex != null && id.equals(uniqueIndex))
+          uniqueIndex = null;
+        else if (indexName.indexOf("_pkey") == -1)
+          // This index shouldn't be here; drop it
+          performRemoveIndex(indexName);
+      }
+
+      // Only one row per job and value
+      if (uniqueIndex != null)
+        performAddIndex(null,uniqueIndex);
+
+      // Install/upgrade complete
+      break;
+    }
+  }
+
+  /** Uninstall.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Analyze the table.
+  */
+  public void analyzeTables()
+    throws ManifoldCFException
+  {
+    long startTime = System.currentTimeMillis();
+    Logging.perf.debug("Beginning to analyze carrydownvalues table");
+    analyzeTable();
+    Logging.perf.debug("Done analyzing carrydownvalues table in "+new Long(System.currentTimeMillis()-startTime)+" ms");
+  }
+
+  /** Delete all the values belonging to a job.
+  */
+  public void deleteOwner(Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)});
+    performDelete("WHERE "+query,list,null);
+  }
+
+  /** Make sure a set of values is present.  Values that are already stored are left alone.
+  * This is expected to be called within a transaction; if two threads insert the same value
+  * at once, the unique index causes one of the transactions to be retried.
+  *@param jobID is the job identifier.
+  *@param values is a map from value hash to value, which is either a String or a CharacterInput.
+  */
+  public void recordValues(Long jobID, Map<String,Object> values)
+    throws ManifoldCFException
+  {
+    if (values.size() == 0)
+      return;
+
+    // Find out which values are already present, locking them so they cannot be purged underneath us
+    Set<String> present = new HashSet<String>();
+    int maxClause = maxClauseValueQuery(jobID);
+    List<String> list = new ArrayList<String>();
+    for (String valueHash : values.keySet())
+    {
+      if (list.size() == maxClause)
+      {
+        findPresent(jobID,list,present);
+        list.clear();
+      }
+      list.add(valueHash);
+    }
+    if (list.size() > 0)
+      findPresent(jobID,list,present);
+
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    for (String valueHash : values.keySet())
+    {
+      if (present.contains(valueHash))
+        continue;
+      Map<String,Object> map = new HashMap<String,Object>();
+      map.put(jobIDField,jobID);
+      map.put(dataValueHashField,valueHash);
+      map.put(dataValueField,values.get(valueHash));
+      insertRows.add(map);
+    }
+    if (insertRows.size() > 0)
+    {
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
+  }
+
+  protected void findPresent(Long jobID, List<String> valueHashes, Set<String> present)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(dataValueHashField,valueHashes)});
+    IResultSet set = performQuery("SELECT "+dataValueHashField+" FROM "+getTableName()+" WHERE "+query+" FOR UPDATE",list,null,null);
+    int i = 0;
+    while (i < set.getRowCount())
+    {
+      IResultRow row = set.getRow(i++);
+      present.add((String)row.getValue(dataValueHashField));
+    }
+  }
+
+  /** Read a set of values as strings, in bulk.
+  *@param jobID is the job identifier.
+  *@param valueHashes are the hashes of the values to read.
+  *@return a map from value hash to value.  Hashes that are not stored are not in the map.
+  */
+  public Map<String,String> getValues(Long jobID, Collection<String> valueHashes)
+    throws ManifoldCFException
+  {
+    Map<String,String> rval = new HashMap<String,String>();
+    int maxClause = maxClauseValueQuery(jobID);
+    List<String> list = new ArrayList<String>();
+    for (String valueHash : valueHashes)
+    {
+      if (list.size() == maxClause)
+      {
+        readValues(jobID,list,rval,null);
+        list.clear();
+      }
+      list.add(valueHash);
+    }
+    if (list.size() > 0)
+      readValues(jobID,list,rval,null);
+    return rval;
+  }
+
+  /** Read a set of values as streams, in bulk.
+  *@param jobID is the job identifier.
+  *@param valueHashes are the hashes of the values to read.
+  *@return a map from value hash to value.  Hashes that are not stored are not in the map.
+  */
+  public Map<String,CharacterInput> getValuesAsFiles(Long jobID, Collection<String> valueHashes)
+    throws ManifoldCFException
+  {
+    ResultSpecification rs = new ResultSpecification();
+    rs.setForm(dataValueField,ResultSpecification.FORM_STREAM);
+    Map<String,CharacterInput> rval = new HashMap<String,CharacterInput>();
+    int maxClause = maxClauseValueQuery(jobID);
+    List<String> list = new ArrayList<String>();
+    for (String valueHash : valueHashes)
+    {
+      if (list.size() == maxClause)
+      {
+        readValues(jobID,list,rval,rs);
+        list.clear();
+      }
+      list.add(valueHash);
+    }
+    if (list.size() > 0)
+      readValues(jobID,list,rval,rs);
+    return rval;
+  }
+
+  protected void readValues(Long jobID, List<String> valueHashes, Map rval, ResultSpecification rs)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(dataValueHashField,valueHashes)});
+    IResultSet set = getDBInterface().performQuery("SELECT "+dataValueHashField+","+dataValueField+" FROM "+getTableName()+" WHERE "+
+      query,list,null,null,-1,rs,null);
+    int i = 0;
+    while (i < set.getRowCount())
+    {
+      IResultRow row = set.getRow(i++);
+      rval.put((String)row.getValue(dataValueHashField),row.getValue(dataValueField));
+    }
+  }
+
+  protected int maxClauseValueQuery(Long jobID)
+  {
+    return findConjunctionClauseMax(new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)});
+  }
+
+  /** Remove the values of a job that no carrydown row refers to any longer.  This should only be
+  * done when no documents of the job are being processed, since a value may be briefly unreferenced
+  * while a parent's carrydown data is being rewritten.
+  *@param jobID is the job identifier.
+  *@param carrydownTable is the name of the carrydown table.
+  *@param carrydownJobIDField is the carrydown table's job id column.
+  *@param carrydownDataValueHashField is the carrydown table's value hash column.
+  */
+  public void purgeUnusedValues(Long jobID, String carrydownTable, String carrydownJobIDField, String carrydownDataValueHashField)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    StringBuilder sb = new StringBuilder("WHERE ");
+    sb.append(buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID)}));
+    performPurge(sb,list,carrydownTable,carrydownJobIDField,carrydownDataValueHashField);
+  }
+
+  /** Remove those of a set of values of a job that no carrydown row refers to any longer.  This is
+  * done in the same serialized transaction that deletes carrydown rows, so a value another thread
+  * is starting to refer to at the same time cannot be lost; one of the transactions is retried.
+  *@param jobID is the job identifier.
+  *@param valueHashes are the hashes of the values that the deleted carrydown rows referred to.
+  *@param carrydownTable is the name of the carrydown table.
+  *@param carrydownJobIDField is the carrydown table's job id column.
+  *@param carrydownDataValueHashField is the carrydown table's value hash column.
+  */
+  public void purgeUnusedValues(Long jobID, Collection<String> valueHashes,
+    String carrydownTable, String carrydownJobIDField, String carrydownDataValueHashField)
+    throws ManifoldCFException
+  {
+    int maxClause = maxClauseValueQuery(jobID);
+    List<String> hashList = new ArrayList<String>();
+    for (String valueHash : valueHashes)
+    {
+      if (hashList.size() == maxClause)
+      {
+        performPurge(jobID,hashList,carrydownTable,carrydownJobIDField,carrydownDataValueHashField);
+        hashList.clear();
+      }
+      hashList.add(valueHash);
+    }
+    if (hashList.size() > 0)
+      performPurge(jobID,hashList,carrydownTable,carrydownJobIDField,carrydownDataValueHashField);
+  }
+
+  protected void performPurge(Long jobID, List<String> valueHashes,
+    String carrydownTable, String carrydownJobIDField, String carrydownDataValueHashField)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    StringBuilder sb = new StringBuilder("WHERE ");
+    sb.append(buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(jobIDField,jobID),
+      new MultiClause(dataValueHashField,valueHashes)}));
+    performPurge(sb,list,carrydownTable,carrydownJobIDField,carrydownDataValueHashField);
+  }
+
+  /** Delete the values selected by a where clause that no carrydown row refers to.
+  */
+  protected void performPurge(StringBuilder sb, ArrayList list,
+    String carrydownTable, String carrydownJobIDField, String carrydownDataValueHashField)
+    throws ManifoldCFException
+  {
+    sb.append(" AND NOT EXISTS(SELECT 'x' FROM ").append(carrydownTable).append(" t1 WHERE ")
+      .append(buildConjunctionClause(list,new ClauseDescription[]{
+        new JoinClause("t1."+carrydownJobIDField,getTableName()+"."+jobIDField),
+        new JoinClause("t1."+carrydownDataValueHashField,getTableName()+"."+dataValueHashField)}))
+      .append(")");
+    performDelete(sb.toString(),list,null);
+  }
+
+}
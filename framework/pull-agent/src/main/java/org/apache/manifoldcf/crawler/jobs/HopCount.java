@@ -147,6 +147,11 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
   /** Thread context */
   protected IThreadContext threadContext;
+
+  /** In-memory copy of distances, shared across the process */
+  protected final static HopCountCache distanceCache = new HopCountCache();
+  /** Distance changes made in the current transaction, or null */
+  protected DistanceChanges distanceChanges = null;
   
   /** Constructor.
   *@param database is the database handle.
@@ -158,6 +163,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     this.threadContext = tc;
     intrinsicLinkManager = new IntrinsicLink(database);
     deleteDepsManager = new HopDeleteDeps(database);
+    distanceCache.setMaxEntries(LockManagerFactory.getIntProperty(tc,ManifoldCF.hopcountCacheSizeProperty,0));
   }
 
   /** Install or upgrade.
@@ -299,6 +305,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       new UnitaryClause(jobIDField,jobID)});
     performDelete("WHERE "+query,list,null);
     noteModifications(0,0,1);
+    noteDistanceChange(jobID,null,null);
   }
 
   /** Reset, at startup time.
@@ -542,7 +549,58 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
   public int[] findHopCounts(Long jobID, String[] parentIdentifierHashes, String linkType)
     throws ManifoldCFException
   {
+    // Outside of a transaction, the in-memory copy is as good as what's committed in the database
+    if (distanceCache.isEnabled() && getTransactionID() == null)
+      return findHopCountsCached(jobID,parentIdentifierHashes,linkType);
+
     // No transaction, since we can happily interpret whatever comes back.
+    return findHopCountsUncached(jobID,parentIdentifierHashes,linkType);
+  }
+
+  /** Calculate a bunch of hop-counts, using the in-memory copy of the distances where possible,
+  * and loading what's missing from the database.
+  */
+  protected int[] findHopCountsCached(Long jobID, String[] parentIdentifierHashes, String linkType)
+    throws ManifoldCFException
+  {
+    int[] rval = new int[parentIdentifierHashes.length];
+    int found = distanceCache.lookup(jobID,linkType,parentIdentifierHashes,rval);
+    if (found == rval.length)
+      return rval;
+
+    // Get the stamp before reading, so a change made during the read keeps stale values out
+    long stamp = distanceCache.getLoadStamp(jobID);
+    String[] missingHashes = new String[rval.length - found];
+    int j = 0;
+    for (int i = 0; i < rval.length; i++)
+    {
+      if (rval[i] == HopCountCache.MISSING)
+        missingHashes[j++] = parentIdentifierHashes[i];
+    }
+    int[] missingDistances = findHopCountsUncached(jobID,missingHashes,linkType);
+
+    List<String> loadHashes = new ArrayList<String>();
+    List<Integer> loadDistances = new ArrayList<Integer>();
+    j = 0;
+    for (int i = 0; i < rval.length; i++)
+    {
+      if (rval[i] == HopCountCache.MISSING)
+      {
+        rval[i] = missingDistances[j];
+        loadHashes.add(missingHashes[j]);
+        loadDistances.add(new Integer(missingDistances[j]));
+        j++;
+      }
+    }
+    distanceCache.load(jobID,stamp,linkType,loadHashes,loadDistances);
+    return rval;
+  }
+
+  /** Calculate a bunch of hop-counts from the database alone.
+  */
+  protected int[] findHopCountsUncached(Long jobID, String[] parentIdentifierHashes, String linkType)
+    throws ManifoldCFException
+  {
     ArrayList list = new ArrayList();
 
     int[] rval = new int[parentIdentifierHashes.length];
@@ -799,7 +857,10 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     // distance against the distance estimate we would have given it.  If the new distance is LOWER, it gets left around
     // for queuing.
 
-    HashMap map = new HashMap();
+    // New rows and their dependencies are written in bulk once the pass is done.
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
+    List<Long> depOwnerIDs = new ArrayList<Long>();
+    List<DeleteDependency> deps = new ArrayList<DeleteDependency>();
     for (int i = 0; i < documentIDHashes.length; i++)
     {
       String documentIDHash = documentIDHashes[i];
@@ -822,7 +883,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           // The dependencies are the old dependencies, plus the one we are about to add.
           DeleteDependency dd = new DeleteDependency(linkType,documentIDHash,sourceDocumentIDHash);
           // Build a new answer, based on the starting answer and the kind of link this is.
-          map.clear();
+          Map<String,Object> map = new HashMap<String,Object>();
           Long hopCountID = new Long(IDFactory.make(threadContext));
           map.put(idField,hopCountID);
           map.put(parentIDHashField,q.getDocumentIdentifierHash());
@@ -835,16 +896,17 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           map.put(markForDeathField,markToString(MARK_NORMAL));
           if (Logging.hopcount.isDebugEnabled())
             Logging.hopcount.debug("Inserting new record for '"+documentIDHash+"' linktype '"+affectedLinkType+"' distance "+Integer.toString(newAnswerValue)+" for job "+jobID);
-          performInsert(map,null);
-          noteModifications(1,0,0);
+          insertRows.add(map);
+          noteDistanceChange(jobID,affectedLinkType,documentIDHash);
           if (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE)
           {
-            deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+            depOwnerIDs.add(hopCountID);
+            deps.add(dd);
             Iterator iter2 = startingAnswer.getDeleteDependencies();
             while (iter2.hasNext())
             {
-              dd = (DeleteDependency)iter2.next();
-              deleteDepsManager.writeDependency(hopCountID,jobID,dd);
+              depOwnerIDs.add(hopCountID);
+              deps.add((DeleteDependency)iter2.next());
             }
           }
         }
@@ -866,6 +928,14 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
       }
     }
 
+    // The dependencies refer to the new rows, so those go first
+    if (insertRows.size() > 0)
+    {
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
+    deleteDepsManager.writeDependencies(depOwnerIDs,jobID,deps);
+
     // For all the records still in the matchmap, queue them.
 
     // The query I want to run is:
@@ -1018,6 +1088,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     map.put(markForDeathField,markToString(MARK_DELETING));
     performUpdate(map,sb.toString(),list,null);
     noteModifications(0,1,0);
+    noteDistanceChange(jobID,null,null);
       
     // We do NOT do the parentID because otherwise we have the potential to delete links that we need later.  See CONNECTORS-501.
 
@@ -1172,6 +1243,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     map.put(distanceField,new Long(-1L));
     map.put(markForDeathField,markToString(MARK_DELETING));
     performUpdate(map,sb.toString(),thisList,null);
+    noteDistanceChange(jobID,null,null);
 
     // We do NOT do the parentID because we need to leave intrinsic links around that could be used again.
     // See CONNECTORS-501.
@@ -1310,6 +1382,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     map.put(distanceField,new Long(-1L));
     map.put(markForDeathField,markToString(MARK_DELETING));
     performUpdate(map,sb.toString(),thisList,null);
+    noteDistanceChange(jobID,null,null);
   }
 
   /** Get document's children.
@@ -1630,6 +1703,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
 
         performDelete("WHERE "+query,list,null);
         noteModifications(0,0,1);
+        noteDistanceChange(jobID,linkType,parentIDHash);
         // Since infinity is not a reduction of any kind, we're done here.
         return;
       }
@@ -1701,6 +1775,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
           new UnitaryClause(idField,existingID)});
         performUpdate(map,"WHERE "+query,list,null);
         noteModifications(0,1,0);
+        noteDistanceChange(jobID,linkType,parentIDHash);
 
         if (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE)
         {
@@ -1801,6 +1876,7 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     map.put(distanceField,new Long(answer.getAnswer()));
     performInsert(map,null);
     noteModifications(1,0,0);
+    noteDistanceChange(jobID,linkType,parentIDHash);
 
     if (hopcountMethod != IJobDescription.HOPCOUNT_NEVERDELETE)
     {
@@ -1813,6 +1889,79 @@ public class HopCount extends org.apache.manifoldcf.core.database.BaseTable
     }
   }
 
+  /** Note a change to a recorded distance, so that the in-memory copy does not go stale.
+  *@param jobID is the job.
+  *@param linkType is the link type, or null if all the job's distances changed.
+  *@param documentIDHash is the document identifier hash, or null if all the job's distances changed.
+  */
+  protected void noteDistanceChange(Long jobID, String linkType, String documentIDHash)
+  {
+    if (!distanceCache.isEnabled())
+      return;
+    if (linkType == null)
+      distanceCache.invalidateJob(jobID);
+    else
+      distanceCache.invalidate(jobID,linkType,documentIDHash);
+    if (getTransactionID() == null)
+      return;
+    // The change isn't visible to others until the transaction ends, so forget the value again then.
+    if (distanceChanges == null)
+    {
+      distanceChanges = new DistanceChanges();
+      addTransactionListener(distanceChanges);
+    }
+    distanceChanges.noteChange(jobID,linkType,documentIDHash);
+  }
+
+  /** The distance changes made in a transaction.  When the transaction ends, the changed
+  * distances are removed from the in-memory copy once more.
+  */
+  protected class DistanceChanges implements ITransactionListener
+  {
+    /** Changes by job; a null list means the whole job changed */
+    protected final Map<Long,List<Question>> changes = new HashMap<Long,List<Question>>();
+
+    public DistanceChanges()
+    {
+    }
+
+    public void noteChange(Long jobID, String linkType, String documentIDHash)
+    {
+      if (!changes.containsKey(jobID))
+      {
+        distanceCache.writeStarted(jobID);
+        changes.put(jobID,new ArrayList<Question>());
+      }
+      List<Question> jobChanges = changes.get(jobID);
+      if (jobChanges == null)
+        return;
+      if (linkType == null)
+        changes.put(jobID,null);
+      else
+        jobChanges.add(new Question(documentIDHash,linkType));
+    }
+
+    @Override
+    public void transactionEnded()
+    {
+      distanceChanges = null;
+      for (Long jobID : changes.keySet())
+      {
+        List<Question> jobChanges = changes.get(jobID);
+        if (jobChanges == null)
+          distanceCache.invalidateJob(jobID);
+        else
+        {
+          for (Question q : jobChanges)
+          {
+            distanceCache.invalidate(jobID,q.getLinkType(),q.getDocumentIdentifierHash());
+          }
+        }
+        distanceCache.writeEnded(jobID);
+      }
+    }
+  }
+
   /** A class describing a document identifier and a link type, to be used in looking up the appropriate node in
   * the hash.
   */
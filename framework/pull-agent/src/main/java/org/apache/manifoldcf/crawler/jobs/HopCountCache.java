@@ -0,0 +1,381 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+/** This class keeps an in-memory copy of hopcount distances, so that HopCount.findHopCounts() can answer
+* without going to the database.  It is shared by all threads in the process.
+*
+* Document identifier hashes are 40 hex digits, so each is packed into 20 bytes (two longs and an int),
+* and distances are kept per job and link type in open-addressed tables of primitives.
+*
+* Entries are only ever loaded from committed data.  Any change to a distance removes the entry when
+* the change is made, and again when the changing transaction ends; while such a transaction is open,
+* nothing is loaded for that job.  The copy knows nothing about changes made by other processes, so
+* it must only be enabled when a single agents process runs against the database.
+*/
+public class HopCountCache
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Returned by lookups that find nothing */
+  public static final int MISSING = Integer.MIN_VALUE;
+
+  /** Jobs, keyed by job ID */
+  protected final Map<Long,JobDistances> jobs = new HashMap<Long,JobDistances>();
+  /** The most entries to keep, across all jobs; 0 means disabled */
+  protected volatile int maxEntries = 0;
+  /** The number of entries currently kept */
+  protected int totalEntries = 0;
+  /** The last generation handed out.  Generations are unique across jobs, so a job record that is dropped
+  * and created again never repeats a stamp that a reader may still hold. */
+  protected long lastGeneration = 0L;
+
+  public HopCountCache()
+  {
+  }
+
+  /** Set the most entries to keep.
+  *@param maxEntries is the limit; 0 disables the cache.
+  */
+  public synchronized void setMaxEntries(int maxEntries)
+  {
+    if (maxEntries == this.maxEntries)
+      return;
+    this.maxEntries = maxEntries;
+    // Throw away loaded values, but keep the writer bookkeeping
+    for (JobDistances jd : jobs.values())
+    {
+      jd.clear();
+    }
+    totalEntries = 0;
+  }
+
+  /** Check whether the cache is in use.
+  */
+  public boolean isEnabled()
+  {
+    return maxEntries > 0;
+  }
+
+  /** Get a stamp to use when loading values read from the database for a job.
+  *@return the stamp, or -1L if values can't be loaded right now.
+  */
+  public synchronized long getLoadStamp(Long jobID)
+  {
+    JobDistances jd = getJob(jobID);
+    if (jd.openWriters > 0)
+      return -1L;
+    return jd.generation;
+  }
+
+  /** Look up distances.
+  *@param rval is where the distances go; entries not found are set to MISSING.
+  *@return the number of distances found.
+  */
+  public synchronized int lookup(Long jobID, String linkType, String[] documentIDHashes, int[] rval)
+  {
+    JobDistances jd = jobs.get(jobID);
+    DistanceTable table = (jd == null)?null:jd.tables.get(linkType);
+    int found = 0;
+    for (int i = 0; i < documentIDHashes.length; i++)
+    {
+      rval[i] = MISSING;
+      if (table == null)
+        continue;
+      long[] key = packHash(documentIDHashes[i]);
+      if (key == null)
+        continue;
+      rval[i] = table.get(key[0],key[1],(int)key[2]);
+      if (rval[i] != MISSING)
+        found++;
+    }
+    return found;
+  }
+
+  /** Load distances that were read from the database.  Nothing happens if there was any change to the job's
+  * distances since the stamp was obtained.
+  *@param stamp is the value from getLoadStamp(), obtained before the database read.
+  */
+  public synchronized void load(Long jobID, long stamp, String linkType, List<String> documentIDHashes, List<Integer> distances)
+  {
+    if (stamp == -1L || maxEntries == 0)
+      return;
+    JobDistances jd = getJob(jobID);
+    if (jd.openWriters > 0 || jd.generation != stamp)
+      return;
+    if (totalEntries + documentIDHashes.size() > maxEntries)
+    {
+      // Make room the cheap way
+      for (JobDistances other : jobs.values())
+      {
+        other.clear();
+      }
+      totalEntries = 0;
+      if (documentIDHashes.size() > maxEntries)
+        return;
+    }
+    DistanceTable table = jd.tables.get(linkType);
+    if (table == null)
+    {
+      table = new DistanceTable();
+      jd.tables.put(linkType,table);
+    }
+    for (int i = 0; i < documentIDHashes.size(); i++)
+    {
+      long[] key = packHash(documentIDHashes.get(i));
+      if (key == null)
+        continue;
+      if (table.put(key[0],key[1],(int)key[2],distances.get(i).intValue()))
+        totalEntries++;
+    }
+  }
+
+  /** Note the start of a transaction that changes distances for a job.  Nothing will be loaded for the job
+  * until writeEnded() is called.
+  */
+  public synchronized void writeStarted(Long jobID)
+  {
+    JobDistances jd = getJob(jobID);
+    jd.openWriters++;
+  }
+
+  /** Note the end of a transaction that changed distances for a job.
+  */
+  public synchronized void writeEnded(Long jobID)
+  {
+    JobDistances jd = getJob(jobID);
+    jd.openWriters--;
+    jd.generation = ++lastGeneration;
+    if (jd.openWriters == 0 && jd.tables.size() == 0)
+      jobs.remove(jobID);
+  }
+
+  /** Forget one distance.
+  */
+  public synchronized void invalidate(Long jobID, String linkType, String documentIDHash)
+  {
+    JobDistances jd = jobs.get(jobID);
+    if (jd == null)
+      return;
+    jd.generation = ++lastGeneration;
+    DistanceTable table = jd.tables.get(linkType);
+    if (table == null)
+      return;
+    long[] key = packHash(documentIDHash);
+    if (key == null)
+      return;
+    if (table.remove(key[0],key[1],(int)key[2]))
+      totalEntries--;
+  }
+
+  /** Forget everything about a job's distances.
+  */
+  public synchronized void invalidateJob(Long jobID)
+  {
+    JobDistances jd = jobs.get(jobID);
+    if (jd == null)
+      return;
+    jd.generation = ++lastGeneration;
+    totalEntries -= jd.clear();
+  }
+
+  /** Get or create the record for a job.
+  */
+  protected JobDistances getJob(Long jobID)
+  {
+    JobDistances jd = jobs.get(jobID);
+    if (jd == null)
+    {
+      jd = new JobDistances();
+      jd.generation = ++lastGeneration;
+      jobs.put(jobID,jd);
+    }
+    return jd;
+  }
+
+  /** Pack a 40-hex-digit hash into two longs and an int.
+  *@return the packed value, or null if the hash isn't of that form.
+  */
+  protected static long[] packHash(String documentIDHash)
+  {
+    if (documentIDHash == null || documentIDHash.length() != 40)
+      return null;
+    long[] rval = new long[3];
+    for (int i = 0; i < 40; i++)
+    {
+      int digit = Character.digit(documentIDHash.charAt(i),16);
+      if (digit == -1)
+        return null;
+      rval[i >> 4] = (rval[i >> 4] << 4) | (long)digit;
+    }
+    return rval;
+  }
+
+  /** Distances for one job.
+  */
+  protected static class JobDistances
+  {
+    /** Tables keyed by link type */
+    public final Map<String,DistanceTable> tables = new HashMap<String,DistanceTable>();
+    /** Bumped on every change */
+    public long generation = 0L;
+    /** Transactions in progress that change this job's distances */
+    public int openWriters = 0;
+
+    /** Throw away all the distances.
+    *@return the number of entries thrown away.
+    */
+    public int clear()
+    {
+      int rval = 0;
+      for (DistanceTable table : tables.values())
+      {
+        rval += table.size();
+      }
+      tables.clear();
+      return rval;
+    }
+  }
+
+  /** Open-addressed table from packed hash to distance, using linear probing.
+  */
+  protected static class DistanceTable
+  {
+    protected long[] keys0 = new long[16];
+    protected long[] keys1 = new long[16];
+    protected int[] keys2 = new int[16];
+    protected int[] values = new int[16];
+    protected int size = 0;
+
+    public DistanceTable()
+    {
+      Arrays.fill(values,MISSING);
+    }
+
+    public int size()
+    {
+      return size;
+    }
+
+    public int get(long k0, long k1, int k2)
+    {
+      int mask = values.length - 1;
+      int slot = hash(k0,k1,k2) & mask;
+      while (values[slot] != MISSING)
+      {
+        if (keys0[slot] == k0 && keys1[slot] == k1 && keys2[slot] == k2)
+          return values[slot];
+        slot = (slot + 1) & mask;
+      }
+      return MISSING;
+    }
+
+    /** Set a distance.
+    *@return true if the entry is new.
+    */
+    public boolean put(long k0, long k1, int k2, int value)
+    {
+      if ((size + 1) * 2 > values.length)
+        resize(values.length * 2);
+      int mask = values.length - 1;
+      int slot = hash(k0,k1,k2) & mask;
+      while (values[slot] != MISSING)
+      {
+        if (keys0[slot] == k0 && keys1[slot] == k1 && keys2[slot] == k2)
+        {
+          values[slot] = value;
+          return false;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys0[slot] = k0;
+      keys1[slot] = k1;
+      keys2[slot] = k2;
+      values[slot] = value;
+      size++;
+      return true;
+    }
+
+    /** Remove a distance.
+    *@return true if there was one.
+    */
+    public boolean remove(long k0, long k1, int k2)
+    {
+      int mask = values.length - 1;
+      int slot = hash(k0,k1,k2) & mask;
+      while (values[slot] != MISSING)
+      {
+        if (keys0[slot] == k0 && keys1[slot] == k1 && keys2[slot] == k2)
+        {
+          values[slot] = MISSING;
+          size--;
+          // Move later entries of the same run back, so lookups still find them
+          int next = (slot + 1) & mask;
+          while (values[next] != MISSING)
+          {
+            int home = hash(keys0[next],keys1[next],keys2[next]) & mask;
+            // Move the entry if its home is not cyclically within (slot, next]
+            if ((next > slot && (home <= slot || home > next)) || (next < slot && (home <= slot && home > next)))
+            {
+              keys0[slot] = keys0[next];
+              keys1[slot] = keys1[next];
+              keys2[slot] = keys2[next];
+              values[slot] = values[next];
+              values[next] = MISSING;
+              slot = next;
+            }
+            next = (next + 1) & mask;
+          }
+          return true;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return false;
+    }
+
+    protected void resize(int newSize)
+    {
+      long[] oldKeys0 = keys0;
+      long[] oldKeys1 = keys1;
+      int[] oldKeys2 = keys2;
+      int[] oldValues = values;
+      keys0 = new long[newSize];
+      keys1 = new long[newSize];
+      keys2 = new int[newSize];
+      values = new int[newSize];
+      Arrays.fill(values,MISSING);
+      size = 0;
+      for (int i = 0; i < oldValues.length; i++)
+      {
+        if (oldValues[i] != MISSING)
+          put(oldKeys0[i],oldKeys1[i],oldKeys2[i],oldValues[i]);
+      }
+    }
+
+    protected static int hash(long k0, long k1, int k2)
+    {
+      // The keys are already hashes, so just fold them
+      long h = k0 ^ (k1 * 31L) ^ (long)k2;
+      return (int)(h ^ (h >>> 32));
+    }
+  }
+
+}
@@ -227,7 +227,34 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
   public void writeDependency(Long ownerID, Long jobID, DeleteDependency dd)
     throws ManifoldCFException
   {
-    HashMap map = new HashMap();
+    performInsert(buildDependencyRow(ownerID,jobID,dd),null);
+    noteModifications(1,0,0);
+  }
+
+  /** Write several delete dependencies at once.
+  *@param ownerIDs are the owning hopcount row IDs, one per dependency.
+  *@param jobID is the job.
+  *@param dependencies are the dependencies.
+  */
+  public void writeDependencies(List<Long> ownerIDs, Long jobID, List<DeleteDependency> dependencies)
+    throws ManifoldCFException
+  {
+    if (dependencies.size() == 0)
+      return;
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    for (int i = 0; i < dependencies.size(); i++)
+    {
+      rows.add(buildDependencyRow(ownerIDs.get(i),jobID,dependencies.get(i)));
+    }
+    performInsertMultiple(rows,null);
+    noteModifications(rows.size(),0,0);
+  }
+
+  /** Build the row for a delete dependency.
+  */
+  protected Map<String,Object> buildDependencyRow(Long ownerID, Long jobID, DeleteDependency dd)
+  {
+    Map<String,Object> map = new HashMap<String,Object>();
     map.put(jobIDField,jobID);
     map.put(ownerIDField,ownerID);
     if (dd.getLinkType().length() > 0)
@@ -237,8 +264,7 @@ public class HopDeleteDeps extends org.apache.manifoldcf.core.database.BaseTable
     {
       map.put(childIDHashField,dd.getChildIDHash());
     }
-    performInsert(map,null);
-    noteModifications(1,0,0);
+    return map;
   }
 
 }
@@ -271,7 +271,8 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
     }
     String[] newReferences = new String[count];
     int j = 0;
-    // Note: May be able to make this more efficient if we update things in batches...
+    // New rows are collected and written together at the end
+    List<Map<String,Object>> insertRows = new ArrayList<Map<String,Object>>();
     iter = duplicateRemoval.keySet().iterator();
     while (iter.hasNext())
     {
@@ -287,8 +288,7 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
         map.put(linkTypeField,linkType);
         map.put(newField,statusToString(LINKSTATUS_NEW));
         map.put(processIDField,processID);
-        performInsert(map,null);
-        noteModifications(1,0,0);
+        insertRows.add(map);
       }
       else
       {
@@ -305,6 +305,11 @@ public class IntrinsicLink extends org.apache.manifoldcf.core.database.BaseTable
         noteModifications(0,1,0);
       }
     }
+    if (insertRows.size() > 0)
+    {
+      performInsertMultiple(insertRows,null);
+      noteModifications(insertRows.size(),0,0);
+    }
     return newReferences;
   }
 
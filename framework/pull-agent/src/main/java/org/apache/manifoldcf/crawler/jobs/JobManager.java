@@ -41,6 +41,9 @@ public class JobManager implements IJobManager
   protected static final String jobResetLock = "_JOBRESET_";
   protected static final String hopLock = "_HOPLOCK_";
 
+  /** The most batches of ready index candidates tried per job priority in one stuffing pass */
+  protected static final int MAX_READY_INDEX_BATCHES = 4;
+
   // Member variables
   protected final IDBInterface database;
   protected final IOutputConnectionManager outputMgr;
@@ -53,6 +56,7 @@ public class JobManager implements IJobManager
   protected final HopCount hopCount;
   protected final Carrydown carryDown;
   protected final EventManager eventManager;
+  protected final boolean useReadyIndex;
 
 
   protected static Random random = new Random();
@@ -69,12 +73,13 @@ public class JobManager implements IJobManager
     jobs = new Jobs(threadContext,database);
     jobQueue = new JobQueue(threadContext,database);
     hopCount = new HopCount(threadContext,database);
-    carryDown = new Carrydown(database);
+    carryDown = new Carrydown(threadContext,database);
     eventManager = new EventManager(database);
     outputMgr = OutputConnectionManagerFactory.make(threadContext);
     connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
     repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
     lockManager = LockManagerFactory.make(threadContext);
+    useReadyIndex = LockManagerFactory.getBooleanProperty(threadContext,ReadyDocumentIndex.readyIndexProperty,false);
   }
 
   /** Install.
@@ -1448,6 +1453,26 @@ public class JobManager implements IJobManager
     return docIDHash + ":" + connectionName;
   }
   
+  /** Check whether any job is deleting, so getNextDeletableDocuments() might find something.
+  *@return true if such jobs exist.
+  */
+  @Override
+  public boolean deletingJobsPresent()
+    throws ManifoldCFException
+  {
+    return jobs.deletingJobsPresent();
+  }
+
+  /** Check whether any job is shutting down, so getNextCleanableDocuments() might find something.
+  *@return true if such jobs exist.
+  */
+  @Override
+  public boolean cleaningJobsPresent()
+    throws ManifoldCFException
+  {
+    return jobs.cleaningJobsPresent();
+  }
+
   /** Get list of deletable document descriptions.  This list will take into account
   * multiple jobs that may own the same document.  All documents for which a description
   * is returned will be transitioned to the "beingdeleted" state.  Documents which are
@@ -2508,6 +2533,10 @@ public class JobManager implements IJobManager
     // This turned out to be needed in postgresql 8.3, even though 8.2 worked fine.
     //jobQueue.unconditionallyAnalyzeTables();
 
+    // If we're using the in-memory ready index, bring it up to date with the database if needed.
+    if (useReadyIndex && ReadyDocumentIndex.needsReconciliation(currentTime))
+      reconcileReadyIndex(currentTime);
+
     // Loop through priority values
     int currentPriority = 1;
 
@@ -2518,7 +2547,10 @@ public class JobManager implements IJobManager
       if (jobs.hasPriorityJobs(currentPriority))
       {
         Long currentPriorityValue = new Long((long)currentPriority);
-        fetchAndProcessDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID);
+        if (useReadyIndex)
+          fetchAndProcessIndexedDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID);
+        else
+          fetchAndProcessDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID,null);
         isDone = !vList.checkContinue();
       }
       currentPriority++;
@@ -2553,6 +2585,18 @@ public class JobManager implements IJobManager
     // Note that if there is NO such document, it means we were able to queue all eligible documents, and thus prioritization is probably not even
     // germane at the moment.
 
+    // The ready index, if present, can answer this without a query.
+    if (useReadyIndex)
+    {
+      Double bestPriority = ReadyDocumentIndex.getBestPriority(currentTime);
+      if (bestPriority != null)
+      {
+        if (bestPriority.doubleValue() < jobQueue.noDocPriorityValue)
+          scanRecord.addBins(bestPriority);
+        return rval;
+      }
+    }
+
     StringBuilder sb = new StringBuilder("SELECT ");
     ArrayList list = new ArrayList();
     
@@ -2572,6 +2616,8 @@ public class JobManager implements IJobManager
     sb.append("EXISTS(SELECT 'x' FROM ").append(jobs.getTableName()).append(" t1 WHERE ")
       .append(database.buildConjunctionClause(list,new ClauseDescription[]{
         new MultiClause("t1."+jobs.statusField,new Object[]{
+          Jobs.statusToString(jobs.STATUS_STARTINGUP),
+          Jobs.statusToString(jobs.STATUS_STARTINGUPMINIMAL),
           Jobs.statusToString(jobs.STATUS_ACTIVE),
           Jobs.statusToString(jobs.STATUS_ACTIVESEEDING)}),
         new JoinClause("t1."+jobs.idField,"t0."+jobQueue.jobIDField)}))
@@ -2593,11 +2639,170 @@ public class JobManager implements IJobManager
     return rval;
   }
 
-  /** Fetch and process documents matching the passed-in criteria */
-  protected void fetchAndProcessDocuments(ArrayList answers, Long currentTimeValue, Long currentPriorityValue,
+  /** Reload the ready index from the database.  This loads the best-priority rows that are
+  * eligible for stuffing, up to the configured index size.
+  */
+  protected void reconcileReadyIndex(long currentTime)
+    throws ManifoldCFException
+  {
+    int indexSize = LockManagerFactory.getIntProperty(threadContext,ReadyDocumentIndex.readyIndexSizeProperty,10000);
+    long reconcileInterval = ((long)LockManagerFactory.getIntProperty(threadContext,ReadyDocumentIndex.readyIndexReconcileIntervalProperty,60)) * 1000L;
+
+    if (Logging.perf.isDebugEnabled())
+      Logging.perf.debug("Reconciling ready index (up to "+Integer.toString(indexSize)+" rows)");
+
+    StringBuilder sb = new StringBuilder("SELECT ");
+    ArrayList list = new ArrayList();
+    
+    sb.append(jobQueue.idField).append(",").append(jobQueue.docPriorityField).append(",")
+      .append(jobQueue.checkTimeField)
+      .append(" FROM ").append(jobQueue.getTableName())
+      .append(" t0 ").append(jobQueue.getGetNextDocumentsIndexHint()).append(" WHERE ");
+      
+    sb.append(database.buildConjunctionClause(list,new ClauseDescription[]{
+      new MultiClause(jobQueue.statusField,
+        new Object[]{jobQueue.statusToString(JobQueue.STATUS_PENDING),
+          jobQueue.statusToString(JobQueue.STATUS_PENDINGPURGATORY)}),
+      new UnitaryClause(jobQueue.checkActionField,"=",jobQueue.actionToString(JobQueue.ACTION_RESCAN)),
+      new UnitaryClause(jobQueue.checkTimeField,"<=",new Long(currentTime))})).append(" AND ");
+
+    // Only rows that getNextDocuments() could hand out; rows of paused or waiting jobs keep their priorities,
+    // and would otherwise crowd everything else out of the index.
+    sb.append("EXISTS(SELECT 'x' FROM ").append(jobs.getTableName()).append(" t1 WHERE ")
+      .append(database.buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause("t1."+jobs.statusField,new Object[]{
+          Jobs.statusToString(jobs.STATUS_STARTINGUP),
+          Jobs.statusToString(jobs.STATUS_STARTINGUPMINIMAL),
+          Jobs.statusToString(jobs.STATUS_ACTIVE),
+          Jobs.statusToString(jobs.STATUS_ACTIVESEEDING)}),
+        new JoinClause("t1."+jobs.idField,"t0."+jobQueue.jobIDField)}))
+      .append(") ");
+
+    sb.append(database.constructIndexOrderByClause(new String[]{
+      jobQueue.docPriorityField, jobQueue.statusField, jobQueue.checkActionField, jobQueue.checkTimeField},
+      true)).append(" ")
+      .append(database.constructOffsetLimitClause(0,indexSize,true));
+
+    ReadyDocumentIndex.beginReconciliation();
+    boolean completed = false;
+    try
+    {
+      IResultSet set = database.performQuery(sb.toString(),list,null,null,indexSize,null);
+      Long[] rowIDs = new Long[set.getRowCount()];
+      double[] docPriorities = new double[set.getRowCount()];
+      long[] checkTimes = new long[set.getRowCount()];
+      int i = 0;
+      while (i < rowIDs.length)
+      {
+        IResultRow row = set.getRow(i);
+        rowIDs[i] = (Long)row.getValue(jobQueue.idField);
+        Double docPriority = (Double)row.getValue(jobQueue.docPriorityField);
+        docPriorities[i] = (docPriority == null)?jobQueue.nullDocPriority.doubleValue():docPriority.doubleValue();
+        Long checkTime = (Long)row.getValue(jobQueue.checkTimeField);
+        checkTimes[i] = (checkTime == null)?0L:checkTime.longValue();
+        i++;
+      }
+      ReadyDocumentIndex.completeReconciliation(currentTime + reconcileInterval,indexSize,rowIDs,docPriorities,checkTimes);
+      completed = true;
+    }
+    finally
+    {
+      if (!completed)
+        ReadyDocumentIndex.abortReconciliation();
+    }
+  }
+
+  /** Find when the next document becomes eligible for getNextDocuments() just by the passage of time.
+  *@param currentTime is the current time.
+  *@return the earliest check time of a queued document of a job whose documents can be handed out,
+  * currentTime if some such document is due already, or -1L if there is none.
+  */
+  @Override
+  public long getNextDocumentCheckTime(long currentTime)
+    throws ManifoldCFException
+  {
+    // Cheap check first, as for getNextDocuments()
+    if (!jobs.activeJobsPresent())
+      return -1L;
+
+    long rval = -1L;
+    // One query per status, so that each can walk the status/action/time index in order
+    int[] statuses = new int[]{JobQueue.STATUS_PENDING,JobQueue.STATUS_PENDINGPURGATORY};
+    for (int status : statuses)
+    {
+      StringBuilder sb = new StringBuilder("SELECT ");
+      ArrayList list = new ArrayList();
+
+      sb.append("t0.").append(jobQueue.checkTimeField).append(" FROM ").append(jobQueue.getTableName()).append(" t0 WHERE ")
+        .append(database.buildConjunctionClause(list,new ClauseDescription[]{
+          new UnitaryClause("t0."+jobQueue.statusField,jobQueue.statusToString(status)),
+          new UnitaryClause("t0."+jobQueue.checkActionField,jobQueue.actionToString(JobQueue.ACTION_RESCAN)),
+          new UnitaryClause("t0."+jobQueue.checkTimeField,">=",new Long(0L))})).append(" AND ");
+
+      sb.append("EXISTS(SELECT 'x' FROM ").append(jobs.getTableName()).append(" t1 WHERE ")
+        .append(database.buildConjunctionClause(list,new ClauseDescription[]{
+          new MultiClause("t1."+jobs.statusField,new Object[]{
+            Jobs.statusToString(jobs.STATUS_STARTINGUP),
+            Jobs.statusToString(jobs.STATUS_STARTINGUPMINIMAL),
+            Jobs.statusToString(jobs.STATUS_ACTIVE),
+            Jobs.statusToString(jobs.STATUS_ACTIVESEEDING)}),
+          new JoinClause("t1."+jobs.idField,"t0."+jobQueue.jobIDField)}))
+        .append(") ORDER BY t0.").append(jobQueue.checkTimeField).append(" ASC ")
+        .append(database.constructOffsetLimitClause(0,1,true));
+
+      IResultSet set = database.performQuery(sb.toString(),list,null,null,1,null);
+      if (set.getRowCount() == 0)
+        continue;
+      long checkTime = ((Long)set.getRow(0).getValue(jobQueue.checkTimeField)).longValue();
+      if (rval == -1L || checkTime < rval)
+        rval = checkTime;
+    }
+    if (rval != -1L && rval < currentTime)
+      rval = currentTime;
+    return rval;
+  }
+
+  /** Fetch and process documents using candidates from the ready index.  Candidates are handed
+  * to the claim query in priority-ordered batches, so the database only has to look rows up by id.
+  * Only the first few batches are tried; if they yield nothing (for example because the candidates
+  * belong to jobs of another priority), the regular query is used instead.
+  */
+  protected void fetchAndProcessIndexedDocuments(ArrayList answers, Long currentTimeValue, Long currentPriorityValue,
     ThrottleLimit vList, IRepositoryConnection[] connections, String processID)
     throws ManifoldCFException
   {
+    int batchSize = database.getMaxInClause();
+    int initialCount = answers.size();
+    ReadyDocumentIndex.Entry after = null;
+    int batchCount = 0;
+    while (batchCount++ < MAX_READY_INDEX_BATCHES)
+    {
+      List<ReadyDocumentIndex.Entry> candidates = ReadyDocumentIndex.getCandidates(currentTimeValue.longValue(),after,batchSize);
+      if (candidates.size() == 0)
+        break;
+      Long[] candidateIDs = new Long[candidates.size()];
+      int i = 0;
+      while (i < candidateIDs.length)
+      {
+        candidateIDs[i] = candidates.get(i).getRowID();
+        i++;
+      }
+      fetchAndProcessDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID,candidateIDs);
+      if (!vList.checkContinue())
+        return;
+      after = candidates.get(candidates.size()-1);
+    }
+    if (answers.size() == initialCount)
+      fetchAndProcessDocuments(answers,currentTimeValue,currentPriorityValue,vList,connections,processID,null);
+  }
+
+  /** Fetch and process documents matching the passed-in criteria.
+  *@param candidateIDs, if not null, restricts the query to the given jobqueue row ids.
+  */
+  protected void fetchAndProcessDocuments(ArrayList answers, Long currentTimeValue, Long currentPriorityValue,
+    ThrottleLimit vList, IRepositoryConnection[] connections, String processID, Long[] candidateIDs)
+    throws ManifoldCFException
+  {
 
     // Note well: This query does not do "FOR UPDATE".  The reason is that only one thread can possibly change the document's state to active.
     // When FOR UPDATE was included, deadlock conditions were common because of the complexity of this query.
@@ -2625,10 +2830,18 @@ public class JobManager implements IJobManager
         jobQueue.statusToString(JobQueue.STATUS_PENDINGPURGATORY)}),
       new UnitaryClause("t0."+jobQueue.checkActionField,"=",jobQueue.actionToString(JobQueue.ACTION_RESCAN)),
       new UnitaryClause("t0."+jobQueue.checkTimeField,"<=",currentTimeValue)})).append(" AND ");
+
+    if (candidateIDs != null)
+    {
+      sb.append(database.buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause("t0."+jobQueue.idField,candidateIDs)})).append(" AND ");
+    }
         
     sb.append("EXISTS(SELECT 'x' FROM ").append(jobs.getTableName()).append(" t1 WHERE ")
       .append(database.buildConjunctionClause(list,new ClauseDescription[]{
         new MultiClause("t1."+jobs.statusField,new Object[]{
+          Jobs.statusToString(jobs.STATUS_STARTINGUP),
+          Jobs.statusToString(jobs.STATUS_STARTINGUPMINIMAL),
           Jobs.statusToString(jobs.STATUS_ACTIVE),
           Jobs.statusToString(jobs.STATUS_ACTIVESEEDING)}),
         new JoinClause("t1."+jobs.idField,"t0."+jobQueue.jobIDField),
@@ -2777,6 +2990,16 @@ public class JobManager implements IJobManager
             TrackerClass.notePrecommit();
             database.performCommit();
             TrackerClass.noteCommit();
+            if (useReadyIndex)
+            {
+              // The claimed rows are no longer ready
+              i = 0;
+              while (i < docIDHashes.length)
+              {
+                DocumentDescription dd = (DocumentDescription)storageMap.get(docIDHashes[i++]);
+                ReadyDocumentIndex.noteClaimed(dd.getID());
+              }
+            }
             break;
           }
           catch (ManifoldCFException e)
@@ -2875,6 +3098,7 @@ public class JobManager implements IJobManager
       database.beginTransaction();
       try
       {
+        boolean needRescan = false;
         // Do one row at a time, to avoid deadlocking things
         i = 0;
         while (i < docIDHashes.length)
@@ -2899,9 +3123,14 @@ public class JobManager implements IJobManager
             int status = jobQueue.stringToStatus((String)row.getValue(jobQueue.statusField));
             // Update the jobqueue table
             jobQueue.updateCompletedRecord(dd.getID(),status);
+            if (status == jobQueue.STATUS_ACTIVENEEDRESCAN || status == jobQueue.STATUS_ACTIVENEEDRESCANPURGATORY)
+              needRescan = true;
           }
           i++;
         }
+        // A document that needs a rescan goes straight back on the queue, so wake the stuffer
+        if (needRescan)
+          ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(database,lockManager);
         TrackerClass.notePrecommit();
         database.performCommit();
         TrackerClass.noteCommit();
@@ -3467,6 +3696,8 @@ public class JobManager implements IJobManager
           i++;
         }
 
+        // Wake the stuffer once these documents are visible
+        ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(database,lockManager);
         TrackerClass.notePrecommit();
         database.performCommit();
         TrackerClass.noteCommit();
@@ -3596,6 +3827,8 @@ public class JobManager implements IJobManager
           i++;
         }
 
+        // Wake the stuffer once these documents are visible, so it can wait for the new execute time
+        ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(database,lockManager);
         database.performCommit();
         break;
       }
@@ -4152,6 +4385,7 @@ public class JobManager implements IJobManager
           " initial docs and hopcounts for job "+jobID.toString());
 
         // Go through document id's one at a time, in order - mainly to prevent deadlock as much as possible.  Search for any existing row in jobqueue first (for update)
+        List<Integer> newDocuments = new ArrayList<Integer>();
         int z = 0;
         while (z < reorderedDocIDHashes.length)
         {
@@ -4191,13 +4425,31 @@ public class JobManager implements IJobManager
           }
           else
           {
-            // Not found.  Attempt an insert instead.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
-            jobQueue.insertNewRecordInitial(jobID,docIDHash,docID,docPriority,executeTime,currentTime,docPrereqs,processID);
+            // Not found.  Queue an insert instead.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
+            newDocuments.add(new Integer(z));
           }
 
           z++;
         }
 
+        // Insert all the new rows at once
+        if (newDocuments.size() > 0)
+        {
+          String[] newDocIDHashes = new String[newDocuments.size()];
+          String[] newDocIDs = new String[newDocuments.size()];
+          IPriorityCalculator[] newDocPriorities = new IPriorityCalculator[newDocuments.size()];
+          String[][] newDocPrereqs = new String[newDocuments.size()][];
+          for (int n = 0; n < newDocIDHashes.length; n++)
+          {
+            int index = newDocuments.get(n).intValue();
+            newDocIDHashes[n] = reorderedDocIDHashes[index];
+            newDocIDs[n] = reorderedDocumentIdentifiers[index];
+            newDocPriorities[n] = reorderedDocumentPriorities[index];
+            newDocPrereqs[n] = reorderedDocumentPrerequisites[index];
+          }
+          jobQueue.insertNewRecordsInitial(jobID,newDocIDHashes,newDocIDs,newDocPriorities,overrideSchedule?0L:-1L,currentTime,newDocPrereqs,processID);
+        }
+
         if (Logging.perf.isDebugEnabled())
           Logging.perf.debug("Took "+new Long(System.currentTimeMillis()-startTime).toString()+" ms to add "+Integer.toString(reorderedDocIDHashes.length)+
           " initial docs for job "+jobID.toString());
@@ -4205,6 +4457,8 @@ public class JobManager implements IJobManager
         if (legalLinkTypes.length > 0)
           hopCount.recordSeedReferences(jobID,legalLinkTypes,reorderedDocIDHashes,hopcountMethod,processID);
 
+        // Wake the stuffer once these documents are visible
+        ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(database,lockManager);
         TrackerClass.notePrecommit();
         database.performCommit();
         TrackerClass.noteCommit();
@@ -4758,6 +5012,7 @@ public class JobManager implements IJobManager
 
         // Go through document id's one at a time, in order - mainly to prevent deadlock as much as possible.  Search for any existing row in jobqueue first (for update)
         HashMap existingRows = new HashMap();
+        List<Integer> newDocuments = new ArrayList<Integer>();
 
         for (int z = 0; z < reorderedDocIDHashes.length; z++)
         {
@@ -4792,12 +5047,30 @@ public class JobManager implements IJobManager
           }
           else
           {
-            // Not found.  Attempt an insert instead.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
-            jobQueue.insertNewRecord(jobID,docIDHash,reorderedDocumentIdentifiers[z],reorderedDocumentPriorities[z],0L,currentTime,reorderedDocumentPrerequisites[z]);
+            // Not found.  Queue an insert instead.  This may fail due to constraints, but if this happens, the whole transaction will be retried.
+            newDocuments.add(new Integer(z));
           }
 
         }
 
+        // Insert all the new rows at once
+        if (newDocuments.size() > 0)
+        {
+          String[] newDocIDHashes = new String[newDocuments.size()];
+          String[] newDocIDs = new String[newDocuments.size()];
+          IPriorityCalculator[] newDocPriorities = new IPriorityCalculator[newDocuments.size()];
+          String[][] newDocPrereqs = new String[newDocuments.size()][];
+          for (int n = 0; n < newDocIDHashes.length; n++)
+          {
+            int index = newDocuments.get(n).intValue();
+            newDocIDHashes[n] = reorderedDocIDHashes[index];
+            newDocIDs[n] = reorderedDocumentIdentifiers[index];
+            newDocPriorities[n] = reorderedDocumentPriorities[index];
+            newDocPrereqs[n] = reorderedDocumentPrerequisites[index];
+          }
+          jobQueue.insertNewRecords(jobID,newDocIDHashes,newDocIDs,newDocPriorities,0L,currentTime,newDocPrereqs);
+        }
+
         // Update all the carrydown data at once, for greatest efficiency.
         boolean[] carrydownChangesSeen = carryDown.recordCarrydownDataMultiple(jobID,parentIdentifierHash,reorderedDocIDHashes,dataNames,dataHashValues,dataValues,processID);
 
@@ -4830,6 +5103,8 @@ public class JobManager implements IJobManager
         if (reactivateRemovedHopcountRecords)
           jobQueue.reactivateHopcountRemovedRecords(jobID);
 
+        // Wake the stuffer once these documents are visible
+        ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(database,lockManager);
         TrackerClass.notePrecommit();
         database.performCommit();
         TrackerClass.noteCommit();
@@ -5251,6 +5526,8 @@ public class JobManager implements IJobManager
               0L,currentTime,true,docPriorities[originalIndex],null);
           j++;
         }
+        // Wake the stuffer once these documents are visible
+        ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(database,lockManager);
         database.performCommit();
         break;
       }
@@ -5318,6 +5595,19 @@ public class JobManager implements IJobManager
     return carryDown.getDataValues(jobID,docIDHash,dataName);
   }
 
+  /** Retrieve specific parent data for a set of documents, all at once.
+  *@param jobID is the job identifier.
+  *@param docIDHashes are the document identifier hash values.
+  *@param dataName is the kind of data to retrieve.
+  *@return the unique data values for each document, in the same order as docIDHashes.
+  */
+  @Override
+  public String[][] retrieveParentDataMultiple(Long jobID, String[] docIDHashes, String dataName)
+    throws ManifoldCFException
+  {
+    return carryDown.getDataValuesMultiple(jobID,docIDHashes,dataName);
+  }
+
   /** Retrieve specific parent data for a given document.
   *@param jobID is the job identifier.
   *@param docIDHash is the document identifier hash value.
@@ -6089,6 +6379,34 @@ public class JobManager implements IJobManager
     boolean requestMinimum)
     throws ManifoldCFException
   {
+    // Documents of a job that is starting up are handed out as soon as they are seeded.  If this
+    // is a retried startup, the queue was already prepared, and preparing it again would delete
+    // or purge rows that the failed attempt seeded and that may have been processed already.
+    if (jobs.isScanPrepared(jobID))
+    {
+      if (Logging.jobs.isDebugEnabled())
+        Logging.jobs.debug("Job "+jobID+" was already prepared for this run; not preparing it again");
+      return;
+    }
+    prepareJobQueue(jobID,legalLinkTypes,hopcountMethod,connectorModel,continuousJob,fromBeginningOfTime,
+      requestMinimum);
+    jobs.noteScanPrepared(jobID);
+  }
+
+  /** Prepare the job queue for a job run.
+  *@param jobID is the job id.
+  *@param legalLinkTypes are the link types allowed for the job.
+  *@param hopcountMethod describes how to handle deletions for hopcount purposes.
+  *@param connectorModel is the model used by the connector for the job.
+  *@param continuousJob is true if the job is a continuous one.
+  *@param fromBeginningOfTime is true if the job is running starting from time 0.
+  *@param requestMinimum is true if the minimal amount of work is requested for the job run.
+  */
+  protected void prepareJobQueue(Long jobID, String[] legalLinkTypes, int hopcountMethod,
+    int connectorModel, boolean continuousJob, boolean fromBeginningOfTime,
+    boolean requestMinimum)
+    throws ManifoldCFException
+  {
 
     // (1) If the connector has MODEL_ADD_CHANGE_DELETE, then
     // we let the connector run the show; there's no purge phase, and therefore the
@@ -7765,6 +8083,8 @@ public class JobManager implements IJobManager
           resetJobs.add(jobDesc);
               
           jobs.finishJob(jobID,currentTime);
+          // No documents are in flight, so carrydown values nothing refers to can safely go
+          carryDown.purgeUnusedValues(jobID);
           if (Logging.jobs.isDebugEnabled())
           {
             Logging.jobs.debug("Job "+jobID+" now completed");
@@ -166,6 +166,9 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   
   /** Cached getNextDocuments order-by index hint */
   protected String getNextDocumentsIndexHint = null;
+
+  /** True if the in-memory ready index should be kept current */
+  protected final boolean useReadyIndex;
   
   /** Constructor.
   *@param database is the database handle.
@@ -176,6 +179,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     super(database,"jobqueue");
     this.threadContext = tc;
     prereqEventManager = new PrereqEventManager(database);
+    useReadyIndex = LockManagerFactory.getBooleanProperty(tc,ReadyDocumentIndex.readyIndexProperty,false);
   }
 
   /** Install or upgrade.
@@ -314,6 +318,14 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     return getNextDocumentsIndexHint;
   }
   
+  /** Note a bulk change to the table that the ready index cannot follow.
+  */
+  protected void noteBulkChange()
+  {
+    if (useReadyIndex)
+      ReadyDocumentIndex.invalidate();
+  }
+
   /** Analyze job tables due to major event */
   public void unconditionallyAnalyzeTables()
     throws ManifoldCFException
@@ -417,6 +429,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
 
     TrackerClass.noteGlobalChange("Restart");
+    noteBulkChange();
   }
 
   /** Cleanup after all processIDs.
@@ -477,6 +490,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
 
     TrackerClass.noteGlobalChange("Restart cluster");
+    noteBulkChange();
   }
   
   /** Restart for entire cluster.
@@ -512,6 +526,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
     
     TrackerClass.noteJobChange(jobID,"Map HOPCOUNTREMOVED to PENDING");
+    noteBulkChange();
   }
 
 
@@ -566,6 +581,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
         
     TrackerClass.noteGlobalChange("Reset document worker status");
+    noteBulkChange();
   }
 
   /** Reset doc delete worker status.
@@ -658,6 +674,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
 
     TrackerClass.noteJobChange(jobID,"Prepare delete scan");
+    noteBulkChange();
   }
   
   /** Prepare for a "full scan" job.  This will not be called
@@ -715,6 +732,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
         
     TrackerClass.noteJobChange(jobID,"Prepare full scan");
+    noteBulkChange();
   }
 
   /** Reset schedule for all PENDINGPURGATORY entries.
@@ -737,6 +755,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
         statusToString(STATUS_PENDING)})});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
+    noteBulkChange();
   }
   
   /** For ADD_CHANGE_DELETE jobs where the specifications have been changed,
@@ -762,6 +781,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     noteModifications(0,1,0);
     // Do an analyze, otherwise our plans are going to be crap right off the bat
     unconditionallyAnalyzeTables();
+    noteBulkChange();
   }
     
   /** Prepare for a "partial" job.  This is called ONLY when the job is inactive.
@@ -823,6 +843,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     unconditionallyAnalyzeTables();
       
     TrackerClass.noteJobChange(jobID,"Prepare incremental scan");
+    noteBulkChange();
   }
 
   /** Delete ingested document identifiers (as part of deleting the owning job).
@@ -885,12 +906,15 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
   {
     HashMap map = new HashMap();
     map.put(prioritySetField,new Long(currentTime));
-    map.put(docPriorityField,new Double(priority.getDocumentPriority()));
+    double docPriority = priority.getDocumentPriority();
+    map.put(docPriorityField,new Double(docPriority));
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(idField,rowID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
+    if (useReadyIndex)
+      ReadyDocumentIndex.notePriority(rowID,docPriority);
   }
 
   /** Clear all document priorities for a job */
@@ -905,6 +929,7 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
       new UnitaryClause(jobIDField,jobID)});
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
+    noteBulkChange();
   }
   
   /** Set the "completed" status for a record.
@@ -953,6 +978,13 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(recID, newStatus, "Note completion");
+    if (useReadyIndex)
+    {
+      if (newStatus == STATUS_PENDINGPURGATORY)
+        ReadyDocumentIndex.noteRequeued(recID,checkTimeValue.longValue());
+      else
+        ReadyDocumentIndex.noteRemoved(recID);
+    }
   }
 
   /** Either mark a record as hopcountremoved, or set status to "rescan", depending on the
@@ -1004,6 +1036,13 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(recID, newStatus, "Update or hopcount remove");
+    if (useReadyIndex)
+    {
+      if (newStatus == STATUS_PENDINGPURGATORY)
+        ReadyDocumentIndex.noteRequeued(recID,checkTimeValue.longValue());
+      else
+        ReadyDocumentIndex.noteRemoved(recID);
+    }
     return rval;
   }
 
@@ -1068,6 +1107,14 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     performUpdate(map,"WHERE "+query,list,null);
     noteModifications(0,1,0);
     TrackerClass.noteRecordChange(id, STATUS_PENDINGPURGATORY, "Set requeued status");
+    if (useReadyIndex)
+    {
+      // Only rescans are stuffed; removals go through the expiration path
+      if (action == ACTION_RESCAN && checkTime != null)
+        ReadyDocumentIndex.noteRequeued(id,checkTime.longValue());
+      else
+        ReadyDocumentIndex.noteRemoved(id);
+    }
   }
 
   /** Set the status of a document to "being deleted".
@@ -1165,6 +1212,14 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     if (j > 0)
       doDeletes(list);
     noteModifications(0,0,ids.length);
+    if (useReadyIndex)
+    {
+      i = 0;
+      while (i < ids.length)
+      {
+        ReadyDocumentIndex.noteRemoved(ids[i++]);
+      }
+    }
   }
 
   /** Calculate the number of deletes we can do at once.
@@ -1287,40 +1342,66 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     // Insert prereqevent entries, if any
     prereqEventManager.addRows(recordID,prereqEvents);
     noteModifications(0,1,0);
+    if (useReadyIndex)
+      noteReadyIndexChange(recordID,map);
   }
 
-  /** Insert a new record into the jobqueue table (as part of adding an initial reference).
+  /** Insert new records into the jobqueue table (as part of adding initial references).
+  * All the records are written with as few statements as possible.
   *
   *@param jobID is the job identifier.
-  *@param docHash is the hash of the local document identifier.
-  *@param docID is the local document identifier.
+  *@param docHashes are the hashes of the local document identifiers.
+  *@param docIDs are the local document identifiers.
   */
-  public void insertNewRecordInitial(Long jobID, String docHash, String docID, IPriorityCalculator desiredDocPriority,
-    long desiredExecuteTime, long currentTime, String[] prereqEvents, String processID)
+  public void insertNewRecordsInitial(Long jobID, String[] docHashes, String[] docIDs, IPriorityCalculator[] desiredDocPriorities,
+    long desiredExecuteTime, long currentTime, String[][] prereqEvents, String processID)
     throws ManifoldCFException
   {
     // No prerequisites should be possible at this point.
-    HashMap map = new HashMap();
-    Long recordID = new Long(IDFactory.make(threadContext));
-    map.put(idField,recordID);
+    Long checkTime;
     if (desiredExecuteTime == -1L)
-      map.put(checkTimeField,new Long(0L));
+      checkTime = new Long(0L);
     else
-      map.put(checkTimeField,new Long(desiredExecuteTime));
-    map.put(checkActionField,actionToString(ACTION_RESCAN));
-    map.put(jobIDField,jobID);
-    map.put(docHashField,docHash);
-    map.put(docIDField,docID);
-    map.put(statusField,statusToString(STATUS_PENDING));
-    map.put(isSeedField,seedstatusToString(SEEDSTATUS_NEWSEED));
-    map.put(seedingProcessIDField,processID);
-    // Set the document priority
-    map.put(docPriorityField,new Double(desiredDocPriority.getDocumentPriority()));
-    map.put(prioritySetField,new Long(currentTime));
-    performInsert(map,null);
-    prereqEventManager.addRows(recordID,prereqEvents);
-    noteModifications(1,0,0);
-    TrackerClass.noteRecordChange(recordID, STATUS_PENDING, "Create initial");
+      checkTime = new Long(desiredExecuteTime);
+    Long[] recordIDs = new Long[docHashes.length];
+    double[] docPriorities = new double[docHashes.length];
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(docHashes.length);
+    int i = 0;
+    while (i < docHashes.length)
+    {
+      Map<String,Object> map = new HashMap<String,Object>();
+      Long recordID = new Long(IDFactory.make(threadContext));
+      recordIDs[i] = recordID;
+      map.put(idField,recordID);
+      map.put(checkTimeField,checkTime);
+      map.put(checkActionField,actionToString(ACTION_RESCAN));
+      map.put(jobIDField,jobID);
+      map.put(docHashField,docHashes[i]);
+      map.put(docIDField,docIDs[i]);
+      map.put(statusField,statusToString(STATUS_PENDING));
+      map.put(isSeedField,seedstatusToString(SEEDSTATUS_NEWSEED));
+      map.put(seedingProcessIDField,processID);
+      // Set the document priority
+      double docPriority = desiredDocPriorities[i].getDocumentPriority();
+      docPriorities[i] = docPriority;
+      map.put(docPriorityField,new Double(docPriority));
+      map.put(prioritySetField,new Long(currentTime));
+      rows.add(map);
+      i++;
+    }
+    if (rows.size() == 0)
+      return;
+    performInsertMultiple(rows,null);
+    prereqEventManager.addRows(recordIDs,prereqEvents);
+    noteModifications(rows.size(),0,0);
+    i = 0;
+    while (i < recordIDs.length)
+    {
+      TrackerClass.noteRecordChange(recordIDs[i], STATUS_PENDING, "Create initial");
+      if (useReadyIndex)
+        ReadyDocumentIndex.noteReady(recordIDs[i],docPriorities[i],checkTime.longValue());
+      i++;
+    }
   }
 
   /** Note the remaining documents that do NOT need to be queued.  These are noted so that the
@@ -1620,33 +1701,81 @@ public class JobQueue extends org.apache.manifoldcf.core.database.BaseTable
     performUpdate(map,"WHERE "+query,list,null);
     prereqEventManager.addRows(recordID,prereqEvents);
     noteModifications(0,1,0);
+    if (useReadyIndex)
+      noteReadyIndexChange(recordID,map);
     return;
   }
 
-  /** Insert a new record into the jobqueue table (as part of adding a child reference).
-  *
+  /** Keep the ready index current, given the column values just written for an existing record.
+  *@param recordID is the record id.
+  *@param map is the map of column values that was written.
   */
-  public void insertNewRecord(Long jobID, String docIDHash, String docID, IPriorityCalculator desiredDocPriority, long desiredExecuteTime,
-    long currentTime, String[] prereqEvents)
+  protected void noteReadyIndexChange(Long recordID, Map map)
     throws ManifoldCFException
   {
-    HashMap map = new HashMap();
-    Long recordID = new Long(IDFactory.make(threadContext));
-    map.put(idField,recordID);
-    map.put(checkTimeField,new Long(desiredExecuteTime));
-    map.put(checkActionField,actionToString(ACTION_RESCAN));
-    map.put(jobIDField,jobID);
-    map.put(docHashField,docIDHash);
-    map.put(docIDField,docID);
-    map.put(statusField,statusToString(STATUS_PENDING));
-    // Be sure to set the priority also
-    map.put(docPriorityField,new Double(desiredDocPriority.getDocumentPriority()));
-    map.put(prioritySetField,new Long(currentTime));
-    performInsert(map,null);
-    prereqEventManager.addRows(recordID,prereqEvents);
-    noteModifications(1,0,0);
-    TrackerClass.noteRecordChange(recordID, STATUS_PENDING, "Create new");
+    String status = (String)map.get(statusField);
+    Double docPriority = (Double)map.get(docPriorityField);
+    Long checkTime = (Long)map.get(checkTimeField);
+    if (status == null)
+    {
+      // Schedule change on a pending record
+      if (checkTime != null)
+        ReadyDocumentIndex.noteCheckTime(recordID,checkTime.longValue());
+      return;
+    }
+    int newStatus = stringToStatus(status);
+    if (newStatus == STATUS_PENDINGPURGATORY && docPriority != null && checkTime != null)
+      ReadyDocumentIndex.noteReady(recordID,docPriority.doubleValue(),checkTime.longValue());
+    else if (docPriority != null)
+      // Active record that will be requeued on completion
+      ReadyDocumentIndex.notePriority(recordID,docPriority.doubleValue());
+  }
 
+  /** Insert new records into the jobqueue table (as part of adding child references).
+  * All the records are written with as few statements as possible.
+  *
+  */
+  public void insertNewRecords(Long jobID, String[] docIDHashes, String[] docIDs, IPriorityCalculator[] desiredDocPriorities,
+    long desiredExecuteTime, long currentTime, String[][] prereqEvents)
+    throws ManifoldCFException
+  {
+    Long[] recordIDs = new Long[docIDHashes.length];
+    double[] docPriorities = new double[docIDHashes.length];
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>(docIDHashes.length);
+    int i = 0;
+    while (i < docIDHashes.length)
+    {
+      Map<String,Object> map = new HashMap<String,Object>();
+      Long recordID = new Long(IDFactory.make(threadContext));
+      recordIDs[i] = recordID;
+      map.put(idField,recordID);
+      map.put(checkTimeField,new Long(desiredExecuteTime));
+      map.put(checkActionField,actionToString(ACTION_RESCAN));
+      map.put(jobIDField,jobID);
+      map.put(docHashField,docIDHashes[i]);
+      map.put(docIDField,docIDs[i]);
+      map.put(statusField,statusToString(STATUS_PENDING));
+      // Be sure to set the priority also
+      double docPriority = desiredDocPriorities[i].getDocumentPriority();
+      docPriorities[i] = docPriority;
+      map.put(docPriorityField,new Double(docPriority));
+      map.put(prioritySetField,new Long(currentTime));
+      rows.add(map);
+      i++;
+    }
+    if (rows.size() == 0)
+      return;
+    performInsertMultiple(rows,null);
+    prereqEventManager.addRows(recordIDs,prereqEvents);
+    noteModifications(rows.size(),0,0);
+    i = 0;
+    while (i < recordIDs.length)
+    {
+      TrackerClass.noteRecordChange(recordIDs[i], STATUS_PENDING, "Create new");
+      if (useReadyIndex)
+        ReadyDocumentIndex.noteReady(recordIDs[i],docPriorities[i],desiredExecuteTime);
+      i++;
+    }
   }
 
   // Methods to convert status strings to integers and back
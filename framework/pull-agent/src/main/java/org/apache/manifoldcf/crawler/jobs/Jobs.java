@@ -192,6 +192,8 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
   public static final String failTimeField = "failtime";
   /** When non-null, indicates the number of retries remaining, after which the attempt will be considered to have actually failed */
   public static final String failCountField = "failcount";
+  /** When non-null, the job queue has already been prepared for the current run, so a retried startup must not prepare it again */
+  public static final String scanPreparedField = "scanprepared";
 
   protected static Map statusMap;
   protected static Map typeMap;
@@ -386,6 +388,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
         map.put(processIDField,new ColumnDescription("VARCHAR(16)",false,true,null,null,false));
         map.put(failTimeField,new ColumnDescription("BIGINT",false,true,null,null,false));
         map.put(failCountField,new ColumnDescription("BIGINT",false,true,null,null,false));
+        map.put(scanPreparedField,new ColumnDescription("CHAR(1)",false,true,null,null,false));
         performCreate(map,null);
       }
       else
@@ -415,6 +418,12 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
           insertMap.put(failCountField,new ColumnDescription("BIGINT",false,true,null,null,false));
           performAlter(insertMap,null,null,null);
         }
+        if (existing.get(scanPreparedField) == null)
+        {
+          Map insertMap = new HashMap();
+          insertMap.put(scanPreparedField,new ColumnDescription("CHAR(1)",false,true,null,null,false));
+          performAlter(insertMap,null,null,null);
+        }
       }
 
       // Handle related tables
@@ -644,6 +653,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
   }
 
   /** Get a list of active job identifiers and their associated connection names.
+  * Jobs that are starting up are included, since their seeded documents may be processed already.
   *@return a resultset with "jobid" and "connectionname" fields.
   */
   public IResultSet getActiveJobConnections()
@@ -652,6 +662,8 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new MultiClause(statusField,new Object[]{
+        statusToString(STATUS_STARTINGUP),
+        statusToString(STATUS_STARTINGUPMINIMAL),
         statusToString(STATUS_ACTIVE),
         statusToString(STATUS_ACTIVESEEDING)})});
     return performQuery("SELECT "+idField+" AS jobid,"+connectionNameField+" AS connectionname FROM "+getTableName()+" WHERE "+
@@ -1372,6 +1384,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(idField,jobID)});
     performUpdate(newValues,"WHERE "+query,list,invKey);
+    signalJobStateChange();
   }
 
   /** Signal to a job that its underlying connector has gone away.
@@ -1458,6 +1471,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new UnitaryClause(idField,jobID)});
     performUpdate(newValues,"WHERE "+query,list,invKey);
+    signalJobStateChange();
   }
 
   /** Note a change in connection configuration.
@@ -1729,6 +1743,38 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
   }
 
+  /** Note that the job queue has been prepared for the current run of a job.  A startup that is
+  * retried after this point must not prepare it again, because documents of the job may already be in process.
+  *@param jobID is the job identifier.
+  */
+  public void noteScanPrepared(Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(idField,jobID)});
+    HashMap map = new HashMap();
+    map.put(scanPreparedField,"T");
+    performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+  }
+
+  /** Check whether the job queue has already been prepared for the current run of a job.
+  *@param jobID is the job identifier.
+  *@return true if prepareJobScan() already completed for this run.
+  */
+  public boolean isScanPrepared(Long jobID)
+    throws ManifoldCFException
+  {
+    ArrayList list = new ArrayList();
+    String query = buildConjunctionClause(list,new ClauseDescription[]{
+      new UnitaryClause(idField,jobID)});
+    IResultSet set = performQuery("SELECT "+scanPreparedField+" FROM "+getTableName()+" WHERE "+
+      query,list,null,null);
+    if (set.getRowCount() == 0)
+      throw new ManifoldCFException("Can't find job "+jobID.toString());
+    return set.getRow(0).getValue(scanPreparedField) != null;
+  }
+
   /** Retry seeding.
   *@param jobID is the job identifier.
   *@param failTime is the fail time, -1 == none
@@ -1870,7 +1916,9 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     // Make sure error is removed (from last time)
     map.put(errorField,null);
     map.put(windowEndField,windowEnd);
+    map.put(scanPreparedField,null);
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+    signalJobStateChange();
   }
 
   /** Put job back into active state, from the shutting-down state.
@@ -1939,6 +1987,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     {
       endTransaction();
     }
+    signalJobStateChange();
   }
   
   /** Put job into "deleting" state, and set the start time field.
@@ -2002,6 +2051,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     {
       endTransaction();
     }
+    signalJobStateChange();
   }
 
   /** Make job active, and set the start time field.
@@ -2066,6 +2116,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
       // Clear out the retry fields we might have set
       map.put(failTimeField,null);
       map.put(failCountField,null);
+      map.put(scanPreparedField,null);
       map.put(processIDField,null);
       performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
     }
@@ -2088,6 +2139,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     {
       endTransaction();
     }
+    signalJobStateChange();
   }
 
   /** Note job seeded.
@@ -2179,6 +2231,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     {
       endTransaction();
     }
+    signalJobStateChange();
   }
 
   /** Cause job that is in "wait" state to become un-waited.
@@ -2197,6 +2250,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     map.put(statusField,statusToString(newStatus));
     map.put(windowEndField,windowEnd);
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+    signalJobStateChange();
   }
 
   /** Cause job that is in active or paused state to become waited.
@@ -2454,6 +2508,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     HashMap map = new HashMap();
     map.put(statusField,statusToString(newStatus));
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+    signalJobStateChange();
   }
 
   /** Update a job's status, and its reseed time.
@@ -2510,6 +2565,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
       map.put(failCountField,null);
     }
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+    signalJobStateChange();
   }
 
   /** Update a job's status.
@@ -2561,6 +2617,17 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
       map.put(failCountField,null);
     }
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+    signalJobStateChange();
+  }
+
+  /** Wake the threads that wait for jobs to change state, once the current transaction is over.
+  */
+  protected void signalJobStateChange()
+    throws ManifoldCFException
+  {
+    ILockManager lockManager = LockManagerFactory.make(threadContext);
+    ManifoldCF.jobStateSignal.raiseAfterTransaction(getDBInterface(),lockManager);
+    ManifoldCF.documentsQueuedSignal.raiseAfterTransaction(getDBInterface(),lockManager);
   }
 
   /** Update a job's last-time field.
@@ -2597,6 +2664,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     map.put(windowEndField,null);
     map.put(reseedTimeField,null);
     performUpdate(map,"WHERE "+query,list,new StringSet(getJobStatusKey()));
+    signalJobStateChange();
   }
 
   /** Resume a stopped job (from a pause or activewait).
@@ -2677,6 +2745,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     {
       endTransaction();
     }
+    signalJobStateChange();
   }
   
   /** Stop a job suddenly (abort, pause, activewait).
@@ -2715,6 +2784,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
         // Make sure error is removed (from last time)
         map.put(errorField,null);
         map.put(windowEndField,null);
+        map.put(scanPreparedField,null);
         break;
       case STATUS_ABORTINGFORRESTARTMINIMAL:
         map.put(statusField,statusToString(STATUS_READYFORSTARTUPMINIMAL));
@@ -2722,6 +2792,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
         // Make sure error is removed (from last time)
         map.put(errorField,null);
         map.put(windowEndField,null);
+        map.put(scanPreparedField,null);
         break;
       case STATUS_PAUSING:
         map.put(statusField,statusToString(STATUS_PAUSED));
@@ -2760,6 +2831,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     {
       endTransaction();
     }
+    signalJobStateChange();
   }
   
   /** Mark job as having properly notified the output connector of completion.
@@ -2897,7 +2969,7 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
   }
 
 
-  /** Return true if there is a job in either the ACTIVE or the ACTIVESEEDING state.
+  /** Return true if there is a job in the STARTINGUP, ACTIVE or ACTIVESEEDING state.
   * (This matches the conditions for values to be returned from getNextDocuments).
   *@return true if such jobs exist.
   */
@@ -2909,6 +2981,8 @@ public class Jobs extends org.apache.manifoldcf.core.database.BaseTable
     ArrayList list = new ArrayList();
     String query = buildConjunctionClause(list,new ClauseDescription[]{
       new MultiClause(statusField,new Object[]{
+        statusToString(STATUS_STARTINGUP),
+        statusToString(STATUS_STARTINGUPMINIMAL),
         statusToString(STATUS_ACTIVE),
         statusToString(STATUS_ACTIVESEEDING)})});
     IResultSet set = performQuery("SELECT "+idField+" FROM "+getTableName()+" WHERE "+
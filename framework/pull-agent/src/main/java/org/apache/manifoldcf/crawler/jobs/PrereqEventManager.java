@@ -198,5 +198,37 @@ public class PrereqEventManager extends org.apache.manifoldcf.core.database.Base
     }
   }
 
+  /** Add rows for a set of owners at once.
+  *@param recordIDs are the owner record identifiers.
+  *@param eventNames are the event names for each owner; any entry may be null.
+  */
+  public void addRows(Long[] recordIDs, String[][] eventNames)
+    throws ManifoldCFException
+  {
+    List<Map<String,Object>> rows = new ArrayList<Map<String,Object>>();
+    int i = 0;
+    while (i < recordIDs.length)
+    {
+      String[] names = eventNames[i];
+      if (names != null)
+      {
+        int j = 0;
+        while (j < names.length)
+        {
+          Map<String,Object> map = new HashMap<String,Object>();
+          map.put(ownerField,recordIDs[i]);
+          map.put(eventNameField,names[j++]);
+          rows.add(map);
+        }
+      }
+      i++;
+    }
+    if (rows.size() > 0)
+    {
+      performInsertMultiple(rows,null);
+      noteModifications(rows.size(),0,0);
+    }
+  }
+
 
 }
@@ -0,0 +1,408 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+
+import org.apache.manifoldcf.crawler.system.Logging;
+
+/** Per-process, in-memory index of jobqueue rows that are ready to be stuffed
+* (PENDING or PENDINGPURGATORY, with a rescan action).  The index is ordered by
+* document priority, which already encodes the bin counts, and is kept current
+* from the JobQueue write paths.  It is only ever used as a source of candidate
+* row ids: every candidate is rechecked by the database when it is claimed, so
+* an out-of-date index can cost efficiency but never correctness.
+*
+* The index is periodically reconciled against the database.  A reconciliation
+* loads the best-priority ready rows up to a configured size; the priority of the
+* last row loaded becomes the "horizon", and only entries at or below the horizon
+* are handed out, since rows beyond it may exist in the database without being
+* known here.
+*/
+public class ReadyDocumentIndex
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** Property that turns the ready index on */
+  public static final String readyIndexProperty = "org.apache.manifoldcf.crawler.readyindex";
+  /** Property describing the number of rows loaded by each reconciliation */
+  public static final String readyIndexSizeProperty = "org.apache.manifoldcf.crawler.readyindex.size";
+  /** Property describing the reconciliation interval, in seconds */
+  public static final String readyIndexReconcileIntervalProperty = "org.apache.manifoldcf.crawler.readyindex.reconcileinterval";
+
+  /** The lock protecting all the static data below */
+  protected final static Object lock = new Object();
+
+  /** Ready entries, in priority order */
+  protected final static TreeSet<Entry> readySet = new TreeSet<Entry>();
+  /** Ready entries, by jobqueue row id */
+  protected final static Map<Long,Entry> readyMap = new HashMap<Long,Entry>();
+  /** Entries that have been claimed by this process, by jobqueue row id.  These are kept so that
+  * a requeue can restore the entry with the priority it had. */
+  protected final static Map<Long,Entry> claimedMap = new HashMap<Long,Entry>();
+
+  /** Set to true when the index has been loaded and not invalidated since */
+  protected static boolean valid = false;
+  /** The worst priority that is guaranteed to be complete in the index */
+  protected static double horizon = Double.NEGATIVE_INFINITY;
+  /** The time the next reconciliation is due */
+  protected static long reconcileTime = 0L;
+  /** The number of entries we are configured to hold */
+  protected static int indexSize = 0;
+  /** Changes noted while a reconciliation is in progress; null if none is in progress.
+  * A null value means the row was removed. */
+  protected static Map<Long,Entry> reconcileChanges = null;
+
+  private ReadyDocumentIndex()
+  {
+  }
+
+  /** Note that a row has become ready, with a known priority.
+  *@param rowID is the jobqueue row id.
+  *@param docPriority is the document priority.
+  *@param checkTime is the time the row becomes eligible.
+  */
+  public static void noteReady(Long rowID, double docPriority, long checkTime)
+  {
+    synchronized (lock)
+    {
+      claimedMap.remove(rowID);
+      putReady(new Entry(rowID,docPriority,checkTime));
+    }
+  }
+
+  /** Note that the check time of a ready row has changed.  Rows we don't know about are ignored.
+  *@param rowID is the jobqueue row id.
+  *@param checkTime is the new check time.
+  */
+  public static void noteCheckTime(Long rowID, long checkTime)
+  {
+    synchronized (lock)
+    {
+      Entry e = readyMap.get(rowID);
+      if (e != null)
+        putReady(new Entry(rowID,e.docPriority,checkTime));
+    }
+  }
+
+  /** Note that the priority of a row has changed.  Rows we don't know about are ignored.
+  *@param rowID is the jobqueue row id.
+  *@param docPriority is the new document priority.
+  */
+  public static void notePriority(Long rowID, double docPriority)
+  {
+    synchronized (lock)
+    {
+      Entry e = readyMap.get(rowID);
+      if (e != null)
+      {
+        putReady(new Entry(rowID,docPriority,e.checkTime));
+        return;
+      }
+      e = claimedMap.get(rowID);
+      if (e != null)
+        claimedMap.put(rowID,new Entry(rowID,docPriority,e.checkTime));
+    }
+  }
+
+  /** Note that a row has been claimed (made active) by this process.
+  *@param rowID is the jobqueue row id.
+  */
+  public static void noteClaimed(Long rowID)
+  {
+    synchronized (lock)
+    {
+      Entry e = removeReady(rowID);
+      if (e != null)
+        claimedMap.put(rowID,e);
+    }
+  }
+
+  /** Note that a claimed row has been put back into the ready state, with its priority unchanged.
+  *@param rowID is the jobqueue row id.
+  *@param checkTime is the time the row becomes eligible again.
+  */
+  public static void noteRequeued(Long rowID, long checkTime)
+  {
+    synchronized (lock)
+    {
+      Entry e = claimedMap.remove(rowID);
+      // If we don't know the priority, reconciliation will pick the row up.
+      if (e != null)
+        putReady(new Entry(rowID,e.docPriority,checkTime));
+    }
+  }
+
+  /** Note that a row is no longer ready, or no longer exists.
+  *@param rowID is the jobqueue row id.
+  */
+  public static void noteRemoved(Long rowID)
+  {
+    synchronized (lock)
+    {
+      claimedMap.remove(rowID);
+      removeReady(rowID);
+    }
+  }
+
+  /** Note that a bulk change has happened to the jobqueue table, which the index cannot track.
+  * The index will be reloaded the next time it is used.
+  */
+  public static void invalidate()
+  {
+    synchronized (lock)
+    {
+      valid = false;
+      // Claimed rows may have been reset too; the reload will find any that are ready again.
+      claimedMap.clear();
+    }
+  }
+
+  /** Check whether the index needs to be reconciled against the database.
+  *@param currentTime is the current time.
+  *@return true if a reconciliation should be done before the index is used.
+  */
+  public static boolean needsReconciliation(long currentTime)
+  {
+    synchronized (lock)
+    {
+      if (!valid || currentTime >= reconcileTime)
+        return true;
+      // If there's nothing left we can hand out, we need to look beyond the horizon
+      Iterator<Entry> iter = readySet.iterator();
+      while (iter.hasNext())
+      {
+        Entry e = iter.next();
+        if (e.docPriority > horizon)
+          break;
+        if (e.checkTime <= currentTime)
+          return false;
+      }
+      return horizon != Double.POSITIVE_INFINITY;
+    }
+  }
+
+  /** Begin a reconciliation.  Changes noted from now on will be replayed over the loaded rows.
+  */
+  public static void beginReconciliation()
+  {
+    synchronized (lock)
+    {
+      reconcileChanges = new HashMap<Long,Entry>();
+    }
+  }
+
+  /** Abandon a reconciliation that could not be completed.
+  */
+  public static void abortReconciliation()
+  {
+    synchronized (lock)
+    {
+      reconcileChanges = null;
+      valid = false;
+    }
+  }
+
+  /** Complete a reconciliation.
+  *@param nextReconcileTime is the time the next reconciliation is due.
+  *@param size is the number of rows that were asked for.
+  *@param rowIDs are the row ids that were loaded, in priority order.
+  *@param docPriorities are the corresponding priorities.
+  *@param checkTimes are the corresponding check times.
+  */
+  public static void completeReconciliation(long nextReconcileTime, int size,
+    Long[] rowIDs, double[] docPriorities, long[] checkTimes)
+  {
+    synchronized (lock)
+    {
+      Map<Long,Entry> changes = reconcileChanges;
+      reconcileChanges = null;
+      readySet.clear();
+      readyMap.clear();
+      int i = 0;
+      while (i < rowIDs.length)
+      {
+        // Rows we have claimed since the load began are not ready
+        if (!claimedMap.containsKey(rowIDs[i]))
+          putReady(new Entry(rowIDs[i],docPriorities[i],checkTimes[i]));
+        i++;
+      }
+      if (rowIDs.length < size)
+        horizon = Double.POSITIVE_INFINITY;
+      else
+        horizon = docPriorities[rowIDs.length-1];
+      indexSize = size;
+      // Replay what happened while we were loading
+      if (changes != null)
+      {
+        Iterator<Long> iter = changes.keySet().iterator();
+        while (iter.hasNext())
+        {
+          Long rowID = iter.next();
+          Entry e = changes.get(rowID);
+          if (e == null)
+            removeReady(rowID);
+          else
+            putReady(e);
+        }
+      }
+      valid = true;
+      reconcileTime = nextReconcileTime;
+      if (Logging.perf.isDebugEnabled())
+        Logging.perf.debug("Ready index reconciled: "+Integer.toString(readyMap.size())+" ready rows, horizon "+Double.toString(horizon));
+    }
+  }
+
+  /** Get the next batch of candidate rows, in priority order.
+  *@param currentTime is the current time; rows that are not yet eligible are skipped.
+  *@param after is the last candidate from the previous batch, or null to start at the beginning.
+  *@param maxCount is the maximum number of candidates to return.
+  *@return the candidates, or an empty list if there are no more.
+  */
+  public static List<Entry> getCandidates(long currentTime, Entry after, int maxCount)
+  {
+    List<Entry> rval = new ArrayList<Entry>();
+    synchronized (lock)
+    {
+      if (!valid)
+        return rval;
+      Iterator<Entry> iter;
+      if (after == null)
+        iter = readySet.iterator();
+      else
+        iter = readySet.tailSet(after,false).iterator();
+      while (iter.hasNext() && rval.size() < maxCount)
+      {
+        Entry e = iter.next();
+        if (e.docPriority > horizon)
+          break;
+        if (e.checkTime <= currentTime)
+          rval.add(e);
+      }
+    }
+    return rval;
+  }
+
+  /** Get the best priority among the eligible ready rows.
+  *@param currentTime is the current time.
+  *@return the priority, or null if the index cannot answer the question.
+  */
+  public static Double getBestPriority(long currentTime)
+  {
+    synchronized (lock)
+    {
+      if (!valid)
+        return null;
+      Iterator<Entry> iter = readySet.iterator();
+      while (iter.hasNext())
+      {
+        Entry e = iter.next();
+        if (e.docPriority > horizon)
+          return null;
+        if (e.checkTime <= currentTime)
+          return new Double(e.docPriority);
+      }
+      return null;
+    }
+  }
+
+  /** Add or replace a ready entry.  Call with the lock held. */
+  protected static void putReady(Entry e)
+  {
+    Entry old = readyMap.put(e.rowID,e);
+    if (old != null)
+      readySet.remove(old);
+    readySet.add(e);
+    if (reconcileChanges != null)
+      reconcileChanges.put(e.rowID,e);
+    // Keep memory bounded.  Dropping the worst entries just moves the horizon in.
+    if (indexSize > 0 && readyMap.size() > 2 * indexSize)
+    {
+      while (readyMap.size() > indexSize)
+      {
+        Entry last = readySet.pollLast();
+        readyMap.remove(last.rowID);
+        if (last.docPriority <= horizon)
+          horizon = readySet.isEmpty()?Double.NEGATIVE_INFINITY:readySet.last().docPriority;
+      }
+    }
+  }
+
+  /** Remove a ready entry.  Call with the lock held. */
+  protected static Entry removeReady(Long rowID)
+  {
+    Entry e = readyMap.remove(rowID);
+    if (e != null)
+      readySet.remove(e);
+    if (reconcileChanges != null)
+      reconcileChanges.put(rowID,null);
+    return e;
+  }
+
+  /** An entry in the index.  Entries are immutable, and are ordered by priority, then by row id.
+  */
+  public static class Entry implements Comparable<Entry>
+  {
+    protected final Long rowID;
+    protected final double docPriority;
+    protected final long checkTime;
+
+    public Entry(Long rowID, double docPriority, long checkTime)
+    {
+      this.rowID = rowID;
+      this.docPriority = docPriority;
+      this.checkTime = checkTime;
+    }
+
+    public Long getRowID()
+    {
+      return rowID;
+    }
+
+    public double getDocPriority()
+    {
+      return docPriority;
+    }
+
+    @Override
+    public int compareTo(Entry other)
+    {
+      if (docPriority < other.docPriority)
+        return -1;
+      if (docPriority > other.docPriority)
+        return 1;
+      return rowID.compareTo(other.rowID);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Entry))
+        return false;
+      return compareTo((Entry)o) == 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return rowID.hashCode();
+    }
+  }
+}
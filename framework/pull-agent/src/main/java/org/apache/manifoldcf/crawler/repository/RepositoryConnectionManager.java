@@ -678,6 +678,15 @@ public class RepositoryConnectionManager extends org.apache.manifoldcf.core.data
   {
     historyManager.deleteOldRows(timeCutoff);
   }
+
+  /** Write any history rows this process has recorded but not yet stored.
+  */
+  @Override
+  public void flushHistory()
+    throws ManifoldCFException
+  {
+    historyManager.flushHistory();
+  }
   
   /** Record time-stamped information about the activity of the connection.  This information can originate from
   * either the connector or from the framework.  The reason it is here is that it is viewed as 'belonging' to an
@@ -20,9 +20,13 @@ package org.apache.manifoldcf.crawler.repository;
 
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.ManifoldCF;
 import java.util.*;
 
 /** This class is the manager for the history records belonging to the repository connector.
+ * Records are buffered in memory and written in batches.  Each record carries the day it started in, so
+ * that old history can be removed a day at a time, and every batch is also summarized into the
+ * repohistoryrollup table, which answers count-style reports without reading each record.
  * 
  * <br><br>
  * <b>repohistory</b>
@@ -38,6 +42,7 @@ import java.util.*;
  * <tr><td>entityid</td><td>LONGTEXT</td><td></td></tr>
  * <tr><td>resultcode</td><td>VARCHAR(255)</td><td></td></tr>
  * <tr><td>resultdesc</td><td>LONGTEXT</td><td></td></tr>
+ * <tr><td>timeslice</td><td>BIGINT</td><td></td></tr>
  * </table>
  * <br><br>
  * 
@@ -56,6 +61,17 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   protected final static String entityIdentifierField = "entityid";
   protected final static String resultCodeField = "resultcode";
   protected final static String resultDescriptionField = "resultdesc";
+  protected final static String timeSliceField = "timeslice";
+
+  /** The length of a time slice, in milliseconds.  History is removed one slice at a time. */
+  protected final static long timeSliceInterval = 24L * 60L * 60L * 1000L;
+  /** The length of a minute, in milliseconds */
+  protected final static long minuteInterval = 60000L;
+
+  /** History rows recorded by this process that have not been written yet */
+  protected final static List<Map<String,Object>> pendingRows = new ArrayList<Map<String,Object>>();
+  /** The time the oldest pending row was recorded, or -1L if there are none */
+  protected static long pendingSince = -1L;
 
   /** Thread context */
   protected IThreadContext threadContext;
@@ -63,6 +79,16 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   /** A lock manager handle. */
   protected final ILockManager lockManager;
 
+  /** The rollup table manager */
+  protected final RepositoryHistoryRollup rollupManager;
+
+  /** Most rows to buffer before writing */
+  protected final int batchSize;
+  /** Longest time, in milliseconds, a row may stay buffered */
+  protected final long batchMaxAge;
+  /** The identifier bucket expression the rollup is kept by */
+  protected final String rollupBucket;
+
   /** Constructor.
   *@param database is the database instance.
   */
@@ -72,6 +98,10 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     super(database,"repohistory");
     this.threadContext = tc;
     this.lockManager = LockManagerFactory.make(tc);
+    this.rollupManager = new RepositoryHistoryRollup(tc,database);
+    this.batchSize = LockManagerFactory.getIntProperty(tc,ManifoldCF.historyBatchSizeProperty,100);
+    this.batchMaxAge = LockManagerFactory.getLongProperty(tc,ManifoldCF.historyBatchMaxAgeProperty,5000L);
+    this.rollupBucket = LockManagerFactory.getStringProperty(tc,ManifoldCF.historyRollupBucketProperty,"()");
   }
 
   /** Install or upgrade the table.
@@ -97,6 +127,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
         map.put(entityIdentifierField,new ColumnDescription("LONGTEXT",false,false,null,null,false));
         map.put(resultCodeField,new ColumnDescription("VARCHAR(255)",false,true,null,null,false));
         map.put(resultDescriptionField,new ColumnDescription("LONGTEXT",false,true,null,null,false));
+        map.put(timeSliceField,new ColumnDescription("BIGINT",false,true,null,null,false));
         performCreate(map,null);
       }
       else
@@ -109,6 +140,15 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
 	  alterMap.put(activityTypeField,new ColumnDescription("VARCHAR(64)",false,false,null,null,false));
 	  performAlter(null,alterMap,null,null);
 	}
+        if (existing.get(timeSliceField) == null)
+        {
+          // Put existing rows into the slice they started in
+          HashMap addMap = new HashMap();
+          addMap.put(timeSliceField,new ColumnDescription("BIGINT",false,true,null,null,false));
+          performAlter(addMap,null,null,null);
+          performModification("UPDATE "+getTableName()+" SET "+timeSliceField+"="+startTimeField+"-MOD("+
+            startTimeField+","+new Long(timeSliceInterval).toString()+")",null,null);
+        }
       }
 
       // Index management
@@ -116,6 +156,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
       IndexDescription startTimeIndex = new IndexDescription(false,new String[]{startTimeField});
       IndexDescription endTimeIndex = new IndexDescription(false,new String[]{endTimeField});
       IndexDescription activityTypeIndex = new IndexDescription(false,new String[]{activityTypeField});
+      IndexDescription timeSliceIndex = new IndexDescription(false,new String[]{timeSliceField});
 
       // Get rid of indexes that shouldn't be there
       Map indexes = getTableIndexes(null,null);
@@ -133,6 +174,8 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
           endTimeIndex = null;
         else if (activityTypeIndex == null && id.equals(activityTypeIndex))
           activityTypeIndex = null;
+        else if (timeSliceIndex != null && id.equals(timeSliceIndex))
+          timeSliceIndex = null;
         else if (indexName.indexOf("_pkey") == -1)
           // This index shouldn't be here; drop it
           performRemoveIndex(indexName);
@@ -147,6 +190,11 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
         performAddIndex(null,endTimeIndex);
       if (activityTypeIndex != null)
         performAddIndex(null,activityTypeIndex);
+      if (timeSliceIndex != null)
+        performAddIndex(null,timeSliceIndex);
+
+      // Install the rollup, which summarizes any history that is already here
+      rollupManager.install(parentTable,parentField,getTableName(),rollupBucket);
 
       break;
 
@@ -158,6 +206,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public void deinstall()
     throws ManifoldCFException
   {
+    rollupManager.deinstall();
     performDrop(null);
   }
 
@@ -168,25 +217,69 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public void deleteOwner(String owner)
     throws ManifoldCFException
   {
+    // Rows still in the buffer refer to the owner too
+    flushHistory();
+    rollupManager.deleteOwner(owner);
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
       new UnitaryClause(ownerNameField,owner)});
     performDelete("WHERE "+query,params,null);
   }
 
-  /** Delete records older than a specified time.
+  /** Delete records older than a specified time.  Records are removed a whole time slice at a time, so
+  * the records of the slice the cutoff falls in are kept until a later cleanup.
   *@param timeCutoff is the time, earlier than which records are removed.
   */
   public void deleteOldRows(long timeCutoff)
     throws ManifoldCFException
   {
+    flushHistory();
+    long cutoffSlice = timeCutoff - timeCutoff % timeSliceInterval;
+    Set<Long> slices = rollupManager.findTimeSlices(cutoffSlice);
     ArrayList params = new ArrayList();
     String query = buildConjunctionClause(params,new ClauseDescription[]{
-      new UnitaryClause(startTimeField,"<",new Long(timeCutoff))});
-    performDelete("WHERE "+query,params,null);
+      new UnitaryClause(timeSliceField,"<",new Long(cutoffSlice))});
+    IResultSet set = performQuery("SELECT DISTINCT "+timeSliceField+" FROM "+getTableName()+" WHERE "+query,params,null,null);
+    int i = 0;
+    while (i < set.getRowCount())
+    {
+      IResultRow row = set.getRow(i++);
+      slices.add((Long)row.getValue(timeSliceField));
+    }
+
+    // Each slice goes in its own transaction, so no single delete has to cover the whole range
+    Long[] sliceArray = slices.toArray(new Long[0]);
+    Arrays.sort(sliceArray);
+    for (Long slice : sliceArray)
+    {
+      beginTransaction();
+      try
+      {
+        rollupManager.deleteTimeSlice(slice.longValue());
+        params.clear();
+        query = buildConjunctionClause(params,new ClauseDescription[]{
+          new UnitaryClause(timeSliceField,slice)});
+        performDelete("WHERE "+query,params,null);
+      }
+      catch (ManifoldCFException e)
+      {
+        signalRollback();
+        throw e;
+      }
+      catch (Error e)
+      {
+        signalRollback();
+        throw e;
+      }
+      finally
+      {
+        endTransaction();
+      }
+    }
   }
   
-  /** Add row to table, and reanalyze if necessary.
+  /** Add row to table, and reanalyze if necessary.  The row is buffered, and written along with others
+  * once enough rows have been buffered or the oldest of them has waited long enough.
   */
   public Long addRow(String connectionName, long startTime, long endTime, long dataSize, String activityType,
     String entityIdentifier, String resultCode, String resultDescription)
@@ -195,7 +288,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     Long id = new Long(IDFactory.make(threadContext));   
     if (lockManager.getSharedConfiguration().getBooleanProperty("org.apache.manifoldcf.crawler.repository.store_history",true))
     {
-      HashMap map = new HashMap();
+      Map<String,Object> map = new HashMap<String,Object>();
       map.put(idField,id);
       map.put(ownerNameField,connectionName);
       map.put(startTimeField,new Long(startTime));
@@ -207,13 +300,83 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
         map.put(resultCodeField,resultCode);
       if (resultDescription != null)
         map.put(resultDescriptionField,resultDescription);
-      performInsert(map,null);
-      // Not accurate, but best we can do without overhead
-      noteModifications(1,0,0);
+      map.put(timeSliceField,new Long(startTime - startTime % timeSliceInterval));
+
+      List<Map<String,Object>> rows = null;
+      long currentTime = System.currentTimeMillis();
+      synchronized (pendingRows)
+      {
+        pendingRows.add(map);
+        if (pendingSince == -1L)
+          pendingSince = currentTime;
+        if (pendingRows.size() >= batchSize || currentTime - pendingSince >= batchMaxAge)
+          rows = takePendingRows();
+      }
+      if (rows != null)
+        writeRows(rows);
     }
     return id;
   }
 
+  /** Write any rows this process has buffered.
+  */
+  public void flushHistory()
+    throws ManifoldCFException
+  {
+    List<Map<String,Object>> rows;
+    synchronized (pendingRows)
+    {
+      rows = takePendingRows();
+    }
+    if (rows.size() > 0)
+      writeRows(rows);
+  }
+
+  /** Remove all the buffered rows.  Call this while synchronized on pendingRows.
+  *@return the rows.
+  */
+  protected static List<Map<String,Object>> takePendingRows()
+  {
+    List<Map<String,Object>> rval = new ArrayList<Map<String,Object>>(pendingRows);
+    pendingRows.clear();
+    pendingSince = -1L;
+    return rval;
+  }
+
+  /** Write a batch of rows, and add them to the rollup.
+  */
+  protected void writeRows(List<Map<String,Object>> rows)
+    throws ManifoldCFException
+  {
+    List<Long> ids = new ArrayList<Long>();
+    for (Map<String,Object> row : rows)
+    {
+      ids.add((Long)row.get(idField));
+    }
+    beginTransaction();
+    try
+    {
+      performInsertMultiple(rows,null);
+      rollupManager.rollUp(getTableName(),ids,rollupBucket);
+    }
+    catch (ManifoldCFException e)
+    {
+      signalRollback();
+      throw e;
+    }
+    catch (Error e)
+    {
+      signalRollback();
+      throw e;
+    }
+    finally
+    {
+      endTransaction();
+    }
+    // Not accurate, but best we can do without overhead
+    noteModifications(rows.size(),0,0);
+  }
+
   // For result analysis, we make heavy use of Postgresql's more advanced posix regular expression
   // handling.  The queries in general are fairly messy.  There's a "front aligned" way of doing things,
   // which uses the start time of a row and finds everything that overlaps the interval from "start time"
@@ -292,6 +455,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public IResultSet simpleReport(String connectionName, FilterCriteria criteria, SortOrder sort, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushHistory();
     // Build the query.
     StringBuilder sb = new StringBuilder("SELECT ");
     ArrayList list = new ArrayList();
@@ -317,6 +481,34 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
   public long countHistoryRows(String connectionName, FilterCriteria criteria)
     throws ManifoldCFException
   {
+    flushHistory();
+    if (criteria.getEntityMatch() == null)
+    {
+      // Total the rollup, and count only the records at the edges of the range individually
+      StringBuilder sb = new StringBuilder("SELECT SUM(");
+      ArrayList list = new ArrayList();
+      sb.append(RepositoryHistoryRollup.eventCountField).append(") AS countcol FROM ").append(rollupManager.getTableName());
+      addRollupCriteria(sb,list,connectionName,criteria);
+      IResultSet set = performQuery(sb.toString(),list,null,null);
+      if (set.getRowCount() < 1)
+        throw new ManifoldCFException("Expected at least one row");
+      Number value = (Number)set.getRow(0).getValue("countcol");
+      long rval = (value == null)?0L:value.longValue();
+      if (criteria.getStartTime() != null || criteria.getEndTime() != null)
+      {
+        sb = new StringBuilder("SELECT ");
+        list = new ArrayList();
+        sb.append(constructCountClause("*")).append(" AS countcol FROM ").append(getTableName());
+        addCriteria(sb,list,"",connectionName,criteria,false);
+        addEdgeClause(sb,criteria);
+        set = performQuery(sb.toString(),list,null,null);
+        if (set.getRowCount() < 1)
+          throw new ManifoldCFException("Expected at least one row");
+        rval += ((Long)set.getRow(0).getValue("countcol")).longValue();
+      }
+      return rval;
+    }
+
     StringBuilder sb = new StringBuilder("SELECT ");
     ArrayList list = new ArrayList();
     sb.append(constructCountClause("*")).append(" AS countcol FROM ");
@@ -348,6 +540,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     long interval, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushHistory();
     // The query we will generate here looks like this:
     // SELECT *
     //   FROM
@@ -451,6 +644,7 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     long interval, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushHistory();
     // The query we will generate here looks like this:
     // SELECT *
     //   FROM
@@ -558,6 +752,10 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     BucketDescription resultCodeBucket, BucketDescription idBucket, int startRow, int maxRowCount)
     throws ManifoldCFException
   {
+    flushHistory();
+    if (canUseRollup(connectionName,filterCriteria,idBucket))
+      return rollupResultCodesReport(connectionName,filterCriteria,sort,resultCodeBucket,idBucket,startRow,maxRowCount);
+
     // The query we'll use here will be:
     //
     // SELECT * FROM (SELECT substring(resultcode FROM '<result_regexp>') AS resultcodebucket,
@@ -580,6 +778,155 @@ public class RepositoryHistoryManager extends org.apache.manifoldcf.core.databas
     return performQuery(sb.toString(),list,null,null,maxRowCount);
   }
 
+  /** Get the same report as resultCodesReport(), by totalling the rollup.
+  */
+  protected IResultSet rollupResultCodesReport(String connectionName, FilterCriteria filterCriteria, SortOrder sort,
+    BucketDescription resultCodeBucket, BucketDescription idBucket, int startRow, int maxRowCount)
+    throws ManifoldCFException
+  {
+    // The query we'll use here will be:
+    //
+    // SELECT t1.resultcodebucket,t1.idbucket,SUM(t1.eventcount) AS eventcount
+    //   FROM (SELECT substring(resultcode FROM '<result_regexp>') AS resultcodebucket, idbucket, eventcount
+    //          FROM repohistoryrollup WHERE <rollup criteria>
+    //         UNION ALL SELECT substring(resultcode FROM '<result_regexp>') AS resultcodebucket,
+    //          substring(entityidentifier FROM '<id_regexp>') AS idbucket, 1 AS eventcount
+    //          FROM repohistory WHERE <criteria> AND <in the first or last minute>) t1
+    //              GROUP BY t1.resultcodebucket,t1.idbucket
+    //                      ORDER BY xxx LIMIT yyy OFFSET zzz
+
+    StringBuilder sb = new StringBuilder("SELECT t1.resultcodebucket,t1.idbucket,SUM(t1.eventcount) AS eventcount FROM (SELECT ");
+    ArrayList list = new ArrayList();
+    addBucketExtract(sb,list,"",RepositoryHistoryRollup.resultCodeField,resultCodeBucket);
+    sb.append(" AS resultcodebucket, ").append(RepositoryHistoryRollup.idBucketField).append(" AS idbucket, ")
+      .append(RepositoryHistoryRollup.eventCountField).append(" AS eventcount FROM ").append(rollupManager.getTableName());
+    addRollupCriteria(sb,list,connectionName,filterCriteria);
+    if (filterCriteria.getStartTime() != null || filterCriteria.getEndTime() != null)
+    {
+      sb.append(" UNION ALL SELECT ");
+      addBucketExtract(sb,list,"",resultCodeField,resultCodeBucket);
+      sb.append(" AS resultcodebucket, ");
+      addBucketExtract(sb,list,"",entityIdentifierField,idBucket);
+      sb.append(" AS idbucket, CAST(1 AS BIGINT) AS eventcount FROM ").append(getTableName());
+      addCriteria(sb,list,"",connectionName,filterCriteria,false);
+      addEdgeClause(sb,filterCriteria);
+    }
+    sb.append(") t1 GROUP BY resultcodebucket,idbucket");
+    addOrdering(sb,new String[]{"eventcount","resultcodebucket","idbucket"},sort);
+    addLimits(sb,startRow,maxRowCount);
+    return performQuery(sb.toString(),list,null,null,maxRowCount);
+  }
+
+  /** Decide whether a bucketed report can be answered from the rollup.  The criteria must not look
+  * at identifiers, the identifier bucket must be the one the rollup is kept by, and every rollup row
+  * in range must have been kept by that bucket.
+  */
+  protected boolean canUseRollup(String connectionName, FilterCriteria criteria, BucketDescription idBucket)
+    throws ManifoldCFException
+  {
+    if (criteria.getEntityMatch() != null || idBucket.isSensitive() || !idBucket.getRegexp().equals(rollupBucket))
+      return false;
+    StringBuilder sb = new StringBuilder("SELECT ");
+    ArrayList list = new ArrayList();
+    sb.append(constructCountClause("*")).append(" AS countcol FROM ").append(rollupManager.getTableName());
+    addRollupCriteria(sb,list,connectionName,criteria);
+    sb.append(" AND ").append(RepositoryHistoryRollup.bucketDescriptionField).append("<>?");
+    list.add(rollupBucket);
+    IResultSet set = performQuery(sb.toString(),list,null,null);
+    if (set.getRowCount() < 1)
+      throw new ManifoldCFException("Expected at least one row");
+    return ((Long)set.getRow(0).getValue("countcol")).longValue() == 0L;
+  }
+
+  /** Add criteria clauses to a rollup query.  The rollup only covers the whole minutes of the requested
+  * range; the records at its edges have to be read individually (see addEdgeClause()).
+  */
+  protected void addRollupCriteria(StringBuilder sb, ArrayList list, String connectionName, FilterCriteria criteria)
+  {
+    sb.append(" WHERE ").append(RepositoryHistoryRollup.ownerNameField).append("=?");
+    list.add(connectionName);
+
+    String[] activities = criteria.getActivities();
+    if (activities != null)
+    {
+      sb.append(" AND ");
+      if (activities.length == 0)
+      {
+        sb.append("0>1");
+      }
+      else
+      {
+        sb.append(RepositoryHistoryRollup.activityTypeField).append(" IN(");
+        int i = 0;
+        while (i < activities.length)
+        {
+          if (i > 0)
+            sb.append(",");
+          String activity = activities[i++];
+          sb.append("?");
+          list.add(activity);
+        }
+        sb.append(")");
+      }
+    }
+
+    Long startTime = criteria.getStartTime();
+    if (startTime != null)
+    {
+      sb.append(" AND ").append(RepositoryHistoryRollup.startMinuteField).append(">=")
+        .append(new Long(firstWholeMinute(startTime.longValue())).toString());
+    }
+
+    Long endTime = criteria.getEndTime();
+    if (endTime != null)
+    {
+      sb.append(" AND ").append(RepositoryHistoryRollup.endMinuteField).append("<")
+        .append(new Long(lastPartialMinute(endTime.longValue())).toString());
+    }
+
+    RegExpCriteria resultCodeMatch = criteria.getResultCodeMatch();
+    if (resultCodeMatch != null)
+    {
+      sb.append(" AND ");
+      sb.append(constructRegexpClause(RepositoryHistoryRollup.resultCodeField,"?",resultCodeMatch.isInsensitive()));
+      list.add(resultCodeMatch.getRegexpString());
+    }
+  }
+
+  /** Limit a query, whose criteria have been added already, to the records the rollup criteria leave out:
+  * those that start before the first whole minute of the range, or end in its last partial minute.
+  * Call this only if the criteria have a start time or an end time.
+  */
+  protected void addEdgeClause(StringBuilder sb, FilterCriteria criteria)
+  {
+    Long startTime = criteria.getStartTime();
+    Long endTime = criteria.getEndTime();
+    sb.append(" AND (");
+    if (startTime != null)
+    {
+      sb.append(startTimeField).append("<").append(new Long(firstWholeMinute(startTime.longValue())).toString());
+      if (endTime != null)
+        sb.append(" OR ");
+    }
+    if (endTime != null)
+      sb.append(endTimeField).append(">=").append(new Long(lastPartialMinute(endTime.longValue())).toString());
+    sb.append(")");
+  }
+
+  /** Find the first whole minute after a range's start time.
+  */
+  protected static long firstWholeMinute(long startTime)
+  {
+    return startTime - startTime % minuteInterval + minuteInterval;
+  }
+
+  /** Find the minute a range's end time falls in.
+  */
+  protected static long lastPartialMinute(long endTime)
+  {
+    return endTime - endTime % minuteInterval;
+  }
+
   /** Turn a bucket description into a return column.
   * This is complicated by the fact that the extraction code is inherently case sensitive.  So if case insensitive is
   * desired, that means we whack the whole thing to lower case before doing the match.
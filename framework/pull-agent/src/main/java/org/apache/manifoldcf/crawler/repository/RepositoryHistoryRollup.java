@@ -0,0 +1,279 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.repository;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class manages the pre-aggregated form of the repository history.  Each row counts the history
+* records of one connection, activity, result code and identifier bucket that started and ended in the
+* same pair of minutes.  Rows are derived from the repohistory table by the database itself, as history
+* records are written, so that report queries can total them instead of scanning every record.
+* 
+* <br><br>
+* <b>repohistoryrollup</b>
+* <table border="1" cellpadding="3" cellspacing="0">
+* <tr class="TableHeadingColor">
+* <th>Field</th><th>Type</th><th>Description&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;</th>
+* <tr><td>owner</td><td>VARCHAR(32)</td><td>Reference:repoconnections.connectionname</td></tr>
+* <tr><td>activitytype</td><td>VARCHAR(64)</td><td></td></tr>
+* <tr><td>resultcode</td><td>VARCHAR(255)</td><td></td></tr>
+* <tr><td>bucketdesc</td><td>VARCHAR(255)</td><td></td></tr>
+* <tr><td>idbucket</td><td>LONGTEXT</td><td></td></tr>
+* <tr><td>startminute</td><td>BIGINT</td><td></td></tr>
+* <tr><td>endminute</td><td>BIGINT</td><td></td></tr>
+* <tr><td>timeslice</td><td>BIGINT</td><td></td></tr>
+* <tr><td>eventcount</td><td>BIGINT</td><td></td></tr>
+* <tr><td>bytecount</td><td>BIGINT</td><td></td></tr>
+* </table>
+* <br><br>
+* 
+*/
+public class RepositoryHistoryRollup extends org.apache.manifoldcf.core.database.BaseTable
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Fields
+  protected final static String ownerNameField = "owner";
+  protected final static String activityTypeField = "activitytype";
+  protected final static String resultCodeField = "resultcode";
+  protected final static String bucketDescriptionField = "bucketdesc";
+  protected final static String idBucketField = "idbucket";
+  protected final static String startMinuteField = "startminute";
+  protected final static String endMinuteField = "endminute";
+  protected final static String timeSliceField = "timeslice";
+  protected final static String eventCountField = "eventcount";
+  protected final static String byteCountField = "bytecount";
+
+  /** The length of a minute, in milliseconds */
+  protected final static long minuteInterval = 60000L;
+
+  /** Constructor.
+  *@param database is the database instance.
+  */
+  public RepositoryHistoryRollup(IThreadContext tc, IDBInterface database)
+    throws ManifoldCFException
+  {
+    super(database,"repohistoryrollup");
+  }
+
+  /** Install or upgrade the table.
+  *@param parentTable is the parent table.
+  *@param parentField is the parent field.
+  *@param historyTable is the name of the history table the rollup is derived from.
+  *@param bucketRegexp is the identifier bucket expression to use for existing history.
+  */
+  public void install(String parentTable, String parentField, String historyTable, String bucketRegexp)
+    throws ManifoldCFException
+  {
+    // Always have an outer loop, in case of upgrade
+    while (true)
+    {
+      Map existing = getTableSchema(null,null);
+      if (existing == null)
+      {
+        HashMap map = new HashMap();
+        map.put(ownerNameField,new ColumnDescription("VARCHAR(32)",false,false,parentTable,parentField,false));
+        map.put(activityTypeField,new ColumnDescription("VARCHAR(64)",false,false,null,null,false));
+        map.put(resultCodeField,new ColumnDescription("VARCHAR(255)",false,true,null,null,false));
+        map.put(bucketDescriptionField,new ColumnDescription("VARCHAR(255)",false,false,null,null,false));
+        map.put(idBucketField,new ColumnDescription("LONGTEXT",false,true,null,null,false));
+        map.put(startMinuteField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(endMinuteField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(timeSliceField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(eventCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        map.put(byteCountField,new ColumnDescription("BIGINT",false,false,null,null,false));
+        performCreate(map,null);
+        // Summarize whatever history is already there
+        rollUp(historyTable,null,bucketRegexp);
+      }
+      else
+      {
+        // Upgrade code goes here, if needed.
+      }
+
+      // Index management
+      IndexDescription ownerIndex = new IndexDescription(false,new String[]{ownerNameField});
+      IndexDescription startMinuteIndex = new IndexDescription(false,new String[]{startMinuteField});
+      IndexDescription timeSliceIndex = new IndexDescription(false,new String[]{timeSliceField});
+
+      // Get rid of indexes that shouldn't be there
+      Map indexes = getTableIndexes(null,null);
+      Iterator iter = indexes.keySet().iterator();
+      while (iter.hasNext())
+      {
+        String indexName = (String)iter.next();
+        IndexDescription id = (IndexDescription)indexes.get(indexName);
+
+        if (ownerIndex != null && id.equals(ownerIndex))
+          ownerIndex = null;
+        else if (startMinuteIndex != null && id.equals(startMinuteIndex))
+          startMinuteIndex = null;
+        else if (timeSliceIndex != null && id.equals(timeSliceIndex))
+          timeSliceIndex = null;
+        else if (indexName.indexOf("_pkey") == -1)
+          // This index shouldn't be here; drop it
+          performRemoveIndex(indexName);
+      }
+
+      // Add the ones we didn't find
+      if (ownerIndex != null)
+        performAddIndex(null,ownerIndex);
+      if (startMinuteIndex != null)
+        performAddIndex(null,startMinuteIndex);
+      if (timeSliceIndex != null)
+        performAddIndex(null,timeSliceIndex);
+
+      break;
+    }
+  }
+
+  /** Uninstall the table.
+  */
+  public void deinstall()
+    throws ManifoldCFException
+  {
+    performDrop(null);
+  }
+
+  /** Delete all rows associated with given owner.
+  *@param owner is the name of the owner.
+  */
+  public void deleteOwner(String owner)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(ownerNameField,owner)});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Find the time slices that hold rows, earlier than a given slice.
+  *@param timeSlice is the slice to stop before.
+  *@return the slices found.
+  */
+  public Set<Long> findTimeSlices(long timeSlice)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(timeSliceField,"<",new Long(timeSlice))});
+    IResultSet set = performQuery("SELECT DISTINCT "+timeSliceField+" FROM "+getTableName()+" WHERE "+query,params,null,null);
+    Set<Long> rval = new HashSet<Long>();
+    int i = 0;
+    while (i < set.getRowCount())
+    {
+      IResultRow row = set.getRow(i++);
+      rval.add((Long)row.getValue(timeSliceField));
+    }
+    return rval;
+  }
+
+  /** Delete the rows belonging to one time slice.
+  *@param timeSlice is the time slice.
+  */
+  public void deleteTimeSlice(long timeSlice)
+    throws ManifoldCFException
+  {
+    ArrayList params = new ArrayList();
+    String query = buildConjunctionClause(params,new ClauseDescription[]{
+      new UnitaryClause(timeSliceField,new Long(timeSlice))});
+    performDelete("WHERE "+query,params,null);
+  }
+
+  /** Summarize a set of history records, which must not have been summarized before.
+  *@param historyTable is the name of the history table.
+  *@param ids are the ids of the history records, or null for all of them.
+  *@param bucketRegexp is the expression that extracts the identifier bucket, matched case insensitively.
+  */
+  public void rollUp(String historyTable, List<Long> ids, String bucketRegexp)
+    throws ManifoldCFException
+  {
+    if (ids == null)
+    {
+      rollUpSome(historyTable,null,bucketRegexp);
+      return;
+    }
+    int maxClause = getMaxInClause();
+    List<Long> list = new ArrayList<Long>();
+    for (Long id : ids)
+    {
+      if (list.size() == maxClause)
+      {
+        rollUpSome(historyTable,list,bucketRegexp);
+        list.clear();
+      }
+      list.add(id);
+    }
+    if (list.size() > 0)
+      rollUpSome(historyTable,list,bucketRegexp);
+  }
+
+  /** Summarize a set of history records small enough for one IN clause.
+  */
+  protected void rollUpSome(String historyTable, List<Long> ids, String bucketRegexp)
+    throws ManifoldCFException
+  {
+    // The query we will generate here looks like this:
+    // INSERT INTO repohistoryrollup (<fields>)
+    //   SELECT t0.owner,t0.activitytype,t0.resultcode,<bucketregexp>,t0.idbucket,t0.startminute,t0.endminute,t0.timeslice,
+    //          COUNT('x'),SUM(t0.datasize)
+    //     FROM (SELECT owner,activitytype,resultcode,substring(lower(entityid) from '<bucketregexp>') AS idbucket,
+    //             starttime-MOD(starttime,60000) AS startminute,endtime-MOD(endtime,60000) AS endminute,timeslice,datasize
+    //             FROM repohistory WHERE id IN (...)) t0
+    //     GROUP BY t0.owner,t0.activitytype,t0.resultcode,t0.idbucket,t0.startminute,t0.endminute,t0.timeslice
+    //
+    // The bucket is computed by the same database function the reports use, so the two always agree.
+
+    String minuteString = new Long(minuteInterval).toString();
+    ArrayList list = new ArrayList();
+    StringBuilder sb = new StringBuilder("INSERT INTO ");
+    sb.append(getTableName()).append(" (").append(ownerNameField).append(",").append(activityTypeField).append(",")
+      .append(resultCodeField).append(",").append(bucketDescriptionField).append(",").append(idBucketField).append(",")
+      .append(startMinuteField).append(",").append(endMinuteField).append(",").append(timeSliceField).append(",")
+      .append(eventCountField).append(",").append(byteCountField).append(") SELECT t0.").append(ownerNameField)
+      .append(",t0.").append(activityTypeField).append(",t0.").append(resultCodeField).append(",CAST(? AS VARCHAR(255)),t0.")
+      .append(idBucketField).append(",t0.").append(startMinuteField).append(",t0.").append(endMinuteField).append(",t0.")
+      .append(timeSliceField).append(",").append(constructCountClause("'x'")).append(",SUM(t0.")
+      .append(RepositoryHistoryManager.dataSizeField).append(") FROM (SELECT ")
+      .append(RepositoryHistoryManager.ownerNameField).append(" AS ").append(ownerNameField).append(",")
+      .append(RepositoryHistoryManager.activityTypeField).append(" AS ").append(activityTypeField).append(",")
+      .append(RepositoryHistoryManager.resultCodeField).append(" AS ").append(resultCodeField).append(",");
+    list.add(bucketRegexp);
+    sb.append(constructSubstringClause(RepositoryHistoryManager.entityIdentifierField,"?",true)).append(" AS ").append(idBucketField).append(",");
+    list.add(bucketRegexp);
+    sb.append(RepositoryHistoryManager.startTimeField).append("-MOD(").append(RepositoryHistoryManager.startTimeField).append(",")
+      .append(minuteString).append(") AS ").append(startMinuteField).append(",")
+      .append(RepositoryHistoryManager.endTimeField).append("-MOD(").append(RepositoryHistoryManager.endTimeField).append(",")
+      .append(minuteString).append(") AS ").append(endMinuteField).append(",")
+      .append(RepositoryHistoryManager.timeSliceField).append(" AS ").append(timeSliceField).append(",")
+      .append(RepositoryHistoryManager.dataSizeField).append(" FROM ").append(historyTable);
+    if (ids != null)
+    {
+      sb.append(" WHERE ").append(buildConjunctionClause(list,new ClauseDescription[]{
+        new MultiClause(RepositoryHistoryManager.idField,ids)}));
+    }
+    sb.append(") t0 GROUP BY t0.").append(ownerNameField).append(",t0.").append(activityTypeField).append(",t0.")
+      .append(resultCodeField).append(",t0.").append(idBucketField).append(",t0.").append(startMinuteField).append(",t0.")
+      .append(endMinuteField).append(",t0.").append(timeSliceField);
+    performModification(sb.toString(),list,null);
+  }
+
+}
@@ -0,0 +1,126 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import java.util.*;
+
+/** This class holds batches of documents that the stuffer thread has claimed (made active in
+* the database), but which have not yet been placed on the document queue.  It is the hand-off
+* point between the two stages of the pipelined stuffer.  The queue has a small fixed capacity,
+* so the claiming stage can only ever get a bounded distance ahead of demand.
+*
+* Like the document queue, this queue is cleared as part of a worker reset, since the reset
+* returns every active document belonging to this process to the pending state.
+*/
+public class ClaimedDocumentQueue
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The maximum number of batches that can be waiting */
+  protected final int capacity;
+  /** The waiting batches */
+  protected final List<DocumentDescription[]> queue = new ArrayList<DocumentDescription[]>();
+  /** This flag gets set to 'true' if the queue is being cleared due to a reset */
+  protected boolean resetFlag = false;
+
+  /** Constructor.
+  *@param capacity is the number of batches that may be waiting at once.
+  */
+  public ClaimedDocumentQueue(int capacity)
+  {
+    this.capacity = capacity;
+  }
+
+  /** Wake up all threads waiting on this queue.  This happens at the beginning of a reset.
+  */
+  public void reset()
+  {
+    synchronized (queue)
+    {
+      resetFlag = true;
+      queue.notifyAll();
+    }
+  }
+
+  /** Clear the queue.  This happens during a reset.
+  */
+  public void clear()
+  {
+    synchronized (queue)
+    {
+      queue.clear();
+      resetFlag = false;
+      queue.notifyAll();
+    }
+  }
+
+  /** Check whether there is room for another batch.
+  *@return true if a batch can be added without waiting.
+  */
+  public boolean hasRoom()
+  {
+    synchronized (queue)
+    {
+      return queue.size() < capacity;
+    }
+  }
+
+  /** Add a batch of claimed documents, waiting if the queue is full.
+  *@param batch is the batch.
+  *@return false if the batch was not added because a reset is underway.
+  */
+  public boolean addBatch(DocumentDescription[] batch)
+    throws InterruptedException
+  {
+    synchronized (queue)
+    {
+      while (queue.size() >= capacity && resetFlag == false)
+        queue.wait();
+      if (resetFlag)
+        return false;
+      queue.add(batch);
+      queue.notifyAll();
+      return true;
+    }
+  }
+
+  /** Get the next batch, waiting up to the specified time if there is none.
+  *@param waitTime is the maximum time to wait, in milliseconds.
+  *@return the batch, or null if none arrived in time or a reset is underway.
+  */
+  public DocumentDescription[] getBatch(long waitTime)
+    throws InterruptedException
+  {
+    synchronized (queue)
+    {
+      if (resetFlag)
+        return null;
+      if (queue.size() == 0)
+        queue.wait(waitTime);
+      if (resetFlag || queue.size() == 0)
+        return null;
+      DocumentDescription[] rval = queue.remove(0);
+      queue.notifyAll();
+      return rval;
+    }
+  }
+
+}
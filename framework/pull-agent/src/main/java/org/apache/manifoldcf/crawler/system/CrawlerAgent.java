@@ -71,6 +71,12 @@ public class CrawlerAgent implements IAgent
   protected float lowWaterFactor = 5.0f;
   // Factor in amount to stuff
   protected float stuffAmtFactor = 0.5f;
+  // True if the stuffer claims documents ahead of need
+  protected boolean pipelinedStuffer = false;
+  // Bytes of document content the worker threads may have in flight (0 means no limit)
+  protected long documentBudget = 0L;
+  // Number of partitions in the worker threads' document queue
+  protected int queuePartitions = 1;
 
   /** Process identifier for this agent */
   protected String processID = null;
@@ -147,6 +153,8 @@ public class CrawlerAgent implements IAgent
   {
     IJobManager jobManager = JobManagerFactory.make(threadContext);
     jobManager.cleanupProcessData();
+    IBinManager binManager = BinManagerFactory.make(threadContext);
+    binManager.cleanupProcessData();
     // What kind of reprioritization should be done here?
     // Answer: since we basically keep everything in the database now, the only kind of reprioritization we need
     // to take care of are dangling ones that won't get done because the process that was doing them went
@@ -169,6 +177,8 @@ public class CrawlerAgent implements IAgent
   {
     IJobManager jobManager = JobManagerFactory.make(threadContext);
     jobManager.cleanupProcessData(cleanupProcessID);
+    IBinManager binManager = BinManagerFactory.make(threadContext);
+    binManager.cleanupProcessData(cleanupProcessID);
     IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
     String reproID = rt.isSpecifiedProcessReprioritizing(cleanupProcessID);
     if (reproID != null)
@@ -307,6 +317,15 @@ public class CrawlerAgent implements IAgent
     stuffAmtFactor = (float)LockManagerFactory.getDoubleProperty(threadContext,ManifoldCF.stuffAmtFactorProperty,2.0);
     if (stuffAmtFactor < 0.1 || stuffAmtFactor > 1000.0)
       throw new ManifoldCFException("Illegal value for the stuffing amount factor");
+    pipelinedStuffer = LockManagerFactory.getBooleanProperty(threadContext,ManifoldCF.pipelinedStufferProperty,false);
+    documentBudget = 1048576L * (long)LockManagerFactory.getIntProperty(threadContext,ManifoldCF.documentBudgetProperty,0);
+    if (documentBudget < 0L)
+      throw new ManifoldCFException("Illegal value for the document content budget");
+    queuePartitions = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.queuePartitionsProperty,0);
+    if (queuePartitions < 0 || queuePartitions > 300)
+      throw new ManifoldCFException("Illegal value for the number of document queue partitions");
+    if (queuePartitions == 0)
+      queuePartitions = (numWorkerThreads + 15) / 16;
 
 
     // Create the threads and objects.  This MUST be completed before there is any chance of "shutdownSystem" getting called.
@@ -314,14 +333,16 @@ public class CrawlerAgent implements IAgent
     QueueTracker queueTracker = new QueueTracker();
 
 
-    DocumentQueue documentQueue = new DocumentQueue();
+    DocumentQueue documentQueue = new DocumentQueue(queuePartitions);
+    ClaimedDocumentQueue claimedQueue = new ClaimedDocumentQueue(1);
     DocumentDeleteQueue documentDeleteQueue = new DocumentDeleteQueue();
     DocumentCleanupQueue documentCleanupQueue = new DocumentCleanupQueue();
     DocumentCleanupQueue expireQueue = new DocumentCleanupQueue();
 
     BlockingDocuments blockingDocuments = new BlockingDocuments();
+    DocumentAdmission documentAdmission = new DocumentAdmission(documentBudget);
 
-    workerResetManager = new WorkerResetManager(documentQueue,expireQueue,processID);
+    workerResetManager = new WorkerResetManager(documentQueue,claimedQueue,expireQueue,processID);
     docDeleteResetManager = new DocDeleteResetManager(documentDeleteQueue,processID);
     docCleanupResetManager = new DocCleanupResetManager(documentCleanupQueue,processID);
 
@@ -331,7 +352,8 @@ public class CrawlerAgent implements IAgent
     finisherThread = new FinisherThread(processID);
     notificationThread = new JobNotificationThread(new NotificationResetManager(processID),processID);
     jobDeleteThread = new JobDeleteThread(processID);
-    stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,processID);
+    stufferThread = new StufferThread(documentQueue,numWorkerThreads,workerResetManager,queueTracker,blockingDocuments,lowWaterFactor,stuffAmtFactor,processID,
+      pipelinedStuffer?claimedQueue:null);
     expireStufferThread = new ExpireStufferThread(expireQueue,numExpireThreads,workerResetManager,processID);
     setPriorityThread = new SetPriorityThread(numWorkerThreads,blockingDocuments,processID);
     historyCleanupThread = new HistoryCleanupThread(processID);
@@ -340,7 +362,7 @@ public class CrawlerAgent implements IAgent
     int i = 0;
     while (i < numWorkerThreads)
     {
-      workerThreads[i] = new WorkerThread(Integer.toString(i),documentQueue,workerResetManager,queueTracker,processID);
+      workerThreads[i] = new WorkerThread(Integer.toString(i),documentQueue,workerResetManager,queueTracker,documentAdmission,processID);
       i++;
     }
 
@@ -708,6 +730,8 @@ public class CrawlerAgent implements IAgent
 
     // Threads are down; release connectors
     RepositoryConnectorPoolFactory.make(threadContext).flushUnusedConnectors();
+    // Write out whatever history the threads left buffered
+    RepositoryConnectionManagerFactory.make(threadContext).flushHistory();
     numWorkerThreads = 0;
     numDeleteThreads = 0;
     numExpireThreads = 0;
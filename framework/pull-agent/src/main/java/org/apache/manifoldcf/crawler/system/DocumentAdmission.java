@@ -0,0 +1,205 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import java.util.*;
+
+/** This class keeps the document content that the worker threads of a process have in flight within a
+* fixed budget of bytes.  Before a worker thread hands a set of documents to a repository connector, it
+* reserves an expected size for each of them; documents that do not fit are put back on the queue for a
+* little while instead of being fetched.  When a document is ingested, its actual length is charged, and
+* if that cannot be covered either, the document is retried later rather than ingested.  The reservation
+* is returned when the worker thread is done with the set.
+*
+* The expected size of a document is the length it had when last seen, if that is remembered, and
+* otherwise a running average of the lengths of recent documents.  So that nothing is held back forever,
+* the first document that has to be deferred gets first claim on the budget: until it is admitted (or
+* its claim runs out, if it does not come back), other documents are only admitted if they leave room for
+* it.  A document larger than the whole budget is admitted once nothing else holds any of it, and, since
+* nothing else is admitted while it waits, that happens even in a busy process.
+*/
+public class DocumentAdmission
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The size assumed for a document before any lengths have been seen, in bytes */
+  protected static final long INITIAL_ESTIMATE = 65536L;
+  /** The number of document lengths to remember */
+  protected static final int MAX_SIZE_HINTS = 10000;
+  /** How long a deferred document keeps its claim on the budget, in milliseconds, if it does not come back */
+  protected static final long CLAIM_TIME = 60000L;
+
+  /** The budget, in bytes; 0 means unlimited */
+  protected final long budget;
+  /** The number of bytes currently reserved */
+  protected long inUse = 0L;
+  /** The running average document length */
+  protected long estimate = INITIAL_ESTIMATE;
+  /** The hash of the deferred document that has first claim on the budget, or null if none */
+  protected String claimant = null;
+  /** The number of bytes the claimant needs */
+  protected long claimAmount = 0L;
+  /** The time at which the claim lapses */
+  protected long claimExpiration = 0L;
+  /** Recently seen document lengths, keyed by document identifier hash */
+  protected final Map<String,Long> sizeHints = new LinkedHashMap<String,Long>(16,0.75f,true)
+  {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String,Long> eldest)
+    {
+      return size() > MAX_SIZE_HINTS;
+    }
+  };
+
+  /** Constructor.
+  *@param budget is the number of bytes of document content the process may have in flight; 0 means unlimited.
+  */
+  public DocumentAdmission(long budget)
+  {
+    this.budget = budget;
+  }
+
+  /** Check whether admission control is in effect.
+  */
+  public boolean isEnabled()
+  {
+    return budget > 0L;
+  }
+
+  /** Reserve budget for a set of documents, in order, stopping at the first one that does not fit.
+  *@param documentIdentifierHashes are the hashes of the documents.
+  *@return a ticket describing what was reserved.
+  */
+  public synchronized Ticket admit(String[] documentIdentifierHashes)
+  {
+    long currentTime = System.currentTimeMillis();
+    if (claimant != null && currentTime > claimExpiration)
+      claimant = null;
+    Ticket ticket = new Ticket();
+    for (String documentIdentifierHash : documentIdentifierHashes)
+    {
+      Long hint = sizeHints.get(documentIdentifierHash);
+      long amount = (hint == null)?estimate:hint.longValue();
+      if (claimant == null || claimant.equals(documentIdentifierHash))
+      {
+        // The first document always fits if nobody else holds anything
+        if (inUse + amount > budget && inUse > 0L)
+        {
+          noteDeferred(documentIdentifierHash,amount,currentTime);
+          break;
+        }
+        claimant = null;
+      }
+      else
+      {
+        // Someone else is waiting; leave room for them
+        if (inUse + amount + claimAmount > budget)
+          break;
+      }
+      inUse += amount;
+      ticket.reserved.put(documentIdentifierHash,new Long(amount));
+      ticket.total += amount;
+    }
+    return ticket;
+  }
+
+  /** Charge a document's actual length against a ticket, reserving more budget if needed.
+  *@param ticket is the ticket.
+  *@param documentIdentifierHash is the hash of the document.
+  *@param length is the document's length in bytes, or a negative number if unknown.
+  *@return true if the document is covered, or false if it should be retried later.
+  */
+  public synchronized boolean charge(Ticket ticket, String documentIdentifierHash, long length)
+  {
+    if (length < 0L)
+      return true;
+    sizeHints.put(documentIdentifierHash,new Long(length));
+    estimate += (length - estimate) / 16L;
+
+    Long reserved = ticket.reserved.get(documentIdentifierHash);
+    long extra = length - ((reserved == null)?0L:reserved.longValue());
+    if (extra <= 0L)
+      return true;
+    // Allowed if it fits, or if this ticket is the only thing holding budget
+    if (inUse + extra > budget && inUse > ticket.total)
+    {
+      noteDeferred(documentIdentifierHash,length,System.currentTimeMillis());
+      return false;
+    }
+    inUse += extra;
+    ticket.reserved.put(documentIdentifierHash,new Long(length));
+    ticket.total += extra;
+    return true;
+  }
+
+  /** Note that a document did not fit, and give it first claim on the budget if nobody else has it.
+  */
+  protected void noteDeferred(String documentIdentifierHash, long amount, long currentTime)
+  {
+    if (claimant != null && !claimant.equals(documentIdentifierHash))
+      return;
+    claimant = documentIdentifierHash;
+    claimAmount = amount;
+    claimExpiration = currentTime + CLAIM_TIME;
+  }
+
+  /** Return everything a ticket holds.
+  */
+  public synchronized void release(Ticket ticket)
+  {
+    inUse -= ticket.total;
+    ticket.total = 0L;
+    ticket.reserved.clear();
+  }
+
+  /** Get the number of bytes currently reserved.
+  */
+  public synchronized long getInUse()
+  {
+    return inUse;
+  }
+
+  /** The budget held by one worker thread for one set of documents */
+  public static class Ticket
+  {
+    /** The bytes reserved for each admitted document */
+    protected final Map<String,Long> reserved = new HashMap<String,Long>();
+    /** The total bytes reserved */
+    protected long total = 0L;
+
+    public Ticket()
+    {
+    }
+
+    /** Check whether a document was admitted.
+    */
+    public boolean isAdmitted(String documentIdentifierHash)
+    {
+      return reserved.get(documentIdentifierHash) != null;
+    }
+
+    /** Get the number of documents admitted.
+    */
+    public int getAdmittedCount()
+    {
+      return reserved.size();
+    }
+  }
+
+}
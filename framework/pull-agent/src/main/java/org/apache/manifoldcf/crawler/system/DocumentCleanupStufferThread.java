@@ -44,6 +44,8 @@ public class DocumentCleanupStufferThread extends Thread
   protected final int n;
   /** Process ID */
   protected final String processID;
+  /** The longest wait when no job is in a state this thread serves, in milliseconds */
+  protected final static long idleWaitTime = 60000L;
 
   /** Constructor.
   *@param documentCleanupQueue is the document queue we'll be stuffing.
@@ -71,6 +73,7 @@ public class DocumentCleanupStufferThread extends Thread
       IThreadContext threadContext = ThreadContextFactory.make();
       IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(threadContext);
       IJobManager jobManager = JobManagerFactory.make(threadContext);
+      ILockManager lockManager = LockManagerFactory.make(threadContext);
 
       ArrayList docList = new ArrayList();
 
@@ -93,7 +96,7 @@ public class DocumentCleanupStufferThread extends Thread
           // can run out of work if we don't act).
           if (documentCleanupQueue.checkIfEmpty(n) == false)
           {
-            ManifoldCF.sleep(100L);
+            documentCleanupQueue.waitUntilEmpty(n,1000L);
             continue;
           }
 
@@ -105,6 +108,8 @@ public class DocumentCleanupStufferThread extends Thread
           // This method will set the status of the documents in question
           // to "beingcleaned".
 
+          // Note the signal generation first, so a job state change during the query will wake us
+          long jobStateGeneration = ManifoldCF.jobStateSignal.getGeneration();
           DocumentSetAndFlags documentsToClean = jobManager.getNextCleanableDocuments(processID,deleteChunkSize,currentTime);
           DocumentDescription[] descs = documentsToClean.getDocumentSet();
           boolean[] removeFromIndex = documentsToClean.getFlags();
@@ -114,7 +119,10 @@ public class DocumentCleanupStufferThread extends Thread
           if (descs.length == 0)
           {
             Logging.threads.debug("Document cleanup stuffer thread found nothing to do");
-            ManifoldCF.sleep(1000L);       // 1 second
+            // Documents of a job in this state can be held back by other jobs, and their release is not
+            // signalled; otherwise nothing turns up until a job changes state.
+            ManifoldCF.jobStateSignal.waitForSignal(lockManager,jobStateGeneration,
+              jobManager.cleaningJobsPresent()?1000L:idleWaitTime);
             continue;
           }
 
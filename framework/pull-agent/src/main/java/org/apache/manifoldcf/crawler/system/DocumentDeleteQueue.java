@@ -33,6 +33,10 @@ public class DocumentDeleteQueue
 
   // Since the queue has a maximum size, an ArrayList is a fine way to keep it
   protected ArrayList queue = new ArrayList();
+  // The stuffer thread waits on this object for the queue to drain
+  protected final Object drainLock = new Object();
+  // The size the stuffer thread is waiting for the queue to drain to, or -1
+  protected volatile int drainMark = -1;
 
   /** Constructor.
   */
@@ -73,6 +77,44 @@ public class DocumentDeleteQueue
     return false;
   }
 
+  /** Wait until the queue is "empty", or until the time is up.  Only the stuffer thread may call this.
+  *@param n is the low-water mark.
+  *@param maxWait is the longest time to wait, in milliseconds.
+  */
+  public void waitUntilEmpty(int n, long maxWait)
+    throws InterruptedException
+  {
+    synchronized (drainLock)
+    {
+      // Set the mark before checking the size, so either we see a removal, or the reader sees the mark
+      drainMark = n;
+      try
+      {
+        if (!checkIfEmpty(n))
+          drainLock.wait(maxWait);
+      }
+      finally
+      {
+        drainMark = -1;
+      }
+    }
+  }
+
+  /** Wake the stuffer thread, if the queue has drained as far as it is waiting for.
+  *@param remaining is the size of the queue.
+  */
+  protected void noteRemoval(int remaining)
+  {
+    int mark = drainMark;
+    if (mark != -1 && remaining <= mark)
+    {
+      synchronized (drainLock)
+      {
+        drainLock.notifyAll();
+      }
+    }
+  }
+
   /** Add a document set to the queue.  This will be a set of n documents (where n is some chunk size
   * set by experiment).
   *@param dd is the document set.
@@ -93,6 +135,8 @@ public class DocumentDeleteQueue
   public DocumentDeleteSet getDocuments()
     throws InterruptedException
   {
+    DocumentDeleteSet dd;
+    int remaining;
     synchronized (queue)
     {
       // If queue is empty, go to sleep
@@ -103,9 +147,12 @@ public class DocumentDeleteQueue
       if (queue.size() == 0)
         return null;
       // If we've been awakened, there's an entry to grab
-      DocumentDeleteSet dd = (DocumentDeleteSet)queue.remove(queue.size()-1);
-      return dd;
+      dd = (DocumentDeleteSet)queue.remove(queue.size()-1);
+      remaining = queue.size();
     }
+    // Not while holding the queue lock, since the stuffer thread takes the locks the other way around
+    noteRemoval(remaining);
+    return dd;
   }
 
 
@@ -44,6 +44,8 @@ public class DocumentDeleteStufferThread extends Thread
   protected final int n;
   /** Process ID */
   protected final String processID;
+  /** The longest wait when no job is in a state this thread serves, in milliseconds */
+  protected final static long idleWaitTime = 60000L;
   
   /** Constructor.
   *@param documentDeleteQueue is the document queue we'll be stuffing.
@@ -71,6 +73,7 @@ public class DocumentDeleteStufferThread extends Thread
       IThreadContext threadContext = ThreadContextFactory.make();
       IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(threadContext);
       IJobManager jobManager = JobManagerFactory.make(threadContext);
+      ILockManager lockManager = LockManagerFactory.make(threadContext);
 
       ArrayList docList = new ArrayList();
 
@@ -93,7 +96,7 @@ public class DocumentDeleteStufferThread extends Thread
           // can run out of work if we don't act).
           if (documentDeleteQueue.checkIfEmpty(n * 3) == false)
           {
-            ManifoldCF.sleep(100L);
+            documentDeleteQueue.waitUntilEmpty(n * 3,1000L);
             continue;
           }
 
@@ -105,6 +108,8 @@ public class DocumentDeleteStufferThread extends Thread
           // This method will set the status of the documents in question
           // to "beingdeleted".
 
+          // Note the signal generation first, so a job state change during the query will wake us
+          long jobStateGeneration = ManifoldCF.jobStateSignal.getGeneration();
           DocumentDescription[] descs = jobManager.getNextDeletableDocuments(processID,deleteChunkSize,currentTime);
 
           // If there are no chunks at all, then we can sleep for a while.
@@ -112,7 +117,10 @@ public class DocumentDeleteStufferThread extends Thread
           if (descs.length == 0)
           {
             Logging.threads.debug("Document delete stuffer thread found nothing to do");
-            ManifoldCF.sleep(1000L);       // 1 second
+            // Documents of a job in this state can be held back by other jobs, and their release is not
+            // signalled; otherwise nothing turns up until a job changes state.
+            ManifoldCF.jobStateSignal.waitForSignal(lockManager,jobStateGeneration,
+              jobManager.deletingJobsPresent()?1000L:idleWaitTime);
             continue;
           }
 
@@ -0,0 +1,219 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import java.io.*;
+import java.util.*;
+
+/** This class holds documents that a worker thread has been asked to ingest, so that they can be
+* handed to a batch-capable output connector in groups rather than one at a time.
+*
+* A repository connector is free to close a document's streams as soon as ingestDocument() returns,
+* so each document's content is spooled (in memory if it is small, otherwise to disk) and any reader
+* fields are turned into strings when the document is added.  The buffer is flushed when it holds
+* enough documents or content, when its oldest document has waited long enough, and when the worker
+* thread is done with its current set of documents.
+*/
+public class DocumentIngestBuffer
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  protected final IIncrementalIngester ingester;
+  protected final String outputConnectionName;
+  protected final String identifierClass;
+  protected final String outputVersion;
+  protected final String parameterVersion;
+  protected final String authorityName;
+  protected final long ingestTime;
+  protected final IOutputActivity activities;
+
+  protected final int maxDocuments;
+  protected final long maxBytes;
+  protected final long maxAge;
+
+  protected final List<String> identifierHashes = new ArrayList<String>();
+  protected final List<String> documentVersions = new ArrayList<String>();
+  protected final List<String> documentURIs = new ArrayList<String>();
+  protected final List<RepositoryDocument> documents = new ArrayList<RepositoryDocument>();
+  protected final List<TempFileInput> spooledContent = new ArrayList<TempFileInput>();
+  /** The identifier hashes and URIs in the buffer, so a repeat causes a flush */
+  protected final Set<String> bufferedKeys = new HashSet<String>();
+
+  protected long bufferedBytes = 0L;
+  protected long oldestTime = -1L;
+
+  /** Constructor.
+  *@param maxDocuments is the largest number of documents to hold.
+  *@param maxBytes is the largest amount of content, in bytes, to hold.
+  *@param maxAge is the longest time, in milliseconds, that a document should wait.
+  */
+  public DocumentIngestBuffer(IIncrementalIngester ingester, String outputConnectionName, String identifierClass,
+    String outputVersion, String parameterVersion, String authorityName, long ingestTime, IOutputActivity activities,
+    int maxDocuments, long maxBytes, long maxAge)
+  {
+    this.ingester = ingester;
+    this.outputConnectionName = outputConnectionName;
+    this.identifierClass = identifierClass;
+    this.outputVersion = outputVersion;
+    this.parameterVersion = parameterVersion;
+    this.authorityName = authorityName;
+    this.ingestTime = ingestTime;
+    this.activities = activities;
+    this.maxDocuments = maxDocuments;
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+  }
+
+  /** Add a document to the buffer, flushing as needed.
+  *@param identifierHash is the hashed document identifier.
+  *@param documentVersion is the document version.
+  *@param documentURI is the document URI.
+  *@param data is the document.  Its content is copied before this method returns.
+  */
+  public void add(String identifierHash, String documentVersion, String documentURI, RepositoryDocument data)
+    throws ManifoldCFException, ServiceInterruption
+  {
+    // The same document, or the same URI, must not appear twice in one batch
+    if (bufferedKeys.contains("I"+identifierHash) || bufferedKeys.contains("U"+documentURI))
+      flush();
+
+    spooledContent.add(spool(data));
+    identifierHashes.add(identifierHash);
+    documentVersions.add(documentVersion);
+    documentURIs.add(documentURI);
+    documents.add(data);
+    bufferedKeys.add("I"+identifierHash);
+    bufferedKeys.add("U"+documentURI);
+    bufferedBytes += data.getBinaryLength();
+
+    long currentTime = System.currentTimeMillis();
+    if (oldestTime == -1L)
+      oldestTime = currentTime;
+
+    if (documents.size() >= maxDocuments || bufferedBytes >= maxBytes || currentTime - oldestTime >= maxAge)
+      flush();
+  }
+
+  /** Send everything in the buffer to the output connection.
+  */
+  public void flush()
+    throws ManifoldCFException, ServiceInterruption
+  {
+    if (documents.size() == 0)
+      return;
+
+    try
+    {
+      int count = documents.size();
+      String[] identifierClasses = new String[count];
+      for (int i = 0; i < count; i++)
+      {
+        identifierClasses[i] = identifierClass;
+      }
+      if (Logging.threads.isDebugEnabled())
+        Logging.threads.debug("Worker thread ingesting a group of "+Integer.toString(count)+" documents");
+      ingester.documentIngestMultiple(outputConnectionName,
+        identifierClasses,identifierHashes.toArray(new String[0]),
+        documentVersions.toArray(new String[0]),
+        outputVersion,parameterVersion,authorityName,
+        documents.toArray(new RepositoryDocument[0]),
+        ingestTime,documentURIs.toArray(new String[0]),
+        activities);
+    }
+    finally
+    {
+      discard();
+    }
+  }
+
+  /** Throw away anything in the buffer, without sending it.
+  */
+  public void discard()
+    throws ManifoldCFException
+  {
+    try
+    {
+      for (TempFileInput content : spooledContent)
+      {
+        if (content != null)
+          content.discard();
+      }
+    }
+    finally
+    {
+      identifierHashes.clear();
+      documentVersions.clear();
+      documentURIs.clear();
+      documents.clear();
+      spooledContent.clear();
+      bufferedKeys.clear();
+      bufferedBytes = 0L;
+      oldestTime = -1L;
+    }
+  }
+
+  /** Detach a document from the streams and readers its repository connector owns.
+  *@return the spooled binary content, or null if there is none.
+  */
+  protected static TempFileInput spool(RepositoryDocument data)
+    throws ManifoldCFException
+  {
+    try
+    {
+      // Reader fields become string fields
+      List<String> readerFieldNames = new ArrayList<String>();
+      Iterator<String> iter = data.getFields();
+      while (iter.hasNext())
+      {
+        String fieldName = iter.next();
+        if (data.getField(fieldName) instanceof Reader[])
+          readerFieldNames.add(fieldName);
+      }
+      for (String fieldName : readerFieldNames)
+      {
+        data.addField(fieldName,data.getFieldAsStrings(fieldName));
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ManifoldCFException("Error reading document field: "+e.getMessage(),e);
+    }
+
+    InputStream is = data.getBinaryStream();
+    if (is == null)
+      return null;
+    long length = data.getBinaryLength();
+    TempFileInput content = new TempFileInput(is,(length < 0L)?-1L:length);
+    boolean succeeded = false;
+    try
+    {
+      data.setBinary(content.getStream(),content.getLength());
+      succeeded = true;
+      return content;
+    }
+    finally
+    {
+      if (!succeeded)
+        content.discard();
+    }
+  }
+
+}
@@ -21,35 +21,80 @@ package org.apache.manifoldcf.crawler.system;
 import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 /** This class describes a document queue, which has a "stuffer" thread and many "reader" threads.
 * The queue manages thread synchronization so that (a) the "stuffer" thread blocks until queue is empty, and
 * (b) the "reader" threads block if queue is empty.
 * The objects being queued are all QueuedDocumentSet objects.
+*
+* The queue is split into partitions, each with its own lock, so that reader threads do not all contend
+* for one monitor.  A document set goes into the partition chosen by the bins of its first document, and
+* each reader thread has a home partition.  When a reader pulls a set, it compares the best-rated set in
+* its home partition with the best-rated set in one other partition, and takes whichever is better, so that
+* bin balancing still reaches across partitions and an empty home partition never leaves a reader idle.
 */
 public class DocumentQueue
 {
   public static final String _rcsid = "@(#)$Id: DocumentQueue.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // Since the queue has a maximum size, an ArrayList is a fine way to keep it
-  protected final List<QueuedDocumentSet> queue = new ArrayList<QueuedDocumentSet>();
+  // Since each partition has a maximum size, an ArrayList is a fine way to keep it
+  protected final Partition[] partitions;
+  // The total number of document sets in all partitions
+  protected final AtomicInteger size = new AtomicInteger(0);
+  // The number of reader threads waiting for something to be queued
+  protected final AtomicInteger waiting = new AtomicInteger(0);
+  // Readers wait on this object when the queue is empty
+  protected final Object emptyLock = new Object();
+  // Home partitions are handed out round-robin
+  protected final AtomicInteger nextHome = new AtomicInteger(0);
+  // Each pull compares against a different other partition
+  protected final AtomicInteger nextVictim = new AtomicInteger(0);
   // This flag gets set to 'true' if the queue is being cleared due to a reset
-  protected boolean resetFlag = false;
+  protected volatile boolean resetFlag = false;
+  // The stuffer thread waits on this object for the queue to drain
+  protected final Object drainLock = new Object();
+  // The size the stuffer thread is waiting for the queue to drain to, or -1
+  protected volatile int drainMark = -1;
 
   /** Constructor.
   */
   public DocumentQueue()
   {
+    this(1);
+  }
+
+  /** Constructor.
+  *@param partitionCount is the number of partitions to split the queue into.
+  */
+  public DocumentQueue(int partitionCount)
+  {
+    if (partitionCount < 1)
+      partitionCount = 1;
+    partitions = new Partition[partitionCount];
+    int i = 0;
+    while (i < partitionCount)
+    {
+      partitions[i++] = new Partition();
+    }
+  }
+
+  /** Assign a home partition to a reader thread.
+  *@return the partition number to pass to getDocument().
+  */
+  public int assignHomePartition()
+  {
+    return (nextHome.getAndIncrement() & Integer.MAX_VALUE) % partitions.length;
   }
 
   /** Wake up all threads waiting on this queue.  This happens at the beginning of a reset.
   */
   public void reset()
   {
-    synchronized (queue)
+    synchronized (emptyLock)
     {
       resetFlag = true;
-      queue.notifyAll();
+      emptyLock.notifyAll();
     }
   }
 
@@ -57,9 +102,17 @@ public class DocumentQueue
   */
   public void clear()
   {
-    synchronized (queue)
+    for (Partition partition : partitions)
+    {
+      synchronized (partition)
+      {
+        size.addAndGet(-partition.entries.size());
+        partition.entries.clear();
+        partition.count = 0;
+      }
+    }
+    synchronized (emptyLock)
     {
-      queue.clear();
       resetFlag = false;
     }
   }
@@ -69,12 +122,30 @@ public class DocumentQueue
   */
   public boolean checkIfEmpty(int n)
   {
-    synchronized (queue)
+    return size.get() <= n;
+  }
+
+  /** Wait until the queue is "empty", or until the time is up.  Only the stuffer thread may call this.
+  *@param n is the low-water mark.
+  *@param maxWait is the longest time to wait, in milliseconds.
+  */
+  public void waitUntilEmpty(int n, long maxWait)
+    throws InterruptedException
+  {
+    synchronized (drainLock)
     {
-      if (queue.size() <= n)
-        return true;
+      // Set the mark before checking the size, so either we see a removal, or the reader sees the mark
+      drainMark = n;
+      try
+      {
+        if (size.get() > n && resetFlag == false)
+          drainLock.wait(maxWait);
+      }
+      finally
+      {
+        drainMark = -1;
+      }
     }
-    return false;
   }
 
 
@@ -83,10 +154,20 @@ public class DocumentQueue
   */
   public void addDocument(QueuedDocumentSet dd)
   {
-    synchronized (queue)
+    Partition partition = partitions[choosePartition(dd)];
+    synchronized (partition)
     {
-      queue.add(dd);
-      queue.notify();
+      partition.entries.add(dd);
+      partition.count = partition.entries.size();
+      size.incrementAndGet();
+    }
+    // A reader registers as waiting before it checks the size, so either it sees this document, or we see it
+    if (waiting.get() > 0)
+    {
+      synchronized (emptyLock)
+      {
+        emptyLock.notify();
+      }
     }
   }
 
@@ -94,33 +175,152 @@ public class DocumentQueue
   * nothing there.
   *@param overlapCalculator performs analysis of the document sets on the queue so that we can
   * pick the best one.
+  *@param homePartition is the calling thread's home partition, from assignHomePartition().
   *@return the document set.
   */
-  public QueuedDocumentSet getDocument(QueueTracker overlapCalculator)
+  public QueuedDocumentSet getDocument(QueueTracker overlapCalculator, int homePartition)
     throws InterruptedException
   {
-    synchronized (queue)
+    while (true)
     {
       // If we are being reset, return null
       if (resetFlag)
         return null;
 
       // If queue is empty, go to sleep
-      while (queue.size() == 0 && resetFlag == false)
-        queue.wait();
+      if (size.get() == 0)
+      {
+        synchronized (emptyLock)
+        {
+          waiting.incrementAndGet();
+          try
+          {
+            while (size.get() == 0 && resetFlag == false)
+              emptyLock.wait();
+          }
+          finally
+          {
+            waiting.decrementAndGet();
+          }
+        }
+        // If we've been awakened, there's either an entry to grab, or we've been
+        // awakened because it's time to reset.
+        continue;
+      }
 
-      // If we've been awakened, there's either an entry to grab, or we've been
-      // awakened because it's time to reset.
-      if (resetFlag)
-        return null;
+      QueuedDocumentSet rval = pullBest(overlapCalculator, homePartition % partitions.length);
+      if (rval != null)
+      {
+        int mark = drainMark;
+        if (mark != -1 && size.get() <= mark)
+        {
+          synchronized (drainLock)
+          {
+            drainLock.notifyAll();
+          }
+        }
+        return rval;
+      }
+      // Another reader got there first; go around again
+    }
+  }
 
+  /** Pick the partition for a document set, based on the bins of its first document.
+  */
+  protected int choosePartition(QueuedDocumentSet dd)
+  {
+    if (partitions.length == 1)
+      return 0;
+    int hash = 0;
+    if (dd.getCount() > 0)
+    {
+      String[] binNames = dd.getDocument(0).getBinNames();
+      for (String binName : binNames)
+      {
+        hash = hash * 31 + binName.hashCode();
+      }
+    }
+    return (hash & Integer.MAX_VALUE) % partitions.length;
+  }
+
+  /** Remove the better of the best set in the home partition and the best set in one other
+  * non-empty partition.
+  *@return the set, or null if every partition turned out to be empty.
+  */
+  protected QueuedDocumentSet pullBest(QueueTracker overlapCalculator, int home)
+  {
+    Partition homeQueue = partitions[home];
+    // Find another partition that has something in it, starting from a different place each time
+    int victim = -1;
+    if (partitions.length > 1)
+    {
+      int start = (nextVictim.getAndIncrement() & Integer.MAX_VALUE) % partitions.length;
+      int i = 0;
+      while (i < partitions.length)
+      {
+        int candidate = (start + i++) % partitions.length;
+        if (candidate != home && partitions[candidate].count > 0)
+        {
+          victim = candidate;
+          break;
+        }
+      }
+    }
+
+    if (victim == -1)
+    {
+      synchronized (homeQueue)
+      {
+        return homeQueue.removeBest(overlapCalculator, size);
+      }
+    }
+
+    // Lock in index order so two readers can never deadlock
+    Partition first = partitions[Math.min(home,victim)];
+    Partition second = partitions[Math.max(home,victim)];
+    synchronized (first)
+    {
+      synchronized (second)
+      {
+        Partition victimQueue = partitions[victim];
+        int homeIndex = homeQueue.findBest(overlapCalculator);
+        int victimIndex = victimQueue.findBest(overlapCalculator);
+        if (homeIndex == -1 && victimIndex == -1)
+          return null;
+        if (victimIndex == -1 || (homeIndex != -1 && homeQueue.bestRating >= victimQueue.bestRating))
+          return homeQueue.remove(homeIndex, size);
+        return victimQueue.remove(victimIndex, size);
+      }
+    }
+  }
+
+  /** One partition of the queue.  All access is synchronized on the partition object.
+  */
+  protected static class Partition
+  {
+    /** The document sets, in the order they were added */
+    public final List<QueuedDocumentSet> entries = new ArrayList<QueuedDocumentSet>();
+    /** The rating of the set found by the last findBest() */
+    public double bestRating = Double.NEGATIVE_INFINITY;
+    /** The number of sets, readable without the lock */
+    public volatile int count = 0;
+
+    public Partition()
+    {
+    }
+
+    /** Find the best-rated set.
+    *@return its index, or -1 if the partition is empty.
+    */
+    public int findBest(QueueTracker overlapCalculator)
+    {
       // Go through all the documents and pick the one with the best rating
       int i = 0;
       int bestIndex = -1;
-      double bestRating = Double.NEGATIVE_INFINITY;
-      while (i < queue.size())
+      bestRating = Double.NEGATIVE_INFINITY;
+      while (i < entries.size())
       {
-        QueuedDocumentSet dd = queue.get(i);
+        QueuedDocumentSet dd = entries.get(i);
         // Evaluate each document's bins.  These will be saved in the QueuedDocumentSet.
         double rating = dd.calculateAssignmentRating(overlapCalculator);
         if (bestIndex == -1 || rating > bestRating)
@@ -130,11 +330,29 @@ public class DocumentQueue
         }
         i++;
       }
-      // Pull off the best one.  DON'T REORDER!!
-      QueuedDocumentSet rval = queue.remove(bestIndex);
+      return bestIndex;
+    }
+
+    /** Remove the set at an index, adjusting the queue size.
+    */
+    public QueuedDocumentSet remove(int index, AtomicInteger size)
+    {
+      // Pull off the chosen one.  DON'T REORDER!!
+      QueuedDocumentSet rval = entries.remove(index);
+      count = entries.size();
+      size.decrementAndGet();
       return rval;
     }
-  }
 
+    /** Remove the best-rated set, if there is one.
+    */
+    public QueuedDocumentSet removeBest(QueueTracker overlapCalculator, AtomicInteger size)
+    {
+      int bestIndex = findBest(overlapCalculator);
+      if (bestIndex == -1)
+        return null;
+      return remove(bestIndex, size);
+    }
+  }
 
 }
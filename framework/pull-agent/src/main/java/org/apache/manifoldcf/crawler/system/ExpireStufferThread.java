@@ -108,7 +108,7 @@ public class ExpireStufferThread extends Thread
           boolean isEmpty = documentQueue.checkIfEmpty(n*3);
           if (isEmpty == false)
           {
-            sleep(1000);
+            documentQueue.waitUntilEmpty(n*3,1000L);
             continue;
           }
 
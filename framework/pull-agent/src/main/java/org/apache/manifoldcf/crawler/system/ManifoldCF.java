@@ -22,6 +22,11 @@ import org.apache.manifoldcf.core.interfaces.*;
 import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.authorities.interfaces.*;
+import org.apache.manifoldcf.core.cachemanager.CacheManager;
+import org.apache.manifoldcf.core.cachemanager.CacheStatistics;
+import org.apache.manifoldcf.core.database.ConnectionFactory;
+import org.apache.manifoldcf.core.jdbcpool.ConnectionPoolStatistics;
+import org.apache.manifoldcf.core.lockmanager.LockProfiler;
 
 import java.io.*;
 import java.security.GeneralSecurityException;
@@ -59,11 +64,47 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   protected static final String expireThreadCountProperty = "org.apache.manifoldcf.crawler.expirethreads";
   protected static final String lowWaterFactorProperty = "org.apache.manifoldcf.crawler.lowwaterfactor";
   protected static final String stuffAmtFactorProperty = "org.apache.manifoldcf.crawler.stuffamountfactor";
+  protected static final String pipelinedStufferProperty = "org.apache.manifoldcf.crawler.pipelinedstuffer";
+  /** Number of document priority bin values a process reserves at a time */
+  public static final String binLeaseSizeProperty = "org.apache.manifoldcf.crawler.binleasesize";
+  /** Time a process may keep using reserved bin values, in seconds */
+  public static final String binLeaseTimeProperty = "org.apache.manifoldcf.crawler.binleasetime";
+  /** Number of hopcount distances to keep in memory, for single-process deployments only (0 means none) */
+  public static final String hopcountCacheSizeProperty = "org.apache.manifoldcf.crawler.hopcount.cachesize";
+  /** Megabytes of document content the worker threads of a process may have in flight at once (0 means no limit) */
+  public static final String documentBudgetProperty = "org.apache.manifoldcf.crawler.documentbudget";
+  /** Characters of carrydown values to keep in memory for each job (0 means none) */
+  public static final String carrydownCacheSizeProperty = "org.apache.manifoldcf.crawler.carrydown.cachesize";
+  /** Number of partitions the worker threads' document queue is split into (0 means one per 16 worker threads) */
+  public static final String queuePartitionsProperty = "org.apache.manifoldcf.crawler.queuepartitions";
+  /** Most documents a worker thread buffers for a batch-capable output connector (1 means no buffering) */
+  public static final String ingestBatchMaxDocumentsProperty = "org.apache.manifoldcf.crawler.ingestbatch.maxdocuments";
+  /** Most document content, in kilobytes, a worker thread buffers before sending a batch */
+  public static final String ingestBatchMaxSizeProperty = "org.apache.manifoldcf.crawler.ingestbatch.maxsize";
+  /** Longest time, in milliseconds, a document may wait in a worker thread's buffer */
+  public static final String ingestBatchMaxAgeProperty = "org.apache.manifoldcf.crawler.ingestbatch.maxage";
+  /** Most history records a process buffers before writing them (1 means no buffering) */
+  public static final String historyBatchSizeProperty = "org.apache.manifoldcf.crawler.history.batchsize";
+  /** Longest time, in milliseconds, a history record may wait in a process's buffer */
+  public static final String historyBatchMaxAgeProperty = "org.apache.manifoldcf.crawler.history.batchmaxage";
+  /** Identifier bucket regular expression the history rollup is kept by */
+  public static final String historyRollupBucketProperty = "org.apache.manifoldcf.crawler.history.rollupbucket";
+  /** Most jobs a process starts up or reseeds at once */
+  public static final String seedingJobThreadsProperty = "org.apache.manifoldcf.crawler.seeding.jobthreads";
+  /** Most seed documents added to the job queue in one transaction */
+  public static final String seedingBatchSizeProperty = "org.apache.manifoldcf.crawler.seeding.batchsize";
+  /** Most batches of seed documents that may wait to be added to the job queue, per job (0 means add them from the seeding thread) */
+  public static final String seedingQueuedBatchesProperty = "org.apache.manifoldcf.crawler.seeding.queuedbatches";
   protected static final String connectorsConfigurationFileProperty = "org.apache.manifoldcf.connectorsconfigurationfile";
   protected static final String databaseSuperuserNameProperty = "org.apache.manifoldcf.dbsuperusername";
   protected static final String databaseSuperuserPasswordProperty = "org.apache.manifoldcf.dbsuperuserpassword";
   protected static final String saltProperty = "org.apache.manifoldcf.salt";
 
+  /** Raised when documents are queued or requeued, or when a job changes state */
+  public static final WakeupSignal documentsQueuedSignal = new WakeupSignal("_WAKEUP_DOCUMENTSQUEUED");
+  /** Raised when a job changes state */
+  public static final WakeupSignal jobStateSignal = new WakeupSignal("_WAKEUP_JOBSTATE");
+
   
   /** Initialize environment.
   */
@@ -1131,6 +1172,70 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
   // Authorization domain nodes
   protected static final String AUTHORIZATIONDOMAINNODE_DESCRIPTION = "description";
   protected static final String AUTHORIZATIONDOMAINNODE_DOMAINNAME = "domain_name";
+
+  // Cache statistics nodes
+  protected static final String API_CACHECLASSNODE = "cacheclass";
+  protected static final String API_CACHEKEYPREFIXNODE = "cachekeyprefix";
+  protected static final String API_CACHEMEMORYNODE = "cachememory";
+  protected static final String CACHECLASSNODE_NAME = "name";
+  protected static final String CACHECLASSNODE_LOOKUPS = "lookups";
+  protected static final String CACHECLASSNODE_HITS = "hits";
+  protected static final String CACHECLASSNODE_SAVES = "saves";
+  protected static final String CACHECLASSNODE_INVALIDATIONS = "invalidations";
+  protected static final String CACHECLASSNODE_EXPIRATIONS = "expirations";
+  protected static final String CACHECLASSNODE_EVICTIONS = "evictions";
+  protected static final String CACHECLASSNODE_COUNT = "count";
+  protected static final String CACHEKEYPREFIXNODE_PREFIX = "prefix";
+  protected static final String CACHEKEYPREFIXNODE_INVALIDATIONS = "invalidations";
+  protected static final String CACHEKEYPREFIXNODE_OBJECTSINVALIDATED = "objects_invalidated";
+
+  // Database connection pool statistics nodes
+  protected static final String API_DATABASEPOOLNODE = "databasepool";
+  protected static final String DATABASEPOOLNODE_NAME = "name";
+  protected static final String DATABASEPOOLNODE_MAXCONNECTIONS = "max_connections";
+  protected static final String DATABASEPOOLNODE_ACTIVECONNECTIONS = "active_connections";
+  protected static final String DATABASEPOOLNODE_FREECONNECTIONS = "free_connections";
+  protected static final String DATABASEPOOLNODE_WAITERS = "waiters";
+  protected static final String DATABASEPOOLNODE_CREATED = "connections_created";
+  protected static final String DATABASEPOOLNODE_DESTROYED = "connections_destroyed";
+  protected static final String DATABASEPOOLNODE_CREATIONFAILURES = "creation_failures";
+  protected static final String DATABASEPOOLNODE_VALIDATIONFAILURES = "validation_failures";
+  protected static final String DATABASEPOOLNODE_REJECTIONS = "waiter_rejections";
+  protected static final String DATABASEPOOLNODE_UTILIZATION = "utilization";
+  protected static final String DATABASEPOOLNODE_CALLERCLASS = "callerclass";
+  protected static final String CALLERCLASSNODE_NAME = "name";
+  protected static final String CALLERCLASSNODE_ACQUISITIONS = "acquisitions";
+  protected static final String CALLERCLASSNODE_WAITS = "waits";
+  protected static final String CALLERCLASSNODE_TIMEOUTS = "timeouts";
+  protected static final String CALLERCLASSNODE_TOTALWAITTIME = "total_wait_ms";
+  protected static final String CALLERCLASSNODE_MAXWAITTIME = "max_wait_ms";
+  protected static final String CALLERCLASSNODE_TOTALHOLDTIME = "total_hold_ms";
+
+  // Lock statistics nodes
+  protected static final String API_LOCKPROFILINGNODE = "lockprofiling";
+  protected static final String API_LOCKPREFIXNODE = "lockprefix";
+  protected static final String API_LOCKHOLDERNODE = "lockholder";
+  protected static final String API_LOCKWAITERNODE = "lockwaiter";
+  protected static final String LOCKPREFIXNODE_DESCRIPTION = "description";
+  protected static final String LOCKPREFIXNODE_PREFIX = "prefix";
+  protected static final String LOCKPREFIXNODE_ACQUISITIONS = "acquisitions";
+  protected static final String LOCKPREFIXNODE_TOTALWAITTIME = "total_wait_us";
+  protected static final String LOCKPREFIXNODE_MAXWAITTIME = "max_wait_us";
+  protected static final String LOCKPREFIXNODE_WAITTIME50 = "wait_p50_us";
+  protected static final String LOCKPREFIXNODE_WAITTIME90 = "wait_p90_us";
+  protected static final String LOCKPREFIXNODE_WAITTIME99 = "wait_p99_us";
+  protected static final String LOCKPREFIXNODE_RELEASES = "releases";
+  protected static final String LOCKPREFIXNODE_TOTALHOLDTIME = "total_hold_us";
+  protected static final String LOCKPREFIXNODE_MAXHOLDTIME = "max_hold_us";
+  protected static final String LOCKPREFIXNODE_HOLDTIME50 = "hold_p50_us";
+  protected static final String LOCKPREFIXNODE_HOLDTIME90 = "hold_p90_us";
+  protected static final String LOCKPREFIXNODE_HOLDTIME99 = "hold_p99_us";
+  protected static final String LOCKUSAGENODE_DESCRIPTION = "description";
+  protected static final String LOCKUSAGENODE_KEY = "key";
+  protected static final String LOCKUSAGENODE_TYPE = "type";
+  protected static final String LOCKUSAGENODE_THREADID = "thread_id";
+  protected static final String LOCKUSAGENODE_THREADNAME = "thread_name";
+  protected static final String LOCKUSAGENODE_ELAPSEDTIME = "elapsed_ms";
   
   /** Decode path element.
   * Path elements in the API world cannot have "/" characters, or they become impossible to parse.  This method undoes
@@ -2622,6 +2727,143 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     return READRESULT_FOUND;
   }
   
+  /** Read the cache statistics for this JVM. */
+  protected static int apiReadCacheStatistics(IThreadContext tc, Configuration output)
+    throws ManifoldCFException
+  {
+    CacheStatistics statistics = CacheManager.getStatistics();
+    CacheStatistics.ObjectClassStatistics[] classStatistics = statistics.getObjectClassStatistics();
+    for (CacheStatistics.ObjectClassStatistics cs : classStatistics)
+    {
+      ConfigurationNode child = new ConfigurationNode(API_CACHECLASSNODE);
+      addValueNode(child,CACHECLASSNODE_NAME,cs.getClassName());
+      addValueNode(child,CACHECLASSNODE_LOOKUPS,Long.toString(cs.getLookups()));
+      addValueNode(child,CACHECLASSNODE_HITS,Long.toString(cs.getHits()));
+      addValueNode(child,CACHECLASSNODE_SAVES,Long.toString(cs.getSaves()));
+      addValueNode(child,CACHECLASSNODE_INVALIDATIONS,Long.toString(cs.getInvalidations()));
+      addValueNode(child,CACHECLASSNODE_EXPIRATIONS,Long.toString(cs.getExpirations()));
+      addValueNode(child,CACHECLASSNODE_EVICTIONS,Long.toString(cs.getEvictions()));
+      if (cs.getCurrentCount() != -1)
+        addValueNode(child,CACHECLASSNODE_COUNT,Integer.toString(cs.getCurrentCount()));
+      output.addChild(output.getChildCount(),child);
+    }
+    CacheStatistics.KeyPrefixStatistics[] prefixStatistics = statistics.getKeyPrefixStatistics();
+    for (CacheStatistics.KeyPrefixStatistics ps : prefixStatistics)
+    {
+      ConfigurationNode child = new ConfigurationNode(API_CACHEKEYPREFIXNODE);
+      addValueNode(child,CACHEKEYPREFIXNODE_PREFIX,ps.getPrefix());
+      addValueNode(child,CACHEKEYPREFIXNODE_INVALIDATIONS,Long.toString(ps.getInvalidations()));
+      addValueNode(child,CACHEKEYPREFIXNODE_OBJECTSINVALIDATED,Long.toString(ps.getObjectsInvalidated()));
+      output.addChild(output.getChildCount(),child);
+    }
+    ConfigurationNode memoryNode = new ConfigurationNode(API_CACHEMEMORYNODE);
+    memoryNode.setValue(Long.toString(statistics.getCurrentMemory()));
+    output.addChild(output.getChildCount(),memoryNode);
+    return READRESULT_FOUND;
+  }
+
+  /** Read the database connection pool statistics for this JVM. */
+  protected static int apiReadDatabasePoolStatistics(IThreadContext tc, Configuration output)
+    throws ManifoldCFException
+  {
+    Map<String,ConnectionPoolStatistics> statistics = ConnectionFactory.getPoolStatistics();
+    String[] poolNames = statistics.keySet().toArray(new String[0]);
+    Arrays.sort(poolNames);
+    for (String poolName : poolNames)
+    {
+      ConnectionPoolStatistics ps = statistics.get(poolName);
+      ConfigurationNode child = new ConfigurationNode(API_DATABASEPOOLNODE);
+      addValueNode(child,DATABASEPOOLNODE_NAME,poolName);
+      addValueNode(child,DATABASEPOOLNODE_MAXCONNECTIONS,Integer.toString(ps.getMaxConnections()));
+      addValueNode(child,DATABASEPOOLNODE_ACTIVECONNECTIONS,Integer.toString(ps.getActiveConnections()));
+      addValueNode(child,DATABASEPOOLNODE_FREECONNECTIONS,Integer.toString(ps.getFreeConnections()));
+      addValueNode(child,DATABASEPOOLNODE_WAITERS,Integer.toString(ps.getWaiters()));
+      addValueNode(child,DATABASEPOOLNODE_CREATED,Long.toString(ps.getConnectionsCreated()));
+      addValueNode(child,DATABASEPOOLNODE_DESTROYED,Long.toString(ps.getConnectionsDestroyed()));
+      addValueNode(child,DATABASEPOOLNODE_CREATIONFAILURES,Long.toString(ps.getCreationFailures()));
+      addValueNode(child,DATABASEPOOLNODE_VALIDATIONFAILURES,Long.toString(ps.getValidationFailures()));
+      addValueNode(child,DATABASEPOOLNODE_REJECTIONS,Long.toString(ps.getWaiterRejections()));
+      addValueNode(child,DATABASEPOOLNODE_UTILIZATION,Double.toString(ps.getUtilization()));
+      for (ConnectionPoolStatistics.CallerClassStatistics cs : ps.getCallerClassStatistics())
+      {
+        ConfigurationNode callerNode = new ConfigurationNode(DATABASEPOOLNODE_CALLERCLASS);
+        addValueNode(callerNode,CALLERCLASSNODE_NAME,cs.getCallerClass());
+        addValueNode(callerNode,CALLERCLASSNODE_ACQUISITIONS,Long.toString(cs.getAcquisitions()));
+        addValueNode(callerNode,CALLERCLASSNODE_WAITS,Long.toString(cs.getWaits()));
+        addValueNode(callerNode,CALLERCLASSNODE_TIMEOUTS,Long.toString(cs.getTimeouts()));
+        addValueNode(callerNode,CALLERCLASSNODE_TOTALWAITTIME,Long.toString(cs.getTotalWaitTime()));
+        addValueNode(callerNode,CALLERCLASSNODE_MAXWAITTIME,Long.toString(cs.getMaxWaitTime()));
+        addValueNode(callerNode,CALLERCLASSNODE_TOTALHOLDTIME,Long.toString(cs.getTotalHoldTime()));
+        child.addChild(child.getChildCount(),callerNode);
+      }
+      output.addChild(output.getChildCount(),child);
+    }
+    return READRESULT_FOUND;
+  }
+
+  /** Read the lock statistics for this JVM. */
+  protected static int apiReadLockStatistics(IThreadContext tc, Configuration output)
+    throws ManifoldCFException
+  {
+    ConfigurationNode profilingNode = new ConfigurationNode(API_LOCKPROFILINGNODE);
+    profilingNode.setValue(LockProfiler.isEnabled()?"true":"false");
+    output.addChild(output.getChildCount(),profilingNode);
+    for (LockProfiler.PrefixStatistics ps : LockProfiler.getPrefixStatistics())
+    {
+      ConfigurationNode child = new ConfigurationNode(API_LOCKPREFIXNODE);
+      addValueNode(child,LOCKPREFIXNODE_DESCRIPTION,ps.getDescription());
+      addValueNode(child,LOCKPREFIXNODE_PREFIX,ps.getPrefix());
+      addValueNode(child,LOCKPREFIXNODE_ACQUISITIONS,Long.toString(ps.getAcquisitions()));
+      addValueNode(child,LOCKPREFIXNODE_TOTALWAITTIME,Long.toString(ps.getWaitTotal()));
+      addValueNode(child,LOCKPREFIXNODE_MAXWAITTIME,Long.toString(ps.getWaitMax()));
+      addValueNode(child,LOCKPREFIXNODE_WAITTIME50,Long.toString(ps.getWaitPercentile50()));
+      addValueNode(child,LOCKPREFIXNODE_WAITTIME90,Long.toString(ps.getWaitPercentile90()));
+      addValueNode(child,LOCKPREFIXNODE_WAITTIME99,Long.toString(ps.getWaitPercentile99()));
+      addValueNode(child,LOCKPREFIXNODE_RELEASES,Long.toString(ps.getReleases()));
+      addValueNode(child,LOCKPREFIXNODE_TOTALHOLDTIME,Long.toString(ps.getHoldTotal()));
+      addValueNode(child,LOCKPREFIXNODE_MAXHOLDTIME,Long.toString(ps.getHoldMax()));
+      addValueNode(child,LOCKPREFIXNODE_HOLDTIME50,Long.toString(ps.getHoldPercentile50()));
+      addValueNode(child,LOCKPREFIXNODE_HOLDTIME90,Long.toString(ps.getHoldPercentile90()));
+      addValueNode(child,LOCKPREFIXNODE_HOLDTIME99,Long.toString(ps.getHoldPercentile99()));
+      output.addChild(output.getChildCount(),child);
+    }
+    addLockUsageNodes(output,API_LOCKHOLDERNODE,LockProfiler.getHolders());
+    addLockUsageNodes(output,API_LOCKWAITERNODE,LockProfiler.getWaiters());
+    return READRESULT_FOUND;
+  }
+
+  /** Add a node for each current lock holder or waiter. */
+  protected static void addLockUsageNodes(Configuration output, String nodeType, LockProfiler.UsageSnapshot[] usages)
+  {
+    for (LockProfiler.UsageSnapshot us : usages)
+    {
+      ConfigurationNode child = new ConfigurationNode(nodeType);
+      addValueNode(child,LOCKUSAGENODE_DESCRIPTION,us.getDescription());
+      addValueNode(child,LOCKUSAGENODE_KEY,us.getLockKey());
+      addValueNode(child,LOCKUSAGENODE_TYPE,us.getLockType());
+      addValueNode(child,LOCKUSAGENODE_THREADID,Long.toString(us.getThreadID()));
+      addValueNode(child,LOCKUSAGENODE_THREADNAME,us.getThreadName());
+      addValueNode(child,LOCKUSAGENODE_ELAPSEDTIME,Long.toString(us.getElapsedTime()));
+      output.addChild(output.getChildCount(),child);
+    }
+  }
+
+  /** Clear the lock statistics for this JVM. */
+  protected static int apiDeleteLockStatistics(IThreadContext tc, Configuration output)
+    throws ManifoldCFException
+  {
+    LockProfiler.reset();
+    return DELETERESULT_FOUND;
+  }
+
+  /** Add a child node with a value. */
+  protected static void addValueNode(ConfigurationNode parent, String nodeName, String value)
+  {
+    ConfigurationNode node = new ConfigurationNode(nodeName);
+    node.setValue(value);
+    parent.addChild(parent.getChildCount(),node);
+  }
+
   /** Execute specified read command.
   *@param tc is the thread context.
   *@param output is the output object, to be filled in.
@@ -2817,6 +3059,18 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
     {
       return apiReadAuthorizationDomains(tc,output);
     }
+    else if (path.equals("cachestatistics"))
+    {
+      return apiReadCacheStatistics(tc,output);
+    }
+    else if (path.equals("databasepoolstatistics"))
+    {
+      return apiReadDatabasePoolStatistics(tc,output);
+    }
+    else if (path.equals("lockstatistics"))
+    {
+      return apiReadLockStatistics(tc,output);
+    }
     else
     {
       createErrorNode(output,"Unrecognized resource.");
@@ -3519,6 +3773,10 @@ public class ManifoldCF extends org.apache.manifoldcf.agents.system.ManifoldCF
       String connectionName = decodeAPIPathElement(path.substring("repositoryconnections/".length()));
       return apiDeleteRepositoryConnection(tc,output,connectionName);
     }
+    else if (path.equals("lockstatistics"))
+    {
+      return apiDeleteLockStatistics(tc,output);
+    }
     else
     {
       createErrorNode(output,"Unrecognized resource.");
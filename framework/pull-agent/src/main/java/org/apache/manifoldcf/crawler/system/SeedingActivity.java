@@ -23,17 +23,22 @@ import org.apache.manifoldcf.agents.interfaces.*;
 import org.apache.manifoldcf.crawler.interfaces.*;
 import org.apache.manifoldcf.crawler.system.Logging;
 import java.util.*;
+import java.util.concurrent.*;
 import java.lang.reflect.*;
 
 /** This class represents the things you can do with the framework while
 * seeding.
+*
+* Seed documents are collected into batches, which a writer thread adds to the job queue while the
+* connector goes on enumerating.  The number of batches waiting for the writer is bounded, so a fast
+* connector simply waits for the database to catch up.
 */
 public class SeedingActivity implements ISeedingActivity
 {
   public static final String _rcsid = "@(#)$Id: SeedingActivity.java 988245 2010-08-23 18:39:35Z kwright $";
 
-  // This is the maximum number of documents passed to the queue at one time.
-  protected static final int MAX_COUNT = 100;
+  /** The batch that tells the writer thread to stop */
+  protected static final SeedBatch END_BATCH = new SeedBatch(null,null,null,null);
 
   // Variables
   protected final String processID;
@@ -47,20 +52,33 @@ public class SeedingActivity implements ISeedingActivity
   protected final String[] legalLinkTypes;
   protected final boolean overrideSchedule;
   protected final int hopcountMethod;
-  
-  protected final String[] documentHashList = new String[MAX_COUNT];
-  protected final String[] documentList = new String[MAX_COUNT];
-  protected final String[][] documentPrereqList = new String[MAX_COUNT][];
+  /** The most documents written to the queue in one transaction */
+  protected final int batchSize;
+  /** The batches waiting for the writer thread, or null if batches are written by the seeding thread */
+  protected final BlockingQueue<SeedBatch> writeQueue;
+
+  protected String[] documentHashList;
+  protected String[] documentList;
+  protected String[][] documentPrereqList;
+  protected String[][] documentBinList;
   protected int documentCount = 0;
-  protected final String[] remainingDocumentHashList = new String[MAX_COUNT];
+  protected String[] remainingDocumentHashList;
   protected int remainingDocumentCount = 0;
 
+  /** The writer thread, once started */
+  protected SeedWriterThread writerThread = null;
+  /** The first exception the writer thread encountered */
+  protected Throwable writerException = null;
+
   /** Constructor.
+  *@param batchSize is the most documents to write to the queue in one transaction.
+  *@param queuedBatches is the most batches that may wait to be written; 0 means write them without a writer thread.
   */
   public SeedingActivity(String connectionName, IRepositoryConnectionManager connManager,
     IJobManager jobManager,
     IReprioritizationTracker rt, IRepositoryConnection connection, IRepositoryConnector connector,
-    Long jobID, String[] legalLinkTypes, boolean overrideSchedule, int hopcountMethod, String processID)
+    Long jobID, String[] legalLinkTypes, boolean overrideSchedule, int hopcountMethod, String processID,
+    int batchSize, int queuedBatches)
   {
     this.processID = processID;
     this.connectionName = connectionName;
@@ -73,6 +91,8 @@ public class SeedingActivity implements ISeedingActivity
     this.legalLinkTypes = legalLinkTypes;
     this.overrideSchedule = overrideSchedule;
     this.hopcountMethod = hopcountMethod;
+    this.batchSize = (batchSize < 1)?1:batchSize;
+    this.writeQueue = (queuedBatches > 0)?new ArrayBlockingQueue<SeedBatch>(queuedBatches):null;
   }
 
   /** Record a "seed" document identifier.
@@ -92,19 +112,25 @@ public class SeedingActivity implements ISeedingActivity
   public void addSeedDocument(String documentIdentifier, String[] prereqEventNames)
     throws ManifoldCFException
   {
-    if (documentCount == MAX_COUNT)
+    if (documentCount == 0)
     {
-      // Prioritize and write the seed documents.
-      writeSeedDocuments(documentHashList,documentList,documentPrereqList);
-      documentCount = 0;
+      documentHashList = new String[batchSize];
+      documentList = new String[batchSize];
+      documentPrereqList = new String[batchSize][];
+      documentBinList = new String[batchSize][];
     }
     documentHashList[documentCount] = ManifoldCF.hash(documentIdentifier);
     documentList[documentCount] = documentIdentifier;
-    if (prereqEventNames != null)
-      documentPrereqList[documentCount] = prereqEventNames;
-    else
-      documentPrereqList[documentCount] = null;
+    documentPrereqList[documentCount] = prereqEventNames;
+    // The connector is only used from this thread, so the bins are found here
+    documentBinList[documentCount] = connector.getBinNames(documentIdentifier);
     documentCount++;
+    if (documentCount == batchSize)
+    {
+      // Hand the batch over to be prioritized and written.
+      writeBatch(new SeedBatch(documentHashList,documentList,documentPrereqList,documentBinList));
+      documentCount = 0;
+    }
   }
 
   /** Record a "seed" document identifier.
@@ -140,13 +166,15 @@ public class SeedingActivity implements ISeedingActivity
   public void addUnqueuedSeedDocument(String documentIdentifier)
     throws ManifoldCFException
   {
-    if (remainingDocumentCount == MAX_COUNT)
+    if (remainingDocumentCount == 0)
+      remainingDocumentHashList = new String[batchSize];
+    remainingDocumentHashList[remainingDocumentCount++] = ManifoldCF.hash(documentIdentifier);
+    if (remainingDocumentCount == batchSize)
     {
       // Flush the remaining documents
-      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,remainingDocumentHashList,hopcountMethod);
+      writeBatch(new SeedBatch(remainingDocumentHashList,null,null,null));
       remainingDocumentCount = 0;
     }
-    remainingDocumentHashList[remainingDocumentCount++] = ManifoldCF.hash(documentIdentifier);
   }
 
   /** Finish a seeding pass */
@@ -158,28 +186,36 @@ public class SeedingActivity implements ISeedingActivity
       String[] documentHashes = new String[documentCount];
       String[] documents = new String[documentCount];
       String[][] documentPrereqs = new String[documentCount][];
-      int i = 0;
-      while (i < documentHashes.length)
-      {
-        documentHashes[i] = documentHashList[i];
-        documents[i] = documentList[i];
-        documentPrereqs[i] = documentPrereqList[i];
-        i++;
-      }
-      writeSeedDocuments(documentHashes,documents,documentPrereqs);
+      String[][] documentBins = new String[documentCount][];
+      System.arraycopy(documentHashList,0,documentHashes,0,documentCount);
+      System.arraycopy(documentList,0,documents,0,documentCount);
+      System.arraycopy(documentPrereqList,0,documentPrereqs,0,documentCount);
+      System.arraycopy(documentBinList,0,documentBins,0,documentCount);
+      writeBatch(new SeedBatch(documentHashes,documents,documentPrereqs,documentBins));
       documentCount = 0;
     }
     if (remainingDocumentCount > 0)
     {
       String[] documents = new String[remainingDocumentCount];
-      int i = 0;
-      while (i < documents.length)
+      System.arraycopy(remainingDocumentHashList,0,documents,0,remainingDocumentCount);
+      writeBatch(new SeedBatch(documents,null,null,null));
+      remainingDocumentCount = 0;
+    }
+
+    // Wait until everything has been written
+    if (writerThread != null)
+    {
+      writeBatch(END_BATCH);
+      try
       {
-        documents[i] = remainingDocumentHashList[i];
-        i++;
+        writerThread.join();
       }
-      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,documents,hopcountMethod);
-      remainingDocumentCount = 0;
+      catch (InterruptedException e)
+      {
+        throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+      }
+      writerThread = null;
+      checkWriter();
     }
 
     // Need to signal JobManager that seeding is done.
@@ -210,27 +246,116 @@ public class SeedingActivity implements ISeedingActivity
       resultDescription,childIdentifiers);
   }
 
-  /** Write specified documents after calculating their priorities */
-  protected void writeSeedDocuments(String[] docIDHashes, String[] docIDs, String[][] prereqEventNames)
+  /** Stop the writer thread, if seeding did not finish.  Batches that have not yet been written are dropped.
+  * This must be called once the activity is no longer needed.
+  */
+  public void close()
+  {
+    if (writerThread == null)
+      return;
+    writeQueue.clear();
+    writeQueue.offer(END_BATCH);
+    try
+    {
+      writerThread.join();
+    }
+    catch (InterruptedException e)
+    {
+      writerThread.interrupt();
+      Thread.currentThread().interrupt();
+    }
+    writerThread = null;
+  }
+
+  /** Write a batch, either directly or by handing it to the writer thread.
+  */
+  protected void writeBatch(SeedBatch batch)
+    throws ManifoldCFException
+  {
+    if (writeQueue == null)
+    {
+      if (batch != END_BATCH)
+        writeSeedBatch(jobManager,rt,batch);
+      return;
+    }
+
+    if (writerThread == null)
+    {
+      writerThread = new SeedWriterThread();
+      writerThread.start();
+    }
+    try
+    {
+      // Keep an eye on the writer while waiting for room, since it stops taking batches if it fails
+      while (true)
+      {
+        checkWriter();
+        if (writeQueue.offer(batch,1000L,TimeUnit.MILLISECONDS))
+          return;
+      }
+    }
+    catch (InterruptedException e)
+    {
+      throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+    }
+  }
+
+  /** Rethrow the writer thread's exception, if it had one.
+  */
+  protected void checkWriter()
+    throws ManifoldCFException
+  {
+    Throwable t;
+    synchronized (this)
+    {
+      t = writerException;
+    }
+    if (t == null)
+      return;
+    if (t instanceof ManifoldCFException)
+      throw (ManifoldCFException)t;
+    if (t instanceof Error)
+      throw (Error)t;
+    throw new ManifoldCFException("Error writing seed documents: "+t.getMessage(),t);
+  }
+
+  /** Note the writer thread's exception. */
+  protected synchronized void noteWriterException(Throwable t)
+  {
+    if (writerException == null)
+      writerException = t;
+  }
+
+  /** Write a batch, after calculating the priorities of its documents.
+  *@param jobManager is the job manager to use.
+  *@param rt is the reprioritization tracker to use.
+  *@param batch is the batch.
+  */
+  protected void writeSeedBatch(IJobManager jobManager, IReprioritizationTracker rt, SeedBatch batch)
     throws ManifoldCFException
   {
+    if (batch.docIDs == null)
+    {
+      jobManager.addRemainingDocumentsInitial(processID,jobID,legalLinkTypes,batch.docIDHashes,hopcountMethod);
+      return;
+    }
+
     // First, prioritize the documents using the queue tracker
     long prioritizationTime = System.currentTimeMillis();
-    IPriorityCalculator[] docPriorities = new IPriorityCalculator[docIDHashes.length];
+    IPriorityCalculator[] docPriorities = new IPriorityCalculator[batch.docIDHashes.length];
 
     int i = 0;
-    while (i < docIDHashes.length)
+    while (i < batch.docIDHashes.length)
     {
       // Calculate desired document priority based on current queuetracker status.
-      String[] bins = connector.getBinNames(docIDs[i]);
-      docPriorities[i] = new PriorityCalculator(rt,connection,bins);
+      docPriorities[i] = new PriorityCalculator(rt,connection,batch.bins[i]);
 
       i++;
     }
 
     jobManager.addDocumentsInitial(processID,
-      jobID,legalLinkTypes,docIDHashes,docIDs,overrideSchedule,hopcountMethod,
-      prioritizationTime,docPriorities,prereqEventNames);
+      jobID,legalLinkTypes,batch.docIDHashes,batch.docIDs,overrideSchedule,hopcountMethod,
+      prioritizationTime,docPriorities,batch.prereqEventNames);
 
   }
 
@@ -273,4 +398,59 @@ public class SeedingActivity implements ISeedingActivity
     return ManifoldCF.createJobSpecificString(jobID,simpleString);
   }
 
+  /** A batch of seed documents, or of remaining documents if there are no identifiers.
+  */
+  protected static class SeedBatch
+  {
+    public final String[] docIDHashes;
+    public final String[] docIDs;
+    public final String[][] prereqEventNames;
+    public final String[][] bins;
+
+    public SeedBatch(String[] docIDHashes, String[] docIDs, String[][] prereqEventNames, String[][] bins)
+    {
+      this.docIDHashes = docIDHashes;
+      this.docIDs = docIDs;
+      this.prereqEventNames = prereqEventNames;
+      this.bins = bins;
+    }
+  }
+
+  /** This thread writes batches to the job queue, using its own thread context.
+  */
+  protected class SeedWriterThread extends Thread
+  {
+    public SeedWriterThread()
+    {
+      super();
+      setName("Seed writer thread for job "+jobID.toString());
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        IJobManager writerJobManager = JobManagerFactory.make(threadContext);
+        IReprioritizationTracker writerRt = ReprioritizationTrackerFactory.make(threadContext);
+        while (true)
+        {
+          SeedBatch batch = writeQueue.take();
+          if (batch == END_BATCH)
+            break;
+          writeSeedBatch(writerJobManager,writerRt,batch);
+        }
+      }
+      catch (InterruptedException e)
+      {
+        noteWriterException(new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED));
+      }
+      catch (Throwable e)
+      {
+        noteWriterException(e);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,191 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import java.util.*;
+
+/** This class runs the per-job part of a startup or seeding pass for several jobs at once.
+*
+* Each job is handed to one of a bounded number of helper threads, each of which has its own thread
+* context.  The calling thread waits until every job has been handled, and then rethrows the first
+* exception any helper encountered, so it can react to interruptions and database resets as before.
+*/
+public abstract class SeedingJobRunner
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** The name prefix for the helper threads */
+  protected final String threadName;
+  /** The most helper threads to use */
+  protected final int maxThreads;
+
+  /** The index of the next job to hand out */
+  protected int nextJob = 0;
+  /** The number of jobs */
+  protected int jobCount = 0;
+  /** The first exception a helper thread encountered */
+  protected Throwable exception = null;
+
+  /** Constructor.
+  *@param threadName is the name prefix for the helper threads.
+  *@param maxThreads is the most jobs to handle at once.
+  */
+  public SeedingJobRunner(String threadName, int maxThreads)
+  {
+    this.threadName = threadName;
+    this.maxThreads = maxThreads;
+  }
+
+  /** Handle one job.
+  *@param threadContext is the thread context to use.
+  *@param index is the index of the job.
+  */
+  protected abstract void processJob(IThreadContext threadContext, int index)
+    throws ManifoldCFException, InterruptedException;
+
+  /** Handle a set of jobs, returning once all of them have been handled.
+  *@param threadContext is the calling thread's context, which is used if the jobs are handled one at a time.
+  *@param count is the number of jobs.
+  */
+  public void run(IThreadContext threadContext, int count)
+    throws ManifoldCFException, InterruptedException
+  {
+    if (count == 0)
+      return;
+
+    if (maxThreads <= 1 || count == 1)
+    {
+      for (int i = 0; i < count; i++)
+      {
+        processJob(threadContext,i);
+      }
+      return;
+    }
+
+    synchronized (this)
+    {
+      nextJob = 0;
+      jobCount = count;
+      exception = null;
+    }
+
+    HelperThread[] threads = new HelperThread[Math.min(maxThreads,count)];
+    for (int i = 0; i < threads.length; i++)
+    {
+      threads[i] = new HelperThread(threadName+" "+Integer.toString(i));
+      threads[i].start();
+    }
+    try
+    {
+      for (HelperThread thread : threads)
+      {
+        thread.join();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      // Stop the helpers, and wait for them so no job is still being handled when we return
+      for (HelperThread thread : threads)
+      {
+        thread.interrupt();
+      }
+      for (HelperThread thread : threads)
+      {
+        while (thread.isAlive())
+        {
+          try
+          {
+            thread.join();
+          }
+          catch (InterruptedException e2)
+          {
+          }
+        }
+      }
+      throw e;
+    }
+
+    Throwable t;
+    synchronized (this)
+    {
+      t = exception;
+    }
+    if (t == null)
+      return;
+    if (t instanceof ManifoldCFException)
+      throw (ManifoldCFException)t;
+    if (t instanceof InterruptedException)
+      throw (InterruptedException)t;
+    if (t instanceof Error)
+      throw (Error)t;
+    if (t instanceof RuntimeException)
+      throw (RuntimeException)t;
+    throw new ManifoldCFException("Unexpected exception: "+t.getMessage(),t);
+  }
+
+  /** Get the next job to handle.
+  *@return the job index, or -1 if there are no more, or if a helper has failed.
+  */
+  protected synchronized int getNextJob()
+  {
+    if (exception != null || nextJob >= jobCount)
+      return -1;
+    return nextJob++;
+  }
+
+  /** Note an exception from a helper thread. */
+  protected synchronized void noteException(Throwable t)
+  {
+    if (exception == null)
+      exception = t;
+  }
+
+  /** A helper thread, which handles jobs until there are none left.
+  */
+  protected class HelperThread extends Thread
+  {
+    public HelperThread(String name)
+    {
+      super();
+      setName(name);
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      try
+      {
+        IThreadContext threadContext = ThreadContextFactory.make();
+        while (true)
+        {
+          int index = getNextJob();
+          if (index == -1)
+            break;
+          processJob(threadContext,index);
+        }
+      }
+      catch (Throwable e)
+      {
+        noteException(e);
+      }
+    }
+  }
+
+}
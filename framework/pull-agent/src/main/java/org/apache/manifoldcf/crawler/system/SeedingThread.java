@@ -41,9 +41,6 @@ public class SeedingThread extends Thread
   /** Process ID */
   protected final String processID;
 
-  /** The number of documents that are added to the queue per transaction */
-  protected final static int MAX_COUNT = 100;
-
   /** Constructor.
   */
   public SeedingThread(SeedingResetManager resetManager, String processID)
@@ -65,12 +62,10 @@ public class SeedingThread extends Thread
       // Create a thread context object.
       IThreadContext threadContext = ThreadContextFactory.make();
       IJobManager jobManager = JobManagerFactory.make(threadContext);
-      IRepositoryConnectionManager connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
-      IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
+      ILockManager lockManager = LockManagerFactory.make(threadContext);
+      // The most jobs to seed at once
+      int jobThreads = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.seedingJobThreadsProperty,4);
 
-      IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
-      
-      String[] identifiers = new String[MAX_COUNT];
       // Loop
       while (true)
       {
@@ -89,6 +84,9 @@ public class SeedingThread extends Thread
 
           Logging.threads.debug("Seeding thread woke up");
 
+          // Note the signal generation first, so a job state change during the query will wake us
+          long jobStateGeneration = ManifoldCF.jobStateSignal.getGeneration();
+
           // Grab active, adaptive jobs (and set their state to xxxSEEDING as a side effect)
           JobSeedingRecord[] seedJobs = jobManager.getJobsReadyForSeeding(processID,currentTime);
 
@@ -101,124 +99,15 @@ public class SeedingThread extends Thread
             if (seedJobs.length == 0)
             {
               Logging.threads.debug("Seeding thread found nothing to do");
-              ManifoldCF.sleep(waitTime);
+              ManifoldCF.jobStateSignal.waitForSignal(lockManager,jobStateGeneration,waitTime);
               continue;
             }
 
             if (Logging.threads.isDebugEnabled())
               Logging.threads.debug("Seeding thread: Found "+Integer.toString(seedJobs.length)+" jobs to seed");
 
-            // Loop through jobs
-            int i = 0;
-            while (i < seedJobs.length)
-            {
-              JobSeedingRecord jsr = seedJobs[i++];
-              Long jobID = jsr.getJobID();
-              try
-              {
-                long lastJobTime = jsr.getSynchTime();
-                IJobDescription jobDescription = jobManager.load(jobID,true);
-                int jobType = jobDescription.getType();
-
-                int hopcountMethod = jobDescription.getHopcountMode();
-
-                IRepositoryConnection connection = connectionMgr.load(jobDescription.getConnectionName());
-                IRepositoryConnector connector = repositoryConnectorPool.grab(connection);
-                // Null will come back if the connector instance could not be obtained, so just skip in that case.
-                if (connector == null)
-                  continue;
-                try
-                {
-                  // Get the number of link types.
-                  String[] legalLinkTypes = connector.getRelationshipTypes();
-
-                  int model = connector.getConnectorModel();
-
-                  try
-                  {
-
-                    SeedingActivity activity = new SeedingActivity(connection.getName(),connectionMgr,
-                      jobManager,rt,
-                      connection,connector,jobID,legalLinkTypes,false,hopcountMethod,processID);
-
-                    if (Logging.threads.isDebugEnabled())
-                      Logging.threads.debug("Seeding thread: Getting seeds for job "+jobID.toString());
-
-                    connector.addSeedDocuments(activity,jobDescription.getSpecification(),lastJobTime,currentTime,jobType);
-
-                    activity.doneSeeding(model==connector.MODEL_PARTIAL);
-
-                    if (Logging.threads.isDebugEnabled())
-                      Logging.threads.debug("Seeding thread: Done processing seeds from job "+jobID.toString());
-
-
-                  }
-                  catch (ServiceInterruption e)
-                  {
-                    if (!e.jobInactiveAbort())
-                    {
-                      Logging.jobs.warn("Seeding service interruption reported for job "+
-                        jobID+" connection '"+connection.getName()+"': "+
-                        e.getMessage(),e);
-                    }
-
-                    // If either we are going to be requeuing beyond the fail time, OR
-                    // the number of retries available has hit 0, THEN we treat this
-                    // as either an "ignore" or a hard error.
-                    if (!e.jobInactiveAbort() && (jsr.getFailTime() != -1L && jsr.getFailTime() < e.getRetryTime() ||
-                      jsr.getFailRetryCount() == 0))
-                    {
-                      // Treat this as a hard failure.
-                      if (e.isAbortOnFail())
-                      {
-                        // Note the error in the job, and transition to inactive state
-                        String message = e.jobInactiveAbort()?"":"Repeated service interruptions during seeding"+((e.getCause()!=null)?": "+e.getCause().getMessage():"");
-                        if (jobManager.errorAbort(jobID,message) && message.length() > 0)
-                          Logging.jobs.error(message,e.getCause());
-                        jsr.noteStarted();
-                      }
-                      else
-                      {
-                        // Not sure this can happen -- but just transition silently to active state
-                        jobManager.noteJobSeeded(jobID,currentTime);
-                        jsr.noteStarted();
-                      }
-                    }
-                    else
-                    {
-                      // Reset the job to the READYFORSTARTUP state, updating the failtime and failcount fields
-                      jobManager.retrySeeding(jsr,e.getFailTime(),e.getFailRetryCount());
-                      jsr.noteStarted();
-                    }
-                    // Go on to the next job
-                    continue;
-                  }
-                }
-                finally
-                {
-                  repositoryConnectorPool.release(connection,connector);
-                }
-
-
-                if (Logging.threads.isDebugEnabled())
-                  Logging.threads.debug("Seeding thread: Successfully reseeded job "+jobID.toString());
-
-                // Note that this job has been seeded!
-                jobManager.noteJobSeeded(jobID,currentTime);
-                jsr.noteStarted();
-
-              }
-              catch (ManifoldCFException e)
-              {
-                if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                  throw new InterruptedException();
-                if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
-                  throw e;
-                if (jobManager.errorAbort(jobID,e.getMessage()))
-                  Logging.threads.error("Exception tossed: "+e.getMessage(),e);
-                jsr.noteStarted();
-              }
-            }
+            // Handle several jobs at once; each job is seeded entirely by one thread
+            new SeedingJobsRunner(seedJobs,currentTime,jobThreads).run(threadContext,seedJobs.length);
           }
           finally
           {
@@ -248,8 +137,8 @@ public class SeedingThread extends Thread
               throw exception;
           }
 
-          // Sleep for the retry interval.
-          ManifoldCF.sleep(waitTime);
+          // Sleep for the retry interval, or until a job changes state.
+          ManifoldCF.jobStateSignal.waitForSignal(lockManager,jobStateGeneration,waitTime);
         }
         catch (ManifoldCFException e)
         {
@@ -311,4 +200,144 @@ public class SeedingThread extends Thread
     }
   }
 
+  /** This class reseeds one job at a time, on behalf of the seeding thread.
+  */
+  protected class SeedingJobsRunner extends SeedingJobRunner
+  {
+    protected final JobSeedingRecord[] jobs;
+    protected final long currentTime;
+
+    public SeedingJobsRunner(JobSeedingRecord[] jobs, long currentTime, int maxThreads)
+    {
+      super("Seeding helper thread",maxThreads);
+      this.jobs = jobs;
+      this.currentTime = currentTime;
+    }
+
+    @Override
+    protected void processJob(IThreadContext threadContext, int index)
+      throws ManifoldCFException, InterruptedException
+    {
+      IJobManager jobManager = JobManagerFactory.make(threadContext);
+      IRepositoryConnectionManager connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
+      IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
+      IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
+      int seedingBatchSize = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.seedingBatchSizeProperty,1000);
+      int seedingQueuedBatches = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.seedingQueuedBatchesProperty,4);
+
+      JobSeedingRecord jsr = jobs[index];
+      Long jobID = jsr.getJobID();
+      try
+      {
+        long lastJobTime = jsr.getSynchTime();
+        IJobDescription jobDescription = jobManager.load(jobID,true);
+        int jobType = jobDescription.getType();
+
+        int hopcountMethod = jobDescription.getHopcountMode();
+
+        IRepositoryConnection connection = connectionMgr.load(jobDescription.getConnectionName());
+        IRepositoryConnector connector = repositoryConnectorPool.grab(connection);
+        // Null will come back if the connector instance could not be obtained, so just skip in that case.
+        if (connector == null)
+          return;
+        try
+        {
+          // Get the number of link types.
+          String[] legalLinkTypes = connector.getRelationshipTypes();
+
+          int model = connector.getConnectorModel();
+
+          try
+          {
+
+            SeedingActivity activity = new SeedingActivity(connection.getName(),connectionMgr,
+              jobManager,rt,
+              connection,connector,jobID,legalLinkTypes,false,hopcountMethod,processID,
+              seedingBatchSize,seedingQueuedBatches);
+            try
+            {
+              if (Logging.threads.isDebugEnabled())
+                Logging.threads.debug("Seeding thread: Getting seeds for job "+jobID.toString());
+
+              connector.addSeedDocuments(activity,jobDescription.getSpecification(),lastJobTime,currentTime,jobType);
+
+              activity.doneSeeding(model==connector.MODEL_PARTIAL);
+
+              if (Logging.threads.isDebugEnabled())
+                Logging.threads.debug("Seeding thread: Done processing seeds from job "+jobID.toString());
+            }
+            finally
+            {
+              activity.close();
+            }
+
+          }
+          catch (ServiceInterruption e)
+          {
+            if (!e.jobInactiveAbort())
+            {
+              Logging.jobs.warn("Seeding service interruption reported for job "+
+                jobID+" connection '"+connection.getName()+"': "+
+                e.getMessage(),e);
+            }
+
+            // If either we are going to be requeuing beyond the fail time, OR
+            // the number of retries available has hit 0, THEN we treat this
+            // as either an "ignore" or a hard error.
+            if (!e.jobInactiveAbort() && (jsr.getFailTime() != -1L && jsr.getFailTime() < e.getRetryTime() ||
+              jsr.getFailRetryCount() == 0))
+            {
+              // Treat this as a hard failure.
+              if (e.isAbortOnFail())
+              {
+                // Note the error in the job, and transition to inactive state
+                String message = e.jobInactiveAbort()?"":"Repeated service interruptions during seeding"+((e.getCause()!=null)?": "+e.getCause().getMessage():"");
+                if (jobManager.errorAbort(jobID,message) && message.length() > 0)
+                  Logging.jobs.error(message,e.getCause());
+                jsr.noteStarted();
+              }
+              else
+              {
+                // Not sure this can happen -- but just transition silently to active state
+                jobManager.noteJobSeeded(jobID,currentTime);
+                jsr.noteStarted();
+              }
+            }
+            else
+            {
+              // Reset the job to the READYFORSTARTUP state, updating the failtime and failcount fields
+              jobManager.retrySeeding(jsr,e.getFailTime(),e.getFailRetryCount());
+              jsr.noteStarted();
+            }
+            // Go on to the next job
+            return;
+          }
+        }
+        finally
+        {
+          repositoryConnectorPool.release(connection,connector);
+        }
+
+
+        if (Logging.threads.isDebugEnabled())
+          Logging.threads.debug("Seeding thread: Successfully reseeded job "+jobID.toString());
+
+        // Note that this job has been seeded!
+        jobManager.noteJobSeeded(jobID,currentTime);
+        jsr.noteStarted();
+
+      }
+      catch (ManifoldCFException e)
+      {
+        if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+          throw new InterruptedException();
+        if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
+          throw e;
+        if (jobManager.errorAbort(jobID,e.getMessage()))
+          Logging.threads.error("Exception tossed: "+e.getMessage(),e);
+        jsr.noteStarted();
+      }
+    }
+  }
+
 }
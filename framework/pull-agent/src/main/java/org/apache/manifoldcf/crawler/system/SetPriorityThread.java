@@ -145,7 +145,8 @@ public class SetPriorityThread extends Thread
             }
             */
             Logging.threads.debug("Done reprioritizing because no more documents to reprioritize");
-            ManifoldCF.sleep(30000L);
+            // The stuffer hands over blocking documents as it finds them, so wake up as soon as there is one
+            blockingDocuments.waitForBlockingDocument(30000L);
             break;
 
           }
@@ -59,11 +59,9 @@ public class StartupThread extends Thread
       // Create a thread context object.
       IThreadContext threadContext = ThreadContextFactory.make();
       IJobManager jobManager = JobManagerFactory.make(threadContext);
-      IRepositoryConnectionManager connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
-      IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
+      // The most jobs to seed at once
+      int jobThreads = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.seedingJobThreadsProperty,4);
 
-      IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
-      
       // Loop
       while (true)
       {
@@ -99,125 +97,8 @@ public class StartupThread extends Thread
             long currentTime = System.currentTimeMillis();
 
 
-            // Loop through jobs
-            int i = 0;
-            while (i < startupJobs.length)
-            {
-              JobStartRecord jsr = startupJobs[i++];
-              Long jobID = jsr.getJobID();
-              try
-              {
-                long lastJobTime = jsr.getSynchTime();
-                IJobDescription jobDescription = jobManager.load(jobID,true);
-
-                int jobType = jobDescription.getType();
-                int hopcountMethod = jobDescription.getHopcountMode();
-
-                IRepositoryConnection connection = connectionMgr.load(jobDescription.getConnectionName());
-                IRepositoryConnector connector = repositoryConnectorPool.grab(connection);
-
-                // If the attempt to grab a connector instance failed, don't start the job, of course.
-                if (connector == null)
-                  continue;
-
-                try
-                {
-                  // Only now record the fact that we are trying to start the job.
-                  connectionMgr.recordHistory(jobDescription.getConnectionName(),
-                    null,connectionMgr.ACTIVITY_JOBSTART,null,
-                    jobID.toString()+"("+jobDescription.getDescription()+")",null,null,null);
-
-                  int model = connector.getConnectorModel();
-                  // Get the number of link types.
-                  String[] legalLinkTypes = connector.getRelationshipTypes();
-
-                  boolean requestMinimum = jsr.getRequestMinimum();
-                  
-                  if (Logging.threads.isDebugEnabled())
-                    Logging.threads.debug("Preparing job "+jobID.toString()+" for execution...");
-                  jobManager.prepareJobScan(jobID,legalLinkTypes,hopcountMethod,
-                    model,jobType == IJobDescription.TYPE_CONTINUOUS,lastJobTime == 0L,
-                    requestMinimum);
-                  if (Logging.threads.isDebugEnabled())
-                    Logging.threads.debug("Prepared job "+jobID.toString()+" for execution.");
-
-                  try
-                  {
-                    SeedingActivity activity = new SeedingActivity(connection.getName(),connectionMgr,
-                      jobManager,rt,
-                      connection,connector,jobID,legalLinkTypes,true,hopcountMethod,processID);
-
-                    if (Logging.threads.isDebugEnabled())
-                      Logging.threads.debug("Adding initial seed documents for job "+jobID.toString()+"...");
-                    // Get the initial seed documents, and make sure those are added
-                    connector.addSeedDocuments(activity,jobDescription.getSpecification(),lastJobTime,currentTime,jobType);
-                    // Flush anything left
-                    activity.doneSeeding(model==connector.MODEL_PARTIAL);
-                    if (Logging.threads.isDebugEnabled())
-                      Logging.threads.debug("Done adding initial seed documents for job "+jobID.toString()+".");
-                  }
-                  catch (ServiceInterruption e)
-                  {
-                    if (!e.jobInactiveAbort())
-                    {
-                      Logging.jobs.warn("Startup service interruption reported for job "+
-                        jobID+" connection '"+connection.getName()+"': "+
-                        e.getMessage(),e);
-                    }
-
-                    // If either we are going to be requeuing beyond the fail time, OR
-                    // the number of retries available has hit 0, THEN we treat this
-                    // as either an "ignore" or a hard error.
-                    if (!e.jobInactiveAbort() && (jsr.getFailTime() != -1L && jsr.getFailTime() < e.getRetryTime() ||
-                      jsr.getFailRetryCount() == 0))
-                    {
-                      // Treat this as a hard failure.
-                      if (e.isAbortOnFail())
-                      {
-                        // Note the error in the job, and transition to inactive state
-                        String message = e.jobInactiveAbort()?"":"Repeated service interruptions during startup"+((e.getCause()!=null)?": "+e.getCause().getMessage():"");
-                        if (jobManager.errorAbort(jobID,message) && message.length() > 0)
-                          Logging.jobs.error(message,e.getCause());
-                        jsr.noteStarted();
-                      }
-                      else
-                      {
-                        // Not sure this can happen -- but just transition silently to active state
-                        jobManager.noteJobStarted(jobID,currentTime);
-                        jsr.noteStarted();
-                      }
-                    }
-                    else
-                    {
-                      // Reset the job to the READYFORSTARTUP state, updating the failtime and failcount fields
-                      jobManager.retryStartup(jsr,e.getFailTime(),e.getFailRetryCount());
-                      jsr.noteStarted();
-                    }
-                    // Go on to the next job
-                    continue;
-                  }
-                }
-                finally
-                {
-                  repositoryConnectorPool.release(connection,connector);
-                }
-
-                // Start this job!
-                jobManager.noteJobStarted(jobID,currentTime);
-                jsr.noteStarted();
-              }
-              catch (ManifoldCFException e)
-              {
-                if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                  throw new InterruptedException();
-                if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
-                  throw e;
-                // Note: The error abort below will put the job in the "ABORTING" state. 
-                if (jobManager.errorAbort(jobID,e.getMessage()))
-                  Logging.threads.error("Exception tossed: "+e.getMessage(),e);
-                jsr.noteStarted();
-              }
-            }
+            // Handle several jobs at once; each job is seeded entirely by one thread
+            new StartupJobRunner(startupJobs,currentTime,jobThreads).run(threadContext,startupJobs.length);
           }
           finally
           {
@@ -306,4 +187,153 @@ public class StartupThread extends Thread
     }
   }
 
+  /** This class seeds and starts one job at a time, on behalf of the startup thread.
+  */
+  protected class StartupJobRunner extends SeedingJobRunner
+  {
+    protected final JobStartRecord[] jobs;
+    protected final long currentTime;
+
+    public StartupJobRunner(JobStartRecord[] jobs, long currentTime, int maxThreads)
+    {
+      super("Startup helper thread",maxThreads);
+      this.jobs = jobs;
+      this.currentTime = currentTime;
+    }
+
+    @Override
+    protected void processJob(IThreadContext threadContext, int index)
+      throws ManifoldCFException, InterruptedException
+    {
+      IJobManager jobManager = JobManagerFactory.make(threadContext);
+      IRepositoryConnectionManager connectionMgr = RepositoryConnectionManagerFactory.make(threadContext);
+      IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
+      IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
+      int seedingBatchSize = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.seedingBatchSizeProperty,1000);
+      int seedingQueuedBatches = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.seedingQueuedBatchesProperty,4);
+
+      JobStartRecord jsr = jobs[index];
+      Long jobID = jsr.getJobID();
+      try
+      {
+        long lastJobTime = jsr.getSynchTime();
+        IJobDescription jobDescription = jobManager.load(jobID,true);
+
+        int jobType = jobDescription.getType();
+        int hopcountMethod = jobDescription.getHopcountMode();
+
+        IRepositoryConnection connection = connectionMgr.load(jobDescription.getConnectionName());
+        IRepositoryConnector connector = repositoryConnectorPool.grab(connection);
+
+        // If the attempt to grab a connector instance failed, don't start the job, of course.
+        if (connector == null)
+          return;
+
+        try
+        {
+          // Only now record the fact that we are trying to start the job.
+          connectionMgr.recordHistory(jobDescription.getConnectionName(),
+            null,connectionMgr.ACTIVITY_JOBSTART,null,
+            jobID.toString()+"("+jobDescription.getDescription()+")",null,null,null);
+
+          int model = connector.getConnectorModel();
+          // Get the number of link types.
+          String[] legalLinkTypes = connector.getRelationshipTypes();
+
+          boolean requestMinimum = jsr.getRequestMinimum();
+
+          if (Logging.threads.isDebugEnabled())
+            Logging.threads.debug("Preparing job "+jobID.toString()+" for execution...");
+          jobManager.prepareJobScan(jobID,legalLinkTypes,hopcountMethod,
+            model,jobType == IJobDescription.TYPE_CONTINUOUS,lastJobTime == 0L,
+            requestMinimum);
+          if (Logging.threads.isDebugEnabled())
+            Logging.threads.debug("Prepared job "+jobID.toString()+" for execution.");
+
+          try
+          {
+            SeedingActivity activity = new SeedingActivity(connection.getName(),connectionMgr,
+              jobManager,rt,
+              connection,connector,jobID,legalLinkTypes,true,hopcountMethod,processID,
+              seedingBatchSize,seedingQueuedBatches);
+            try
+            {
+              if (Logging.threads.isDebugEnabled())
+                Logging.threads.debug("Adding initial seed documents for job "+jobID.toString()+"...");
+              // Get the initial seed documents, and make sure those are added
+              connector.addSeedDocuments(activity,jobDescription.getSpecification(),lastJobTime,currentTime,jobType);
+              // Flush anything left
+              activity.doneSeeding(model==connector.MODEL_PARTIAL);
+              if (Logging.threads.isDebugEnabled())
+                Logging.threads.debug("Done adding initial seed documents for job "+jobID.toString()+".");
+            }
+            finally
+            {
+              activity.close();
+            }
+          }
+          catch (ServiceInterruption e)
+          {
+            if (!e.jobInactiveAbort())
+            {
+              Logging.jobs.warn("Startup service interruption reported for job "+
+                jobID+" connection '"+connection.getName()+"': "+
+                e.getMessage(),e);
+            }
+
+            // If either we are going to be requeuing beyond the fail time, OR
+            // the number of retries available has hit 0, THEN we treat this
+            // as either an "ignore" or a hard error.
+            if (!e.jobInactiveAbort() && (jsr.getFailTime() != -1L && jsr.getFailTime() < e.getRetryTime() ||
+              jsr.getFailRetryCount() == 0))
+            {
+              // Treat this as a hard failure.
+              if (e.isAbortOnFail())
+              {
+                // Note the error in the job, and transition to inactive state
+                String message = e.jobInactiveAbort()?"":"Repeated service interruptions during startup"+((e.getCause()!=null)?": "+e.getCause().getMessage():"");
+                if (jobManager.errorAbort(jobID,message) && message.length() > 0)
+                  Logging.jobs.error(message,e.getCause());
+                jsr.noteStarted();
+              }
+              else
+              {
+                // Not sure this can happen -- but just transition silently to active state
+                jobManager.noteJobStarted(jobID,currentTime);
+                jsr.noteStarted();
+              }
+            }
+            else
+            {
+              // Reset the job to the READYFORSTARTUP state, updating the failtime and failcount fields
+              jobManager.retryStartup(jsr,e.getFailTime(),e.getFailRetryCount());
+              jsr.noteStarted();
+            }
+            // Go on to the next job
+            return;
+          }
+        }
+        finally
+        {
+          repositoryConnectorPool.release(connection,connector);
+        }
+
+        // Start this job!
+        jobManager.noteJobStarted(jobID,currentTime);
+        jsr.noteStarted();
+      }
+      catch (ManifoldCFException e)
+      {
+        if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+          throw new InterruptedException();
+        if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
+          throw e;
+        // Note: The error abort below will put the job in the "ABORTING" state. 
+        if (jobManager.errorAbort(jobID,e.getMessage()))
+          Logging.threads.error("Exception tossed: "+e.getMessage(),e);
+        jsr.noteStarted();
+      }
+    }
+  }
+
 }
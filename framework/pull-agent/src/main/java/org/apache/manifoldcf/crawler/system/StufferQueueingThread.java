@@ -0,0 +1,151 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+import org.apache.manifoldcf.agents.interfaces.*;
+import org.apache.manifoldcf.crawler.interfaces.*;
+import org.apache.manifoldcf.crawler.system.Logging;
+import java.util.*;
+
+/** This class represents the second stage of the pipelined stuffer.  It takes batches of documents
+* the stuffer thread has claimed off the claimed document queue, looks up their last ingested versions,
+* and places them on the document queue.  The stuffer thread starts and stops it.
+*/
+public class StufferQueueingThread extends Thread
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  // Local data
+  /** This is the document queue we'll be adding to */
+  protected final DocumentQueue documentQueue;
+  /** This is the queue of claimed batches we'll be taking from */
+  protected final ClaimedDocumentQueue claimedQueue;
+  /** Worker thread pool reset manager */
+  protected final WorkerResetManager resetManager;
+  /** Queue tracker */
+  protected final QueueTracker queueTracker;
+
+  /** Constructor.
+  */
+  public StufferQueueingThread(DocumentQueue documentQueue, ClaimedDocumentQueue claimedQueue,
+    WorkerResetManager resetManager, QueueTracker queueTracker)
+  {
+    super();
+    this.documentQueue = documentQueue;
+    this.claimedQueue = claimedQueue;
+    this.resetManager = resetManager;
+    this.queueTracker = queueTracker;
+    setName("Stuffer queueing thread");
+    setDaemon(true);
+  }
+
+  public void run()
+  {
+    resetManager.registerMe();
+
+    try
+    {
+      // Create a thread context object.
+      IThreadContext threadContext = ThreadContextFactory.make();
+      IRepositoryConnectionManager mgr = RepositoryConnectionManagerFactory.make(threadContext);
+      IIncrementalIngester ingester = IncrementalIngesterFactory.make(threadContext);
+      IJobManager jobManager = JobManagerFactory.make(threadContext);
+      IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
+
+      // Loop
+      while (true)
+      {
+        // Do another try/catch around everything in the loop
+        try
+        {
+          if (Thread.currentThread().isInterrupted())
+            throw new ManifoldCFException("Interrupted",ManifoldCFException.INTERRUPTED);
+
+          // Check if we're okay
+          resetManager.waitForReset(threadContext);
+
+          DocumentDescription[] descs = claimedQueue.getBatch(1000L);
+          if (descs == null)
+            continue;
+
+          if (Logging.threads.isDebugEnabled())
+            Logging.threads.debug("Stuffer queueing thread: Queuing "+Integer.toString(descs.length)+" claimed documents");
+
+          StufferThread.queueDocuments(descs,documentQueue,queueTracker,jobManager,mgr,ingester,repositoryConnectorPool);
+        }
+        catch (ManifoldCFException e)
+        {
+          if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+            break;
+
+          if (e.getErrorCode() == ManifoldCFException.DATABASE_CONNECTION_ERROR)
+          {
+            resetManager.noteEvent();
+
+            Logging.threads.error("Stuffer queueing thread aborting and restarting due to database connection reset: "+e.getMessage(),e);
+            try
+            {
+              // Give the database a chance to catch up/wake up
+              ManifoldCF.sleep(10000L);
+            }
+            catch (InterruptedException se)
+            {
+              break;
+            }
+            continue;
+          }
+
+          // Log it, but keep the thread alive
+          Logging.threads.error("Exception tossed: "+e.getMessage(),e);
+
+          if (e.getErrorCode() == ManifoldCFException.SETUP_ERROR)
+          {
+            System.exit(1);
+          }
+
+        }
+        catch (InterruptedException e)
+        {
+          // We're supposed to quit
+          break;
+        }
+        catch (OutOfMemoryError e)
+        {
+          System.err.println("agents process ran out of memory - shutting down");
+          e.printStackTrace(System.err);
+          System.exit(-200);
+        }
+        catch (Throwable e)
+        {
+          // A more severe error - but stay alive
+          Logging.threads.fatal("Error tossed: "+e.getMessage(),e);
+        }
+      }
+    }
+    catch (Throwable e)
+    {
+      // Severe error on initialization
+      System.err.println("agents process could not start - shutting down");
+      Logging.threads.fatal("StufferQueueingThread initialization error tossed: "+e.getMessage(),e);
+      System.exit(-300);
+    }
+  }
+
+}
@@ -27,6 +27,11 @@ import java.lang.reflect.*;
 
 /** This class represents the stuffer thread.  This thread's job is to request documents from the database and add them to the
 * document queue.  The thread then sleeps until the document queue is empty again.
+*
+* In pipelined mode, the thread only claims documents.  Each claimed batch is handed through a ClaimedDocumentQueue to a
+* StufferQueueingThread, which does the version lookup and queue insertion while the next batch is being claimed.  Claiming
+* starts early enough, and in large enough batches, that the document queue should not drain while a claim is in progress;
+* both are estimated from the rate at which the worker threads are completing documents.
 */
 public class StufferThread extends Thread
 {
@@ -56,18 +61,30 @@ public class StufferThread extends Thread
   protected final BlockingDocuments blockingDocuments;
   /** Process ID */
   protected final String processID;
+  /** The claimed document queue, if we are pipelined, or null */
+  protected final ClaimedDocumentQueue claimedQueue;
+
+  /** The largest multiple of the lowest stuffing amount a pipelined stuffer will claim at once */
+  protected final static int maxStuffAmtFactor = 16;
+  /** The longest wait when there is nothing to stuff, in milliseconds */
+  protected final static long idleWaitTime = 60000L;
+  /** The wait when documents are due but were all held back, in milliseconds; their release is not signalled */
+  protected final static long heldBackWaitTime = 2000L;
   
   /** Constructor.
   *@param documentQueue is the document queue we'll be stuffing.
   *@param n represents the number of threads that will be processing queued stuff, NOT the
   * number of documents to be done at once!
+  *@param claimedQueue is the hand-off queue to the queueing stage, or null if the stuffer is not pipelined.
   */
   public StufferThread(DocumentQueue documentQueue, int n, WorkerResetManager resetManager, QueueTracker qt,
-    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor, String processID)
+    BlockingDocuments blockingDocuments, float lowWaterFactor, float stuffSizeFactor, String processID,
+    ClaimedDocumentQueue claimedQueue)
     throws ManifoldCFException
   {
     super();
     this.documentQueue = documentQueue;
+    this.claimedQueue = claimedQueue;
     this.lowWaterMark = (int)(lowWaterFactor * (float)n);
     this.lowestStuffAmt = (int)(stuffSizeFactor * (float)n);
     this.stuffAmt = lowestStuffAmt;
@@ -82,10 +99,27 @@ public class StufferThread extends Thread
     setPriority(getPriority()+1);
   }
 
+  /** Work out how long to wait when there was nothing to stuff.
+  *@param nextCheckTime is what IJobManager.getNextDocumentCheckTime() returned.
+  *@param currentTime is the current time.
+  *@return the wait, in milliseconds.
+  */
+  protected static long getIdleWaitTime(long nextCheckTime, long currentTime)
+  {
+    if (nextCheckTime == -1L)
+      return idleWaitTime;
+    if (nextCheckTime <= currentTime)
+      return heldBackWaitTime;
+    return Math.min(nextCheckTime - currentTime,idleWaitTime);
+  }
+
   public void run()
   {
     resetManager.registerMe();
 
+    // The queueing stage, if we're pipelined
+    StufferQueueingThread queueingThread = null;
+
     try
     {
       // Create a thread context object.
@@ -100,27 +134,24 @@ public class StufferThread extends Thread
       
       Logging.threads.debug("Stuffer thread: Low water mark is "+Integer.toString(lowWaterMark)+"; amount per stuffing is "+Integer.toString(stuffAmt));
 
-      // Hashmap keyed by jobid and containing ArrayLists.
-      // This way we can guarantee priority will do the right thing, because the
-      // priority is per-job.  We CANNOT guarantee anything about scheduling order, however,
-      // other than that it falls in the time window.
-      HashMap documentSets = new HashMap();
-      ArrayList versionMap = new ArrayList();
-
-      // Job description map (local) - designed to improve performance.
-      // Cleared and reloaded on every batch of documents.
-      HashMap jobDescriptionMap = new HashMap();
-
-      // Repository connection map (local) - designed to improve performance.
-      // Cleared and reloaded on every batch of documents.
-      HashMap connectionMap = new HashMap();
-
       // Parameters we need in order to adjust the number of documents we fetch.  We base the number on how long it took to queue documents vs.
       // how long it took to need to queue again.
       long lastQueueStart = -1L;
       long lastQueueEnd = -1L;
       boolean lastQueueFullResults = false;
 
+      // Parameters the pipelined stuffer uses to stay ahead of the worker threads.  The consumption rate is in
+      // documents per millisecond, and is smoothed across samples.
+      double consumptionRate = 0.0;
+      long lastSampleTime = System.currentTimeMillis();
+      long lastSampleCount = queueTracker.getCurrentStatistics().getTotalDocumentsCompleted();
+
+      if (claimedQueue != null)
+      {
+        queueingThread = new StufferQueueingThread(documentQueue,claimedQueue,resetManager,queueTracker);
+        queueingThread.start();
+      }
+
       // Loop
       while (true)
       {
@@ -133,20 +164,58 @@ public class StufferThread extends Thread
           // Check if we're okay
           resetManager.waitForReset(threadContext);
 
-          // System.out.println("Waiting...");
-          // Wait until queue is below low water mark.
-          boolean isEmpty = documentQueue.checkIfEmpty(lowWaterMark);
-          if (isEmpty == false)
+          if (claimedQueue != null)
           {
-            ManifoldCF.sleep(1000L);
-            continue;
+            // Sample the worker threads' consumption rate.
+            long sampleTime = System.currentTimeMillis();
+            if (sampleTime - lastSampleTime >= 1000L)
+            {
+              long sampleCount = queueTracker.getCurrentStatistics().getTotalDocumentsCompleted();
+              double currentRate = ((double)(sampleCount - lastSampleCount)) / ((double)(sampleTime - lastSampleTime));
+              consumptionRate = 0.5 * consumptionRate + 0.5 * currentRate;
+              lastSampleTime = sampleTime;
+              lastSampleCount = sampleCount;
+            }
+            // Estimate how much will be consumed while the next claim is in progress, and start the claim while there's
+            // still that much on the queue.  Only one claimed batch may be waiting for the queueing stage.
+            long lastClaimTime = (lastQueueStart == -1L)?0L:(lastQueueEnd - lastQueueStart);
+            double expectedConsumption = consumptionRate * (double)lastClaimTime;
+            int prefetchMark = lowWaterMark + (int)Math.min(expectedConsumption,(double)(3 * lowWaterMark));
+            if (!claimedQueue.hasRoom())
+            {
+              ManifoldCF.sleep(100L);
+              continue;
+            }
+            if (!documentQueue.checkIfEmpty(prefetchMark))
+            {
+              documentQueue.waitUntilEmpty(prefetchMark,1000L);
+              continue;
+            }
+            // Claim enough to cover two claim cycles at the current rate.
+            stuffAmt = (int)Math.min(2.0 * expectedConsumption,(double)(maxStuffAmtFactor * lowestStuffAmt));
+            if (stuffAmt < lowestStuffAmt)
+              stuffAmt = lowestStuffAmt;
+            if (Logging.threads.isDebugEnabled())
+              Logging.threads.debug("Pipelined stuffer: consumption rate "+Double.toString(consumptionRate*1000.0)+" docs/sec; prefetch mark "+
+                Integer.toString(prefetchMark)+"; claiming "+Integer.toString(stuffAmt));
+          }
+          else
+          {
+            // System.out.println("Waiting...");
+            // Wait until queue is below low water mark.
+            boolean isEmpty = documentQueue.checkIfEmpty(lowWaterMark);
+            if (isEmpty == false)
+            {
+              documentQueue.waitUntilEmpty(lowWaterMark,1000L);
+              continue;
+            }
           }
           long queueNeededTime = System.currentTimeMillis();
 
           Logging.threads.debug("Document stuffer thread woke up");
 
           // Adjust stuffAmt based on how well we did in the last queuing attempt keeping up with the worker threads.
-          if (lastQueueFullResults)
+          if (claimedQueue == null && lastQueueFullResults)
           {
             if (lastQueueEnd - lastQueueStart >= queueNeededTime - lastQueueEnd)
               stuffAmt *= 2;
@@ -183,6 +252,8 @@ public class StufferThread extends Thread
           }
 
           lastQueueStart = System.currentTimeMillis();
+          // Note the signal generation first, so documents added during the query will wake us
+          long queuedGeneration = ManifoldCF.documentsQueuedSignal.getGeneration();
           DepthStatistics depthStatistics = new DepthStatistics();
           DocumentDescription[] descs = jobManager.getNextDocuments(processID,stuffAmt,stuffingEndTime,stuffingEndTime-stuffingStartTime,
             blockingDocuments,queueTracker.getCurrentStatistics(),depthStatistics);
@@ -200,173 +271,26 @@ public class StufferThread extends Thread
             Logging.threads.debug("Stuffer thread: Found "+Integer.toString(descs.length)+" documents to queue");
           }
 
-          // If there are no queuable documents at all, then we can sleep for a while.
-          // The theory is that we need to allow stuff to accumulate.
+          // If there are no queuable documents at all, then we wait until some are queued, or until
+          // the next document becomes eligible with the passage of time.
           if (descs.length == 0)
           {
-            ManifoldCF.sleep(2000L);       // 2 seconds
+            long currentTime = System.currentTimeMillis();
+            long waitTime = getIdleWaitTime(jobManager.getNextDocumentCheckTime(currentTime),currentTime);
+            if (Logging.threads.isDebugEnabled())
+              Logging.threads.debug("Stuffer thread: Nothing to queue; waiting up to "+waitTime+" ms");
+            ManifoldCF.documentsQueuedSignal.waitForSignal(lockManager,queuedGeneration,waitTime);
             continue;
           }
 
-          // if (Logging.threads.isDebugEnabled())
-          //      Logging.threads.debug("Found "+Integer.toString(descs.length)+" documents to stuff");
-
-          // Clear the job description map and connection map
-          jobDescriptionMap.clear();
-          connectionMap.clear();
-
-          // We need to get the last ingested version string for all of these documents, in bulk!
-
-          IJobDescription[] jobs = new IJobDescription[descs.length];
-          IRepositoryConnection[] connections = new IRepositoryConnection[descs.length];
-          DocumentIngestStatus[] versions = new DocumentIngestStatus[descs.length];
-          String[] outputConnectionNames = new String[descs.length];
-          String[] documentClasses = new String[descs.length];
-          String[] documentIDHashes = new String[descs.length];
-
-          // Go through the documents and set up jobs, prefixed id's
-          int i = 0;
-          while (i < descs.length)
+          if (claimedQueue != null)
           {
-            DocumentDescription dd = descs[i];
-            IJobDescription job = (IJobDescription)jobDescriptionMap.get(dd.getJobID());
-            if (job == null)
-            {
-              job = jobManager.load(dd.getJobID(),true);
-              jobDescriptionMap.put(dd.getJobID(),job);
-            }
-            jobs[i] = job;
-            String connectionName = job.getConnectionName();
-            documentClasses[i] = connectionName;
-            outputConnectionNames[i] = job.getOutputConnectionName();
-            IRepositoryConnection connection = (IRepositoryConnection)connectionMap.get(connectionName);
-            if (connection == null)
-            {
-              connection = mgr.load(connectionName);
-              connectionMap.put(connectionName,connection);
-            }
-            connections[i] = connection;
-            documentIDHashes[i] = dd.getDocumentIdentifierHash();
-
-            i++;
-          }
-
-          versions = ingester.getDocumentIngestDataMultiple(outputConnectionNames,documentClasses,documentIDHashes);
-
-          // Now, do the incremental ingestion version request.
-
-          // We need to go through the list, and segregate them by job, so the individual
-          // connectors can work in batch.
-          documentSets.clear();
-          i = 0;
-          while (i < descs.length)
-          {
-            Long jobID = jobs[i].getID();
-
-            // We have to see how we are doing with respect to the limit for this connector.
-            // We also need to log the queuing activity to the queue tracker, so that
-            // the priority setter thread can do its thing properly.
-
-            // Get a repository connection appropriate for this document.
-            IRepositoryConnection connection = connections[i];
-            int maxDocuments;
-            String[] binNames;
-            try
-            {
-              // Grab a connector handle
-              IRepositoryConnector connector = repositoryConnectorPool.grab(connection);
-              if (connector == null)
-              {
-                maxDocuments = 1;
-                binNames = new String[]{""};
-              }
-              else
-              {
-                try
-                {
-                  // Convert the document identifier to a URI
-                  maxDocuments = connector.getMaxDocumentRequest();
-                  // Get the bins for the document identifier
-                  binNames = connector.getBinNames(descs[i].getDocumentIdentifier());
-                }
-                finally
-                {
-                  repositoryConnectorPool.release(connection,connector);
-                }
-              }
-            }
-            catch (ManifoldCFException e)
-            {
-              // If we were interrupted, then we are allowed to leave, because the process is terminating, but that's the only exception to the rule
-              if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
-                throw e;
-
-              // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
-              // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
-              Logging.threads.error("Stuffer thread ManifoldCF Exception thrown: "+e.getMessage()+" - continuing",
-                e);
-              maxDocuments = 1;
-              binNames = new String[]{""};
-            }
-            catch (OutOfMemoryError e)
-            {
-              System.err.println("agents process ran out of memory - shutting down");
-              e.printStackTrace(System.err);
-              System.exit(-200);
-              // These are needed because the compiler doesn't know System.exit ends the thread.
-              maxDocuments = 1;
-              binNames = new String[]{""};
-            }
-            catch (Throwable e)
-            {
-              // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
-              // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
-              Logging.threads.fatal("Stuffer thread Throwable thrown: "+e.getMessage()+" - continuing",
-                e);
-              maxDocuments = 1;
-              binNames = new String[]{""};
-            }
-
-            QueuedDocument qd = new QueuedDocument(descs[i],versions[i],binNames);
-
-            // Grab the arraylist that's there, or create it.
-            ArrayList set = (ArrayList)documentSets.get(jobID);
-            if (set == null)
-            {
-              set = new ArrayList();
-              documentSets.put(jobID,set);
-            }
-            set.add(qd);
-
-            // Note the queuing activity
-            queueTracker.addRecord(binNames);
-
-            if (set.size() >= maxDocuments)
-            {
-              // Create and queue this as a document set
-              // if (Logging.threads.isDebugEnabled())
-              //      Logging.threads.debug("Queuing "+Integer.toString(set.size())+" documents in one request");
-              QueuedDocumentSet qds = new QueuedDocumentSet(set,jobs[i],connections[i]);
-              documentQueue.addDocument(qds);
-              set.clear();
-            }
-            i++;
+            // Hand the batch to the queueing stage, and go straight back to claiming.
+            claimedQueue.addBatch(descs);
+            continue;
           }
 
-          // Stuff everything left into the queue.
-          i = 0;
-          while (i < descs.length)
-          {
-            Long jobID = jobs[i].getID();
-            ArrayList x = (ArrayList)documentSets.get(jobID);
-            if (x != null && x.size() > 0)
-            {
-              QueuedDocumentSet set = new QueuedDocumentSet(x,jobs[i],connections[i]);
-              documentQueue.addDocument(set);
-              documentSets.remove(jobID);
-            }
-            i++;
-          }
+          queueDocuments(descs,documentQueue,queueTracker,jobManager,mgr,ingester,repositoryConnectorPool);
 
           // If we don't wait here, the other threads don't seem to have a chance to queue anything else up.
           //Thread.yield();
@@ -427,6 +351,185 @@ public class StufferThread extends Thread
       Logging.threads.fatal("StufferThread initialization error tossed: "+e.getMessage(),e);
       System.exit(-300);
     }
+    finally
+    {
+      if (queueingThread != null)
+        queueingThread.interrupt();
+    }
+  }
+
+  /** Look up what is needed to process a batch of claimed documents (job descriptions, connections, and
+  * last ingested versions), and put the documents onto the document queue as document sets.
+  *@param descs are the claimed documents.
+  */
+  protected static void queueDocuments(DocumentDescription[] descs, DocumentQueue documentQueue, QueueTracker queueTracker,
+    IJobManager jobManager, IRepositoryConnectionManager mgr, IIncrementalIngester ingester,
+    IRepositoryConnectorPool repositoryConnectorPool)
+    throws ManifoldCFException
+  {
+    // Hashmap keyed by jobid and containing ArrayLists.
+    // This way we can guarantee priority will do the right thing, because the
+    // priority is per-job.  We CANNOT guarantee anything about scheduling order, however,
+    // other than that it falls in the time window.
+    HashMap documentSets = new HashMap();
+
+    // Job description map (local) - designed to improve performance.
+    HashMap jobDescriptionMap = new HashMap();
+
+    // Repository connection map (local) - designed to improve performance.
+    HashMap connectionMap = new HashMap();
+
+    // We need to get the last ingested version string for all of these documents, in bulk!
+
+    IJobDescription[] jobs = new IJobDescription[descs.length];
+    IRepositoryConnection[] connections = new IRepositoryConnection[descs.length];
+    DocumentIngestStatus[] versions = new DocumentIngestStatus[descs.length];
+    String[] outputConnectionNames = new String[descs.length];
+    String[] documentClasses = new String[descs.length];
+    String[] documentIDHashes = new String[descs.length];
+
+    // Go through the documents and set up jobs, prefixed id's
+    int i = 0;
+    while (i < descs.length)
+    {
+      DocumentDescription dd = descs[i];
+      IJobDescription job = (IJobDescription)jobDescriptionMap.get(dd.getJobID());
+      if (job == null)
+      {
+        job = jobManager.load(dd.getJobID(),true);
+        jobDescriptionMap.put(dd.getJobID(),job);
+      }
+      jobs[i] = job;
+      String connectionName = job.getConnectionName();
+      documentClasses[i] = connectionName;
+      outputConnectionNames[i] = job.getOutputConnectionName();
+      IRepositoryConnection connection = (IRepositoryConnection)connectionMap.get(connectionName);
+      if (connection == null)
+      {
+        connection = mgr.load(connectionName);
+        connectionMap.put(connectionName,connection);
+      }
+      connections[i] = connection;
+      documentIDHashes[i] = dd.getDocumentIdentifierHash();
+
+      i++;
+    }
+
+    versions = ingester.getDocumentIngestDataMultiple(outputConnectionNames,documentClasses,documentIDHashes);
+
+    // Now, do the incremental ingestion version request.
+
+    // We need to go through the list, and segregate them by job, so the individual
+    // connectors can work in batch.
+    i = 0;
+    while (i < descs.length)
+    {
+      Long jobID = jobs[i].getID();
+
+      // We have to see how we are doing with respect to the limit for this connector.
+      // We also need to log the queuing activity to the queue tracker, so that
+      // the priority setter thread can do its thing properly.
+
+      // Get a repository connection appropriate for this document.
+      IRepositoryConnection connection = connections[i];
+      int maxDocuments;
+      String[] binNames;
+      try
+      {
+        // Grab a connector handle
+        IRepositoryConnector connector = repositoryConnectorPool.grab(connection);
+        if (connector == null)
+        {
+          maxDocuments = 1;
+          binNames = new String[]{""};
+        }
+        else
+        {
+          try
+          {
+            // Convert the document identifier to a URI
+            maxDocuments = connector.getMaxDocumentRequest();
+            // Get the bins for the document identifier
+            binNames = connector.getBinNames(descs[i].getDocumentIdentifier());
+          }
+          finally
+          {
+            repositoryConnectorPool.release(connection,connector);
+          }
+        }
+      }
+      catch (ManifoldCFException e)
+      {
+        // If we were interrupted, then we are allowed to leave, because the process is terminating, but that's the only exception to the rule
+        if (e.getErrorCode() == ManifoldCFException.INTERRUPTED)
+          throw e;
+
+        // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
+        // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
+        Logging.threads.error("Stuffer thread ManifoldCF Exception thrown: "+e.getMessage()+" - continuing",
+          e);
+        maxDocuments = 1;
+        binNames = new String[]{""};
+      }
+      catch (OutOfMemoryError e)
+      {
+        System.err.println("agents process ran out of memory - shutting down");
+        e.printStackTrace(System.err);
+        System.exit(-200);
+        // These are needed because the compiler doesn't know System.exit ends the thread.
+        maxDocuments = 1;
+        binNames = new String[]{""};
+      }
+      catch (Throwable e)
+      {
+        // Note: We really should never leave this block by throwing an exception, since that could easily leave dangling
+        // active jobqueue entries around.  Instead, log the error and continue IN ALL CASES.
+        Logging.threads.fatal("Stuffer thread Throwable thrown: "+e.getMessage()+" - continuing",
+          e);
+        maxDocuments = 1;
+        binNames = new String[]{""};
+      }
+
+      QueuedDocument qd = new QueuedDocument(descs[i],versions[i],binNames);
+
+      // Grab the arraylist that's there, or create it.
+      ArrayList set = (ArrayList)documentSets.get(jobID);
+      if (set == null)
+      {
+        set = new ArrayList();
+        documentSets.put(jobID,set);
+      }
+      set.add(qd);
+
+      // Note the queuing activity
+      queueTracker.addRecord(binNames);
+
+      if (set.size() >= maxDocuments)
+      {
+        // Create and queue this as a document set
+        // if (Logging.threads.isDebugEnabled())
+        //      Logging.threads.debug("Queuing "+Integer.toString(set.size())+" documents in one request");
+        QueuedDocumentSet qds = new QueuedDocumentSet(set,jobs[i],connections[i]);
+        documentQueue.addDocument(qds);
+        set.clear();
+      }
+      i++;
+    }
+
+    // Stuff everything left into the queue.
+    i = 0;
+    while (i < descs.length)
+    {
+      Long jobID = jobs[i].getID();
+      ArrayList x = (ArrayList)documentSets.get(jobID);
+      if (x != null && x.size() > 0)
+      {
+        QueuedDocumentSet set = new QueuedDocumentSet(x,jobs[i],connections[i]);
+        documentQueue.addDocument(set);
+        documentSets.remove(jobID);
+      }
+      i++;
+    }
   }
 
   protected static long readLastTime(ILockManager lockManager)
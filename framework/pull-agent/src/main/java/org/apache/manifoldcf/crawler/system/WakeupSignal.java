@@ -0,0 +1,232 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.system;
+
+import org.apache.manifoldcf.core.interfaces.*;
+
+/** This class is an event that background threads can wait on, instead of sleeping for a fixed time,
+* when they find nothing to do.  A thread reads the signal's generation before it looks for work; if it
+* finds none, it waits for the signal to be raised after that point, or for its usual sleep to run out,
+* whichever comes first.
+*
+* Raising a signal wakes its waiters in this process at once.  The raise is also counted in a datum
+* kept by the lock manager, and while anything waits, the process reads that count about once a second
+* (however many threads are waiting), so that raises in other processes are noticed within a second or so.  The count is only ever incremented, under a lock, so no process's
+* raise can be overwritten by another's; a process that finds the count moved on since it last looked
+* wakes its own waiters too.  The count is incremented at most once per publish interval per process;
+* a raise that is held back is counted by the next raise or check after the interval is up.
+*/
+public class WakeupSignal
+{
+  public static final String _rcsid = "@(#)$Id$";
+
+  /** How often, in milliseconds, waiters look for raises from other processes */
+  protected final static long sharedCheckInterval = 1000L;
+  /** The shortest time, in milliseconds, between increments of the shared count by this process */
+  protected final static long publishInterval = 250L;
+
+  /** The name of the lock manager datum that holds the shared count */
+  protected final String datumName;
+  /** The name of the lock that protects the shared count */
+  protected final String lockName;
+
+  /** The number of times the signal has been raised, as far as this process knows */
+  protected long generation = 0L;
+  /** The last shared count seen or written, or null if not yet read */
+  protected Long lastCount = null;
+  /** When this process last incremented the count */
+  protected long lastPublishTime = 0L;
+  /** Set if a raise has not been counted yet */
+  protected boolean publishPending = false;
+  /** When a waiter in this process last read the shared count */
+  protected long lastSharedCheckTime = 0L;
+
+  /** Constructor.
+  *@param datumName is the name of the lock manager datum this signal is shared through.
+  */
+  public WakeupSignal(String datumName)
+  {
+    this.datumName = datumName;
+    this.lockName = datumName + "_LOCK";
+  }
+
+  /** Read the generation, before looking for work.
+  *@return the value to pass to waitForSignal().
+  */
+  public synchronized long getGeneration()
+  {
+    return generation;
+  }
+
+  /** Raise the signal, in this process and for other processes.
+  *@param lockManager is the lock manager.
+  */
+  public void raise(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    synchronized (this)
+    {
+      generation++;
+      notifyAll();
+      publishPending = true;
+    }
+    publish(lockManager);
+  }
+
+  /** Raise the signal once the current transaction is over, so that whatever it announces is visible
+  * to the threads it wakes.  If there is no transaction, the signal is raised right away.
+  *@param database is the database handle.
+  *@param lockManager is the lock manager.
+  */
+  public void raiseAfterTransaction(IDBInterface database, ILockManager lockManager)
+  {
+    database.addTransactionListener(new Raiser(lockManager));
+  }
+
+  /** Wait until the signal has been raised since a generation was read, or until the time is up.
+  *@param lockManager is the lock manager.
+  *@param generation is the value getGeneration() returned.
+  *@param maxWait is the longest time to wait, in milliseconds.
+  */
+  public void waitForSignal(ILockManager lockManager, long generation, long maxWait)
+    throws ManifoldCFException, InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + maxWait;
+    while (true)
+    {
+      synchronized (this)
+      {
+        long waitTime = deadline - System.currentTimeMillis();
+        if (this.generation != generation || waitTime <= 0L)
+          return;
+        wait(Math.min(waitTime,sharedCheckInterval));
+        if (this.generation != generation)
+          return;
+      }
+      checkShared(lockManager);
+    }
+  }
+
+  /** Look for a raise from another process, and count any raise this process has held back.
+  */
+  protected void checkShared(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    if (publish(lockManager))
+      return;
+    synchronized (this)
+    {
+      // One read per interval serves every waiter; whoever reads wakes the others if the count moved
+      long currentTime = System.currentTimeMillis();
+      if (currentTime - lastSharedCheckTime < sharedCheckInterval)
+        return;
+      lastSharedCheckTime = currentTime;
+    }
+    noteCount(readCount(lockManager).longValue(),false);
+  }
+
+  /** Increment the shared count, if a raise is pending and the publish interval is up.
+  *@return true if the count was incremented.
+  */
+  protected boolean publish(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    synchronized (this)
+    {
+      long currentTime = System.currentTimeMillis();
+      if (!publishPending || currentTime - lastPublishTime < publishInterval)
+        return false;
+      publishPending = false;
+      lastPublishTime = currentTime;
+    }
+    long count;
+    lockManager.enterWriteLock(lockName);
+    try
+    {
+      count = readCount(lockManager).longValue();
+      lockManager.writeData(datumName,Long.toString(count + 1L).getBytes());
+    }
+    finally
+    {
+      lockManager.leaveWriteLock(lockName);
+    }
+    // Our own raise has woken our waiters already, but others may have raised it since we last looked
+    noteCount(count,true);
+    return true;
+  }
+
+  /** Note a shared count that was read, waking our waiters if it has moved on since we last looked.
+  *@param count is the count read.
+  *@param incremented is true if this process then incremented it.
+  */
+  protected synchronized void noteCount(long count, boolean incremented)
+  {
+    if (lastCount != null && lastCount.longValue() != count)
+    {
+      generation++;
+      notifyAll();
+    }
+    lastCount = new Long(incremented?count + 1L:count);
+  }
+
+  /** Read the shared count.
+  *@return the count, or 0L if there is none.
+  */
+  protected Long readCount(ILockManager lockManager)
+    throws ManifoldCFException
+  {
+    byte[] data = lockManager.readData(datumName);
+    if (data == null)
+      return new Long(0L);
+    try
+    {
+      return new Long(new String(data));
+    }
+    catch (NumberFormatException e)
+    {
+      return new Long(0L);
+    }
+  }
+
+  /** Raises the signal when a transaction ends.
+  */
+  protected class Raiser implements ITransactionListener
+  {
+    protected final ILockManager lockManager;
+
+    public Raiser(ILockManager lockManager)
+    {
+      this.lockManager = lockManager;
+    }
+
+    public void transactionEnded()
+    {
+      try
+      {
+        raise(lockManager);
+      }
+      catch (ManifoldCFException e)
+      {
+        // Waiters fall back on their usual sleep, so this is not serious
+        Logging.threads.warn("Couldn't share wakeup signal '"+datumName+"': "+e.getMessage(),e);
+      }
+    }
+  }
+
+}
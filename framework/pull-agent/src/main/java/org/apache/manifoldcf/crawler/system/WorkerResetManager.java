@@ -32,14 +32,17 @@ public class WorkerResetManager extends ResetManager
 
   /** The document queue */
   protected final DocumentQueue dq;
+  /** The claimed document queue */
+  protected final ClaimedDocumentQueue cq;
   /** The expiration queue */
   protected final DocumentCleanupQueue eq;
 
   /** Constructor. */
-  public WorkerResetManager(DocumentQueue dq, DocumentCleanupQueue eq, String processID)
+  public WorkerResetManager(DocumentQueue dq, ClaimedDocumentQueue cq, DocumentCleanupQueue eq, String processID)
   {
     super(processID);
     this.dq = dq;
+    this.cq = cq;
     this.eq = eq;
   }
 
@@ -51,6 +54,7 @@ public class WorkerResetManager extends ResetManager
     IJobManager jobManager = JobManagerFactory.make(tc);
     jobManager.resetDocumentWorkerStatus(processID);
     dq.clear();
+    cq.clear();
     eq.clear();
   }
   
@@ -61,6 +65,7 @@ public class WorkerResetManager extends ResetManager
   {
     // Wake up all sleeping worker threads
     dq.reset();
+    cq.reset();
     eq.reset();
   }
 }
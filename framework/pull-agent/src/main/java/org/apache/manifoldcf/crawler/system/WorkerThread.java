@@ -39,24 +39,34 @@ public class WorkerThread extends Thread
   protected final String id;
   /** This is a reference to the static main document queue */
   protected final DocumentQueue documentQueue;
+  /** The document queue partition this thread looks in first */
+  protected final int homePartition;
   /** Worker thread pool reset manager */
   protected final WorkerResetManager resetManager;
   /** Queue tracker */
   protected final QueueTracker queueTracker;
   /** Process ID */
   protected final String processID;
+  /** Process-wide document content budget */
+  protected final DocumentAdmission admission;
+
+  /** How long a document that did not fit in the content budget waits before it is retried, in milliseconds */
+  protected static final long ADMISSION_DEFER_TIME = 5000L;
 
   /** Constructor.
   *@param id is the worker thread id.
   */
-  public WorkerThread(String id, DocumentQueue documentQueue, WorkerResetManager resetManager, QueueTracker queueTracker, String processID)
+  public WorkerThread(String id, DocumentQueue documentQueue, WorkerResetManager resetManager, QueueTracker queueTracker,
+    DocumentAdmission admission, String processID)
     throws ManifoldCFException
   {
     super();
     this.id = id;
     this.documentQueue = documentQueue;
+    this.homePartition = documentQueue.assignHomePartition();
     this.resetManager = resetManager;
     this.queueTracker = queueTracker;
+    this.admission = admission;
     this.processID = processID;
     setName("Worker thread '"+id+"'");
     setDaemon(true);
@@ -80,6 +90,11 @@ public class WorkerThread extends Thread
       IReprioritizationTracker rt = ReprioritizationTrackerFactory.make(threadContext);
 
       IRepositoryConnectorPool repositoryConnectorPool = RepositoryConnectorPoolFactory.make(threadContext);
+
+      // Limits for buffering documents bound for batch-capable output connectors
+      int ingestBatchMaxDocuments = LockManagerFactory.getIntProperty(threadContext,ManifoldCF.ingestBatchMaxDocumentsProperty,100);
+      long ingestBatchMaxBytes = 1024L * (long)LockManagerFactory.getIntProperty(threadContext,ManifoldCF.ingestBatchMaxSizeProperty,16384);
+      long ingestBatchMaxAge = LockManagerFactory.getLongProperty(threadContext,ManifoldCF.ingestBatchMaxAgeProperty,30000L);
       
       List<DocumentToProcess> fetchList = new ArrayList<DocumentToProcess>();
       Map<String,String> versionMap = new HashMap<String,String>();
@@ -119,7 +134,7 @@ public class WorkerThread extends Thread
           // we update its status, even if there is an exception!!!
 
           // See if there is anything on the queue for me
-          QueuedDocumentSet qds = documentQueue.getDocument(queueTracker);
+          QueuedDocumentSet qds = documentQueue.getDocument(queueTracker,homePartition);
           if (qds == null)
             // It's a reset, so recycle
             continue;
@@ -526,10 +541,19 @@ public class WorkerThread extends Thread
                           ingester.documentCheckMultiple(outputName,checkClasses,checkIDs,currentTime);
                         }
 
+                        // Hold back whatever would take this process past its document content budget
+                        DocumentAdmission.Ticket admissionTicket = null;
+                        if (admission.isEnabled() && fetchList.size() > 0)
+                        {
+                          admissionTicket = admitDocuments(jobManager,fetchList,finishList,currentTime);
+                        }
+
                         // First, make the things we will need for all subsequent steps.
                         ProcessActivity activity = new ProcessActivity(processID,
                           threadContext,rt,jobManager,ingester,
-                          currentTime,job,connection,connector,connMgr,legalLinkTypes,ingestLogger,abortSet,outputVersion,newParameterVersion);
+                          currentTime,job,connection,connector,connMgr,legalLinkTypes,ingestLogger,abortSet,outputVersion,newParameterVersion,
+                          ingestBatchMaxDocuments,ingestBatchMaxBytes,ingestBatchMaxAge,
+                          admission,admissionTicket);
                         try
                         {
 
@@ -562,6 +586,7 @@ public class WorkerThread extends Thread
                             try
                             {
 
+                              activity.setBatchDocuments(processIDHashes);
                               connector.processDocuments(processIDs,versions,activity,job.getSpecification(),scanOnly,jobType);
 
                               // Flush remaining references into the database!
@@ -801,6 +826,8 @@ public class WorkerThread extends Thread
                         {
                           // Make sure we don't leave any dangling carrydown files
                           activity.discard();
+                          if (admissionTicket != null)
+                            admission.release(admissionTicket);
                         }
                           
                         // Successful processing of the set
@@ -1186,6 +1213,58 @@ public class WorkerThread extends Thread
     }
   }
 
+  /** Reserve content budget for the documents about to be fetched.  Documents that do not fit are taken
+  * out of the fetch and finish lists and requeued for a little later.
+  *@param jobManager is the job manager.
+  *@param fetchList is the list of documents to be fetched.
+  *@param finishList is the list of documents to be finished.
+  *@param currentTime is the current time.
+  *@return the ticket holding the reservation.
+  */
+  protected DocumentAdmission.Ticket admitDocuments(IJobManager jobManager, List<DocumentToProcess> fetchList,
+    List<QueuedDocument> finishList, long currentTime)
+    throws ManifoldCFException
+  {
+    String[] documentIDHashes = new String[fetchList.size()];
+    for (int i = 0; i < documentIDHashes.length; i++)
+    {
+      documentIDHashes[i] = fetchList.get(i).getDocument().getDocumentDescription().getDocumentIdentifierHash();
+    }
+    DocumentAdmission.Ticket ticket = admission.admit(documentIDHashes);
+    if (ticket.getAdmittedCount() == documentIDHashes.length)
+      return ticket;
+
+    boolean succeeded = false;
+    try
+    {
+      List<QueuedDocument> deferList = new ArrayList<QueuedDocument>();
+      Iterator<DocumentToProcess> fetchIter = fetchList.iterator();
+      while (fetchIter.hasNext())
+      {
+        QueuedDocument qd = fetchIter.next().getDocument();
+        if (!ticket.isAdmitted(qd.getDocumentDescription().getDocumentIdentifierHash()))
+        {
+          deferList.add(qd);
+          fetchIter.remove();
+        }
+      }
+      finishList.removeAll(deferList);
+
+      if (Logging.threads.isDebugEnabled())
+        Logging.threads.debug("Worker thread deferring "+Integer.toString(deferList.size())+" documents; content budget in use is "+
+          Long.toString(admission.getInUse())+" bytes");
+      // No retry limit; these documents have not failed
+      requeueDocuments(jobManager,deferList,currentTime + ADMISSION_DEFER_TIME,-1L,-1);
+      succeeded = true;
+      return ticket;
+    }
+    finally
+    {
+      if (!succeeded)
+        admission.release(ticket);
+    }
+  }
+
   protected static String packParameters(Map<String,Set<String>> forcedParameters)
   {
     StringBuilder sb = new StringBuilder();
@@ -1450,6 +1529,11 @@ public class WorkerThread extends Thread
     protected final HashMap abortSet;
     protected final String outputVersion;
     protected final String parameterVersion;
+    protected final int ingestBatchMaxDocuments;
+    protected final long ingestBatchMaxBytes;
+    protected final long ingestBatchMaxAge;
+    protected final DocumentAdmission admission;
+    protected final DocumentAdmission.Ticket admissionTicket;
     
     // We submit references in bulk, because that's way more efficient.
     protected final Map<DocumentReference,DocumentReference> referenceList = new HashMap<DocumentReference,DocumentReference>();
@@ -1463,6 +1547,16 @@ public class WorkerThread extends Thread
     // Origination times
     protected final Map<String,Long> originationTimes = new HashMap<String,Long>();
 
+    // Documents bound for a batch-capable output connector, once we know whether it is one
+    protected DocumentIngestBuffer ingestBuffer = null;
+    protected boolean ingestBufferChecked = false;
+
+    // The hashes of the documents being processed, so their parent data can be read together
+    protected String[] batchDocumentHashes = null;
+    protected final Set<String> batchDocumentHashSet = new HashSet<String>();
+    // Parent data already read for the batch, keyed by data name and then by document identifier hash
+    protected final Map<String,Map<String,String[]>> batchParentData = new HashMap<String,Map<String,String[]>>();
+
     /** Constructor.
     *@param jobManager is the job manager
     *@param ingester is the ingester
@@ -1472,7 +1566,9 @@ public class WorkerThread extends Thread
       IIncrementalIngester ingester, long currentTime,
       IJobDescription job, IRepositoryConnection connection, IRepositoryConnector connector,
       IRepositoryConnectionManager connMgr, String[] legalLinkTypes, OutputActivity ingestLogger,
-      HashMap abortSet, String outputVersion, String parameterVersion)
+      HashMap abortSet, String outputVersion, String parameterVersion,
+      int ingestBatchMaxDocuments, long ingestBatchMaxBytes, long ingestBatchMaxAge,
+      DocumentAdmission admission, DocumentAdmission.Ticket admissionTicket)
     {
       this.processID = processID;
       this.threadContext = threadContext;
@@ -1489,6 +1585,11 @@ public class WorkerThread extends Thread
       this.abortSet = abortSet;
       this.outputVersion = outputVersion;
       this.parameterVersion = parameterVersion;
+      this.ingestBatchMaxDocuments = ingestBatchMaxDocuments;
+      this.ingestBatchMaxBytes = ingestBatchMaxBytes;
+      this.ingestBatchMaxAge = ingestBatchMaxAge;
+      this.admission = admission;
+      this.admissionTicket = admissionTicket;
     }
 
     /** Clean up any dangling information, before abandoning this process activity object */
@@ -1500,6 +1601,8 @@ public class WorkerThread extends Thread
         dr.discard();
       }
       referenceList.clear();
+      if (ingestBuffer != null)
+        ingestBuffer.discard();
     }
 
     /** Add a document description to the current job's queue.
@@ -1679,7 +1782,22 @@ public class WorkerThread extends Thread
     public String[] retrieveParentData(String localIdentifier, String dataName)
       throws ManifoldCFException
     {
-      return jobManager.retrieveParentData(job.getID(),ManifoldCF.hash(localIdentifier),dataName);
+      String localIdentifierHash = ManifoldCF.hash(localIdentifier);
+      if (!batchDocumentHashSet.contains(localIdentifierHash))
+        return jobManager.retrieveParentData(job.getID(),localIdentifierHash,dataName);
+      // Connectors usually ask for the same data for every document in the batch, so read it for all of them at once
+      Map<String,String[]> documentValues = batchParentData.get(dataName);
+      if (documentValues == null)
+      {
+        String[][] values = jobManager.retrieveParentDataMultiple(job.getID(),batchDocumentHashes,dataName);
+        documentValues = new HashMap<String,String[]>();
+        for (int i = 0; i < batchDocumentHashes.length; i++)
+        {
+          documentValues.put(batchDocumentHashes[i],values[i]);
+        }
+        batchParentData.put(dataName,documentValues);
+      }
+      return documentValues.get(localIdentifierHash);
     }
 
     /** Retrieve data passed from parents to a specified child document.
@@ -1694,6 +1812,20 @@ public class WorkerThread extends Thread
       return jobManager.retrieveParentDataAsFiles(job.getID(),ManifoldCF.hash(localIdentifier),dataName);
     }
 
+    /** Note the documents that are about to be processed with this activity object.
+    *@param documentIdentifierHashes are the hashes of the document identifiers.
+    */
+    public void setBatchDocuments(String[] documentIdentifierHashes)
+    {
+      batchDocumentHashes = documentIdentifierHashes;
+      batchDocumentHashSet.clear();
+      batchParentData.clear();
+      for (String documentIdentifierHash : documentIdentifierHashes)
+      {
+        batchDocumentHashSet.add(documentIdentifierHash);
+      }
+    }
+
     /** Record a document version, but don't ingest it.
     * ServiceInterruption is thrown if this action must be rescheduled.
     *@param documentIdentifier is the document identifier.
@@ -1704,6 +1836,7 @@ public class WorkerThread extends Thread
       throws ManifoldCFException, ServiceInterruption
     {
       String documentIdentifierHash = ManifoldCF.hash(documentIdentifier);
+      flushIngestBuffer();
       ingester.documentRecord(job.getOutputConnectionName(),job.getConnectionName(),documentIdentifierHash,version,currentTime,ingestLogger);
     }
 
@@ -1727,6 +1860,15 @@ public class WorkerThread extends Thread
 
       if (data != null)
       {
+        if (admissionTicket != null && !admission.charge(admissionTicket,documentIdentifierHash,data.getBinaryLength()))
+        {
+          // Too big for what is left of the content budget; try again later, when its size will be reserved up front
+          if (Logging.threads.isDebugEnabled())
+            Logging.threads.debug("Document '"+documentIdentifier+"' does not fit in the content budget; retrying later");
+          abortSet.put(documentIdentifier,documentIdentifier);
+          return;
+        }
+
         Map<String,Set<String>> forcedMetadata = job.getForcedMetadata();
         
         // Modify the repository document with forced parameters.
@@ -1741,7 +1883,20 @@ public class WorkerThread extends Thread
           }
           data.addField(paramName,paramValues);
         }
+
+        if (documentURI != null)
+        {
+          DocumentIngestBuffer buffer = getIngestBuffer();
+          if (buffer != null)
+          {
+            buffer.add(documentIdentifierHash,version,documentURI,data);
+            return;
+          }
+        }
       }
+
+      // Anything buffered must go first, to keep things in order
+      flushIngestBuffer();
         
       // First, we need to add into the metadata the stuff from the job description.
       ingester.documentIngest(job.getOutputConnectionName(),
@@ -1780,6 +1935,7 @@ public class WorkerThread extends Thread
       throws ManifoldCFException, ServiceInterruption
     {
       String documentIdentifierHash = ManifoldCF.hash(documentIdentifier);
+      flushIngestBuffer();
       ingester.documentDelete(job.getOutputConnectionName(),
         job.getConnectionName(),documentIdentifierHash,
         ingestLogger);
@@ -1964,11 +2120,41 @@ public class WorkerThread extends Thread
     /** Flush the outstanding references into the database.
     */
     public void flush()
-      throws ManifoldCFException
+      throws ManifoldCFException, ServiceInterruption
     {
+      flushIngestBuffer();
       processDocumentReferences();
     }
 
+    /** Get the ingest buffer, if the output connection can take documents in groups.
+    *@return the buffer, or null if documents should be ingested one at a time.
+    */
+    protected DocumentIngestBuffer getIngestBuffer()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      if (!ingestBufferChecked)
+      {
+        int batchSize = ingester.getMaxDocumentBatchSize(job.getOutputConnectionName(),outputVersion);
+        if (batchSize > ingestBatchMaxDocuments)
+          batchSize = ingestBatchMaxDocuments;
+        if (batchSize > 1)
+          ingestBuffer = new DocumentIngestBuffer(ingester,job.getOutputConnectionName(),job.getConnectionName(),
+            outputVersion,parameterVersion,connection.getACLAuthority(),currentTime,ingestLogger,
+            batchSize,ingestBatchMaxBytes,ingestBatchMaxAge);
+        ingestBufferChecked = true;
+      }
+      return ingestBuffer;
+    }
+
+    /** Send any buffered documents to the output connection.
+    */
+    protected void flushIngestBuffer()
+      throws ManifoldCFException, ServiceInterruption
+    {
+      if (ingestBuffer != null)
+        ingestBuffer.flush();
+    }
+
     /** Process outstanding document references, in batch.
     */
     protected void processDocumentReferences()
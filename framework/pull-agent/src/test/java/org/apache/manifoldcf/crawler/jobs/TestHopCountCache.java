@@ -0,0 +1,201 @@
+/* $Id$ */
+
+/**
+* Licensed to the Apache Software Foundation (ASF) under one or more
+* contributor license agreements. See the NOTICE file distributed with
+* this work for additional information regarding copyright ownership.
+* The ASF licenses this file to You under the Apache License, Version 2.0
+* (the "License"); you may not use this file except in compliance with
+* the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.manifoldcf.crawler.jobs;
+
+import java.util.*;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TestHopCountCache
+{
+
+  @Test
+  public void lookupLoadTest()
+    throws Exception
+  {
+    HopCountCache cache = new HopCountCache();
+    Long jobID = new Long(1L);
+    assertFalse(cache.isEnabled());
+    // Nothing is kept while the cache is disabled
+    load(cache,jobID,"link",0,10);
+    assertEquals(0,lookup(cache,jobID,"link",0,10));
+
+    cache.setMaxEntries(1000);
+    assertTrue(cache.isEnabled());
+    load(cache,jobID,"link",0,10);
+    String[] hashes = new String[]{hash(3),hash(12),"notahash"};
+    int[] distances = new int[3];
+    assertEquals(1,cache.lookup(jobID,"link",hashes,distances));
+    assertEquals(3,distances[0]);
+    assertEquals(HopCountCache.MISSING,distances[1]);
+    assertEquals(HopCountCache.MISSING,distances[2]);
+    // Link types and jobs are kept apart
+    assertEquals(0,lookup(cache,jobID,"other",0,10));
+    assertEquals(0,lookup(cache,new Long(2L),"link",0,10));
+  }
+
+  @Test
+  public void invalidationTest()
+    throws Exception
+  {
+    HopCountCache cache = new HopCountCache();
+    cache.setMaxEntries(1000);
+    Long jobID = new Long(1L);
+    Long otherJobID = new Long(2L);
+    load(cache,jobID,"link",0,10);
+    load(cache,otherJobID,"link",0,10);
+
+    cache.invalidate(jobID,"link",hash(4));
+    int[] distances = new int[10];
+    assertEquals(9,cache.lookup(jobID,"link",hashes(0,10),distances));
+    assertEquals(HopCountCache.MISSING,distances[4]);
+    assertEquals(5,distances[5]);
+
+    cache.invalidateJob(jobID);
+    assertEquals(0,lookup(cache,jobID,"link",0,10));
+    assertEquals(10,lookup(cache,otherJobID,"link",0,10));
+  }
+
+  @Test
+  public void staleLoadTest()
+    throws Exception
+  {
+    HopCountCache cache = new HopCountCache();
+    cache.setMaxEntries(1000);
+    Long jobID = new Long(1L);
+
+    // A reader takes its stamp, then a change races in before it loads what it read
+    long stamp = cache.getLoadStamp(jobID);
+    cache.invalidate(jobID,"link",hash(1));
+    cache.load(jobID,stamp,"link",Arrays.asList(hash(1)),Arrays.asList(new Integer(1)));
+    assertEquals(0,lookup(cache,jobID,"link",1,2));
+
+    // Same for a whole-job change
+    stamp = cache.getLoadStamp(jobID);
+    cache.invalidateJob(jobID);
+    cache.load(jobID,stamp,"link",Arrays.asList(hash(1)),Arrays.asList(new Integer(1)));
+    assertEquals(0,lookup(cache,jobID,"link",1,2));
+
+    // Nothing can be loaded while a writer is open, nor with a stamp taken before it ended
+    cache.writeStarted(jobID);
+    assertEquals(-1L,cache.getLoadStamp(jobID));
+    cache.writeEnded(jobID);
+    long oldStamp = cache.getLoadStamp(jobID);
+    cache.writeStarted(jobID);
+    cache.writeEnded(jobID);
+    cache.load(jobID,oldStamp,"link",Arrays.asList(hash(1)),Arrays.asList(new Integer(1)));
+    assertEquals(0,lookup(cache,jobID,"link",1,2));
+
+    // A fresh stamp works
+    load(cache,jobID,"link",1,2);
+    assertEquals(1,lookup(cache,jobID,"link",1,2));
+  }
+
+  @Test
+  public void growthEvictionTest()
+    throws Exception
+  {
+    HopCountCache cache = new HopCountCache();
+    cache.setMaxEntries(5000);
+    Long jobID = new Long(1L);
+    Long otherJobID = new Long(2L);
+
+    // Well past the initial table size
+    load(cache,jobID,"link",0,4000);
+    assertEquals(4000,lookup(cache,jobID,"link",0,4000));
+    // Removing every other entry must leave the rest reachable
+    for (int i = 0; i < 4000; i += 2)
+    {
+      cache.invalidate(jobID,"link",hash(i));
+    }
+    int[] distances = new int[4000];
+    assertEquals(2000,cache.lookup(jobID,"link",hashes(0,4000),distances));
+    for (int i = 0; i < 4000; i++)
+    {
+      if (i % 2 == 0)
+        assertEquals(HopCountCache.MISSING,distances[i]);
+      else
+        assertEquals(i,distances[i]);
+    }
+
+    // 2000 kept plus 2000 more fits
+    load(cache,otherJobID,"link",0,2000);
+    assertEquals(2000,lookup(cache,jobID,"link",0,4000));
+    assertEquals(2000,lookup(cache,otherJobID,"link",0,2000));
+
+    // Going over the limit throws away what was kept
+    load(cache,otherJobID,"other",0,2000);
+    assertEquals(0,lookup(cache,jobID,"link",0,4000));
+    assertEquals(0,lookup(cache,otherJobID,"link",0,2000));
+    assertEquals(2000,lookup(cache,otherJobID,"other",0,2000));
+
+    // A load larger than the limit is not kept at all
+    load(cache,jobID,"link",0,6000);
+    assertEquals(0,lookup(cache,jobID,"link",0,6000));
+
+    // Changing the limit throws everything away
+    cache.setMaxEntries(10000);
+    assertEquals(0,lookup(cache,otherJobID,"other",0,2000));
+  }
+
+  /** Load distances i for hashes start..end-1 with a fresh stamp */
+  protected static void load(HopCountCache cache, Long jobID, String linkType, int start, int end)
+  {
+    long stamp = cache.getLoadStamp(jobID);
+    List<String> hashList = new ArrayList<String>();
+    List<Integer> distanceList = new ArrayList<Integer>();
+    for (int i = start; i < end; i++)
+    {
+      hashList.add(hash(i));
+      distanceList.add(new Integer(i));
+    }
+    cache.load(jobID,stamp,linkType,hashList,distanceList);
+  }
+
+  /** Count the distances found for hashes start..end-1, checking that each found one is right */
+  protected static int lookup(HopCountCache cache, Long jobID, String linkType, int start, int end)
+  {
+    int[] distances = new int[end-start];
+    int found = cache.lookup(jobID,linkType,hashes(start,end),distances);
+    for (int i = 0; i < distances.length; i++)
+    {
+      if (distances[i] != HopCountCache.MISSING)
+        assertEquals(start+i,distances[i]);
+    }
+    return found;
+  }
+
+  protected static String[] hashes(int start, int end)
+  {
+    String[] rval = new String[end-start];
+    for (int i = start; i < end; i++)
+    {
+      rval[i-start] = hash(i);
+    }
+    return rval;
+  }
+
+  /** Make a 40-hex-digit hash; the value is spread over all of it so the table's hash sees every part */
+  protected static String hash(int i)
+  {
+    long x = (long)i * 0x9E3779B97F4A7C15L;
+    return String.format("%016x%016x%08x",x,Long.reverse(x),i);
+  }
+
+}